@@ -0,0 +1,184 @@
+package com.migu.player;
+
+import android.content.Context;
+import android.os.ConditionVariable;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.migu.player.extractor.DefaultExtractorsFactory;
+import com.migu.player.source.MediaSource;
+import com.migu.player.source.MediaSourceCache;
+import com.migu.player.source.ProgressiveMediaSource;
+import com.migu.player.upstream.ByteArrayDataSource;
+import com.migu.player.upstream.DataSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @Description 文件描述：起播耗时测试，需要在设备上运行
+ *
+ * 分别测量三种方式从创建或取出播放器到开始播放(onIsPlayingChanged(true))的耗时：
+ * 冷启动：每次新建SimpleExoPlayer并重新创建MediaSource（ExoBytePlayer原来的做法）
+ * 播放器池：从SimpleExoPlayerPool取播放器，重新创建MediaSource
+ * 播放器池+缓存：从SimpleExoPlayerPool取播放器，从MediaSourceCache取已准备好的MediaSource，在几条音频之间来回切换
+ *
+ * MediaSourceCache的MediaSource只能由同一播放线程的播放器播放，所以没有单独使用缓存的情况
+ * 结果通过Log输出
+ */
+@RunWith(AndroidJUnit4.class)
+public class PlayerStartupBenchmarkTest {
+    private static final String TAG = "benchmark+++";
+    private static final int ROUNDS = 10;
+    /** 使用缓存时来回切换的音频条数 */
+    private static final int ITEM_COUNT = 2;
+    private static final long TIMEOUT_MS = 10000;
+
+    private Context context;
+    private byte[] wavData;
+    private SimpleExoPlayerPool playerPool;
+    private MediaSourceCache mediaSourceCache;
+
+    private SimpleExoPlayer player;
+    private Player.EventListener listener;
+    private volatile long startTimeMs;
+    private volatile long playingTimeMs;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        // 0.5秒静音，16k采样，单声道16位
+        byte[] pcmData = new byte[16000];
+        wavData = ByteUtil.byteMerger(ByteUtil.writeHeader(pcmData.length), pcmData);
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                playerPool = new SimpleExoPlayerPool(context);
+                playerPool.warmUp(SimpleExoPlayerPool.DEFAULT_MAX_IDLE_PLAYER_COUNT);
+                mediaSourceCache = new MediaSourceCache(
+                        new ProgressiveMediaSource.Factory(createDataSourceFactory(),
+                                new DefaultExtractorsFactory()),
+                        playerPool.getPlaybackLooper());
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mediaSourceCache.clear();
+                playerPool.release();
+            }
+        });
+    }
+
+    @Test
+    public void measureTimeToPlaying() {
+        // 预热：JIT编译，以及让缓存中的每条音频都准备好
+        measureTimeToPlayingMs(/* usePool= */ false, /* useCache= */ false, /* round= */ 0);
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            measureTimeToPlayingMs(/* usePool= */ true, /* useCache= */ true, i);
+        }
+        int reusedPeriodCountBefore = mediaSourceCache.getReusedPeriodCount();
+
+        long[] coldTimesMs = new long[ROUNDS];
+        long[] poolTimesMs = new long[ROUNDS];
+        long[] poolAndCacheTimesMs = new long[ROUNDS];
+        // 三种方式交替进行，避免设备状态变化只影响其中一种
+        for (int round = 0; round < ROUNDS; round++) {
+            coldTimesMs[round] = measureTimeToPlayingMs(false, false, round);
+            poolTimesMs[round] = measureTimeToPlayingMs(true, false, round);
+            poolAndCacheTimesMs[round] = measureTimeToPlayingMs(true, true, round);
+        }
+        Log.e(TAG, "冷启动: " + format(coldTimesMs));
+        Log.e(TAG, "播放器池: " + format(poolTimesMs));
+        Log.e(TAG, "播放器池+缓存: " + format(poolAndCacheTimesMs)
+                + ", 复用MediaPeriod次数: "
+                + (mediaSourceCache.getReusedPeriodCount() - reusedPeriodCountBefore));
+        assertTrue(mediaSourceCache.getReusedPeriodCount() > reusedPeriodCountBefore);
+        assertTrue(playerPool.getReusedPlayerCount() > 0);
+    }
+
+    private long measureTimeToPlayingMs(
+            final boolean usePool, final boolean useCache, final int round) {
+        final ConditionVariable playing = new ConditionVariable();
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                startTimeMs = SystemClock.elapsedRealtime();
+                player = usePool ? playerPool.acquire()
+                        : new SimpleExoPlayer.Builder(context).build();
+                MediaSource mediaSource;
+                if (useCache) {
+                    MediaItem mediaItem = MediaItem.fromUri("benchmark://" + round % ITEM_COUNT);
+                    mediaSource = mediaSourceCache.getMediaSource(mediaItem);
+                } else {
+                    mediaSource = new ProgressiveMediaSource.Factory(createDataSourceFactory(),
+                            new DefaultExtractorsFactory())
+                            .createMediaSource(MediaItem.fromUri("benchmark://"));
+                }
+                listener = new Player.EventListener() {
+                    @Override
+                    public void onIsPlayingChanged(boolean isPlaying) {
+                        if (isPlaying) {
+                            playingTimeMs = SystemClock.elapsedRealtime();
+                            playing.open();
+                        }
+                    }
+                };
+                player.addListener(listener);
+                player.setMediaSource(mediaSource);
+                player.prepare();
+                player.play();
+            }
+        });
+        boolean started = playing.block(TIMEOUT_MS);
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                player.removeListener(listener);
+                if (usePool) {
+                    playerPool.release(player);
+                } else {
+                    player.release();
+                }
+                player = null;
+                listener = null;
+            }
+        });
+        assertTrue(started);
+        return playingTimeMs - startTimeMs;
+    }
+
+    private DataSource.Factory createDataSourceFactory() {
+        return new DataSource.Factory() {
+            @Override
+            public DataSource createDataSource() {
+                return new ByteArrayDataSource(wavData);
+            }
+        };
+    }
+
+    private static String format(long[] timesMs) {
+        long totalMs = 0;
+        long maxMs = 0;
+        for (long timeMs : timesMs) {
+            totalMs += timeMs;
+            maxMs = Math.max(maxMs, timeMs);
+        }
+        return "平均" + totalMs / timesMs.length + "ms, 最大" + maxMs + "ms";
+    }
+
+    private static void runOnMainSync(Runnable runnable) {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(runnable);
+    }
+}
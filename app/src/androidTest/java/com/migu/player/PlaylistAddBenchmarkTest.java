@@ -0,0 +1,164 @@
+package com.migu.player;
+
+import android.os.ConditionVariable;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+import android.util.Printer;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.migu.player.source.ConcatenatingMediaSource;
+import com.migu.player.source.MediaSource;
+import com.migu.player.source.SilenceMediaSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @Description 文件描述：播放列表逐条添加耗时测试，需要在设备上运行
+ *
+ * 模拟ExoByteListPlayer逐句添加音频的做法，测量ConcatenatingMediaSource每添加一条时播放线程的耗时：
+ * 连续添加：逐条调用addMediaSource，不等待，播放线程未处理的添加会合并到同一条消息
+ * 逐条等待：每次添加后等待回调，播放线程每条都单独处理一条消息并刷新一次Timeline
+ *
+ * 播放线程的耗时通过Looper的消息日志统计每条消息的处理时间，结果通过Log输出
+ */
+@RunWith(AndroidJUnit4.class)
+public class PlaylistAddBenchmarkTest {
+    private static final String TAG = "benchmark+++";
+    private static final int[] ITEM_COUNTS = {100, 1000, 10000};
+    private static final long TIMEOUT_MS = 60000;
+
+    private HandlerThread playbackThread;
+    private Handler playbackHandler;
+    private Handler callbackHandler;
+
+    private ConcatenatingMediaSource mediaSource;
+    private MediaSource.MediaSourceCaller caller;
+    private volatile Timeline timeline;
+    private volatile int timelineUpdateCount;
+
+    /** 以下只在播放线程访问 */
+    private long dispatchStartTimeNs;
+    private long dispatchTimeNs;
+    private int dispatchCount;
+
+    @Before
+    public void setUp() {
+        playbackThread = new HandlerThread("PlaylistAddBenchmark");
+        playbackThread.start();
+        playbackThread.getLooper().setMessageLogging(new Printer() {
+            @Override
+            public void println(String x) {
+                if (x.startsWith(">>>>>")) {
+                    dispatchStartTimeNs = System.nanoTime();
+                } else if (x.startsWith("<<<<<")) {
+                    dispatchTimeNs += System.nanoTime() - dispatchStartTimeNs;
+                    dispatchCount++;
+                }
+            }
+        });
+        playbackHandler = new Handler(playbackThread.getLooper());
+        callbackHandler = new Handler(Looper.getMainLooper());
+    }
+
+    @After
+    public void tearDown() {
+        playbackThread.quit();
+    }
+
+    @Test
+    public void measurePlaybackThreadTimePerAdd() {
+        // 预热：JIT编译
+        measure(ITEM_COUNTS[0], /* waitForEachAdd= */ false);
+        measure(ITEM_COUNTS[0], /* waitForEachAdd= */ true);
+
+        for (int itemCount : ITEM_COUNTS) {
+            Log.e(TAG, itemCount + "条, 连续添加: " + measure(itemCount, false));
+            Log.e(TAG, itemCount + "条, 逐条等待: " + measure(itemCount, true));
+        }
+    }
+
+    private String measure(int itemCount, boolean waitForEachAdd) {
+        prepare();
+        final ConditionVariable added = new ConditionVariable();
+        Runnable onAdded = new Runnable() {
+            @Override
+            public void run() {
+                added.open();
+            }
+        };
+        for (int i = 0; i < itemCount; i++) {
+            MediaSource silence = new SilenceMediaSource(/* durationUs= */ 1000000);
+            if (waitForEachAdd || i == itemCount - 1) {
+                added.close();
+                mediaSource.addMediaSource(silence, callbackHandler, onAdded);
+                assertTrue(added.block(TIMEOUT_MS));
+            } else {
+                mediaSource.addMediaSource(silence);
+            }
+        }
+        final long[] result = new long[2];
+        runOnPlaybackThread(new Runnable() {
+            @Override
+            public void run() {
+                // 不计入本条消息
+                result[0] = dispatchTimeNs;
+                result[1] = dispatchCount;
+                mediaSource.releaseSource(caller);
+            }
+        });
+        assertEquals(itemCount, timeline.getWindowCount());
+        return "播放线程每条平均" + result[0] / itemCount / 1000 + "us, 共" + result[0] / 1000000
+                + "ms, 处理消息" + result[1] + "条, 刷新Timeline" + timelineUpdateCount + "次";
+    }
+
+    /** 在播放线程准备一个空的ConcatenatingMediaSource，并清零统计 */
+    private void prepare() {
+        timeline = null;
+        timelineUpdateCount = 0;
+        runOnPlaybackThread(new Runnable() {
+            @Override
+            public void run() {
+                mediaSource = new ConcatenatingMediaSource();
+                caller = new MediaSource.MediaSourceCaller() {
+                    @Override
+                    public void onSourceInfoRefreshed(MediaSource source, Timeline timeline) {
+                        PlaylistAddBenchmarkTest.this.timeline = timeline;
+                        timelineUpdateCount++;
+                    }
+                };
+                mediaSource.prepareSource(caller, /* mediaTransferListener= */ null);
+            }
+        });
+        // 等待准备时发出的消息处理完
+        runOnPlaybackThread(new Runnable() {
+            @Override
+            public void run() {
+                timelineUpdateCount = 0;
+                // 本条消息处理完时会再累加一次，从现在开始计算
+                dispatchTimeNs = dispatchStartTimeNs - System.nanoTime();
+                dispatchCount = -1;
+            }
+        });
+    }
+
+    private void runOnPlaybackThread(final Runnable runnable) {
+        final ConditionVariable done = new ConditionVariable();
+        playbackHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                runnable.run();
+                done.open();
+            }
+        });
+        assertTrue(done.block(TIMEOUT_MS));
+    }
+}
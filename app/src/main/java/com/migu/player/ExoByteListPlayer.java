@@ -6,15 +6,20 @@ import android.support.annotation.Nullable;
 import android.util.Log;
 
 
+import com.migu.player.drm.DrmSessionManager;
 import com.migu.player.extractor.DefaultExtractorsFactory;
 import com.migu.player.source.ConcatenatingMediaSource;
-import com.migu.player.source.ExtractorMediaSource;
 import com.migu.player.source.MaskingMediaSource;
 import com.migu.player.source.MediaSource;
+import com.migu.player.source.MediaSourceCache;
+import com.migu.player.source.MediaSourceFactory;
+import com.migu.player.source.ProgressiveMediaSource;
 import com.migu.player.source.TrackGroupArray;
 import com.migu.player.trackselection.TrackSelectionArray;
 import com.migu.player.upstream.ByteArrayDataSource;
 import com.migu.player.upstream.DataSource;
+import com.migu.player.upstream.HttpDataSource;
+import com.migu.player.upstream.LoadErrorHandlingPolicy;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -36,13 +41,25 @@ public class ExoByteListPlayer implements Player.EventListener {
     private Map<String, MediaSource> playMap = new HashMap<>();
     private Handler handler = new Handler();
     ConcatenatingMediaSource mediaSourceList ;
+    /** 缓存已准备好的MediaSource，重播时不用重新解析音频 */
+    private MediaSourceCache mediaSourceCache;
     public ExoByteListPlayer() {
-        simpleExoPlayer = new SimpleExoPlayer.Builder(MyApplication.context).build();
+        simpleExoPlayer = MyApplication.playerPool.acquire();
         simpleExoPlayer.addListener(this);
         mediaSourceList = new ConcatenatingMediaSource();
+        // 缓存的MediaSource只能由同一播放线程的播放器播放，所以使用播放器池的播放线程
+        mediaSourceCache = new MediaSourceCache(
+                new ByteMediaSourceFactory(), MyApplication.playerPool.getPlaybackLooper());
     }
     public void prepareDataSource(byte[] data,String content){
-        MediaSource mediaSource = createMediaSource(data);
+        // 音频数据放在tag里，由ByteMediaSourceFactory取出
+        MediaItem mediaItem = new MediaItem.Builder()
+                .setUri(Uri.EMPTY)
+                .setMediaId(content)
+                .setTag(data)
+                .build();
+        // 合成完成后就开始准备，播放到这一条时不用再等待解析
+        MediaSource mediaSource = mediaSourceCache.preload(mediaItem);
         Log.e("id+++","创建的id为: "+ mediaSource.toString());
         playMap.put(mediaSource.toString(),mediaSource);
         showMap.put(mediaSource.toString(),content);
@@ -52,18 +69,62 @@ public class ExoByteListPlayer implements Player.EventListener {
         simpleExoPlayer.prepare(mediaSourceList);
         simpleExoPlayer.play();
     }
-    private MediaSource createMediaSource(byte[] data) {
-        final ByteArrayDataSource byteArrayDataSource = new ByteArrayDataSource(data);
-        DataSource.Factory dataSourceFactory = new DataSource.Factory() {
-            @Override
-            public DataSource createDataSource() {
-                return byteArrayDataSource;
-            }
-        };
-        MediaSource mediaSource = new ExtractorMediaSource.Factory(dataSourceFactory)
-                .setExtractorsFactory(new DefaultExtractorsFactory())
-                .createMediaSource(Uri.EMPTY);
-        return mediaSource;
+
+    public void release() {
+        if (simpleExoPlayer == null) {
+            return;
+        }
+        // 移除监听后归还播放器池，供下次起播复用
+        simpleExoPlayer.removeListener(this);
+        MyApplication.playerPool.release(simpleExoPlayer);
+        simpleExoPlayer = null;
+        mediaSourceCache.clear();
+    }
+
+    /**
+     * 根据MediaItem的tag中的音频数据创建MediaSource
+     */
+    private static class ByteMediaSourceFactory implements MediaSourceFactory {
+        @Override
+        public MediaSourceFactory setDrmSessionManager(@Nullable DrmSessionManager drmSessionManager) {
+            return this;
+        }
+
+        @Override
+        public MediaSourceFactory setDrmHttpDataSourceFactory(
+                @Nullable HttpDataSource.Factory drmHttpDataSourceFactory) {
+            return this;
+        }
+
+        @Override
+        public MediaSourceFactory setDrmUserAgent(@Nullable String userAgent) {
+            return this;
+        }
+
+        @Override
+        public MediaSourceFactory setLoadErrorHandlingPolicy(
+                @Nullable LoadErrorHandlingPolicy loadErrorHandlingPolicy) {
+            return this;
+        }
+
+        @Override
+        public int[] getSupportedTypes() {
+            return new int[] {C.TYPE_OTHER};
+        }
+
+        @Override
+        public MediaSource createMediaSource(MediaItem mediaItem) {
+            final byte[] data = (byte[]) mediaItem.playbackProperties.tag;
+            // 预加载的MediaPeriod和播放器创建的MediaPeriod可能同时读取，每次都创建新的DataSource
+            DataSource.Factory dataSourceFactory = new DataSource.Factory() {
+                @Override
+                public DataSource createDataSource() {
+                    return new ByteArrayDataSource(data);
+                }
+            };
+            return new ProgressiveMediaSource.Factory(dataSourceFactory, new DefaultExtractorsFactory())
+                    .createMediaSource(mediaItem);
+        }
     }
 
 
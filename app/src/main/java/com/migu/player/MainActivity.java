@@ -85,4 +85,10 @@ public class MainActivity extends AppCompatActivity {
     public void initPlayer(){
         exoByteListPlayer = new ExoByteListPlayer();
     }
+
+    @Override
+    protected void onDestroy() {
+        exoByteListPlayer.release();
+        super.onDestroy();
+    }
 }
@@ -11,9 +11,13 @@ import android.content.Context;
 
 public class MyApplication extends Application {
     public static Context context;
+    /** 预先创建好的播放器池，避免起播时再创建播放器 */
+    public static SimpleExoPlayerPool playerPool;
     @Override
     public void onCreate() {
         super.onCreate();
         context = this;
+        playerPool = new SimpleExoPlayerPool(this);
+        playerPool.warmUp(SimpleExoPlayerPool.DEFAULT_MAX_IDLE_PLAYER_COUNT);
     }
 }
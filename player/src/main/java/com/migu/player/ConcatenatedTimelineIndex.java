@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.migu.player;
+
+import android.support.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An immutable index of the children of an {@link AbstractConcatenatedTimeline}. Window and period
+ * indices are resolved to children by binary search over the prefix sums of the child window and
+ * period counts, and child UIDs are resolved through a hash map.
+ *
+ * <p>Instances are created by a {@link Builder}, which keeps its storage between builds. Leading
+ * children whose UID and timeline are unchanged since the previous build are not processed again,
+ * so that appending children to a playlist, or updating the timeline of one of its last children,
+ * only costs the work for those children. Storage that may be read by a previously built index is
+ * never written to, so built indices can be read from any thread.
+ */
+public final class ConcatenatedTimelineIndex {
+
+  /**
+   * Builds {@link ConcatenatedTimelineIndex} instances, reusing the work done for previous builds.
+   *
+   * <p>The children of each index are passed to {@link #add(Object, Timeline)} in order, followed
+   * by a call to {@link #build()}. Instances are not thread-safe.
+   */
+  public static final class Builder {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private Timeline[] timelines;
+    private Object[] uids;
+    private int[] firstWindowIndices;
+    private int[] firstPeriodIndices;
+    private ConcurrentHashMap<Object, Integer> childIndexByUid;
+    // The number of children stored in the arrays that match those added since the last build.
+    private int childCount;
+    // The number of children that built indices may read from the current arrays.
+    private int sharedChildCount;
+    // The number of map entries for children that are no longer stored.
+    private int staleUidCount;
+    // Whether multiple stored children have the same UID, in which case the map needs rebuilding
+    // for every build, as removing the child a UID maps to may uncover another child.
+    private boolean hasDuplicateUids;
+    private int addedChildCount;
+
+    /** Creates an instance. */
+    public Builder() {
+      reset();
+    }
+
+    /** Discards all stored children, so that the next build starts from scratch. */
+    public void reset() {
+      timelines = new Timeline[INITIAL_CAPACITY];
+      uids = new Object[INITIAL_CAPACITY];
+      firstWindowIndices = new int[INITIAL_CAPACITY];
+      firstPeriodIndices = new int[INITIAL_CAPACITY];
+      childIndexByUid = new ConcurrentHashMap<>();
+      childCount = 0;
+      sharedChildCount = 0;
+      staleUidCount = 0;
+      hasDuplicateUids = false;
+      addedChildCount = 0;
+    }
+
+    /**
+     * Adds the next child of the index being built.
+     *
+     * @param uid The UID of the child.
+     * @param timeline The timeline of the child.
+     * @return This builder.
+     */
+    public Builder add(Object uid, Timeline timeline) {
+      int childIndex = addedChildCount++;
+      if (childIndex < childCount
+          && timelines[childIndex] == timeline
+          && uids[childIndex].equals(uid)) {
+        // Unchanged since the previous build.
+        return this;
+      }
+      truncate(childIndex);
+      if (childIndex == timelines.length || childIndex < sharedChildCount) {
+        copyArrays(childIndex, childIndex == timelines.length ? childIndex * 2 : timelines.length);
+      }
+      timelines[childIndex] = timeline;
+      uids[childIndex] = uid;
+      if (childIndex == 0) {
+        firstWindowIndices[0] = 0;
+        firstPeriodIndices[0] = 0;
+      } else {
+        Timeline previousTimeline = timelines[childIndex - 1];
+        firstWindowIndices[childIndex] =
+            firstWindowIndices[childIndex - 1] + previousTimeline.getWindowCount();
+        firstPeriodIndices[childIndex] =
+            firstPeriodIndices[childIndex - 1] + previousTimeline.getPeriodCount();
+      }
+      @Nullable Integer previousChildIndex = childIndexByUid.get(uid);
+      if (previousChildIndex == null) {
+        childIndexByUid.put(uid, childIndex);
+      } else if (previousChildIndex != childIndex) {
+        // The UID has moved, but previously built indices may still rely on its old entry.
+        rebuildChildIndexByUid(childIndex);
+        if (childIndexByUid.put(uid, childIndex) != null) {
+          hasDuplicateUids = true;
+        }
+      }
+      childCount++;
+      return this;
+    }
+
+    /**
+     * Builds an index of the children added since the previous build.
+     *
+     * @return The built index.
+     */
+    public ConcatenatedTimelineIndex build() {
+      truncate(addedChildCount);
+      addedChildCount = 0;
+      if (hasDuplicateUids || staleUidCount > Math.max(childCount, INITIAL_CAPACITY)) {
+        rebuildChildIndexByUid(childCount);
+      }
+      sharedChildCount = Math.max(sharedChildCount, childCount);
+      return new ConcatenatedTimelineIndex(
+          timelines, uids, firstWindowIndices, firstPeriodIndices, childIndexByUid, childCount);
+    }
+
+    private void truncate(int newChildCount) {
+      if (newChildCount < childCount) {
+        staleUidCount += childCount - newChildCount;
+        // Release the timelines that aren't readable by built indices.
+        int releaseFromIndex = Math.max(newChildCount, sharedChildCount);
+        if (releaseFromIndex < childCount) {
+          Arrays.fill(timelines, releaseFromIndex, childCount, null);
+        }
+        childCount = newChildCount;
+      }
+    }
+
+    private void copyArrays(int copyLength, int newCapacity) {
+      Timeline[] newTimelines = new Timeline[newCapacity];
+      Object[] newUids = new Object[newCapacity];
+      int[] newFirstWindowIndices = new int[newCapacity];
+      int[] newFirstPeriodIndices = new int[newCapacity];
+      System.arraycopy(timelines, 0, newTimelines, 0, copyLength);
+      System.arraycopy(uids, 0, newUids, 0, copyLength);
+      System.arraycopy(firstWindowIndices, 0, newFirstWindowIndices, 0, copyLength);
+      System.arraycopy(firstPeriodIndices, 0, newFirstPeriodIndices, 0, copyLength);
+      timelines = newTimelines;
+      uids = newUids;
+      firstWindowIndices = newFirstWindowIndices;
+      firstPeriodIndices = newFirstPeriodIndices;
+      sharedChildCount = 0;
+    }
+
+    private void rebuildChildIndexByUid(int childCount) {
+      childIndexByUid = new ConcurrentHashMap<>();
+      hasDuplicateUids = false;
+      for (int i = 0; i < childCount; i++) {
+        if (childIndexByUid.put(uids[i], i) != null) {
+          hasDuplicateUids = true;
+        }
+      }
+      staleUidCount = 0;
+    }
+  }
+
+  private final Timeline[] timelines;
+  private final Object[] uids;
+  private final int[] firstWindowIndices;
+  private final int[] firstPeriodIndices;
+  private final ConcurrentHashMap<Object, Integer> childIndexByUid;
+  private final int childCount;
+  private final int windowCount;
+  private final int periodCount;
+
+  private ConcatenatedTimelineIndex(
+      Timeline[] timelines,
+      Object[] uids,
+      int[] firstWindowIndices,
+      int[] firstPeriodIndices,
+      ConcurrentHashMap<Object, Integer> childIndexByUid,
+      int childCount) {
+    this.timelines = timelines;
+    this.uids = uids;
+    this.firstWindowIndices = firstWindowIndices;
+    this.firstPeriodIndices = firstPeriodIndices;
+    this.childIndexByUid = childIndexByUid;
+    this.childCount = childCount;
+    if (childCount == 0) {
+      windowCount = 0;
+      periodCount = 0;
+    } else {
+      Timeline lastTimeline = timelines[childCount - 1];
+      windowCount = firstWindowIndices[childCount - 1] + lastTimeline.getWindowCount();
+      periodCount = firstPeriodIndices[childCount - 1] + lastTimeline.getPeriodCount();
+    }
+  }
+
+  /** Returns the number of children. */
+  public int getChildCount() {
+    return childCount;
+  }
+
+  /** Returns the total number of windows of all children. */
+  public int getWindowCount() {
+    return windowCount;
+  }
+
+  /** Returns the total number of periods of all children. */
+  public int getPeriodCount() {
+    return periodCount;
+  }
+
+  /** Returns the index of the child containing the period with the specified index. */
+  public int getChildIndexByPeriodIndex(int periodIndex) {
+    return findLastChildIndexAtOrBefore(firstPeriodIndices, periodIndex);
+  }
+
+  /** Returns the index of the child containing the window with the specified index. */
+  public int getChildIndexByWindowIndex(int windowIndex) {
+    return findLastChildIndexAtOrBefore(firstWindowIndices, windowIndex);
+  }
+
+  /**
+   * Returns the index of the child with the specified UID, or {@link C#INDEX_UNSET} if there is no
+   * such child.
+   */
+  public int getChildIndexByChildUid(Object childUid) {
+    @Nullable Integer childIndex = childIndexByUid.get(childUid);
+    // The map may be shared with indices built later, whose entries need to be ignored.
+    return childIndex == null || childIndex >= childCount || !uids[childIndex].equals(childUid)
+        ? C.INDEX_UNSET
+        : childIndex;
+  }
+
+  /** Returns the timeline of the child with the specified index. */
+  public Timeline getTimeline(int childIndex) {
+    return timelines[childIndex];
+  }
+
+  /** Returns the UID of the child with the specified index. */
+  public Object getUid(int childIndex) {
+    return uids[childIndex];
+  }
+
+  /** Returns the index of the first window of the child with the specified index. */
+  public int getFirstWindowIndex(int childIndex) {
+    return firstWindowIndices[childIndex];
+  }
+
+  /** Returns the index of the first period of the child with the specified index. */
+  public int getFirstPeriodIndex(int childIndex) {
+    return firstPeriodIndices[childIndex];
+  }
+
+  /** Returns the timelines of all children. */
+  public List<Timeline> getTimelines() {
+    return Collections.unmodifiableList(Arrays.asList(timelines).subList(0, childCount));
+  }
+
+  /**
+   * Returns the largest child index whose first index in {@code firstIndices} is less than or equal
+   * to {@code index}, or -1 if there is no such child.
+   */
+  private int findLastChildIndexAtOrBefore(int[] firstIndices, int index) {
+    int low = 0;
+    int high = childCount - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (firstIndices[mid] <= index) {
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return high;
+  }
+}
@@ -71,6 +71,18 @@ public class DefaultLoadControl implements LoadControl {
   /** The default for whether the back buffer is retained from the previous keyframe. */
   public static final boolean DEFAULT_RETAIN_BACK_BUFFER_FROM_KEYFRAME = false;
 
+  /** The default maximum number of preloaded periods of upcoming playlist items. */
+  public static final int DEFAULT_MAX_PRELOADED_PERIOD_COUNT = 0;
+
+  /** The default duration of media to buffer for each preloaded period, in milliseconds. */
+  public static final int DEFAULT_PRELOAD_DURATION_MS = 5000;
+
+  /**
+   * The default buffer size in bytes above which preloaded periods stop loading. The value ({@link
+   * C#LENGTH_UNSET}) means that the load control will use half of the target buffer size.
+   */
+  public static final int DEFAULT_PRELOAD_TARGET_BUFFER_BYTES = C.LENGTH_UNSET;
+
   /** A default size in bytes for a video buffer. */
   public static final int DEFAULT_VIDEO_BUFFER_SIZE = 2000 * C.DEFAULT_BUFFER_SEGMENT_SIZE;
 
@@ -108,6 +120,9 @@ public class DefaultLoadControl implements LoadControl {
     private boolean prioritizeTimeOverSizeThresholds;
     private int backBufferDurationMs;
     private boolean retainBackBufferFromKeyframe;
+    private int maxPreloadedPeriodCount;
+    private int preloadDurationMs;
+    private int preloadTargetBufferBytes;
     private boolean buildCalled;
 
     /** Constructs a new instance. */
@@ -120,6 +135,9 @@ public class DefaultLoadControl implements LoadControl {
       prioritizeTimeOverSizeThresholds = DEFAULT_PRIORITIZE_TIME_OVER_SIZE_THRESHOLDS;
       backBufferDurationMs = DEFAULT_BACK_BUFFER_DURATION_MS;
       retainBackBufferFromKeyframe = DEFAULT_RETAIN_BACK_BUFFER_FROM_KEYFRAME;
+      maxPreloadedPeriodCount = DEFAULT_MAX_PRELOADED_PERIOD_COUNT;
+      preloadDurationMs = DEFAULT_PRELOAD_DURATION_MS;
+      preloadTargetBufferBytes = DEFAULT_PRELOAD_TARGET_BUFFER_BYTES;
     }
 
     /**
@@ -220,6 +238,33 @@ public class DefaultLoadControl implements LoadControl {
       return this;
     }
 
+    /**
+     * Sets the parameters for preloading the periods of upcoming playlist items. Preloaded periods
+     * are prepared ahead of time and load media from their start position, so that transitions to
+     * them don't wait for their preparation.
+     *
+     * @param maxPreloadedPeriodCount The maximum number of playlist items following the loading
+     *     period to preload. 0 disables preloading.
+     * @param preloadDurationMs The duration of media to buffer for each preloaded period, in
+     *     milliseconds.
+     * @param preloadTargetBufferBytes The buffer size in bytes, including the buffers of the
+     *     periods being played, above which preloaded periods stop loading. If set to {@link
+     *     C#LENGTH_UNSET}, half of the target buffer size is used, so that preloading can't take
+     *     more than half of the buffer from the periods being played.
+     * @return This builder, for convenience.
+     * @throws IllegalStateException If {@link #build()} has already been called.
+     */
+    public Builder setPreloadParameters(
+        int maxPreloadedPeriodCount, int preloadDurationMs, int preloadTargetBufferBytes) {
+      Assertions.checkState(!buildCalled);
+      assertGreaterOrEqual(maxPreloadedPeriodCount, 0, "maxPreloadedPeriodCount", "0");
+      assertGreaterOrEqual(preloadDurationMs, 0, "preloadDurationMs", "0");
+      this.maxPreloadedPeriodCount = maxPreloadedPeriodCount;
+      this.preloadDurationMs = preloadDurationMs;
+      this.preloadTargetBufferBytes = preloadTargetBufferBytes;
+      return this;
+    }
+
     /** @deprecated use {@link #build} instead. */
     @Deprecated
     public DefaultLoadControl createDefaultLoadControl() {
@@ -242,7 +287,10 @@ public class DefaultLoadControl implements LoadControl {
           targetBufferBytes,
           prioritizeTimeOverSizeThresholds,
           backBufferDurationMs,
-          retainBackBufferFromKeyframe);
+          retainBackBufferFromKeyframe,
+          maxPreloadedPeriodCount,
+          preloadDurationMs,
+          preloadTargetBufferBytes);
     }
   }
 
@@ -256,6 +304,9 @@ public class DefaultLoadControl implements LoadControl {
   private final boolean prioritizeTimeOverSizeThresholds;
   private final long backBufferDurationUs;
   private final boolean retainBackBufferFromKeyframe;
+  private final int maxPreloadedPeriodCount;
+  private final long preloadDurationUs;
+  private final int preloadTargetBufferBytesOverwrite;
 
   private int targetBufferBytes;
   private boolean isBuffering;
@@ -313,6 +364,34 @@ public class DefaultLoadControl implements LoadControl {
       boolean prioritizeTimeOverSizeThresholds,
       int backBufferDurationMs,
       boolean retainBackBufferFromKeyframe) {
+    this(
+        allocator,
+        minBufferMs,
+        maxBufferMs,
+        bufferForPlaybackMs,
+        bufferForPlaybackAfterRebufferMs,
+        targetBufferBytes,
+        prioritizeTimeOverSizeThresholds,
+        backBufferDurationMs,
+        retainBackBufferFromKeyframe,
+        DEFAULT_MAX_PRELOADED_PERIOD_COUNT,
+        DEFAULT_PRELOAD_DURATION_MS,
+        DEFAULT_PRELOAD_TARGET_BUFFER_BYTES);
+  }
+
+  protected DefaultLoadControl(
+      DefaultAllocator allocator,
+      int minBufferMs,
+      int maxBufferMs,
+      int bufferForPlaybackMs,
+      int bufferForPlaybackAfterRebufferMs,
+      int targetBufferBytes,
+      boolean prioritizeTimeOverSizeThresholds,
+      int backBufferDurationMs,
+      boolean retainBackBufferFromKeyframe,
+      int maxPreloadedPeriodCount,
+      int preloadDurationMs,
+      int preloadTargetBufferBytes) {
     assertGreaterOrEqual(bufferForPlaybackMs, 0, "bufferForPlaybackMs", "0");
     assertGreaterOrEqual(
         bufferForPlaybackAfterRebufferMs, 0, "bufferForPlaybackAfterRebufferMs", "0");
@@ -324,6 +403,8 @@ public class DefaultLoadControl implements LoadControl {
         "bufferForPlaybackAfterRebufferMs");
     assertGreaterOrEqual(maxBufferMs, minBufferMs, "maxBufferMs", "minBufferMs");
     assertGreaterOrEqual(backBufferDurationMs, 0, "backBufferDurationMs", "0");
+    assertGreaterOrEqual(maxPreloadedPeriodCount, 0, "maxPreloadedPeriodCount", "0");
+    assertGreaterOrEqual(preloadDurationMs, 0, "preloadDurationMs", "0");
 
     this.allocator = allocator;
     this.minBufferUs = C.msToUs(minBufferMs);
@@ -338,6 +419,9 @@ public class DefaultLoadControl implements LoadControl {
     this.prioritizeTimeOverSizeThresholds = prioritizeTimeOverSizeThresholds;
     this.backBufferDurationUs = C.msToUs(backBufferDurationMs);
     this.retainBackBufferFromKeyframe = retainBackBufferFromKeyframe;
+    this.maxPreloadedPeriodCount = maxPreloadedPeriodCount;
+    this.preloadDurationUs = C.msToUs(preloadDurationMs);
+    this.preloadTargetBufferBytesOverwrite = preloadTargetBufferBytes;
   }
 
   @Override
@@ -418,6 +502,22 @@ public class DefaultLoadControl implements LoadControl {
             && allocator.getTotalBytesAllocated() >= targetBufferBytes);
   }
 
+  @Override
+  public int getMaxPreloadedPeriodCount() {
+    return maxPreloadedPeriodCount;
+  }
+
+  @Override
+  public boolean shouldContinuePreloading(int preloadIndex, long bufferedDurationUs) {
+    int preloadTargetBufferBytes =
+        preloadTargetBufferBytesOverwrite != C.LENGTH_UNSET
+            ? preloadTargetBufferBytesOverwrite
+            : targetBufferBytes / 2;
+    return preloadIndex < maxPreloadedPeriodCount
+        && bufferedDurationUs < preloadDurationUs
+        && allocator.getTotalBytesAllocated() < preloadTargetBufferBytes;
+  }
+
   /**
    * Calculate target buffer size in bytes based on the selected tracks. The player will try not to
    * exceed this target buffer. Only used when {@code targetBufferBytes} is {@link C#LENGTH_UNSET}.
@@ -411,7 +411,8 @@ public interface ExoPlayer extends Player {
               seekParameters,
               pauseAtEndOfMediaItems,
               clock,
-              looper);
+              looper,
+              /* playbackLooper= */ null);
 
       if (releaseTimeoutMs > 0) {
         player.experimentalSetReleaseTimeoutMs(releaseTimeoutMs);
@@ -605,6 +606,12 @@ public interface ExoPlayer extends Player {
    */
   boolean getPauseAtEndOfMediaItems();
 
+  /**
+   * Returns statistics about the time it takes playback to become ready when it moves to another
+   * media item. The returned instance is updated as playback progresses.
+   */
+  MediaItemTransitionStats getMediaItemTransitionStats();
+
   /**
    * Sets whether audio offload scheduling is enabled. If enabled, ExoPlayer's main loop will as
    * rarely as possible when playing an audio stream using audio offload.
@@ -259,6 +259,7 @@ public final class ExoPlayerFactory {
         SeekParameters.DEFAULT,
         /* pauseAtEndOfMediaItems= */ false,
         Clock.DEFAULT,
-        applicationLooper);
+        applicationLooper,
+        /* playbackLooper= */ null);
   }
 }
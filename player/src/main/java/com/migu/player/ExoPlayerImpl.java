@@ -78,6 +78,7 @@ import static java.lang.Math.min;
   private final Timeline.Period period;
   private final ArrayDeque<Runnable> pendingListenerNotifications;
   private final List<MediaSourceHolderSnapshot> mediaSourceHolderSnapshots;
+  private final ConcatenatedTimelineIndex.Builder maskingTimelineIndexBuilder;
   private final boolean useLazyPreparation;
   private final MediaSourceFactory mediaSourceFactory;
   @Nullable private final AnalyticsCollector analyticsCollector;
@@ -121,6 +122,8 @@ import static java.lang.Math.min;
    * @param clock The {@link Clock}.
    * @param applicationLooper The {@link Looper} that must be used for all calls to the player and
    *     which is used to call listeners on.
+   * @param playbackLooper The {@link Looper} of the thread on which playback is run, or null to run
+   *     playback on a new thread owned by the player.
    */
   @SuppressLint("HandlerLeak")
   public ExoPlayerImpl(
@@ -134,7 +137,8 @@ import static java.lang.Math.min;
       SeekParameters seekParameters,
       boolean pauseAtEndOfMediaItems,
       Clock clock,
-      Looper applicationLooper) {
+      Looper applicationLooper,
+      @Nullable Looper playbackLooper) {
     Log.i(TAG, "Init " + Integer.toHexString(System.identityHashCode(this)) + " ["
         + ExoPlayerLibraryInfo.VERSION_SLASHY + "] [" + Util.DEVICE_DEBUG_INFO + "]");
     checkState(renderers.length > 0);
@@ -150,6 +154,7 @@ import static java.lang.Math.min;
     repeatMode = Player.REPEAT_MODE_OFF;
     listeners = new CopyOnWriteArrayList<>();
     mediaSourceHolderSnapshots = new ArrayList<>();
+    maskingTimelineIndexBuilder = new ConcatenatedTimelineIndex.Builder();
     shuffleOrder = new ShuffleOrder.DefaultShuffleOrder(/* length= */ 0);
     emptyTrackSelectorResult =
         new TrackSelectorResult(
@@ -193,6 +198,7 @@ import static java.lang.Math.min;
             seekParameters,
             pauseAtEndOfMediaItems,
             applicationLooper,
+            playbackLooper,
             clock,
             playbackInfoUpdateListener);
     internalPlayerHandler = new Handler(internalPlayer.getPlaybackLooper());
@@ -543,6 +549,11 @@ import static java.lang.Math.min;
     return pauseAtEndOfMediaItems;
   }
 
+  @Override
+  public MediaItemTransitionStats getMediaItemTransitionStats() {
+    return internalPlayer.getMediaItemTransitionStats();
+  }
+
   public void setPlayWhenReady(
       boolean playWhenReady,
       @PlaybackSuppressionReason int playbackSuppressionReason,
@@ -1198,7 +1209,9 @@ import static java.lang.Math.min;
   }
 
   private Timeline createMaskingTimeline() {
-    return new PlaylistTimeline(mediaSourceHolderSnapshots, shuffleOrder);
+    return new PlaylistTimeline(
+        PlaylistTimeline.buildIndex(maskingTimelineIndexBuilder, mediaSourceHolderSnapshots),
+        shuffleOrder);
   }
 
   private PlaybackInfo maskTimelineAndPosition(
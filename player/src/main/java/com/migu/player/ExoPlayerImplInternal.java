@@ -164,7 +164,7 @@ import static java.lang.Math.min;
   private final LoadControl loadControl;
   private final BandwidthMeter bandwidthMeter;
   private final HandlerWrapper handler;
-  private final HandlerThread internalPlaybackThread;
+  @Nullable private final HandlerThread internalPlaybackThread;
   private final Looper playbackLooper;
   private final Timeline.Window window;
   private final Timeline.Period period;
@@ -176,6 +176,7 @@ import static java.lang.Math.min;
   private final PlaybackInfoUpdateListener playbackInfoUpdateListener;
   private final MediaPeriodQueue queue;
   private final MediaSourceList mediaSourceList;
+  private final MediaItemTransitionStats mediaItemTransitionStats;
 
   @SuppressWarnings("unused")
   private SeekParameters seekParameters;
@@ -201,6 +202,7 @@ import static java.lang.Math.min;
 
   private long releaseTimeoutMs;
   private boolean throwWhenStuckBuffering;
+  private long pendingTransitionStartTimeMs;
 
   public ExoPlayerImplInternal(
       Renderer[] renderers,
@@ -214,6 +216,7 @@ import static java.lang.Math.min;
       SeekParameters seekParameters,
       boolean pauseAtEndOfWindow,
       Looper applicationLooper,
+      @Nullable Looper playbackLooper,
       Clock clock,
       PlaybackInfoUpdateListener playbackInfoUpdateListener) {
     this.playbackInfoUpdateListener = playbackInfoUpdateListener;
@@ -250,13 +253,21 @@ import static java.lang.Math.min;
     Handler eventHandler = new Handler(applicationLooper);
     queue = new MediaPeriodQueue(analyticsCollector, eventHandler);
     mediaSourceList = new MediaSourceList(/* listener= */ this, analyticsCollector, eventHandler);
+    mediaItemTransitionStats = new MediaItemTransitionStats();
+    pendingTransitionStartTimeMs = C.TIME_UNSET;
 
-    // Note: The documentation for Process.THREAD_PRIORITY_AUDIO that states "Applications can
-    // not normally change to this priority" is incorrect.
-    internalPlaybackThread = new HandlerThread("ExoPlayer:Playback", Process.THREAD_PRIORITY_AUDIO);
-    internalPlaybackThread.start();
-    playbackLooper = internalPlaybackThread.getLooper();
-    handler = clock.createHandler(playbackLooper, this);
+    if (playbackLooper != null) {
+      internalPlaybackThread = null;
+      this.playbackLooper = playbackLooper;
+    } else {
+      // Note: The documentation for Process.THREAD_PRIORITY_AUDIO that states "Applications can
+      // not normally change to this priority" is incorrect.
+      internalPlaybackThread =
+          new HandlerThread("ExoPlayer:Playback", Process.THREAD_PRIORITY_AUDIO);
+      internalPlaybackThread.start();
+      this.playbackLooper = internalPlaybackThread.getLooper();
+    }
+    handler = clock.createHandler(this.playbackLooper, this);
   }
 
   public void experimentalSetReleaseTimeoutMs(long releaseTimeoutMs) {
@@ -363,7 +374,7 @@ import static java.lang.Math.min;
 
   @Override
   public synchronized void sendMessage(PlayerMessage message) {
-    if (released || !internalPlaybackThread.isAlive()) {
+    if (released || !playbackLooper.getThread().isAlive()) {
       Log.w(TAG, "Ignoring messages sent after release.");
       message.markAsProcessed(/* isDelivered= */ false);
       return;
@@ -372,7 +383,7 @@ import static java.lang.Math.min;
   }
 
   public synchronized boolean setForegroundMode(boolean foregroundMode) {
-    if (released || !internalPlaybackThread.isAlive()) {
+    if (released || !playbackLooper.getThread().isAlive()) {
       return true;
     }
     if (foregroundMode) {
@@ -405,7 +416,7 @@ import static java.lang.Math.min;
   }
 
   public synchronized boolean release() {
-    if (released || !internalPlaybackThread.isAlive()) {
+    if (released || !playbackLooper.getThread().isAlive()) {
       return true;
     }
 
@@ -434,6 +445,10 @@ import static java.lang.Math.min;
     return playbackLooper;
   }
 
+  public MediaItemTransitionStats getMediaItemTransitionStats() {
+    return mediaItemTransitionStats;
+  }
+
   // Playlist.PlaylistInfoRefreshListener implementation.
 
   @Override
@@ -471,6 +486,10 @@ import static java.lang.Math.min;
 
   @Override
   public boolean handleMessage(Message msg) {
+    if (released) {
+      // Only possible with a shared playback thread, which keeps running after the release.
+      return true;
+    }
     try {
       switch (msg.what) {
         case MSG_PREPARE:
@@ -982,6 +1001,12 @@ import static java.lang.Math.min;
         throw new IllegalStateException("Playback stuck buffering and not loading");
       }
     }
+    if (pendingTransitionStartTimeMs != C.TIME_UNSET
+        && playbackInfo.playbackState == Player.STATE_READY) {
+      mediaItemTransitionStats.onTransitionReady(
+          clock.elapsedRealtime() - pendingTransitionStartTimeMs, playingPeriodHolder.preloaded);
+      pendingTransitionStartTimeMs = C.TIME_UNSET;
+    }
     if (offloadSchedulingEnabled != playbackInfo.offloadSchedulingEnabled) {
       playbackInfo = playbackInfo.copyWithOffloadSchedulingEnabled(offloadSchedulingEnabled);
     }
@@ -1259,7 +1284,13 @@ import static java.lang.Math.min;
         /* resetError= */ false);
     loadControl.onReleased();
     setState(Player.STATE_IDLE);
-    internalPlaybackThread.quit();
+    if (internalPlaybackThread != null) {
+      internalPlaybackThread.quit();
+    } else {
+      // The playback thread is shared with other players, so drop any work still scheduled for
+      // this one.
+      handler.removeCallbacksAndMessages(/* token= */ null);
+    }
     synchronized (this) {
       released = true;
       notifyAll();
@@ -1273,6 +1304,7 @@ import static java.lang.Math.min;
       boolean resetError) {
     handler.removeMessages(MSG_DO_SOME_WORK);
     rebuffering = false;
+    pendingTransitionStartTimeMs = C.TIME_UNSET;
     mediaClock.stop();
     rendererPositionUs = 0;
     for (Renderer renderer : renderers) {
@@ -1772,6 +1804,7 @@ import static java.lang.Math.min;
       return;
     }
     maybeUpdateLoadingPeriod();
+    maybeUpdatePreloadMediaPeriods();
     maybeUpdateReadingPeriod();
     maybeUpdateReadingRenderers();
     maybeUpdatePlayingPeriod();
@@ -1808,6 +1841,43 @@ import static java.lang.Math.min;
     }
   }
 
+  private void maybeUpdatePreloadMediaPeriods() {
+    List<MediaPeriodInfo> preloadMediaPeriodInfos =
+        queue.getPreloadMediaPeriodInfos(
+            playbackInfo.timeline, loadControl.getMaxPreloadedPeriodCount());
+    mediaSourceList.updatePreloadMediaPeriods(preloadMediaPeriodInfos, loadControl.getAllocator());
+    List<PreloadMediaPeriod> preloadMediaPeriods = mediaSourceList.getPreloadMediaPeriods();
+    for (int i = 0; i < preloadMediaPeriods.size(); i++) {
+      PreloadMediaPeriod preloadMediaPeriod = preloadMediaPeriods.get(i);
+      if (!preloadMediaPeriod.isPrepared()) {
+        // Preparation isn't limited by the budget, as it's the main cause of transition delays.
+        preloadMediaPeriod.continueLoading(preloadMediaPeriod.startPositionUs);
+        continue;
+      }
+      if (!preloadMediaPeriod.hasSelectedTracksForPreload()) {
+        TrackSelectorResult trackSelectorResult;
+        try {
+          trackSelectorResult =
+              trackSelector.selectTracks(
+                  rendererCapabilities,
+                  preloadMediaPeriod.getTrackGroups(),
+                  preloadMediaPeriod.id,
+                  playbackInfo.timeline);
+        } catch (ExoPlaybackException e) {
+          // Leave the error to be reported if playback reaches the period.
+          continue;
+        }
+        preloadMediaPeriod.selectTracksForPreload(trackSelectorResult.selections.getAll());
+      }
+      long bufferedPositionUs = preloadMediaPeriod.getBufferedPositionUs();
+      if (bufferedPositionUs != C.TIME_END_OF_SOURCE
+          && loadControl.shouldContinuePreloading(
+              /* preloadIndex= */ i, bufferedPositionUs - preloadMediaPeriod.startPositionUs)) {
+        preloadMediaPeriod.continueLoading(preloadMediaPeriod.startPositionUs);
+      }
+    }
+  }
+
   private void maybeUpdateReadingPeriod() {
     @Nullable MediaPeriodHolder readingPeriodHolder = queue.getReadingPeriod();
     if (readingPeriodHolder == null) {
@@ -2087,6 +2157,11 @@ import static java.lang.Math.min;
   @CheckResult
   private PlaybackInfo handlePositionDiscontinuity(
       MediaPeriodId mediaPeriodId, long positionUs, long contentPositionUs) {
+    if (mediaPeriodId.windowSequenceNumber != playbackInfo.periodId.windowSequenceNumber
+        && playbackInfo.playbackState != Player.STATE_IDLE) {
+      // Playback moves to another media item.
+      pendingTransitionStartTimeMs = clock.elapsedRealtime();
+    }
     deliverPendingMessageAtStartPositionRequired =
         deliverPendingMessageAtStartPositionRequired
             || positionUs != playbackInfo.positionUs
@@ -116,4 +116,25 @@ public interface LoadControl {
    * @return Whether playback should be allowed to start or resume.
    */
   boolean shouldStartPlayback(long bufferedDurationUs, float playbackSpeed, boolean rebuffering);
+
+  /**
+   * Returns the maximum number of playlist items following the loading period whose media periods
+   * the player should prepare ahead of time, so that transitions to them don't wait for their
+   * preparation. The default implementation returns 0, which disables preloading.
+   */
+  default int getMaxPreloadedPeriodCount() {
+    return 0;
+  }
+
+  /**
+   * Called by the player to determine whether it should continue to load a preloaded period of an
+   * upcoming playlist item.
+   *
+   * @param preloadIndex The index of the period among the preloaded periods, in playback order.
+   * @param bufferedDurationUs The duration of media that's buffered for the preloaded period.
+   * @return Whether the preloaded period should continue to load.
+   */
+  default boolean shouldContinuePreloading(int preloadIndex, long bufferedDurationUs) {
+    return false;
+  }
 }
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.migu.player;
+
+import android.support.annotation.GuardedBy;
+
+import static java.lang.Math.max;
+
+/**
+ * Statistics about the time it takes playback to become ready when it moves to another media item,
+ * either by transitioning at the end of an item or by seeking to another item.
+ *
+ * <p>The time to ready of a transition is measured from the moment the player moves to the new
+ * item until it is in {@link Player#STATE_READY}. It is close to zero if the new item was buffered
+ * in time, and includes the time spent preparing and buffering the new item otherwise. Transitions
+ * are counted separately for items whose media period was preloaded, so that the effect of {@link
+ * LoadControl#getMaxPreloadedPeriodCount() preloading} can be compared.
+ *
+ * <p>Instances are updated on the playback thread and can be read from any thread.
+ */
+public final class MediaItemTransitionStats {
+
+  @GuardedBy("this")
+  private int transitionCount;
+
+  @GuardedBy("this")
+  private long totalTimeToReadyMs;
+
+  @GuardedBy("this")
+  private long maxTimeToReadyMs;
+
+  @GuardedBy("this")
+  private int preloadedTransitionCount;
+
+  @GuardedBy("this")
+  private long preloadedTotalTimeToReadyMs;
+
+  /** Returns the number of transitions after which playback became ready. */
+  public synchronized int getTransitionCount() {
+    return transitionCount;
+  }
+
+  /** Returns the total time to ready of all transitions, in milliseconds. */
+  public synchronized long getTotalTimeToReadyMs() {
+    return totalTimeToReadyMs;
+  }
+
+  /** Returns the largest time to ready of any transition, in milliseconds. */
+  public synchronized long getMaxTimeToReadyMs() {
+    return maxTimeToReadyMs;
+  }
+
+  /** Returns the number of transitions to items whose media period was preloaded. */
+  public synchronized int getPreloadedTransitionCount() {
+    return preloadedTransitionCount;
+  }
+
+  /**
+   * Returns the total time to ready of transitions to items whose media period was preloaded, in
+   * milliseconds.
+   */
+  public synchronized long getPreloadedTotalTimeToReadyMs() {
+    return preloadedTotalTimeToReadyMs;
+  }
+
+  /**
+   * Returns the mean time to ready of all transitions, in milliseconds, or 0 if there haven't been
+   * any transitions.
+   */
+  public synchronized long getMeanTimeToReadyMs() {
+    return transitionCount == 0 ? 0 : totalTimeToReadyMs / transitionCount;
+  }
+
+  /**
+   * Called by the player when playback became ready after a transition.
+   *
+   * @param timeToReadyMs The time to ready of the transition, in milliseconds.
+   * @param preloaded Whether the media period of the new item was preloaded.
+   */
+  /* package */ synchronized void onTransitionReady(long timeToReadyMs, boolean preloaded) {
+    transitionCount++;
+    totalTimeToReadyMs += timeToReadyMs;
+    maxTimeToReadyMs = max(maxTimeToReadyMs, timeToReadyMs);
+    if (preloaded) {
+      preloadedTransitionCount++;
+      preloadedTotalTimeToReadyMs += timeToReadyMs;
+    }
+  }
+}
@@ -47,6 +47,8 @@ import static java.lang.Math.max;
    * The sample streams for each renderer associated with this period. May contain null elements.
    */
   public final  SampleStream[] sampleStreams;
+  /** Whether the media period was preloaded before this holder was created. */
+  public final boolean preloaded;
 
   /** Whether the media period has finished preparing. */
   public boolean prepared;
@@ -105,6 +107,12 @@ import static java.lang.Math.max;
     mediaPeriod =
         createMediaPeriod(
             info.id, mediaSourceList, allocator, info.startPositionUs, info.endPositionUs);
+    // Periods with an end position are wrapped in a ClippingMediaPeriod by createMediaPeriod.
+    MediaPeriod childMediaPeriod =
+        mediaPeriod instanceof ClippingMediaPeriod
+            ? ((ClippingMediaPeriod) mediaPeriod).mediaPeriod
+            : mediaPeriod;
+    preloaded = childMediaPeriod instanceof PreloadMediaPeriod;
   }
 
   /**
@@ -29,6 +29,11 @@ import com.migu.player.trackselection.TrackSelectorResult;
 import com.migu.player.upstream.Allocator;
 import com.migu.player.util.Assertions;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
 import static java.lang.Math.max;
 
 /**
@@ -59,6 +64,11 @@ import static java.lang.Math.max;
   private int length;
   @Nullable private Object oldFrontPeriodUid;
   private long oldFrontPeriodWindowSequenceNumber;
+  private HashMap<Object, Long> preloadWindowSequenceNumbers;
+  private List<MediaPeriodInfo> preloadMediaPeriodInfos;
+  @Nullable private Timeline preloadTimeline;
+  @Nullable private MediaPeriodHolder preloadLoadingPeriod;
+  private int preloadMaxCount;
 
   /**
    * Creates a new media period queue.
@@ -74,6 +84,8 @@ import static java.lang.Math.max;
     this.analyticsCollectorHandler = analyticsCollectorHandler;
     period = new Timeline.Period();
     window = new Timeline.Window();
+    preloadWindowSequenceNumbers = new HashMap<>();
+    preloadMediaPeriodInfos = Collections.emptyList();
   }
 
   /**
@@ -86,6 +98,7 @@ import static java.lang.Math.max;
    */
   public boolean updateRepeatMode(Timeline timeline, @RepeatMode int repeatMode) {
     this.repeatMode = repeatMode;
+    preloadTimeline = null;
     return updateForPlaybackModeChange(timeline);
   }
 
@@ -99,6 +112,7 @@ import static java.lang.Math.max;
    */
   public boolean updateShuffleModeEnabled(Timeline timeline, boolean shuffleModeEnabled) {
     this.shuffleModeEnabled = shuffleModeEnabled;
+    preloadTimeline = null;
     return updateForPlaybackModeChange(timeline);
   }
 
@@ -143,6 +157,76 @@ import static java.lang.Math.max;
         : getFollowingMediaPeriodInfo(playbackInfo.timeline, loading, rendererPositionUs);
   }
 
+  /**
+   * Returns the {@link MediaPeriodInfo MediaPeriodInfos} of the periods that start the windows
+   * following the window of the loading period, in playback order, so that they can be preloaded.
+   * Windows that are live, that are placeholders or that contain ads are skipped.
+   *
+   * <p>The window sequence numbers of the returned periods are reserved, so that the periods the
+   * queue enqueues for these windows, after playback transitions or seeks to them, have the same
+   * ids. The same list instance is returned for as long as the result doesn't change, including
+   * while the queue is empty and the timeline is unchanged.
+   *
+   * @param timeline The current timeline.
+   * @param maxCount The maximum number of periods to return.
+   * @return The {@link MediaPeriodInfo MediaPeriodInfos} of the periods to preload.
+   */
+  public List<MediaPeriodInfo> getPreloadMediaPeriodInfos(Timeline timeline, int maxCount) {
+    if (timeline == preloadTimeline
+        && maxCount == preloadMaxCount
+        && (loading == preloadLoadingPeriod || loading == null)) {
+      // Keep preloading while the queue is empty, as it is after a seek.
+      return preloadMediaPeriodInfos;
+    }
+    preloadTimeline = timeline;
+    preloadLoadingPeriod = loading;
+    preloadMaxCount = maxCount;
+    HashMap<Object, Long> windowSequenceNumbers = new HashMap<>();
+    List<MediaPeriodInfo> infos = new ArrayList<>();
+    int loadingPeriodIndex =
+        loading == null ? C.INDEX_UNSET : timeline.getIndexOfPeriod(loading.uid);
+    int loadingWindowIndex =
+        loadingPeriodIndex == C.INDEX_UNSET
+            ? C.INDEX_UNSET
+            : timeline.getPeriod(loadingPeriodIndex, period).windowIndex;
+    int windowIndex = loadingWindowIndex;
+    for (int i = 0;
+        windowIndex != C.INDEX_UNSET && i < timeline.getWindowCount() && infos.size() < maxCount;
+        i++) {
+      windowIndex = timeline.getNextWindowIndex(windowIndex, repeatMode, shuffleModeEnabled);
+      if (windowIndex == C.INDEX_UNSET || windowIndex == loadingWindowIndex) {
+        break;
+      }
+      timeline.getWindow(windowIndex, window);
+      if (window.isPlaceholder || window.isLive || window.isDynamic) {
+        continue;
+      }
+      Pair<Object, Long> periodPosition =
+          timeline.getPeriodPosition(
+              window, period, windowIndex, /* windowPositionUs= */ C.TIME_UNSET);
+      if (timeline.getPeriodByUid(periodPosition.first, period).getAdGroupCount() > 0) {
+        continue;
+      }
+      @Nullable Long windowSequenceNumber = preloadWindowSequenceNumbers.get(window.uid);
+      if (windowSequenceNumber == null) {
+        windowSequenceNumber = nextWindowSequenceNumber++;
+      }
+      windowSequenceNumbers.put(window.uid, windowSequenceNumber);
+      infos.add(
+          getMediaPeriodInfoForContent(
+              timeline,
+              periodPosition.first,
+              /* startPositionUs= */ periodPosition.second,
+              /* requestedContentPositionUs= */ C.TIME_UNSET,
+              windowSequenceNumber));
+    }
+    preloadWindowSequenceNumbers = windowSequenceNumbers;
+    if (!infos.equals(preloadMediaPeriodInfos)) {
+      preloadMediaPeriodInfos = infos.isEmpty() ? Collections.emptyList() : infos;
+    }
+    return preloadMediaPeriodInfos;
+  }
+
   /**
    * Enqueues a new media period holder based on the specified information as the new loading media
    * period, and returns it.
@@ -177,6 +261,10 @@ import static java.lang.Math.max;
             mediaSourceList,
             info,
             emptyTrackSelectorResult);
+    // Periods buffered ahead of the playing period load in the background, so that they don't
+    // compete for loader threads with the period being played.
+    newPeriodHolder.mediaPeriod.setLoadPriority(
+        loading == null ? C.PRIORITY_PLAYBACK : C.PRIORITY_DOWNLOAD);
     if (loading != null) {
       loading.setNext(newPeriodHolder);
     } else {
@@ -248,6 +336,9 @@ import static java.lang.Math.max;
       oldFrontPeriodWindowSequenceNumber = playing.info.id.windowSequenceNumber;
     }
     playing = playing.getNext();
+    if (playing != null) {
+      playing.mediaPeriod.setLoadPriority(C.PRIORITY_PLAYBACK);
+    }
     notifyQueueUpdate();
     return playing;
   }
@@ -513,8 +604,9 @@ import static java.lang.Math.max;
       }
       mediaPeriodHolder = mediaPeriodHolder.getNext();
     }
-    // If no match is found, create new sequence number.
-    long windowSequenceNumber = nextWindowSequenceNumber++;
+    // If no match is found, use the sequence number reserved for preloading, or create a new one.
+    long windowSequenceNumber =
+        getNewWindowSequenceNumber(timeline.getWindow(windowIndex, window).uid);
     if (playing == null) {
       // If the queue is empty, save it as old front uid to allow later reuse.
       oldFrontPeriodUid = periodUid;
@@ -523,6 +615,15 @@ import static java.lang.Math.max;
     return windowSequenceNumber;
   }
 
+  /**
+   * Returns the window sequence number for a new occurrence of the window with the specified uid,
+   * which is the number reserved for preloading the window if there is one.
+   */
+  private long getNewWindowSequenceNumber(Object windowUid) {
+    @Nullable Long windowSequenceNumber = preloadWindowSequenceNumbers.get(windowUid);
+    return windowSequenceNumber != null ? windowSequenceNumber : nextWindowSequenceNumber++;
+  }
+
   /**
    * Returns whether a period described by {@code oldInfo} can be kept for playing the media period
    * described by {@code newInfo}.
@@ -655,7 +756,7 @@ import static java.lang.Math.max;
         if (nextMediaPeriodHolder != null && nextMediaPeriodHolder.uid.equals(nextPeriodUid)) {
           windowSequenceNumber = nextMediaPeriodHolder.info.id.windowSequenceNumber;
         } else {
-          windowSequenceNumber = nextWindowSequenceNumber++;
+          windowSequenceNumber = getNewWindowSequenceNumber(window.uid);
         }
       } else {
         // We're starting to buffer a new period within the same window.
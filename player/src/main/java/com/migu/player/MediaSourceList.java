@@ -37,6 +37,7 @@ import com.migu.player.util.Util;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.IdentityHashMap;
@@ -79,7 +80,10 @@ import static java.lang.Math.min;
   private final DrmSessionEventListener.EventDispatcher drmEventDispatcher;
   private final HashMap<MediaSourceHolder, MediaSourceAndListener> childSources;
   private final Set<MediaSourceHolder> enabledMediaSourceHolders;
+  private final ConcatenatedTimelineIndex.Builder timelineIndexBuilder;
+  private final List<PreloadMediaPeriod> preloadMediaPeriods;
 
+  private List<MediaPeriodInfo> preloadMediaPeriodInfos;
   private ShuffleOrder shuffleOrder;
   private boolean isPrepared;
 
@@ -108,6 +112,9 @@ import static java.lang.Math.min;
     drmEventDispatcher = new DrmSessionEventListener.EventDispatcher();
     childSources = new HashMap<>();
     enabledMediaSourceHolders = new HashSet<>();
+    timelineIndexBuilder = new ConcatenatedTimelineIndex.Builder();
+    preloadMediaPeriods = new ArrayList<>();
+    preloadMediaPeriodInfos = Collections.emptyList();
     if (analyticsCollector != null) {
       mediaSourceEventDispatcher.addEventListener(analyticsCollectorHandler, analyticsCollector);
       drmEventDispatcher.addEventListener(analyticsCollectorHandler, analyticsCollector);
@@ -293,7 +300,8 @@ import static java.lang.Math.min;
   }
 
   /**
-   * Returns a new {@link MediaPeriod} identified by {@code periodId}.
+   * Returns a new {@link MediaPeriod} identified by {@code periodId}. If a period with the same id
+   * and start position has been preloaded, the preloaded period is returned instead.
    *
    * @param id The identifier of the period.
    * @param allocator An {@link Allocator} from which to obtain media buffer allocations.
@@ -302,17 +310,64 @@ import static java.lang.Math.min;
    */
   public MediaPeriod createPeriod(
       MediaSource.MediaPeriodId id, Allocator allocator, long startPositionUs) {
-    Object mediaSourceHolderUid = getMediaSourceHolderUid(id.periodUid);
-    MediaSource.MediaPeriodId childMediaPeriodId =
-        id.copyWithPeriodUid(getChildPeriodUid(id.periodUid));
-    MediaSourceHolder holder = Assertions.checkNotNull(mediaSourceByUid.get(mediaSourceHolderUid));
-    enableMediaSource(holder);
-    holder.activeMediaPeriodIds.add(childMediaPeriodId);
-    MediaPeriod mediaPeriod =
-        holder.mediaSource.createPeriod(childMediaPeriodId, allocator, startPositionUs);
-    mediaSourceByMediaPeriod.put(mediaPeriod, holder);
-    disableUnusedMediaSources();
-    return mediaPeriod;
+    for (int i = 0; i < preloadMediaPeriods.size(); i++) {
+      PreloadMediaPeriod preloadMediaPeriod = preloadMediaPeriods.get(i);
+      if (preloadMediaPeriod.id.equals(id)
+          && preloadMediaPeriod.startPositionUs == startPositionUs) {
+        preloadMediaPeriods.remove(i);
+        return preloadMediaPeriod;
+      }
+    }
+    return createChildPeriod(id, allocator, startPositionUs);
+  }
+
+  /**
+   * Updates the periods that are prepared ahead of time, so that {@link #createPeriod} can return
+   * them later. Preloaded periods that don't match any of the specified infos are released.
+   *
+   * @param infos The {@link MediaPeriodInfo MediaPeriodInfos} of the periods to preload.
+   * @param allocator An {@link Allocator} from which to obtain media buffer allocations.
+   */
+  public void updatePreloadMediaPeriods(List<MediaPeriodInfo> infos, Allocator allocator) {
+    if (infos == preloadMediaPeriodInfos) {
+      return;
+    }
+    preloadMediaPeriodInfos = infos;
+    List<PreloadMediaPeriod> oldPreloadMediaPeriods = new ArrayList<>(preloadMediaPeriods);
+    preloadMediaPeriods.clear();
+    for (int i = 0; i < infos.size(); i++) {
+      MediaPeriodInfo info = infos.get(i);
+      @Nullable PreloadMediaPeriod preloadMediaPeriod = null;
+      for (int j = 0; j < oldPreloadMediaPeriods.size(); j++) {
+        PreloadMediaPeriod oldPreloadMediaPeriod = oldPreloadMediaPeriods.get(j);
+        if (oldPreloadMediaPeriod.id.equals(info.id)
+            && oldPreloadMediaPeriod.startPositionUs == info.startPositionUs) {
+          preloadMediaPeriod = oldPreloadMediaPeriods.remove(j);
+          break;
+        }
+      }
+      if (preloadMediaPeriod == null) {
+        MediaPeriod mediaPeriod = createChildPeriod(info.id, allocator, info.startPositionUs);
+        preloadMediaPeriod = new PreloadMediaPeriod(mediaPeriod, info.id, info.startPositionUs);
+        // The player releases the wrapper once it has taken over the period.
+        mediaSourceByMediaPeriod.put(
+            preloadMediaPeriod, mediaSourceByMediaPeriod.remove(mediaPeriod));
+        // Load in the background until the player takes over the period, so that preloading
+        // doesn't compete for threads with the periods being played. MediaPeriodQueue sets the
+        // priority of the period once it's enqueued.
+        preloadMediaPeriod.setLoadPriority(C.PRIORITY_DOWNLOAD);
+        preloadMediaPeriod.preload();
+      }
+      preloadMediaPeriods.add(preloadMediaPeriod);
+    }
+    for (int i = 0; i < oldPreloadMediaPeriods.size(); i++) {
+      releasePeriod(oldPreloadMediaPeriods.get(i));
+    }
+  }
+
+  /** Returns the preloaded periods that haven't been returned by {@link #createPeriod} yet. */
+  public List<PreloadMediaPeriod> getPreloadMediaPeriods() {
+    return preloadMediaPeriods;
   }
 
   /**
@@ -323,6 +378,9 @@ import static java.lang.Math.min;
   public void releasePeriod(MediaPeriod mediaPeriod) {
     MediaSourceHolder holder =
         Assertions.checkNotNull(mediaSourceByMediaPeriod.remove(mediaPeriod));
+    if (mediaPeriod instanceof PreloadMediaPeriod) {
+      mediaPeriod = ((PreloadMediaPeriod) mediaPeriod).mediaPeriod;
+    }
     holder.mediaSource.releasePeriod(mediaPeriod);
     holder.activeMediaPeriodIds.remove(((MaskingMediaPeriod) mediaPeriod).id);
     if (!mediaSourceByMediaPeriod.isEmpty()) {
@@ -333,6 +391,11 @@ import static java.lang.Math.min;
 
   /** Releases the playlist. */
   public void release() {
+    for (int i = 0; i < preloadMediaPeriods.size(); i++) {
+      releasePeriod(preloadMediaPeriods.get(i));
+    }
+    preloadMediaPeriods.clear();
+    preloadMediaPeriodInfos = Collections.emptyList();
     for (MediaSourceAndListener childSource : childSources.values()) {
       try {
         childSource.mediaSource.releaseSource(childSource.caller);
@@ -358,11 +421,27 @@ import static java.lang.Math.min;
       mediaSourceHolder.firstWindowIndexInChild = windowOffset;
       windowOffset += mediaSourceHolder.mediaSource.getTimeline().getWindowCount();
     }
-    return new PlaylistTimeline(mediaSourceHolders, shuffleOrder);
+    return new PlaylistTimeline(
+        PlaylistTimeline.buildIndex(timelineIndexBuilder, mediaSourceHolders), shuffleOrder);
   }
 
   // Internal methods.
 
+  private MediaPeriod createChildPeriod(
+      MediaSource.MediaPeriodId id, Allocator allocator, long startPositionUs) {
+    Object mediaSourceHolderUid = getMediaSourceHolderUid(id.periodUid);
+    MediaSource.MediaPeriodId childMediaPeriodId =
+        id.copyWithPeriodUid(getChildPeriodUid(id.periodUid));
+    MediaSourceHolder holder = Assertions.checkNotNull(mediaSourceByUid.get(mediaSourceHolderUid));
+    enableMediaSource(holder);
+    holder.activeMediaPeriodIds.add(childMediaPeriodId);
+    MediaPeriod mediaPeriod =
+        holder.mediaSource.createPeriod(childMediaPeriodId, allocator, startPositionUs);
+    mediaSourceByMediaPeriod.put(mediaPeriod, holder);
+    disableUnusedMediaSources();
+    return mediaPeriod;
+  }
+
   private void enableMediaSource(MediaSourceHolder mediaSourceHolder) {
     enabledMediaSourceHolders.add(mediaSourceHolder);
     @Nullable MediaSourceAndListener enabledChild = childSources.get(mediaSourceHolder);
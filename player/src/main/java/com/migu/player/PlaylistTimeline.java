@@ -16,99 +16,92 @@
 package com.migu.player;
 
 import com.migu.player.source.ShuffleOrder;
-import com.migu.player.util.Util;
 
-import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
 
 /** Timeline exposing concatenated timelines of playlist media sources. */
 /* package */ final class PlaylistTimeline extends AbstractConcatenatedTimeline {
 
-  private final int windowCount;
-  private final int periodCount;
-  private final int[] firstPeriodInChildIndices;
-  private final int[] firstWindowInChildIndices;
-  private final Timeline[] timelines;
-  private final Object[] uids;
-  private final HashMap<Object, Integer> childIndexByUid;
+  private final ConcatenatedTimelineIndex index;
 
   /** Creates an instance. */
   public PlaylistTimeline(
       Collection<? extends MediaSourceInfoHolder> mediaSourceInfoHolders,
       ShuffleOrder shuffleOrder) {
+    this(buildIndex(new ConcatenatedTimelineIndex.Builder(), mediaSourceInfoHolders), shuffleOrder);
+  }
+
+  /** Creates an instance from an index of its children. */
+  public PlaylistTimeline(ConcatenatedTimelineIndex index, ShuffleOrder shuffleOrder) {
     super(/* isAtomic= */ false, shuffleOrder);
-    int childCount = mediaSourceInfoHolders.size();
-    firstPeriodInChildIndices = new int[childCount];
-    firstWindowInChildIndices = new int[childCount];
-    timelines = new Timeline[childCount];
-    uids = new Object[childCount];
-    childIndexByUid = new HashMap<>();
-    int index = 0;
-    int windowCount = 0;
-    int periodCount = 0;
+    this.index = index;
+  }
+
+  /**
+   * Builds an index of the children of a playlist timeline.
+   *
+   * @param builder The {@link ConcatenatedTimelineIndex.Builder}. Children unchanged since its
+   *     previous build are not processed again.
+   * @param mediaSourceInfoHolders The children of the timeline.
+   * @return The index.
+   */
+  public static ConcatenatedTimelineIndex buildIndex(
+      ConcatenatedTimelineIndex.Builder builder,
+      Collection<? extends MediaSourceInfoHolder> mediaSourceInfoHolders) {
     for (MediaSourceInfoHolder mediaSourceInfoHolder : mediaSourceInfoHolders) {
-      timelines[index] = mediaSourceInfoHolder.getTimeline();
-      firstWindowInChildIndices[index] = windowCount;
-      firstPeriodInChildIndices[index] = periodCount;
-      windowCount += timelines[index].getWindowCount();
-      periodCount += timelines[index].getPeriodCount();
-      uids[index] = mediaSourceInfoHolder.getUid();
-      childIndexByUid.put(uids[index], index++);
+      builder.add(mediaSourceInfoHolder.getUid(), mediaSourceInfoHolder.getTimeline());
     }
-    this.windowCount = windowCount;
-    this.periodCount = periodCount;
+    return builder.build();
   }
 
   /** Returns the child timelines. */
   /* package */ List<Timeline> getChildTimelines() {
-    return Arrays.asList(timelines);
+    return index.getTimelines();
   }
 
   @Override
   protected int getChildIndexByPeriodIndex(int periodIndex) {
-    return Util.binarySearchFloor(firstPeriodInChildIndices, periodIndex + 1, false, false);
+    return index.getChildIndexByPeriodIndex(periodIndex);
   }
 
   @Override
   protected int getChildIndexByWindowIndex(int windowIndex) {
-    return Util.binarySearchFloor(firstWindowInChildIndices, windowIndex + 1, false, false);
+    return index.getChildIndexByWindowIndex(windowIndex);
   }
 
   @Override
   protected int getChildIndexByChildUid(Object childUid) {
-    Integer index = childIndexByUid.get(childUid);
-    return index == null ? C.INDEX_UNSET : index;
+    return index.getChildIndexByChildUid(childUid);
   }
 
   @Override
   protected Timeline getTimelineByChildIndex(int childIndex) {
-    return timelines[childIndex];
+    return index.getTimeline(childIndex);
   }
 
   @Override
   protected int getFirstPeriodIndexByChildIndex(int childIndex) {
-    return firstPeriodInChildIndices[childIndex];
+    return index.getFirstPeriodIndex(childIndex);
   }
 
   @Override
   protected int getFirstWindowIndexByChildIndex(int childIndex) {
-    return firstWindowInChildIndices[childIndex];
+    return index.getFirstWindowIndex(childIndex);
   }
 
   @Override
   protected Object getChildUidByChildIndex(int childIndex) {
-    return uids[childIndex];
+    return index.getUid(childIndex);
   }
 
   @Override
   public int getWindowCount() {
-    return windowCount;
+    return index.getWindowCount();
   }
 
   @Override
   public int getPeriodCount() {
-    return periodCount;
+    return index.getPeriodCount();
   }
 }
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.migu.player;
+
+import android.support.annotation.Nullable;
+
+import com.migu.player.source.MediaPeriod;
+import com.migu.player.source.MediaSource.MediaPeriodId;
+import com.migu.player.source.SampleStream;
+import com.migu.player.source.TrackGroupArray;
+import com.migu.player.trackselection.TrackSelection;
+import com.migu.player.util.Assertions;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Wraps a {@link MediaPeriod} of an upcoming playlist item so that it can be prepared, and start
+ * loading, before the player enqueues it.
+ *
+ * <p>Once the player takes over the period, calls to {@link #prepare(Callback, long)} complete
+ * immediately if the period has already been prepared, and calls to {@link
+ * #selectTracks(TrackSelection[], boolean[], SampleStream[], boolean[], long)} that select the
+ * same tracks at the same position as {@link #selectTracksForPreload(TrackSelection[])} hand over
+ * the sample streams created during preloading, along with the media they have buffered.
+ */
+/* package */ final class PreloadMediaPeriod implements MediaPeriod, MediaPeriod.Callback {
+
+  /** The {@link MediaPeriod} wrapped by this instance. */
+  public final MediaPeriod mediaPeriod;
+  /** The id of the period. */
+  public final MediaPeriodId id;
+  /** The position from which the period is loaded, in microseconds. */
+  public final long startPositionUs;
+
+  @Nullable private Callback callback;
+  private boolean prepareCalled;
+  private boolean prepared;
+  private boolean preloadTracksSelected;
+  @Nullable private TrackSelection[] preloadSelections;
+  @Nullable private SampleStream[] preloadStreams;
+  @Nullable private boolean[] preloadStreamResetFlags;
+  private long preloadPositionUs;
+
+  /**
+   * @param mediaPeriod The {@link MediaPeriod} to wrap.
+   * @param id The id of the period.
+   * @param startPositionUs The position from which the period is loaded, in microseconds.
+   */
+  public PreloadMediaPeriod(MediaPeriod mediaPeriod, MediaPeriodId id, long startPositionUs) {
+    this.mediaPeriod = mediaPeriod;
+    this.id = id;
+    this.startPositionUs = startPositionUs;
+  }
+
+  /** Starts preparing the period, without a callback. */
+  public void preload() {
+    if (!prepareCalled) {
+      prepareCalled = true;
+      mediaPeriod.prepare(/* callback= */ this, startPositionUs);
+    }
+  }
+
+  /** Returns whether the period has been prepared. */
+  public boolean isPrepared() {
+    return prepared;
+  }
+
+  /** Returns whether tracks have been selected for preloading. */
+  public boolean hasSelectedTracksForPreload() {
+    return preloadTracksSelected;
+  }
+
+  /**
+   * Selects the tracks to load while preloading. Must only be called once, after the period has
+   * been prepared and before the player has taken over the period.
+   *
+   * @param selections The selections, indexed by renderer. May contain null elements.
+   */
+  public void selectTracksForPreload(TrackSelection[] selections) {
+    Assertions.checkState(prepared && callback == null && !preloadTracksSelected);
+    preloadTracksSelected = true;
+    preloadSelections = selections;
+    preloadStreams = new SampleStream[selections.length];
+    preloadStreamResetFlags = new boolean[selections.length];
+    preloadPositionUs =
+        mediaPeriod.selectTracks(
+            selections,
+            /* mayRetainStreamFlags= */ new boolean[selections.length],
+            preloadStreams,
+            preloadStreamResetFlags,
+            startPositionUs);
+  }
+
+  // MediaPeriod implementation.
+
+  @Override
+  public void prepare(Callback callback, long positionUs) {
+    this.callback = callback;
+    if (prepared) {
+      callback.onPrepared(this);
+    } else if (!prepareCalled) {
+      prepareCalled = true;
+      mediaPeriod.prepare(/* callback= */ this, positionUs);
+    }
+  }
+
+  @Override
+  public void maybeThrowPrepareError() throws IOException {
+    mediaPeriod.maybeThrowPrepareError();
+  }
+
+  @Override
+  public TrackGroupArray getTrackGroups() {
+    return mediaPeriod.getTrackGroups();
+  }
+
+  @Override
+  public long selectTracks(
+      TrackSelection[] selections,
+      boolean[] mayRetainStreamFlags,
+      SampleStream[] streams,
+      boolean[] streamResetFlags,
+      long positionUs) {
+    @Nullable TrackSelection[] preloadSelections = this.preloadSelections;
+    @Nullable SampleStream[] preloadStreams = this.preloadStreams;
+    @Nullable boolean[] preloadStreamResetFlags = this.preloadStreamResetFlags;
+    this.preloadSelections = null;
+    this.preloadStreams = null;
+    this.preloadStreamResetFlags = null;
+    if (preloadSelections == null) {
+      return mediaPeriod.selectTracks(
+          selections, mayRetainStreamFlags, streams, streamResetFlags, positionUs);
+    }
+    if (positionUs == preloadPositionUs && Arrays.equals(selections, preloadSelections)) {
+      System.arraycopy(preloadStreams, 0, streams, 0, streams.length);
+      System.arraycopy(preloadStreamResetFlags, 0, streamResetFlags, 0, streams.length);
+      return positionUs;
+    }
+    // Pass the preloaded streams, which the wrapped period still considers to be enabled, so that
+    // it can disable or retain them.
+    for (int i = 0; i < streams.length; i++) {
+      if (streams[i] == null) {
+        streams[i] = preloadStreams[i];
+      }
+    }
+    return mediaPeriod.selectTracks(
+        selections, mayRetainStreamFlags, streams, streamResetFlags, positionUs);
+  }
+
+  @Override
+  public void discardBuffer(long positionUs, boolean toKeyframe) {
+    mediaPeriod.discardBuffer(positionUs, toKeyframe);
+  }
+
+  @Override
+  public long readDiscontinuity() {
+    return mediaPeriod.readDiscontinuity();
+  }
+
+  @Override
+  public long seekToUs(long positionUs) {
+    return mediaPeriod.seekToUs(positionUs);
+  }
+
+  @Override
+  public long getAdjustedSeekPositionUs(long positionUs, SeekParameters seekParameters) {
+    return mediaPeriod.getAdjustedSeekPositionUs(positionUs, seekParameters);
+  }
+
+  @Override
+  public long getBufferedPositionUs() {
+    return mediaPeriod.getBufferedPositionUs();
+  }
+
+  @Override
+  public long getNextLoadPositionUs() {
+    return mediaPeriod.getNextLoadPositionUs();
+  }
+
+  @Override
+  public boolean continueLoading(long positionUs) {
+    return mediaPeriod.continueLoading(positionUs);
+  }
+
+  @Override
+  public boolean isLoading() {
+    return mediaPeriod.isLoading();
+  }
+
+  @Override
+  public void reevaluateBuffer(long positionUs) {
+    mediaPeriod.reevaluateBuffer(positionUs);
+  }
+
+  @Override
+  public void setLoadPriority(int priority) {
+    mediaPeriod.setLoadPriority(priority);
+  }
+
+  // MediaPeriod.Callback implementation.
+
+  @Override
+  public void onPrepared(MediaPeriod mediaPeriod) {
+    prepared = true;
+    if (callback != null) {
+      callback.onPrepared(this);
+    }
+  }
+
+  @Override
+  public void onContinueLoadingRequested(MediaPeriod source) {
+    if (callback != null) {
+      callback.onContinueLoadingRequested(this);
+    }
+  }
+}
@@ -103,6 +103,7 @@ public class SimpleExoPlayer extends BasePlayer
     private BandwidthMeter bandwidthMeter;
     private AnalyticsCollector analyticsCollector;
     private Looper looper;
+    @Nullable private Looper playbackLooper;
     @Nullable private PriorityTaskManager priorityTaskManager;
     private AudioAttributes audioAttributes;
     private boolean handleAudioFocus;
@@ -136,6 +137,7 @@ public class SimpleExoPlayer extends BasePlayer
      *   <li>{@link Looper}: The {@link Looper} associated with the current thread, or the {@link
      *       Looper} of the application's main thread if the current thread doesn't have a {@link
      *       Looper}
+     *   <li>Playback {@link Looper}: {@code null} (the player creates its own playback thread)
      *   <li>{@link AnalyticsCollector}: {@link AnalyticsCollector} with {@link Clock#DEFAULT}
      *   <li>{@link PriorityTaskManager}: {@code null} (not used)
      *   <li>{@link AudioAttributes}: {@link AudioAttributes#DEFAULT}, not handling audio focus
@@ -310,6 +312,25 @@ public class SimpleExoPlayer extends BasePlayer
       return this;
     }
 
+    /**
+     * Sets the {@link Looper} of the thread on which playback is run. If not set, or set to null,
+     * the player creates its own playback thread and terminates it when it's released.
+     *
+     * <p>Multiple players can share a playback thread, which saves creating a thread for each of
+     * them and allows {@link MediaSource MediaSources} to be prepared on the thread before they
+     * are passed to a player. The thread should run with {@link
+     * android.os.Process#THREAD_PRIORITY_AUDIO} and must outlive the players using it.
+     *
+     * @param playbackLooper A {@link Looper}, or null.
+     * @return This builder.
+     * @throws IllegalStateException If {@link #build()} has already been called.
+     */
+    public Builder setPlaybackLooper(@Nullable Looper playbackLooper) {
+      Assertions.checkState(!buildCalled);
+      this.playbackLooper = playbackLooper;
+      return this;
+    }
+
     /**
      * Sets the {@link AnalyticsCollector} that will collect and forward all player events.
      *
@@ -634,7 +655,8 @@ public class SimpleExoPlayer extends BasePlayer
             builder.seekParameters,
             builder.pauseAtEndOfMediaItems,
             builder.clock,
-            builder.looper);
+            builder.looper,
+            builder.playbackLooper);
     player.addListener(componentListener);
     videoDebugListeners.add(analyticsCollector);
     videoListeners.add(analyticsCollector);
@@ -1626,6 +1648,11 @@ public class SimpleExoPlayer extends BasePlayer
     return player.getPauseAtEndOfMediaItems();
   }
 
+  @Override
+  public MediaItemTransitionStats getMediaItemTransitionStats() {
+    return player.getMediaItemTransitionStats();
+  }
+
   @Override
   public @RepeatMode int getRepeatMode() {
     verifyApplicationThread();
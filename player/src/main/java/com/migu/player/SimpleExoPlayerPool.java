@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.migu.player;
+
+import android.content.Context;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+
+import com.migu.player.source.MediaSourceCache;
+import com.migu.player.util.Assertions;
+import com.migu.player.util.Util;
+
+import java.util.ArrayDeque;
+
+/**
+ * A pool of {@link SimpleExoPlayer} instances that are created ahead of time and reused, so that
+ * starting playback doesn't have to wait for a player to be built.
+ *
+ * <p>All players of a pool run playback on a single thread owned by the pool, whose {@link
+ * #getPlaybackLooper() looper} can be used to create a {@link MediaSourceCache} for the players.
+ * Players are kept in {@link ExoPlayer#setForegroundMode(boolean) foreground mode}, so that a
+ * player that is returned to the pool keeps the codecs its renderers have initialized, and doesn't
+ * need to initialize them again for media in the same format.
+ *
+ * <p>The pool must be created, accessed and released on the thread whose looper the players use
+ * as their {@link SimpleExoPlayer.Builder#setLooper(Looper) application looper}.
+ */
+public final class SimpleExoPlayerPool {
+
+  /** Creates the builders of the players of a pool. */
+  public interface BuilderFactory {
+
+    /**
+     * Returns a new {@link SimpleExoPlayer.Builder}. The pool sets the playback looper of the
+     * builder, which must not be built by the factory.
+     */
+    SimpleExoPlayer.Builder createBuilder();
+  }
+
+  /** The default maximum number of idle players kept by the pool. */
+  public static final int DEFAULT_MAX_IDLE_PLAYER_COUNT = 2;
+
+  private final BuilderFactory builderFactory;
+  private final int maxIdlePlayerCount;
+  private final Looper applicationLooper;
+  private final HandlerThread playbackThread;
+  private final ArrayDeque<SimpleExoPlayer> idlePlayers;
+
+  private int createdPlayerCount;
+  private int reusedPlayerCount;
+  private boolean released;
+
+  /**
+   * Creates a pool of players built with the default {@link SimpleExoPlayer.Builder}, keeping at
+   * most {@link #DEFAULT_MAX_IDLE_PLAYER_COUNT} idle players.
+   *
+   * @param context A {@link Context}.
+   */
+  public SimpleExoPlayerPool(Context context) {
+    this(
+        new BuilderFactory() {
+          @Override
+          public SimpleExoPlayer.Builder createBuilder() {
+            return new SimpleExoPlayer.Builder(context);
+          }
+        },
+        DEFAULT_MAX_IDLE_PLAYER_COUNT);
+  }
+
+  /**
+   * @param builderFactory A {@link BuilderFactory} for the players of the pool.
+   * @param maxIdlePlayerCount The maximum number of idle players kept by the pool. Idle players
+   *     hold on to their codecs, so the count should be kept low.
+   */
+  public SimpleExoPlayerPool(BuilderFactory builderFactory, int maxIdlePlayerCount) {
+    this.builderFactory = builderFactory;
+    this.maxIdlePlayerCount = maxIdlePlayerCount;
+    applicationLooper = Util.getCurrentOrMainLooper();
+    playbackThread = new HandlerThread("ExoPlayer:PlaybackPool", Process.THREAD_PRIORITY_AUDIO);
+    playbackThread.start();
+    idlePlayers = new ArrayDeque<>();
+  }
+
+  /** Returns the {@link Looper} of the thread on which all players of the pool run playback. */
+  public Looper getPlaybackLooper() {
+    return playbackThread.getLooper();
+  }
+
+  /** Returns the number of players the pool has created. */
+  public int getCreatedPlayerCount() {
+    return createdPlayerCount;
+  }
+
+  /** Returns the number of times {@link #acquire()} returned a previously used player. */
+  public int getReusedPlayerCount() {
+    return reusedPlayerCount;
+  }
+
+  /** Returns the number of idle players in the pool. */
+  public int getIdlePlayerCount() {
+    return idlePlayers.size();
+  }
+
+  /**
+   * Creates players until the pool holds {@code playerCount} idle players, or {@code
+   * maxIdlePlayerCount} if that is lower. Should be called ahead of the first calls to {@link
+   * #acquire()}, for example while the application starts.
+   *
+   * @param playerCount The number of idle players to hold.
+   */
+  public void warmUp(int playerCount) {
+    verifyApplicationThread();
+    int targetCount = Math.min(playerCount, maxIdlePlayerCount);
+    while (idlePlayers.size() < targetCount) {
+      idlePlayers.add(createPlayer());
+    }
+  }
+
+  /**
+   * Returns an idle player of the pool, or a new player if there is none. The player must be
+   * passed to {@link #release(SimpleExoPlayer)} once it's no longer used.
+   */
+  public SimpleExoPlayer acquire() {
+    verifyApplicationThread();
+    SimpleExoPlayer player = idlePlayers.pollFirst();
+    if (player == null) {
+      return createPlayer();
+    }
+    reusedPlayerCount++;
+    return player;
+  }
+
+  /**
+   * Returns a player to the pool. The player is stopped and its playlist is cleared. If the pool
+   * already holds the maximum number of idle players, the player is released instead.
+   *
+   * <p>Listeners, outputs and surfaces that have been set on the player must be removed before
+   * it's returned, as they would otherwise be used by the next user of the player.
+   *
+   * @param player A player obtained from {@link #acquire()}.
+   */
+  public void release(SimpleExoPlayer player) {
+    verifyApplicationThread();
+    Assertions.checkArgument(player.getPlaybackLooper() == getPlaybackLooper());
+    if (released || idlePlayers.size() >= maxIdlePlayerCount) {
+      player.release();
+      return;
+    }
+    player.stop(/* reset= */ true);
+    player.setPlayWhenReady(false);
+    player.setRepeatMode(Player.REPEAT_MODE_OFF);
+    player.setShuffleModeEnabled(false);
+    player.setPlaybackParameters(PlaybackParameters.DEFAULT);
+    // Return recently used players first, as their codecs are the most likely to be reusable.
+    idlePlayers.addFirst(player);
+  }
+
+  /**
+   * Releases the idle players and the playback thread of the pool. Players that have been
+   * acquired must be released before calling this method.
+   */
+  public void release() {
+    verifyApplicationThread();
+    if (released) {
+      return;
+    }
+    released = true;
+    while (!idlePlayers.isEmpty()) {
+      idlePlayers.removeFirst().release();
+    }
+    playbackThread.quitSafely();
+  }
+
+  private SimpleExoPlayer createPlayer() {
+    Assertions.checkState(!released);
+    SimpleExoPlayer player =
+        builderFactory
+            .createBuilder()
+            .setLooper(applicationLooper)
+            .setPlaybackLooper(getPlaybackLooper())
+            .build();
+    player.setForegroundMode(true);
+    createdPlayerCount++;
+    return player;
+  }
+
+  private void verifyApplicationThread() {
+    Assertions.checkState(Looper.myLooper() == applicationLooper);
+  }
+}
@@ -15,6 +15,7 @@
  */
 package com.migu.player.extractor;
 
+import android.support.annotation.GuardedBy;
 import android.support.annotation.IntDef;
 import android.support.annotation.Nullable;
 
@@ -26,6 +27,11 @@ import java.io.IOException;
 import java.lang.annotation.Documented;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
 
 /**
  * A seeker that supports seeking within a stream by searching for the target frame using binary
@@ -36,6 +42,12 @@ import java.lang.annotation.RetentionPolicy;
  * seek time, the seeker will find the corresponding target timestamp, and perform a search
  * operation within the stream to identify the target frame and return the byte position in the
  * stream of the target frame.
+ *
+ * <p>The search interpolates the position of the target frame from the timestamps found by
+ * previous probes, falling back to bisection when interpolation keeps missing on the same side of
+ * the target. The timestamps found by the probes of a seek are remembered, and narrow the initial
+ * range of later seeks, so that seeks in a large stream need few probes, each of which may require
+ * a new connection.
  */
 public abstract class BinarySearchSeeker {
 
@@ -90,6 +102,15 @@ public abstract class BinarySearchSeeker {
    */
   private static final long MAX_SKIP_BYTES = 256 * 1024;
 
+  /**
+   * The number of consecutive probes that may miss the target on the same side of the search
+   * range before the next probe bisects the range instead of interpolating.
+   */
+  private static final int MAX_INTERPOLATED_PROBES_PER_SIDE = 3;
+
+  /** The maximum number of timestamps found by probes that are remembered across seeks. */
+  private static final int MAX_LEARNED_POINT_COUNT = 1024;
+
   protected final BinarySearchSeekMap seekMap;
   protected final TimestampSeeker timestampSeeker;
   @Nullable protected SeekOperationParams seekOperationParams;
@@ -197,10 +218,14 @@ public abstract class BinarySearchSeeker {
         case TimestampSearchResult.TYPE_POSITION_OVERESTIMATED:
           seekOperationParams.updateSeekCeiling(
               timestampSearchResult.timestampToUpdate, timestampSearchResult.bytePositionToUpdate);
+          seekMap.addLearnedPoint(
+              timestampSearchResult.timestampToUpdate, timestampSearchResult.bytePositionToUpdate);
           break;
         case TimestampSearchResult.TYPE_POSITION_UNDERESTIMATED:
           seekOperationParams.updateSeekFloor(
               timestampSearchResult.timestampToUpdate, timestampSearchResult.bytePositionToUpdate);
+          seekMap.addLearnedPoint(
+              timestampSearchResult.timestampToUpdate, timestampSearchResult.bytePositionToUpdate);
           break;
         case TimestampSearchResult.TYPE_TARGET_TIMESTAMP_FOUND:
           skipInputUntilPosition(input, timestampSearchResult.bytePositionToUpdate);
@@ -220,13 +245,15 @@ public abstract class BinarySearchSeeker {
   }
 
   protected SeekOperationParams createSeekParamsForTargetTimeUs(long timeUs) {
+    long targetTimePosition = seekMap.timeUsToTargetTime(timeUs);
+    long[] searchBounds = seekMap.getSearchBounds(targetTimePosition);
     return new SeekOperationParams(
         timeUs,
-        seekMap.timeUsToTargetTime(timeUs),
-        seekMap.floorTimePosition,
-        seekMap.ceilingTimePosition,
-        seekMap.floorBytePosition,
-        seekMap.ceilingBytePosition,
+        targetTimePosition,
+        /* floorTimePosition= */ searchBounds[0],
+        /* ceilingTimePosition= */ searchBounds[1],
+        /* floorBytePosition= */ searchBounds[2],
+        /* ceilingBytePosition= */ searchBounds[3],
         seekMap.approxBytesPerFrame);
   }
 
@@ -276,6 +303,8 @@ public abstract class BinarySearchSeeker {
     private long floorBytePosition;
     private long ceilingBytePosition;
     private long nextSearchBytePosition;
+    private int floorUpdateCount;
+    private int ceilingUpdateCount;
 
     /**
      * Returns the next position in the stream to search for target frame, given [floorBytePosition,
@@ -363,6 +392,8 @@ public abstract class BinarySearchSeeker {
     private void updateSeekFloor(long floorTimePosition, long floorBytePosition) {
       this.floorTimePosition = floorTimePosition;
       this.floorBytePosition = floorBytePosition;
+      floorUpdateCount++;
+      ceilingUpdateCount = 0;
       updateNextSearchBytePosition();
     }
 
@@ -370,6 +401,8 @@ public abstract class BinarySearchSeeker {
     private void updateSeekCeiling(long ceilingTimePosition, long ceilingBytePosition) {
       this.ceilingTimePosition = ceilingTimePosition;
       this.ceilingBytePosition = ceilingBytePosition;
+      ceilingUpdateCount++;
+      floorUpdateCount = 0;
       updateNextSearchBytePosition();
     }
 
@@ -387,6 +420,19 @@ public abstract class BinarySearchSeeker {
               floorBytePosition,
               ceilingBytePosition,
               approxBytesPerFrame);
+      if (ceilingBytePosition - floorBytePosition <= MAX_SKIP_BYTES) {
+        // The target can be reached by skipping, so interpolating is never worse than bisecting.
+        return;
+      }
+      // Interpolation converges slowly if the bitrate varies a lot within the range, in which case
+      // the probes keep missing the target on the same side. Bisect the range to bound the number
+      // of probes.
+      long midBytePosition = floorBytePosition + (ceilingBytePosition - floorBytePosition) / 2;
+      if (floorUpdateCount >= MAX_INTERPOLATED_PROBES_PER_SIDE) {
+        nextSearchBytePosition = max(nextSearchBytePosition, midBytePosition);
+      } else if (ceilingUpdateCount >= MAX_INTERPOLATED_PROBES_PER_SIDE) {
+        nextSearchBytePosition = min(nextSearchBytePosition, midBytePosition);
+      }
     }
   }
 
@@ -489,6 +535,9 @@ public abstract class BinarySearchSeeker {
     private final long ceilingBytePosition;
     private final long approxBytesPerFrame;
 
+    @GuardedBy("this")
+    private final TreeMap<Long, Long> learnedBytePositions;
+
     /** Constructs a new instance of this seek map. */
     public BinarySearchSeekMap(
         SeekTimestampConverter seekTimestampConverter,
@@ -505,6 +554,7 @@ public abstract class BinarySearchSeeker {
       this.floorBytePosition = floorBytePosition;
       this.ceilingBytePosition = ceilingBytePosition;
       this.approxBytesPerFrame = approxBytesPerFrame;
+      learnedBytePositions = new TreeMap<>();
     }
 
     @Override
@@ -514,13 +564,15 @@ public abstract class BinarySearchSeeker {
 
     @Override
     public SeekPoints getSeekPoints(long timeUs) {
+      long targetTimePosition = seekTimestampConverter.timeUsToTargetTime(timeUs);
+      long[] searchBounds = getSearchBounds(targetTimePosition);
       long nextSearchPosition =
           SeekOperationParams.calculateNextSearchBytePosition(
-              /* targetTimePosition= */ seekTimestampConverter.timeUsToTargetTime(timeUs),
-              /* floorTimePosition= */ floorTimePosition,
-              /* ceilingTimePosition= */ ceilingTimePosition,
-              /* floorBytePosition= */ floorBytePosition,
-              /* ceilingBytePosition= */ ceilingBytePosition,
+              targetTimePosition,
+              /* floorTimePosition= */ searchBounds[0],
+              /* ceilingTimePosition= */ searchBounds[1],
+              /* floorBytePosition= */ searchBounds[2],
+              /* ceilingBytePosition= */ searchBounds[3],
               /* approxBytesPerFrame= */ approxBytesPerFrame);
       return new SeekPoints(new SeekPoint(timeUs, nextSearchPosition));
     }
@@ -534,5 +586,52 @@ public abstract class BinarySearchSeeker {
     public long timeUsToTargetTime(long timeUs) {
       return seekTimestampConverter.timeUsToTargetTime(timeUs);
     }
+
+    /** Remembers the timestamp found at a byte position by a probe. */
+    private synchronized void addLearnedPoint(long timePosition, long bytePosition) {
+      if (learnedBytePositions.size() < MAX_LEARNED_POINT_COUNT) {
+        learnedBytePositions.put(timePosition, bytePosition);
+      }
+    }
+
+    /**
+     * Returns the floor time position, ceiling time position, floor byte position and ceiling byte
+     * position of the range in which to search for {@code targetTimePosition}, narrowed down to
+     * the closest points learned around the target.
+     */
+    private synchronized long[] getSearchBounds(long targetTimePosition) {
+      long floorTimePosition = this.floorTimePosition;
+      long ceilingTimePosition = this.ceilingTimePosition;
+      long floorBytePosition = this.floorBytePosition;
+      long ceilingBytePosition = this.ceilingBytePosition;
+      @Nullable
+      Map.Entry<Long, Long> floorEntry = learnedBytePositions.floorEntry(targetTimePosition);
+      if (floorEntry != null
+          && floorEntry.getKey() > floorTimePosition
+          && floorEntry.getValue() > floorBytePosition) {
+        floorTimePosition = floorEntry.getKey();
+        floorBytePosition = floorEntry.getValue();
+      }
+      @Nullable
+      Map.Entry<Long, Long> ceilingEntry = learnedBytePositions.higherEntry(targetTimePosition);
+      if (ceilingEntry != null
+          && ceilingEntry.getKey() < ceilingTimePosition
+          && ceilingEntry.getValue() < ceilingBytePosition) {
+        ceilingTimePosition = ceilingEntry.getKey();
+        ceilingBytePosition = ceilingEntry.getValue();
+      }
+      if (floorBytePosition >= ceilingBytePosition) {
+        // The learned points are inconsistent, for example because timestamps aren't monotonic.
+        return new long[] {
+          this.floorTimePosition,
+          this.ceilingTimePosition,
+          this.floorBytePosition,
+          this.ceilingBytePosition
+        };
+      }
+      return new long[] {
+        floorTimePosition, ceilingTimePosition, floorBytePosition, ceilingBytePosition
+      };
+    }
   }
 }
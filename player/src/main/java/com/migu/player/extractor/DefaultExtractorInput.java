@@ -23,7 +23,6 @@ import com.migu.player.util.Util;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InterruptedIOException;
-import java.util.Arrays;
 
 import static java.lang.Math.min;
 
@@ -40,8 +39,11 @@ public final class DefaultExtractorInput implements ExtractorInput {
 
   private long position;
   private byte[] peekBuffer;
+  private int peekBufferStart;
   private int peekBufferPosition;
   private int peekBufferLength;
+  // Written by the loading thread and read by any thread.
+  private volatile long bytesCopied;
 
   /**
    * @param dataReader The wrapped {@link DataReader}.
@@ -120,7 +122,7 @@ public final class DefaultExtractorInput implements ExtractorInput {
       bytesPeeked =
           readFromUpstream(
               peekBuffer,
-              peekBufferPosition,
+              peekBufferStart + peekBufferPosition,
               length,
               /* bytesAlreadyRead= */ 0,
               /* allowEndOfInput= */ true);
@@ -131,7 +133,8 @@ public final class DefaultExtractorInput implements ExtractorInput {
     } else {
       bytesPeeked = min(length, peekBufferRemainingBytes);
     }
-    System.arraycopy(peekBuffer, peekBufferPosition, target, offset, bytesPeeked);
+    System.arraycopy(
+        peekBuffer, peekBufferStart + peekBufferPosition, target, offset, bytesPeeked);
     peekBufferPosition += bytesPeeked;
     return bytesPeeked;
   }
@@ -142,7 +145,8 @@ public final class DefaultExtractorInput implements ExtractorInput {
     if (!advancePeekPosition(length, allowEndOfInput)) {
       return false;
     }
-    System.arraycopy(peekBuffer, peekBufferPosition - length, target, offset, length);
+    System.arraycopy(
+        peekBuffer, peekBufferStart + peekBufferPosition - length, target, offset, length);
     return true;
   }
 
@@ -157,7 +161,12 @@ public final class DefaultExtractorInput implements ExtractorInput {
     int bytesPeeked = peekBufferLength - peekBufferPosition;
     while (bytesPeeked < length) {
       bytesPeeked =
-          readFromUpstream(peekBuffer, peekBufferPosition, length, bytesPeeked, allowEndOfInput);
+          readFromUpstream(
+              peekBuffer,
+              peekBufferStart + peekBufferPosition,
+              length,
+              bytesPeeked,
+              allowEndOfInput);
       if (bytesPeeked == C.RESULT_END_OF_INPUT) {
         return false;
       }
@@ -192,6 +201,16 @@ public final class DefaultExtractorInput implements ExtractorInput {
     return streamLength;
   }
 
+  /**
+   * Returns the number of bytes that were copied through the peek buffer of the input, rather than
+   * read from the {@link DataReader} straight into the arrays passed to the input. This is the
+   * number of bytes read after being peeked, plus the number of bytes moved to make space in the
+   * peek buffer.
+   */
+  public long getBytesCopied() {
+    return bytesCopied;
+  }
+
   @Override
   public <E extends Throwable> void setRetryPosition(long position, E e) throws E {
     Assertions.checkArgument(position >= 0);
@@ -205,11 +224,20 @@ public final class DefaultExtractorInput implements ExtractorInput {
    */
   private void ensureSpaceForPeek(int length) {
     int requiredLength = peekBufferPosition + length;
+    if (peekBufferStart + requiredLength <= peekBuffer.length) {
+      return;
+    }
+    byte[] newPeekBuffer = peekBuffer;
     if (requiredLength > peekBuffer.length) {
       int newPeekCapacity = Util.constrainValue(peekBuffer.length * 2,
           requiredLength + PEEK_MIN_FREE_SPACE_AFTER_RESIZE, requiredLength + PEEK_MAX_FREE_SPACE);
-      peekBuffer = Arrays.copyOf(peekBuffer, newPeekCapacity);
+      newPeekBuffer = new byte[newPeekCapacity];
     }
+    // Move the peeked data to the start of the buffer, reclaiming the space of consumed data.
+    System.arraycopy(peekBuffer, peekBufferStart, newPeekBuffer, 0, peekBufferLength);
+    bytesCopied += peekBufferLength;
+    peekBuffer = newPeekBuffer;
+    peekBufferStart = 0;
   }
 
   /**
@@ -237,7 +265,8 @@ public final class DefaultExtractorInput implements ExtractorInput {
       return 0;
     }
     int peekBytes = min(peekBufferLength, length);
-    System.arraycopy(peekBuffer, 0, target, offset, peekBytes);
+    System.arraycopy(peekBuffer, peekBufferStart, target, offset, peekBytes);
+    bytesCopied += peekBytes;
     updatePeekBuffer(peekBytes);
     return peekBytes;
   }
@@ -249,13 +278,20 @@ public final class DefaultExtractorInput implements ExtractorInput {
    */
   private void updatePeekBuffer(int bytesConsumed) {
     peekBufferLength -= bytesConsumed;
+    peekBufferStart += bytesConsumed;
     peekBufferPosition = 0;
-    byte[] newPeekBuffer = peekBuffer;
+    if (peekBufferLength == 0) {
+      peekBufferStart = 0;
+    }
+    // The remaining data is only moved when the buffer shrinks or runs out of space, rather than
+    // after every read, which would copy it again for each read from the buffer.
     if (peekBufferLength < peekBuffer.length - PEEK_MAX_FREE_SPACE) {
-      newPeekBuffer = new byte[peekBufferLength + PEEK_MIN_FREE_SPACE_AFTER_RESIZE];
+      byte[] newPeekBuffer = new byte[peekBufferLength + PEEK_MIN_FREE_SPACE_AFTER_RESIZE];
+      System.arraycopy(peekBuffer, peekBufferStart, newPeekBuffer, 0, peekBufferLength);
+      bytesCopied += peekBufferLength;
+      peekBuffer = newPeekBuffer;
+      peekBufferStart = 0;
     }
-    System.arraycopy(peekBuffer, bytesConsumed, newPeekBuffer, 0, peekBufferLength);
-    peekBuffer = newPeekBuffer;
   }
 
   /**
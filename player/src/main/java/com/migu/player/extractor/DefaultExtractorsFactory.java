@@ -21,7 +21,9 @@ import android.support.annotation.Nullable;
 import com.migu.player.extractor.amr.AmrExtractor;
 import com.migu.player.extractor.flac.FlacExtractor;
 import com.migu.player.extractor.flv.FlvExtractor;
+import com.migu.player.extractor.mkv.ClusterIndexStore;
 import com.migu.player.extractor.mkv.MatroskaExtractor;
+import com.migu.player.extractor.mp3.FrameIndexStore;
 import com.migu.player.extractor.mp3.Mp3Extractor;
 import com.migu.player.extractor.mp4.FragmentedMp4Extractor;
 import com.migu.player.extractor.mp4.Mp4Extractor;
@@ -31,6 +33,7 @@ import com.migu.player.extractor.ts.Ac4Extractor;
 import com.migu.player.extractor.ts.AdtsExtractor;
 import com.migu.player.extractor.ts.DefaultTsPayloadReaderFactory;
 import com.migu.player.extractor.ts.PsExtractor;
+import com.migu.player.extractor.ts.TimestampRangeStore;
 import com.migu.player.extractor.ts.TsExtractor;
 import com.migu.player.extractor.ts.TsPayloadReader;
 import com.migu.player.extractor.wav.WavExtractor;
@@ -128,12 +131,15 @@ public final class DefaultExtractorsFactory implements ExtractorsFactory {
   @AmrExtractor.Flags private int amrFlags;
   @FlacExtractor.Flags private int flacFlags;
   @MatroskaExtractor.Flags private int matroskaFlags;
+  @Nullable private ClusterIndexStore matroskaClusterIndexStore;
   @Mp4Extractor.Flags private int mp4Flags;
   @FragmentedMp4Extractor.Flags private int fragmentedMp4Flags;
   @Mp3Extractor.Flags private int mp3Flags;
+  @Nullable private FrameIndexStore mp3FrameIndexStore;
   @TsExtractor.Mode private int tsMode;
   @DefaultTsPayloadReaderFactory.Flags private int tsFlags;
   private int tsTimestampSearchBytes;
+  @Nullable private TimestampRangeStore tsTimestampRangeStore;
 
   public DefaultExtractorsFactory() {
     tsMode = TsExtractor.MODE_SINGLE_PMT;
@@ -210,6 +216,22 @@ public final class DefaultExtractorsFactory implements ExtractorsFactory {
     return this;
   }
 
+  /**
+   * Sets the {@link ClusterIndexStore} in which {@link MatroskaExtractor} instances created by the
+   * factory store the cluster indexes of files without a Cues element, so that the files are
+   * seekable when they're played again. The default value is null, in which case such files are
+   * unseekable.
+   *
+   * @see MatroskaExtractor#MatroskaExtractor(int, ClusterIndexStore, Uri)
+   * @param clusterIndexStore The {@link ClusterIndexStore} to use, or null.
+   * @return The factory, for convenience.
+   */
+  public synchronized DefaultExtractorsFactory setMatroskaClusterIndexStore(
+      @Nullable ClusterIndexStore clusterIndexStore) {
+    this.matroskaClusterIndexStore = clusterIndexStore;
+    return this;
+  }
+
   /**
    * Sets flags for {@link Mp4Extractor} instances created by the factory.
    *
@@ -247,6 +269,22 @@ public final class DefaultExtractorsFactory implements ExtractorsFactory {
     return this;
   }
 
+  /**
+   * Sets the {@link FrameIndexStore} in which {@link Mp3Extractor} instances created by the
+   * factory store the frame indexes of files without seeking metadata, so that the files seek
+   * exactly when they're played again. The default value is null, in which case such files seek
+   * as configured by the {@link Mp3Extractor.Flags}.
+   *
+   * @see Mp3Extractor#Mp3Extractor(int, FrameIndexStore, Uri)
+   * @param frameIndexStore The {@link FrameIndexStore} to use, or null.
+   * @return The factory, for convenience.
+   */
+  public synchronized DefaultExtractorsFactory setMp3FrameIndexStore(
+      @Nullable FrameIndexStore frameIndexStore) {
+    this.mp3FrameIndexStore = frameIndexStore;
+    return this;
+  }
+
   /**
    * Sets the mode for {@link TsExtractor} instances created by the factory.
    *
@@ -287,6 +325,23 @@ public final class DefaultExtractorsFactory implements ExtractorsFactory {
     return this;
   }
 
+  /**
+   * Sets the {@link TimestampRangeStore} in which {@link TsExtractor} and {@link PsExtractor}
+   * instances created by the factory store the timestamp ranges of progressive streams, so that
+   * the durations of the streams are known without searching their start and end when they're
+   * prepared again. The default value is null, in which case the durations are always searched.
+   *
+   * @see TsExtractor#TsExtractor(int, int, int, TimestampRangeStore, Uri)
+   * @see PsExtractor#PsExtractor(TimestampRangeStore, Uri)
+   * @param timestampRangeStore The {@link TimestampRangeStore} to use, or null.
+   * @return The factory, for convenience.
+   */
+  public synchronized DefaultExtractorsFactory setTsTimestampRangeStore(
+      @Nullable TimestampRangeStore timestampRangeStore) {
+    this.tsTimestampRangeStore = timestampRangeStore;
+    return this;
+  }
+
   @Override
   public synchronized Extractor[] createExtractors() {
     return createExtractors(Uri.EMPTY, new HashMap<>());
@@ -300,25 +355,26 @@ public final class DefaultExtractorsFactory implements ExtractorsFactory {
     @FileTypes.Type
     int responseHeadersInferredFileType = inferFileTypeFromResponseHeaders(responseHeaders);
     if (responseHeadersInferredFileType != FileTypes.UNKNOWN) {
-      addExtractorsForFileType(responseHeadersInferredFileType, extractors);
+      addExtractorsForFileType(responseHeadersInferredFileType, uri, extractors);
     }
 
     @FileTypes.Type int uriInferredFileType = inferFileTypeFromUri(uri);
     if (uriInferredFileType != FileTypes.UNKNOWN
         && uriInferredFileType != responseHeadersInferredFileType) {
-      addExtractorsForFileType(uriInferredFileType, extractors);
+      addExtractorsForFileType(uriInferredFileType, uri, extractors);
     }
 
     for (int fileType : DEFAULT_EXTRACTOR_ORDER) {
       if (fileType != responseHeadersInferredFileType && fileType != uriInferredFileType) {
-        addExtractorsForFileType(fileType, extractors);
+        addExtractorsForFileType(fileType, uri, extractors);
       }
     }
 
     return extractors.toArray(new Extractor[extractors.size()]);
   }
 
-  private void addExtractorsForFileType(@FileTypes.Type int fileType, List<Extractor> extractors) {
+  private void addExtractorsForFileType(
+      @FileTypes.Type int fileType, Uri uri, List<Extractor> extractors) {
     switch (fileType) {
       case FileTypes.AC3:
         extractors.add(new Ac3Extractor());
@@ -358,7 +414,7 @@ public final class DefaultExtractorsFactory implements ExtractorsFactory {
         extractors.add(new FlvExtractor());
         break;
       case FileTypes.MATROSKA:
-        extractors.add(new MatroskaExtractor(matroskaFlags));
+        extractors.add(new MatroskaExtractor(matroskaFlags, matroskaClusterIndexStore, uri));
         break;
       case FileTypes.MP3:
         extractors.add(
@@ -366,7 +422,9 @@ public final class DefaultExtractorsFactory implements ExtractorsFactory {
                 mp3Flags
                     | (constantBitrateSeekingEnabled
                         ? Mp3Extractor.FLAG_ENABLE_CONSTANT_BITRATE_SEEKING
-                        : 0)));
+                        : 0),
+                mp3FrameIndexStore,
+                uri));
         break;
       case FileTypes.MP4:
         extractors.add(new FragmentedMp4Extractor(fragmentedMp4Flags));
@@ -376,10 +434,11 @@ public final class DefaultExtractorsFactory implements ExtractorsFactory {
         extractors.add(new OggExtractor());
         break;
       case FileTypes.PS:
-        extractors.add(new PsExtractor());
+        extractors.add(new PsExtractor(tsTimestampRangeStore, uri));
         break;
       case FileTypes.TS:
-        extractors.add(new TsExtractor(tsMode, tsFlags, tsTimestampSearchBytes));
+        extractors.add(
+            new TsExtractor(tsMode, tsFlags, tsTimestampSearchBytes, tsTimestampRangeStore, uri));
         break;
       case FileTypes.WAV:
         extractors.add(new WavExtractor());
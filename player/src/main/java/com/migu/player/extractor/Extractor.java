@@ -116,6 +116,14 @@ public interface Extractor {
    */
   void seek(long position, long timeUs);
 
+  /**
+   * Blocks until the data that has been read is fully output, for extractors that parse data on
+   * other threads. Called when reading stops, for example because the load has been canceled,
+   * before the outputs may be used or reset on other threads. Parse errors are thrown by the next
+   * call to {@link #read(ExtractorInput, PositionHolder)}.
+   */
+  default void flush() {}
+
   /**
    * Releases all kept resources.
    */
@@ -19,10 +19,12 @@ import com.migu.player.C;
 import com.migu.player.Format;
 import com.migu.player.ParserException;
 import com.migu.player.audio.AacUtil;
+import com.migu.player.extractor.ExtractorInput;
 import com.migu.player.extractor.TrackOutput;
 import com.migu.player.util.MimeTypes;
 import com.migu.player.util.ParsableByteArray;
 
+import java.io.IOException;
 import java.util.Collections;
 
 /**
@@ -40,13 +42,18 @@ import java.util.Collections;
 
   private static final int[] AUDIO_SAMPLING_RATE_TABLE = new int[] {5512, 11025, 22050, 44100};
 
+  private final byte[] packetHeader;
+
   // State variables
   private boolean hasParsedAudioDataHeader;
   private boolean hasOutputFormat;
   private int audioFormat;
+  private int sampleSize;
+  private int sampleBytesRemaining;
 
   public AudioTagPayloadReader(TrackOutput output) {
     super(output);
+    packetHeader = new byte[2];
   }
 
   @Override
@@ -92,6 +99,41 @@ import java.util.Collections;
     return true;
   }
 
+  @Override
+  public boolean consumeSample(ExtractorInput input, int payloadSize, long timeUs)
+      throws IOException {
+    if (sampleBytesRemaining == 0) {
+      if (!hasParsedAudioDataHeader || !hasOutputFormat || payloadSize < 2) {
+        return false;
+      }
+      int headerSize = 1;
+      if (audioFormat != AUDIO_FORMAT_MP3) {
+        // The header is followed by the packet type, which is consumed as in parsePayload.
+        input.peekFully(packetHeader, /* offset= */ 0, /* length= */ 2);
+        input.resetPeekPosition();
+        int packetType = packetHeader[1] & 0xFF;
+        if (audioFormat == AUDIO_FORMAT_AAC && packetType != AAC_PACKET_TYPE_AAC_RAW) {
+          return false;
+        }
+        headerSize = 2;
+      }
+      input.skipFully(headerSize);
+      sampleSize = payloadSize - headerSize;
+      sampleBytesRemaining = sampleSize;
+    }
+    while (sampleBytesRemaining > 0) {
+      sampleBytesRemaining -=
+          output.sampleData(input, sampleBytesRemaining, /* allowEndOfInput= */ false);
+    }
+    output.sampleMetadata(timeUs, C.BUFFER_FLAG_KEY_FRAME, sampleSize, 0, null);
+    return true;
+  }
+
+  @Override
+  public void resetPendingSample() {
+    sampleBytesRemaining = 0;
+  }
+
   @Override
   protected boolean parsePayload(ParsableByteArray data, long timeUs) throws ParserException {
     if (audioFormat == AUDIO_FORMAT_MP3) {
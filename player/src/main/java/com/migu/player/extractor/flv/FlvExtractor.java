@@ -149,6 +149,12 @@ public final class FlvExtractor implements Extractor {
       state = STATE_READING_TAG_HEADER;
     }
     bytesToNextTagHeader = 0;
+    if (audioReader != null) {
+      audioReader.resetPendingSample();
+    }
+    if (videoReader != null) {
+      videoReader.resetPendingSample();
+    }
   }
 
   @Override
@@ -268,10 +274,10 @@ public final class FlvExtractor implements Extractor {
     long timestampUs = getCurrentTimestampUs();
     if (tagType == TAG_TYPE_AUDIO && audioReader != null) {
       ensureReadyForMediaOutput();
-      wasSampleOutput = audioReader.consume(prepareTagData(input), timestampUs);
+      wasSampleOutput = consumeTagData(audioReader, input, timestampUs);
     } else if (tagType == TAG_TYPE_VIDEO && videoReader != null) {
       ensureReadyForMediaOutput();
-      wasSampleOutput = videoReader.consume(prepareTagData(input), timestampUs);
+      wasSampleOutput = consumeTagData(videoReader, input, timestampUs);
     } else if (tagType == TAG_TYPE_SCRIPT_DATA && !outputSeekMap) {
       wasSampleOutput = metadataReader.consume(prepareTagData(input), timestampUs);
       long durationUs = metadataReader.getDurationUs();
@@ -297,6 +303,16 @@ public final class FlvExtractor implements Extractor {
     return wasConsumed;
   }
 
+  /**
+   * Passes the body of an audio or video tag to a {@link TagPayloadReader}, reading it straight
+   * into the output if the reader supports it, and copying it into {@link #tagData} otherwise.
+   */
+  private boolean consumeTagData(
+      TagPayloadReader reader, ExtractorInput input, long timestampUs) throws IOException {
+    return reader.consumeSample(input, tagDataSize, timestampUs)
+        || reader.consume(prepareTagData(input), timestampUs);
+  }
+
   private ParsableByteArray prepareTagData(ExtractorInput input) throws IOException {
     if (tagDataSize > tagData.capacity()) {
       tagData.reset(new byte[max(tagData.capacity() * 2, tagDataSize)], 0);
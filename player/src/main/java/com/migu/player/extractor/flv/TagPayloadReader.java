@@ -16,9 +16,12 @@
 package com.migu.player.extractor.flv;
 
 import com.migu.player.ParserException;
+import com.migu.player.extractor.ExtractorInput;
 import com.migu.player.extractor.TrackOutput;
 import com.migu.player.util.ParsableByteArray;
 
+import java.io.IOException;
+
 /**
  * Extracts individual samples from FLV tags, preserving original order.
  */
@@ -65,6 +68,35 @@ import com.migu.player.util.ParsableByteArray;
     return parseHeader(data) && parsePayload(data, timeUs);
   }
 
+  /**
+   * Consumes payload data directly from an {@link ExtractorInput} if the payload holds a sample
+   * whose data can be written to the output as it's read, without copying the payload into a
+   * buffer first.
+   *
+   * <p>If reading from the input fails, the method must be called again with the same arguments
+   * to resume writing the sample, unless {@link #resetPendingSample()} is called first.
+   *
+   * @param input The {@link ExtractorInput} from which to read the payload.
+   * @param payloadSize The size of the payload.
+   * @param timeUs The timestamp associated with the payload.
+   * @return Whether the payload was consumed, in which case a sample was output. If false, nothing
+   *     was read from the input, and the payload must be passed to {@link
+   *     #consume(ParsableByteArray, long)} instead.
+   * @throws IOException If an error occurs reading or parsing the payload.
+   */
+  public boolean consumeSample(ExtractorInput input, int payloadSize, long timeUs)
+      throws IOException {
+    return false;
+  }
+
+  /**
+   * Discards the state of a sample that {@link #consumeSample(ExtractorInput, int, long)} failed
+   * to finish writing, as the input no longer continues it.
+   */
+  public void resetPendingSample() {
+    // Do nothing.
+  }
+
   /**
    * Parses tag header.
    *
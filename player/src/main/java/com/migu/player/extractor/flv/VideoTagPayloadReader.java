@@ -18,12 +18,15 @@ package com.migu.player.extractor.flv;
 import com.migu.player.C;
 import com.migu.player.Format;
 import com.migu.player.ParserException;
+import com.migu.player.extractor.ExtractorInput;
 import com.migu.player.extractor.TrackOutput;
 import com.migu.player.util.MimeTypes;
 import com.migu.player.util.NalUnitUtil;
 import com.migu.player.util.ParsableByteArray;
 import com.migu.player.video.AvcConfig;
 
+import java.io.IOException;
+
 /**
  * Parses video tags from an FLV stream and extracts H.264 nal units.
  */
@@ -40,9 +43,13 @@ import com.migu.player.video.AvcConfig;
   private static final int AVC_PACKET_TYPE_SEQUENCE_HEADER = 0;
   private static final int AVC_PACKET_TYPE_AVC_NALU = 1;
 
+  // The size of the header, packet type and composition time that precede the NAL units of a tag.
+  private static final int PACKET_HEADER_SIZE = 5;
+
   // Temporary arrays.
   private final ParsableByteArray nalStartCode;
   private final ParsableByteArray nalLength;
+  private final ParsableByteArray packetHeader;
   private int nalUnitLengthFieldLength;
 
   // State variables.
@@ -50,6 +57,12 @@ import com.migu.player.video.AvcConfig;
   private boolean hasOutputKeyframe;
   private int frameType;
 
+  // State of the sample being written by consumeSample.
+  private long sampleTimeUs;
+  private int sampleBytesRemaining;
+  private int sampleBytesWritten;
+  private int nalUnitBytesRemaining;
+
   /**
    * @param output A {@link TrackOutput} to which samples should be written.
    */
@@ -57,6 +70,7 @@ import com.migu.player.video.AvcConfig;
     super(output);
     nalStartCode = new ParsableByteArray(NalUnitUtil.NAL_START_CODE);
     nalLength = new ParsableByteArray(4);
+    packetHeader = new ParsableByteArray(PACKET_HEADER_SIZE);
   }
 
   @Override
@@ -77,6 +91,84 @@ import com.migu.player.video.AvcConfig;
     return (frameType != VIDEO_FRAME_VIDEO_INFO);
   }
 
+  @Override
+  public boolean consumeSample(ExtractorInput input, int payloadSize, long timeUs)
+      throws IOException {
+    if (sampleBytesRemaining == 0) {
+      if (!hasOutputFormat || payloadSize <= PACKET_HEADER_SIZE) {
+        return false;
+      }
+      input.peekFully(packetHeader.getData(), /* offset= */ 0, PACKET_HEADER_SIZE);
+      input.resetPeekPosition();
+      packetHeader.setPosition(0);
+      int header = packetHeader.readUnsignedByte();
+      int frameType = (header >> 4) & 0x0F;
+      int videoCodec = (header & 0x0F);
+      int packetType = packetHeader.readUnsignedByte();
+      boolean isKeyframe = frameType == VIDEO_FRAME_KEYFRAME;
+      // Leave unsupported codecs, sequence headers and skipped frames to consume.
+      if (videoCodec != VIDEO_CODEC_AVC
+          || frameType == VIDEO_FRAME_VIDEO_INFO
+          || packetType != AVC_PACKET_TYPE_AVC_NALU
+          || (!hasOutputKeyframe && !isKeyframe)) {
+        return false;
+      }
+      this.frameType = frameType;
+      sampleTimeUs = timeUs + packetHeader.readInt24() * 1000L;
+      input.skipFully(PACKET_HEADER_SIZE);
+      sampleBytesRemaining = payloadSize - PACKET_HEADER_SIZE;
+      sampleBytesWritten = 0;
+      nalUnitBytesRemaining = 0;
+    }
+    byte[] nalLengthData = nalLength.getData();
+    nalLengthData[0] = 0;
+    nalLengthData[1] = 0;
+    nalLengthData[2] = 0;
+    int nalUnitLengthFieldLengthDiff = 4 - nalUnitLengthFieldLength;
+    // As in parsePayload, replace the length delimiters of the NAL units with start codes, but
+    // write the payloads of the NAL units straight from the input.
+    while (sampleBytesRemaining > 0) {
+      if (nalUnitBytesRemaining == 0) {
+        if (sampleBytesRemaining < nalUnitLengthFieldLength) {
+          sampleBytesRemaining = 0;
+          throw new ParserException("Truncated NAL unit length in FLV video tag");
+        }
+        input.readFully(nalLengthData, nalUnitLengthFieldLengthDiff, nalUnitLengthFieldLength);
+        sampleBytesRemaining -= nalUnitLengthFieldLength;
+        nalLength.setPosition(0);
+        nalUnitBytesRemaining = nalLength.readUnsignedIntToInt();
+        if (nalUnitBytesRemaining > sampleBytesRemaining) {
+          sampleBytesRemaining = 0;
+          nalUnitBytesRemaining = 0;
+          throw new ParserException("NAL unit exceeds FLV video tag");
+        }
+        nalStartCode.setPosition(0);
+        output.sampleData(nalStartCode, 4);
+        sampleBytesWritten += 4;
+      } else {
+        int bytesAppended =
+            output.sampleData(input, nalUnitBytesRemaining, /* allowEndOfInput= */ false);
+        nalUnitBytesRemaining -= bytesAppended;
+        sampleBytesRemaining -= bytesAppended;
+        sampleBytesWritten += bytesAppended;
+      }
+    }
+    output.sampleMetadata(
+        sampleTimeUs,
+        frameType == VIDEO_FRAME_KEYFRAME ? C.BUFFER_FLAG_KEY_FRAME : 0,
+        sampleBytesWritten,
+        0,
+        null);
+    hasOutputKeyframe = true;
+    return true;
+  }
+
+  @Override
+  public void resetPendingSample() {
+    sampleBytesRemaining = 0;
+    nalUnitBytesRemaining = 0;
+  }
+
   @Override
   protected boolean parsePayload(ParsableByteArray data, long timeUs) throws ParserException {
     int packetType = data.readUnsignedByte();
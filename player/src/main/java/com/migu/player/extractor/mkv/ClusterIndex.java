@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.migu.player.extractor.mkv;
+
+import android.support.annotation.Nullable;
+
+import com.migu.player.C;
+import com.migu.player.extractor.ChunkIndex;
+import com.migu.player.extractor.SeekMap;
+import com.migu.player.util.Assertions;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static java.lang.Math.min;
+
+/**
+ * A sparse index of the Cluster elements of a Matroska file, built by {@link MatroskaExtractor}
+ * while reading a file that has no Cues element.
+ *
+ * <p>The index holds the start time and position of clusters that start at least a second apart,
+ * from the start of the file up to the furthest cluster that has been read.
+ */
+public final class ClusterIndex {
+
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 4 + 8 + 8 + 8 + 4;
+  private static final int ENTRY_SIZE = 8 + 8;
+
+  /** The position of the content of the Segment element of the file. */
+  public final long segmentContentPosition;
+  /** The size of the content of the Segment element of the file. */
+  public final long segmentContentSize;
+  /** The duration of the file, in microseconds. */
+  public final long durationUs;
+
+  private final long[] timesUs;
+  private final long[] positions;
+
+  /**
+   * @param segmentContentPosition See {@link #segmentContentPosition}.
+   * @param segmentContentSize See {@link #segmentContentSize}.
+   * @param durationUs See {@link #durationUs}.
+   * @param timesUs The start times of the indexed clusters, in microseconds, in increasing order.
+   * @param positions The positions of the indexed clusters, in increasing order.
+   */
+  public ClusterIndex(
+      long segmentContentPosition,
+      long segmentContentSize,
+      long durationUs,
+      long[] timesUs,
+      long[] positions) {
+    Assertions.checkArgument(timesUs.length == positions.length);
+    this.segmentContentPosition = segmentContentPosition;
+    this.segmentContentSize = segmentContentSize;
+    this.durationUs = durationUs;
+    this.timesUs = timesUs;
+    this.positions = positions;
+  }
+
+  /** Returns the number of indexed clusters. */
+  public int getClusterCount() {
+    return timesUs.length;
+  }
+
+  /** Returns the start time of the indexed cluster at {@code index}, in microseconds. */
+  public long getTimeUs(int index) {
+    return timesUs[index];
+  }
+
+  /** Returns the position of the indexed cluster at {@code index}. */
+  public long getPosition(int index) {
+    return positions[index];
+  }
+
+  /**
+   * Returns whether the index was built for a Segment element with the given properties.
+   *
+   * @param segmentContentPosition The position of the content of the Segment element.
+   * @param segmentContentSize The size of the content of the Segment element.
+   * @param durationUs The duration of the file, in microseconds.
+   */
+  public boolean matches(long segmentContentPosition, long segmentContentSize, long durationUs) {
+    return this.segmentContentPosition == segmentContentPosition
+        && this.segmentContentSize == segmentContentSize
+        && this.durationUs == durationUs;
+  }
+
+  /**
+   * Returns a {@link SeekMap} that seeks to the indexed clusters. Seeking beyond the last indexed
+   * cluster seeks to the last indexed cluster.
+   *
+   * <p>The last indexed cluster extends to the end of the Segment element, or to the end of the
+   * input if the size of the Segment element is unknown or exceeds the input. If neither is known,
+   * the last indexed cluster only marks the end of the previous one.
+   *
+   * @param inputLength The length of the input, or {@link C#LENGTH_UNSET} if unknown.
+   * @return The {@link SeekMap}.
+   */
+  public SeekMap toSeekMap(long inputLength) {
+    long endPosition =
+        segmentContentSize == C.LENGTH_UNSET
+            ? C.POSITION_UNSET
+            : segmentContentPosition + segmentContentSize;
+    if (inputLength != C.LENGTH_UNSET
+        && (endPosition == C.POSITION_UNSET || endPosition > inputLength)) {
+      endPosition = inputLength;
+    }
+    int clusterCount = timesUs.length;
+    if (clusterCount > 0 && durationUs - timesUs[clusterCount - 1] <= 0) {
+      clusterCount--;
+    }
+    if (clusterCount > 0 && endPosition == C.POSITION_UNSET) {
+      if (clusterCount == timesUs.length) {
+        clusterCount--;
+      }
+      endPosition = positions[clusterCount];
+    }
+    if (clusterCount == 0 || durationUs == C.TIME_UNSET) {
+      return new SeekMap.Unseekable(durationUs);
+    }
+    int[] sizes = new int[clusterCount];
+    long[] offsets = Arrays.copyOf(positions, clusterCount);
+    long[] durationsUs = new long[clusterCount];
+    long[] timesUs = Arrays.copyOf(this.timesUs, clusterCount);
+    for (int i = 0; i < clusterCount; i++) {
+      long chunkEndPosition = i < clusterCount - 1 ? offsets[i + 1] : endPosition;
+      long chunkEndTimeUs = i < clusterCount - 1 ? timesUs[i + 1] : durationUs;
+      sizes[i] = (int) min(Integer.MAX_VALUE, chunkEndPosition - offsets[i]);
+      durationsUs[i] = chunkEndTimeUs - timesUs[i];
+    }
+    return new ChunkIndex(sizes, offsets, durationsUs, timesUs);
+  }
+
+  /** Serializes the index, so that it can be restored by {@link #fromByteArray(byte[])}. */
+  public byte[] toByteArray() {
+    ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + timesUs.length * ENTRY_SIZE);
+    buffer.putInt(VERSION);
+    buffer.putLong(segmentContentPosition);
+    buffer.putLong(segmentContentSize);
+    buffer.putLong(durationUs);
+    buffer.putInt(timesUs.length);
+    for (int i = 0; i < timesUs.length; i++) {
+      buffer.putLong(timesUs[i]);
+      buffer.putLong(positions[i]);
+    }
+    return buffer.array();
+  }
+
+  /**
+   * Restores an index serialized by {@link #toByteArray()}.
+   *
+   * @param data The serialized index.
+   * @return The index, or null if the data isn't a valid serialized index.
+   */
+  @Nullable
+  public static ClusterIndex fromByteArray(byte[] data) {
+    if (data.length < HEADER_SIZE) {
+      return null;
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(data);
+    if (buffer.getInt() != VERSION) {
+      return null;
+    }
+    long segmentContentPosition = buffer.getLong();
+    long segmentContentSize = buffer.getLong();
+    long durationUs = buffer.getLong();
+    int clusterCount = buffer.getInt();
+    if (clusterCount < 0 || buffer.remaining() != (long) clusterCount * ENTRY_SIZE) {
+      return null;
+    }
+    long[] timesUs = new long[clusterCount];
+    long[] positions = new long[clusterCount];
+    for (int i = 0; i < clusterCount; i++) {
+      timesUs[i] = buffer.getLong();
+      positions[i] = buffer.getLong();
+      if (i > 0 && (timesUs[i] <= timesUs[i - 1] || positions[i] <= positions[i - 1])) {
+        return null;
+      }
+    }
+    return new ClusterIndex(
+        segmentContentPosition, segmentContentSize, durationUs, timesUs, positions);
+  }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.migu.player.extractor.mkv;
+
+import android.net.Uri;
+import android.support.annotation.Nullable;
+
+/**
+ * Stores the {@link ClusterIndex cluster indexes} that {@link MatroskaExtractor} builds for files
+ * without a Cues element, so that the files are seekable when they're played again.
+ *
+ * <p>Methods are called on the loading threads of the extractors, and may block.
+ */
+public interface ClusterIndexStore {
+
+  /**
+   * Returns the index stored for a file, or null if there is none.
+   *
+   * @param uri The {@link Uri} of the file.
+   */
+  @Nullable
+  ClusterIndex get(Uri uri);
+
+  /**
+   * Stores the index of a file, replacing any index that was stored for it before.
+   *
+   * @param uri The {@link Uri} of the file.
+   * @param clusterIndex The index of the file.
+   */
+  void put(Uri uri, ClusterIndex clusterIndex);
+}
@@ -15,6 +15,7 @@
  */
 package com.migu.player.extractor.mkv;
 
+import android.net.Uri;
 import android.support.annotation.CallSuper;
 import android.support.annotation.IntDef;
 import android.support.annotation.Nullable;
@@ -103,6 +104,9 @@ public class MatroskaExtractor implements Extractor {
 
   private static final int UNSET_ENTRY_ID = -1;
 
+  /** The minimum interval between the start times of the clusters in a {@link ClusterIndex}. */
+  private static final long MIN_CLUSTER_INDEX_INTERVAL_US = 1_000_000;
+
   private static final int BLOCK_STATE_START = 0;
   private static final int BLOCK_STATE_HEADER = 1;
   private static final int BLOCK_STATE_DATA = 2;
@@ -364,6 +368,8 @@ public class MatroskaExtractor implements Extractor {
   private final VarintReader varintReader;
   private final SparseArray<Track> tracks;
   private final boolean seekForCuesEnabled;
+  @Nullable private final ClusterIndexStore clusterIndexStore;
+  private final Uri uri;
 
   // Temporary arrays.
   private final ParsableByteArray nalStartCode;
@@ -403,6 +409,14 @@ public class MatroskaExtractor implements Extractor {
   @Nullable private LongArray cueClusterPositions;
   private boolean seenClusterPositionForCurrentCuePoint;
 
+  // Cluster index related elements, for files without Cues.
+  private long elementBoundaryPosition;
+  private long pendingClusterIndexPosition = C.POSITION_UNSET;
+  @Nullable private LongArray clusterIndexTimesUs;
+  @Nullable private LongArray clusterIndexPositions;
+  private boolean clusterIndexChanged;
+  private long inputLength;
+
   // Reading state.
   private boolean haveOutputSample;
 
@@ -438,13 +452,37 @@ public class MatroskaExtractor implements Extractor {
   }
 
   public MatroskaExtractor(@Flags int flags) {
-    this(new DefaultEbmlReader(), flags);
+    this(flags, /* clusterIndexStore= */ null, Uri.EMPTY);
+  }
+
+  /**
+   * Creates an extractor that makes files without a Cues element seekable with a {@link
+   * ClusterIndex}. The index of a file is built while the file is read, and is stored in the
+   * {@link ClusterIndexStore} once the extractor reaches the end of the file or is released. Once
+   * stored, the file is seekable up to the last indexed cluster when it's played again.
+   *
+   * @param flags Flags that control the extractor's behavior.
+   * @param clusterIndexStore The {@link ClusterIndexStore} in which to store cluster indexes, or
+   *     null to treat files without a Cues element as unseekable.
+   * @param uri The {@link Uri} of the file, by which its index is stored. Indexes aren't stored
+   *     if the uri is {@link Uri#EMPTY}.
+   */
+  public MatroskaExtractor(
+      @Flags int flags, @Nullable ClusterIndexStore clusterIndexStore, Uri uri) {
+    this(new DefaultEbmlReader(), flags, clusterIndexStore, uri);
   }
 
   /* package */ MatroskaExtractor(EbmlReader reader, @Flags int flags) {
+    this(reader, flags, /* clusterIndexStore= */ null, Uri.EMPTY);
+  }
+
+  /* package */ MatroskaExtractor(
+      EbmlReader reader, @Flags int flags, @Nullable ClusterIndexStore clusterIndexStore, Uri uri) {
     this.reader = reader;
     this.reader.init(new InnerEbmlProcessor());
     seekForCuesEnabled = (flags & FLAG_DISABLE_SEEK_FOR_CUES) == 0;
+    this.clusterIndexStore = Uri.EMPTY.equals(uri) ? null : clusterIndexStore;
+    this.uri = uri;
     varintReader = new VarintReader();
     tracks = new SparseArray<>();
     scratch = new ParsableByteArray(4);
@@ -474,6 +512,8 @@ public class MatroskaExtractor implements Extractor {
   @Override
   public void seek(long position, long timeUs) {
     clusterTimecodeUs = C.TIME_UNSET;
+    elementBoundaryPosition = position;
+    pendingClusterIndexPosition = C.POSITION_UNSET;
     blockState = BLOCK_STATE_START;
     reader.reset();
     varintReader.reset();
@@ -485,23 +525,29 @@ public class MatroskaExtractor implements Extractor {
 
   @Override
   public final void release() {
-    // Do nothing
+    maybeStoreClusterIndex();
   }
 
   @Override
   public final int read(ExtractorInput input, PositionHolder seekPosition) throws IOException {
     haveOutputSample = false;
+    inputLength = input.getLength();
     boolean continueReading = true;
     while (continueReading && !haveOutputSample) {
       continueReading = reader.read(input);
-      if (continueReading && maybeSeekForCues(seekPosition, input.getPosition())) {
-        return Extractor.RESULT_SEEK;
+      if (continueReading) {
+        // Each successful read ends at an element boundary, which a Cluster may start at.
+        elementBoundaryPosition = input.getPosition();
+        if (maybeSeekForCues(seekPosition, input.getPosition())) {
+          return Extractor.RESULT_SEEK;
+        }
       }
     }
     if (!continueReading) {
       for (int i = 0; i < tracks.size(); i++) {
         tracks.valueAt(i).outputPendingSampleMetadata();
       }
+      maybeStoreClusterIndex();
       return Extractor.RESULT_END_OF_INPUT;
     }
     return Extractor.RESULT_CONTINUE;
@@ -663,11 +709,14 @@ public class MatroskaExtractor implements Extractor {
             seekForCues = true;
           } else {
             // We don't know where the Cues element is located. It's most likely omitted. Allow
-            // playback, but disable seeking.
-            extractorOutput.seekMap(new SeekMap.Unseekable(durationUs));
+            // playback, and seeking to the clusters indexed when the file was last played.
+            extractorOutput.seekMap(startClusterIndex());
             sentSeekMap = true;
           }
         }
+        if (clusterIndexTimesUs != null) {
+          pendingClusterIndexPosition = elementBoundaryPosition;
+        }
         break;
       case ID_BLOCK_GROUP:
         blockHasReferenceBlock = false;
@@ -902,6 +951,10 @@ public class MatroskaExtractor implements Extractor {
         break;
       case ID_TIME_CODE:
         clusterTimecodeUs = scaleTimecodeToUs(value);
+        if (pendingClusterIndexPosition != C.POSITION_UNSET) {
+          maybeAddToClusterIndex(clusterTimecodeUs, pendingClusterIndexPosition);
+          pendingClusterIndexPosition = C.POSITION_UNSET;
+        }
         break;
       case ID_BLOCK_DURATION:
         blockDurationUs = scaleTimecodeToUs(value);
@@ -1726,6 +1779,68 @@ public class MatroskaExtractor implements Extractor {
     return new ChunkIndex(sizes, offsets, durationsUs, timesUs);
   }
 
+  /**
+   * Starts building a {@link ClusterIndex} for a file without Cues, if there's a store for the
+   * index, continuing from the index stored for the file if it has been read before.
+   *
+   * @return A {@link SeekMap} for the stored index, or an unseekable {@link SeekMap} if no index
+   *     was stored.
+   */
+  private SeekMap startClusterIndex() {
+    if (clusterIndexStore == null
+        || segmentContentPosition == C.POSITION_UNSET
+        || durationUs == C.TIME_UNSET) {
+      return new SeekMap.Unseekable(durationUs);
+    }
+    LongArray clusterIndexTimesUs = new LongArray();
+    LongArray clusterIndexPositions = new LongArray();
+    this.clusterIndexTimesUs = clusterIndexTimesUs;
+    this.clusterIndexPositions = clusterIndexPositions;
+    @Nullable ClusterIndex clusterIndex = clusterIndexStore.get(uri);
+    if (clusterIndex == null
+        || !clusterIndex.matches(segmentContentPosition, segmentContentSize, durationUs)) {
+      return new SeekMap.Unseekable(durationUs);
+    }
+    for (int i = 0; i < clusterIndex.getClusterCount(); i++) {
+      clusterIndexTimesUs.add(clusterIndex.getTimeUs(i));
+      clusterIndexPositions.add(clusterIndex.getPosition(i));
+    }
+    return clusterIndex.toSeekMap(inputLength);
+  }
+
+  /**
+   * Adds a cluster to the {@link ClusterIndex} if it follows the last indexed cluster, and starts
+   * at least {@link #MIN_CLUSTER_INDEX_INTERVAL_US} after it.
+   */
+  private void maybeAddToClusterIndex(long timeUs, long position) {
+    LongArray clusterIndexTimesUs = Assertions.checkNotNull(this.clusterIndexTimesUs);
+    LongArray clusterIndexPositions = Assertions.checkNotNull(this.clusterIndexPositions);
+    int lastIndex = clusterIndexTimesUs.size() - 1;
+    if (lastIndex < 0
+        || (position > clusterIndexPositions.get(lastIndex)
+            && timeUs >= clusterIndexTimesUs.get(lastIndex) + MIN_CLUSTER_INDEX_INTERVAL_US)) {
+      clusterIndexTimesUs.add(timeUs);
+      clusterIndexPositions.add(position);
+      clusterIndexChanged = true;
+    }
+  }
+
+  private void maybeStoreClusterIndex() {
+    if (!clusterIndexChanged) {
+      return;
+    }
+    clusterIndexChanged = false;
+    Assertions.checkNotNull(clusterIndexStore)
+        .put(
+            uri,
+            new ClusterIndex(
+                segmentContentPosition,
+                segmentContentSize,
+                durationUs,
+                Assertions.checkNotNull(clusterIndexTimesUs).toArray(),
+                Assertions.checkNotNull(clusterIndexPositions).toArray()));
+  }
+
   /**
    * Updates the position of the holder to Cues element's position if the extractor configuration
    * permits use of master seek entry. After building Cues sets the holder's position back to where
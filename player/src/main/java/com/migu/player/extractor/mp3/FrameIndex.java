@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.migu.player.extractor.mp3;
+
+import android.support.annotation.Nullable;
+
+import com.migu.player.util.Assertions;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An exact index of the frames of an MP3 file, built by {@link Mp3Extractor} while reading a
+ * file that has no seeking metadata.
+ *
+ * <p>The index holds the time and position of frames that start at least a second apart, from the
+ * first frame of the file to its end. The times are exact, as they're computed from the number of
+ * samples in the preceding frames. The index is stored compactly as deltas between entries.
+ */
+public final class FrameIndex {
+
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 4 + 8 + 8 + 8 + 4;
+  private static final int ENTRY_SIZE = 4 + 4;
+
+  /** The position of the first frame of the file. */
+  public final long dataStartPosition;
+  /** The length of the file. */
+  public final long dataEndPosition;
+  /** The duration of the file, in microseconds. */
+  public final long durationUs;
+
+  private final long[] timesUs;
+  private final long[] positions;
+
+  /**
+   * @param dataStartPosition See {@link #dataStartPosition}.
+   * @param dataEndPosition See {@link #dataEndPosition}.
+   * @param durationUs See {@link #durationUs}.
+   * @param timesUs The times of the indexed frames after the first frame, in microseconds, in
+   *     increasing order. Consecutive times must be less than {@link Integer#MAX_VALUE} apart.
+   * @param positions The positions of the indexed frames after the first frame, in increasing
+   *     order. Consecutive positions must be less than {@link Integer#MAX_VALUE} apart.
+   */
+  public FrameIndex(
+      long dataStartPosition,
+      long dataEndPosition,
+      long durationUs,
+      long[] timesUs,
+      long[] positions) {
+    Assertions.checkArgument(timesUs.length == positions.length);
+    this.dataStartPosition = dataStartPosition;
+    this.dataEndPosition = dataEndPosition;
+    this.durationUs = durationUs;
+    this.timesUs = timesUs;
+    this.positions = positions;
+  }
+
+  /** Returns the number of indexed frames after the first frame. */
+  public int getFrameCount() {
+    return timesUs.length;
+  }
+
+  /** Returns the time of the indexed frame at {@code index}, in microseconds. */
+  public long getTimeUs(int index) {
+    return timesUs[index];
+  }
+
+  /** Returns the position of the indexed frame at {@code index}. */
+  public long getPosition(int index) {
+    return positions[index];
+  }
+
+  /**
+   * Returns whether the index was built for a file with the given properties.
+   *
+   * @param dataStartPosition The position of the first frame of the file.
+   * @param dataEndPosition The length of the file.
+   */
+  public boolean matches(long dataStartPosition, long dataEndPosition) {
+    return this.dataStartPosition == dataStartPosition
+        && this.dataEndPosition == dataEndPosition;
+  }
+
+  /** Serializes the index, so that it can be restored by {@link #fromByteArray(byte[])}. */
+  public byte[] toByteArray() {
+    ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + timesUs.length * ENTRY_SIZE);
+    buffer.putInt(VERSION);
+    buffer.putLong(dataStartPosition);
+    buffer.putLong(dataEndPosition);
+    buffer.putLong(durationUs);
+    buffer.putInt(timesUs.length);
+    long previousTimeUs = 0;
+    long previousPosition = dataStartPosition;
+    for (int i = 0; i < timesUs.length; i++) {
+      buffer.putInt((int) (timesUs[i] - previousTimeUs));
+      buffer.putInt((int) (positions[i] - previousPosition));
+      previousTimeUs = timesUs[i];
+      previousPosition = positions[i];
+    }
+    return buffer.array();
+  }
+
+  /**
+   * Restores an index serialized by {@link #toByteArray()}.
+   *
+   * @param data The serialized index.
+   * @return The index, or null if the data isn't a valid serialized index.
+   */
+  @Nullable
+  public static FrameIndex fromByteArray(byte[] data) {
+    if (data.length < HEADER_SIZE) {
+      return null;
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(data);
+    if (buffer.getInt() != VERSION) {
+      return null;
+    }
+    long dataStartPosition = buffer.getLong();
+    long dataEndPosition = buffer.getLong();
+    long durationUs = buffer.getLong();
+    int frameCount = buffer.getInt();
+    if (frameCount < 0 || buffer.remaining() != (long) frameCount * ENTRY_SIZE) {
+      return null;
+    }
+    long[] timesUs = new long[frameCount];
+    long[] positions = new long[frameCount];
+    long timeUs = 0;
+    long position = dataStartPosition;
+    for (int i = 0; i < frameCount; i++) {
+      int timeDeltaUs = buffer.getInt();
+      int positionDelta = buffer.getInt();
+      if (timeDeltaUs <= 0 || positionDelta <= 0) {
+        return null;
+      }
+      timeUs += timeDeltaUs;
+      position += positionDelta;
+      timesUs[i] = timeUs;
+      positions[i] = position;
+    }
+    if (frameCount > 0 && (timeUs > durationUs || position >= dataEndPosition)) {
+      return null;
+    }
+    return new FrameIndex(dataStartPosition, dataEndPosition, durationUs, timesUs, positions);
+  }
+
+  /** Returns an {@link IndexSeeker} that seeks to the indexed frames. */
+  /* package */ IndexSeeker createSeeker() {
+    IndexSeeker seeker = new IndexSeeker(durationUs, dataStartPosition, dataEndPosition);
+    for (int i = 0; i < timesUs.length; i++) {
+      seeker.maybeAddSeekPoint(timesUs[i], positions[i]);
+    }
+    return seeker;
+  }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.migu.player.extractor.mp3;
+
+import android.net.Uri;
+import android.support.annotation.Nullable;
+
+/**
+ * Stores the {@link FrameIndex frame indexes} that {@link Mp3Extractor} builds for files without
+ * seeking metadata, so that the files seek exactly when they're played again.
+ *
+ * <p>Methods are called on the loading threads of the extractors, or on the thread of a {@link
+ * FrameIndexer}, and may block.
+ */
+public interface FrameIndexStore {
+
+  /**
+   * Returns the index stored for a file, or null if there is none.
+   *
+   * @param uri The {@link Uri} of the file.
+   */
+  @Nullable
+  FrameIndex get(Uri uri);
+
+  /**
+   * Stores the index of a file, replacing any index that was stored for it before.
+   *
+   * @param uri The {@link Uri} of the file.
+   * @param frameIndex The index of the file.
+   */
+  void put(Uri uri, FrameIndex frameIndex);
+}
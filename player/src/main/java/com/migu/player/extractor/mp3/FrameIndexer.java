@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.migu.player.extractor.mp3;
+
+import android.net.Uri;
+import android.support.annotation.WorkerThread;
+
+import com.migu.player.extractor.DefaultExtractorInput;
+import com.migu.player.extractor.DummyExtractorOutput;
+import com.migu.player.extractor.Extractor;
+import com.migu.player.extractor.ExtractorInput;
+import com.migu.player.extractor.PositionHolder;
+import com.migu.player.upstream.DataSource;
+import com.migu.player.upstream.DataSpec;
+import com.migu.player.util.Util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * Builds the {@link FrameIndex} of an MP3 file without seeking metadata by scanning the whole
+ * file, and stores it in a {@link FrameIndexStore}, so that the file seeks exactly when it's
+ * played with an {@link Mp3Extractor} that uses the same store.
+ *
+ * <p>This is intended to be run in the background for long files such as podcasts, for example
+ * once they've been downloaded into a cache, so that they seek exactly from the first playback.
+ */
+public final class FrameIndexer {
+
+  private final DataSource dataSource;
+  private final Uri uri;
+  private final FrameIndexStore frameIndexStore;
+
+  private volatile boolean isCanceled;
+
+  /**
+   * @param dataSource The {@link DataSource} from which to read the file.
+   * @param uri The {@link Uri} of the file.
+   * @param frameIndexStore The {@link FrameIndexStore} in which to store the index.
+   */
+  public FrameIndexer(DataSource dataSource, Uri uri, FrameIndexStore frameIndexStore) {
+    this.dataSource = dataSource;
+    this.uri = uri;
+    this.frameIndexStore = frameIndexStore;
+  }
+
+  /**
+   * Cancels indexing. {@link #index()} checks for cancelation frequently during execution, and
+   * throws an {@link InterruptedIOException} if it sees that indexing has been canceled.
+   */
+  public void cancel() {
+    isCanceled = true;
+  }
+
+  /**
+   * Scans the file and stores its index. Only the start of the file is read if the file has
+   * seeking metadata, if its length is unknown, or if it's already been indexed.
+   *
+   * <p>This method may be slow and shouldn't be called on the main thread.
+   *
+   * @return Whether the file was indexed.
+   * @throws IOException If an error occurs reading the file, or if indexing is canceled. If
+   *     canceled, an {@link InterruptedIOException} is thrown.
+   */
+  @WorkerThread
+  public boolean index() throws IOException {
+    throwIfCanceled();
+    Mp3Extractor extractor =
+        new Mp3Extractor(Mp3Extractor.FLAG_DISABLE_ID3_METADATA, frameIndexStore, uri);
+    try {
+      long length = dataSource.open(new DataSpec(uri));
+      ExtractorInput input = new DefaultExtractorInput(dataSource, /* position= */ 0, length);
+      if (!extractor.sniff(input)) {
+        return false;
+      }
+      input.resetPeekPosition();
+      extractor.init(new DummyExtractorOutput());
+      PositionHolder positionHolder = new PositionHolder();
+      while (extractor.isBuildingFrameIndex()) {
+        throwIfCanceled();
+        if (extractor.read(input, positionHolder) == Extractor.RESULT_END_OF_INPUT) {
+          // The extractor stored the index when it reached the end of the input, if it was still
+          // building one.
+          return !extractor.isBuildingFrameIndex();
+        }
+      }
+      return false;
+    } finally {
+      extractor.release();
+      Util.closeQuietly(dataSource);
+    }
+  }
+
+  private void throwIfCanceled() throws InterruptedIOException {
+    if (isCanceled) {
+      throw new InterruptedIOException();
+    }
+  }
+}
@@ -15,6 +15,7 @@
  */
 package com.migu.player.extractor.mp3;
 
+import android.net.Uri;
 import android.support.annotation.IntDef;
 import android.support.annotation.Nullable;
 
@@ -38,6 +39,7 @@ import com.migu.player.metadata.id3.Id3Decoder.FramePredicate;
 import com.migu.player.metadata.id3.MlltFrame;
 import com.migu.player.metadata.id3.TextInformationFrame;
 import com.migu.player.util.Assertions;
+import com.migu.player.util.LongArray;
 import com.migu.player.util.ParsableByteArray;
 import com.migu.player.util.Util;
 
@@ -137,6 +139,9 @@ public final class Mp3Extractor implements Extractor {
   private static final int SEEK_HEADER_VBRI = 0x56425249;
   private static final int SEEK_HEADER_UNSET = 0;
 
+  /** The minimum interval between the times of the frames in a {@link FrameIndex}. */
+  private static final long MIN_FRAME_INDEX_INTERVAL_US = C.MICROS_PER_SECOND;
+
   @Flags private final int flags;
   private final long forcedFirstSampleTimestampUs;
   private final ParsableByteArray scratch;
@@ -144,6 +149,8 @@ public final class Mp3Extractor implements Extractor {
   private final GaplessInfoHolder gaplessInfoHolder;
   private final Id3Peeker id3Peeker;
   private final TrackOutput skippingTrackOutput;
+  @Nullable private final FrameIndexStore frameIndexStore;
+  private final Uri uri;
 
   private  ExtractorOutput extractorOutput;
   private  TrackOutput realTrackOutput;
@@ -162,6 +169,10 @@ public final class Mp3Extractor implements Extractor {
   private boolean isSeekInProgress;
   private long seekTimeUs;
 
+  @Nullable private LongArray frameIndexTimesUs;
+  @Nullable private LongArray frameIndexPositions;
+  private long frameIndexDataEndPosition;
+
   public Mp3Extractor() {
     this(0);
   }
@@ -179,8 +190,36 @@ public final class Mp3Extractor implements Extractor {
    *     {@link C#TIME_UNSET} if forcing is not required.
    */
   public Mp3Extractor(@Flags int flags, long forcedFirstSampleTimestampUs) {
+    this(flags, forcedFirstSampleTimestampUs, /* frameIndexStore= */ null, Uri.EMPTY);
+  }
+
+  /**
+   * Creates an extractor that seeks exactly in files without seeking metadata once they've been
+   * indexed, instead of assuming a constant bitrate or learning seek points while they're read.
+   *
+   * <p>The exact {@link FrameIndex} of such a file is built while the file is read from its start
+   * to its end without seeking, either during playback or by a {@link FrameIndexer}, and is stored
+   * in the {@link FrameIndexStore} once the extractor reaches the end of the file. Once a file has
+   * an index, extractors created with the same store and uri use it to seek.
+   *
+   * @param flags Flags that control the extractor's behavior.
+   * @param frameIndexStore The {@link FrameIndexStore} in which to store frame indexes, or null.
+   * @param uri The {@link Uri} of the file, by which its index is stored. Indexes aren't stored
+   *     if the uri is {@link Uri#EMPTY}.
+   */
+  public Mp3Extractor(@Flags int flags, @Nullable FrameIndexStore frameIndexStore, Uri uri) {
+    this(flags, C.TIME_UNSET, frameIndexStore, uri);
+  }
+
+  private Mp3Extractor(
+      @Flags int flags,
+      long forcedFirstSampleTimestampUs,
+      @Nullable FrameIndexStore frameIndexStore,
+      Uri uri) {
     this.flags = flags;
     this.forcedFirstSampleTimestampUs = forcedFirstSampleTimestampUs;
+    this.frameIndexStore = Uri.EMPTY.equals(uri) ? null : frameIndexStore;
+    this.uri = uri;
     scratch = new ParsableByteArray(SCRATCH_LENGTH);
     synchronizedHeader = new MpegAudioUtil.Header();
     gaplessInfoHolder = new GaplessInfoHolder();
@@ -212,6 +251,17 @@ public final class Mp3Extractor implements Extractor {
     samplesRead = 0;
     sampleBytesRemaining = 0;
     seekTimeUs = timeUs;
+    if (frameIndexTimesUs != null) {
+      if (timeUs == 0 && position <= firstSamplePosition) {
+        // Reading restarts from the first frame, so the index can be rebuilt.
+        frameIndexTimesUs = new LongArray();
+        frameIndexPositions = new LongArray();
+      } else {
+        // Times read after the seek may be inexact, so the index can't be completed.
+        frameIndexTimesUs = null;
+        frameIndexPositions = null;
+      }
+    }
     if (seeker instanceof IndexSeeker && !((IndexSeeker) seeker).isTimeUsInIndex(timeUs)) {
       isSeekInProgress = true;
       currentTrackOutput = skippingTrackOutput;
@@ -235,6 +285,9 @@ public final class Mp3Extractor implements Extractor {
         extractorOutput.seekMap(seeker);
       }
     }
+    if (readResult == RESULT_END_OF_INPUT) {
+      maybeStoreFrameIndex();
+    }
     return readResult;
   }
 
@@ -247,6 +300,15 @@ public final class Mp3Extractor implements Extractor {
     disableSeeking = true;
   }
 
+  /**
+   * Returns whether the extractor may still build a {@link FrameIndex} of the file, which is the
+   * case until the extractor has read the start of the file and found that it has no seeking
+   * metadata and no stored index, and for as long as it then reads the file without seeking.
+   */
+  /* package */ boolean isBuildingFrameIndex() {
+    return seeker == null ? frameIndexStore != null : frameIndexTimesUs != null;
+  }
+
   // Internal methods.
 
   private int readInternal(ExtractorInput input) throws IOException {
@@ -305,6 +367,9 @@ public final class Mp3Extractor implements Extractor {
         }
       }
       sampleBytesRemaining = synchronizedHeader.frameSize;
+      if (frameIndexTimesUs != null) {
+        maybeAddToFrameIndex(extractorInput.getPosition());
+      }
       if (seeker instanceof IndexSeeker) {
         IndexSeeker indexSeeker = (IndexSeeker) seeker;
         // Add seek point corresponding to the next frame instead of the current one to be able to
@@ -440,6 +505,19 @@ public final class Mp3Extractor implements Extractor {
       return new UnseekableSeeker();
     }
 
+    if (metadataSeeker == null
+        && (seekFrameSeeker == null || !seekFrameSeeker.isSeekable())
+        && frameIndexStore != null
+        && input.getLength() != C.LENGTH_UNSET) {
+      @Nullable FrameIndex frameIndex = frameIndexStore.get(uri);
+      if (frameIndex != null && frameIndex.matches(input.getPosition(), input.getLength())) {
+        return frameIndex.createSeeker();
+      }
+      frameIndexTimesUs = new LongArray();
+      frameIndexPositions = new LongArray();
+      frameIndexDataEndPosition = input.getLength();
+    }
+
     @Nullable Seeker resultSeeker = null;
     if ((flags & FLAG_ENABLE_INDEX_SEEKING) != 0) {
       long durationUs;
@@ -515,6 +593,45 @@ public final class Mp3Extractor implements Extractor {
     return seeker;
   }
 
+  /**
+   * Adds the frame at {@code position} to the {@link FrameIndex} being built if it's sufficiently
+   * distant from the last indexed frame.
+   */
+  private void maybeAddToFrameIndex(long position) {
+    LongArray frameIndexTimesUs = Assertions.checkNotNull(this.frameIndexTimesUs);
+    long timeUs = samplesRead * C.MICROS_PER_SECOND / synchronizedHeader.sampleRate;
+    int frameCount = frameIndexTimesUs.size();
+    long lastTimeUs = frameCount == 0 ? 0 : frameIndexTimesUs.get(frameCount - 1);
+    if (timeUs - lastTimeUs >= MIN_FRAME_INDEX_INTERVAL_US) {
+      frameIndexTimesUs.add(timeUs);
+      Assertions.checkNotNull(frameIndexPositions).add(position);
+    }
+  }
+
+  /**
+   * Stores the {@link FrameIndex} being built, if any, once the end of the file has been reached,
+   * and switches to seeking with it.
+   */
+  private void maybeStoreFrameIndex() {
+    if (frameIndexTimesUs == null || samplesRead == 0) {
+      return;
+    }
+    FrameIndex frameIndex =
+        new FrameIndex(
+            firstSamplePosition,
+            frameIndexDataEndPosition,
+            /* durationUs= */ samplesRead * C.MICROS_PER_SECOND / synchronizedHeader.sampleRate,
+            frameIndexTimesUs.toArray(),
+            Assertions.checkNotNull(frameIndexPositions).toArray());
+    frameIndexTimesUs = null;
+    frameIndexPositions = null;
+    Assertions.checkNotNull(frameIndexStore).put(uri, frameIndex);
+    if (!(seeker instanceof IndexSeeker)) {
+      seeker = frameIndex.createSeeker();
+      extractorOutput.seekMap(seeker);
+    }
+  }
+
   /** Peeks the next frame and returns a {@link ConstantBitrateSeeker} based on its bitrate. */
   private Seeker getConstantBitrateSeeker(ExtractorInput input) throws IOException {
     input.peekFully(scratch.getData(), 0, 4);
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.migu.player.extractor.mp4;
+
+import com.migu.player.util.Assertions;
+
+/**
+ * Accumulated size of all samples which need to be read before each sample of a set of tracks can
+ * be used, where samples of all tracks are read in timestamp order.
+ *
+ * <p>Rather than holding one value per sample, the merge of the tracks is checkpointed every
+ * {@link #CHECKPOINT_INTERVAL} samples and replayed from the nearest checkpoint on demand. Each
+ * track keeps its own merge cursor, so querying the next sample of every track while reading
+ * sequentially only advances the cursors by the samples read in between.
+ */
+/* package */ final class AccumulatedSampleSizes {
+
+  /** Number of merged samples between consecutive checkpoints. */
+  /* package */ static final int CHECKPOINT_INTERVAL = 1024;
+
+  private final TrackSampleTable[] sampleTables;
+  private final int[][] checkpointSampleIndices;
+  private final long[] checkpointAccumulatedSizes;
+  private final MergeCursor[] cursors;
+
+  /**
+   * Creates an instance for the given tracks.
+   *
+   * @param sampleTables The sample tables of the tracks.
+   */
+  public AccumulatedSampleSizes(TrackSampleTable[] sampleTables) {
+    this.sampleTables = sampleTables;
+    int totalSampleCount = 0;
+    for (TrackSampleTable sampleTable : sampleTables) {
+      totalSampleCount += sampleTable.sampleCount;
+    }
+    int checkpointCount = totalSampleCount / CHECKPOINT_INTERVAL + 1;
+    checkpointSampleIndices = new int[checkpointCount][];
+    checkpointAccumulatedSizes = new long[checkpointCount];
+    MergeCursor cursor = new MergeCursor();
+    cursor.reset(new int[sampleTables.length], /* accumulatedSize= */ 0);
+    for (int sampleCount = 0; sampleCount < totalSampleCount; sampleCount++) {
+      if (sampleCount % CHECKPOINT_INTERVAL == 0) {
+        int checkpointIndex = sampleCount / CHECKPOINT_INTERVAL;
+        checkpointSampleIndices[checkpointIndex] = cursor.sampleIndices.clone();
+        checkpointAccumulatedSizes[checkpointIndex] = cursor.accumulatedSize;
+      }
+      cursor.advance(cursor.getNextTrackIndex());
+    }
+    if (totalSampleCount % CHECKPOINT_INTERVAL == 0) {
+      checkpointSampleIndices[checkpointCount - 1] = cursor.sampleIndices.clone();
+      checkpointAccumulatedSizes[checkpointCount - 1] = cursor.accumulatedSize;
+    }
+    cursors = new MergeCursor[sampleTables.length];
+  }
+
+  /**
+   * Returns the accumulated size of all samples which need to be read before a sample can be used.
+   *
+   * @param trackIndex The index of the track.
+   * @param sampleIndex The index of the sample in the track.
+   * @return The accumulated size in bytes.
+   */
+  public long get(int trackIndex, int sampleIndex) {
+    Assertions.checkIndex(sampleIndex, 0, sampleTables[trackIndex].sampleCount);
+    MergeCursor cursor = cursors[trackIndex];
+    int checkpointIndex = getCheckpointIndex(trackIndex, sampleIndex);
+    if (cursor == null) {
+      cursor = new MergeCursor();
+      cursors[trackIndex] = cursor;
+      cursor.resetToCheckpoint(checkpointIndex);
+    } else if (cursor.sampleIndices[trackIndex] > sampleIndex
+        || cursor.sampleCount < checkpointIndex * CHECKPOINT_INTERVAL) {
+      cursor.resetToCheckpoint(checkpointIndex);
+    }
+    while (true) {
+      int nextTrackIndex = cursor.getNextTrackIndex();
+      if (nextTrackIndex == trackIndex && cursor.sampleIndices[trackIndex] == sampleIndex) {
+        return cursor.accumulatedSize;
+      }
+      cursor.advance(nextTrackIndex);
+    }
+  }
+
+  /**
+   * Returns the index of the last checkpoint at which the given sample had not been merged yet.
+   * Checkpoint sample indices never decrease, so this is found by binary search.
+   */
+  private int getCheckpointIndex(int trackIndex, int sampleIndex) {
+    int low = 0;
+    int high = checkpointSampleIndices.length - 1;
+    while (low < high) {
+      int mid = (low + high + 1) >>> 1;
+      if (checkpointSampleIndices[mid][trackIndex] <= sampleIndex) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return low;
+  }
+
+  /** Position in the timestamp ordered merge of the samples of all tracks. */
+  private final class MergeCursor {
+
+    private final long[] nextSampleTimesUs;
+
+    private int[] sampleIndices;
+    private long accumulatedSize;
+    private int sampleCount;
+
+    public MergeCursor() {
+      sampleIndices = new int[sampleTables.length];
+      nextSampleTimesUs = new long[sampleTables.length];
+    }
+
+    public void resetToCheckpoint(int checkpointIndex) {
+      reset(
+          checkpointSampleIndices[checkpointIndex].clone(),
+          checkpointAccumulatedSizes[checkpointIndex]);
+      sampleCount = checkpointIndex * CHECKPOINT_INTERVAL;
+    }
+
+    public void reset(int[] sampleIndices, long accumulatedSize) {
+      this.sampleIndices = sampleIndices;
+      this.accumulatedSize = accumulatedSize;
+      sampleCount = 0;
+      for (int i = 0; i < sampleTables.length; i++) {
+        updateNextSampleTime(i);
+      }
+    }
+
+    /**
+     * Returns the track whose next sample is merged next, preferring later tracks when timestamps
+     * are equal.
+     */
+    public int getNextTrackIndex() {
+      long minTimeUs = Long.MAX_VALUE;
+      int minTimeTrackIndex = -1;
+      for (int i = 0; i < sampleTables.length; i++) {
+        if (sampleIndices[i] < sampleTables[i].sampleCount && nextSampleTimesUs[i] <= minTimeUs) {
+          minTimeTrackIndex = i;
+          minTimeUs = nextSampleTimesUs[i];
+        }
+      }
+      return minTimeTrackIndex;
+    }
+
+    public void advance(int trackIndex) {
+      accumulatedSize += sampleTables[trackIndex].getSize(sampleIndices[trackIndex]);
+      sampleIndices[trackIndex]++;
+      sampleCount++;
+      updateNextSampleTime(trackIndex);
+    }
+
+    private void updateNextSampleTime(int trackIndex) {
+      if (sampleIndices[trackIndex] < sampleTables[trackIndex].sampleCount) {
+        nextSampleTimesUs[trackIndex] =
+            sampleTables[trackIndex].getTimestampUs(sampleIndices[trackIndex]);
+      }
+    }
+  }
+}
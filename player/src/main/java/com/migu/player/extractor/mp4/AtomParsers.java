@@ -16,6 +16,7 @@
 package com.migu.player.extractor.mp4;
 
 import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
 import android.util.Pair;
 
 import com.google.common.base.Function;
@@ -47,6 +48,7 @@ import java.util.List;
 import static com.migu.player.util.Assertions.checkNotNull;
 import static com.migu.player.util.MimeTypes.getMimeTypeFromMp4ObjectType;
 import static java.lang.Math.max;
+import static java.lang.Math.min;
 
 
 /** Utility methods for parsing MP4 format atom payloads according to ISO/IEC 14496-12. */
@@ -308,7 +310,8 @@ import static java.lang.Math.max;
    * @return Sample table described by the stbl atom.
    * @throws ParserException Thrown if the stbl atom can't be parsed.
    */
-  private static TrackSampleTable parseStbl(
+  @VisibleForTesting
+  /* package */ static TrackSampleTable parseStbl(
       Track track, Atom.ContainerAtom stblAtom, GaplessInfoHolder gaplessInfoHolder)
       throws ParserException {
     SampleSizeBox sampleSizeBox;
@@ -397,12 +400,11 @@ import static java.lang.Math.max;
             && remainingTimestampOffsetChanges == 0
             && remainingSynchronizationSamples == 0;
 
-    long[] offsets;
-    int[] sizes;
-    int maximumSize = 0;
-    long[] timestamps;
-    int[] flags;
-    long timestampTimeUnits = 0;
+    // The table is built without per-sample arrays. See TrackSampleTable.
+    TrackSampleTable.Builder sampleTableBuilder;
+    TrackSampleTable.TimestampRuns timestampRuns;
+    // The indices of the synchronization samples, or null if all samples are.
+    @Nullable int[] syncSampleIndices = null;
     long duration;
 
     if (rechunkFixedSizeSamples) {
@@ -415,17 +417,19 @@ import static java.lang.Math.max;
       FixedSampleSizeRechunker.Results rechunkedResults =
           FixedSampleSizeRechunker.rechunk(
               fixedSampleSize, chunkOffsetsBytes, chunkSampleCounts, timestampDeltaInTimeUnits);
-      offsets = rechunkedResults.offsets;
-      sizes = rechunkedResults.sizes;
-      maximumSize = rechunkedResults.maximumSize;
-      timestamps = rechunkedResults.timestamps;
-      flags = rechunkedResults.flags;
+      sampleCount = rechunkedResults.offsets.length;
+      sampleTableBuilder =
+          new TrackSampleTable.Builder(sampleCount, C.LENGTH_UNSET, chunkIterator.length);
+      for (int i = 0; i < sampleCount; i++) {
+        sampleTableBuilder.addSample(rechunkedResults.offsets[i], rechunkedResults.sizes[i]);
+      }
+      timestampRuns =
+          TrackSampleTable.TimestampRuns.fromTimestamps(
+              rechunkedResults.timestamps, track.timescale);
       duration = rechunkedResults.duration;
     } else {
-      offsets = new long[sampleCount];
-      sizes = new int[sampleCount];
-      timestamps = new long[sampleCount];
-      flags = new int[sampleCount];
+      sampleTableBuilder =
+          new TrackSampleTable.Builder(sampleCount, fixedSampleSize, chunkIterator.length);
       long offset = 0;
       int remainingSamplesInChunk = 0;
 
@@ -439,15 +443,62 @@ import static java.lang.Math.max;
         if (!chunkDataComplete) {
           Log.w(TAG, "Unexpected end of chunk data");
           sampleCount = i;
-          offsets = Arrays.copyOf(offsets, sampleCount);
-          sizes = Arrays.copyOf(sizes, sampleCount);
-          timestamps = Arrays.copyOf(timestamps, sampleCount);
-          flags = Arrays.copyOf(flags, sampleCount);
           break;
         }
+        int size = sampleSizeBox.readNextSampleSize();
+        sampleTableBuilder.addSample(offset, size);
+        offset += size;
+        remainingSamplesInChunk--;
+      }
+
+      // Read the sample durations as runs of samples with the same duration. Each stts entry is a
+      // run, except that the duration of the last entry applies to any samples that follow it.
+      int maxDecodingRunCount = max(remainingTimestampDeltaChanges, 0) + 2;
+      int[] decodingRunStartIndices = new int[maxDecodingRunCount];
+      long[] decodingRunStartTimes = new long[maxDecodingRunCount];
+      long[] decodingRunDeltas = new long[maxDecodingRunCount];
+      int decodingRunCount = 0;
+      long timestampTimeUnits = 0;
+      int sampleIndex = 0;
+      while (sampleIndex < sampleCount) {
+        if (decodingRunCount == 0
+            || decodingRunDeltas[decodingRunCount - 1] != timestampDeltaInTimeUnits) {
+          decodingRunStartIndices[decodingRunCount] = sampleIndex;
+          decodingRunStartTimes[decodingRunCount] = timestampTimeUnits;
+          decodingRunDeltas[decodingRunCount] = timestampDeltaInTimeUnits;
+          decodingRunCount++;
+        }
+        int runSampleCount = sampleCount - sampleIndex;
+        if (remainingSamplesAtTimestampDelta > 0) {
+          runSampleCount = min(runSampleCount, remainingSamplesAtTimestampDelta);
+        }
+        sampleIndex += runSampleCount;
+        timestampTimeUnits += (long) runSampleCount * timestampDeltaInTimeUnits;
+        remainingSamplesAtTimestampDelta -= runSampleCount;
+        if (remainingSamplesAtTimestampDelta == 0 && remainingTimestampDeltaChanges > 0) {
+          remainingSamplesAtTimestampDelta = stts.readUnsignedIntToInt();
+          // The BMFF spec (ISO/IEC 14496-12) states that sample deltas should be unsigned integers
+          // in stts boxes, however some streams violate the spec and use signed integers instead.
+          // See https://github.com/google/ExoPlayer/issues/3384. It's safe to always decode sample
+          // deltas as signed integers here, because unsigned integers will still be parsed
+          // correctly (unless their top bit is set, which is never true in practice because sample
+          // deltas are always small).
+          timestampDeltaInTimeUnits = stts.readInt();
+          remainingTimestampDeltaChanges--;
+        }
+      }
 
-        // Add on the timestamp offset if ctts is present.
-        if (ctts != null) {
+      // Read the sample timestamp offsets as runs of samples with the same offset, if ctts is
+      // present.
+      @Nullable int[] compositionRunStartIndices = null;
+      @Nullable int[] compositionRunOffsets = null;
+      if (ctts != null) {
+        int maxCompositionRunCount = remainingTimestampOffsetChanges + 1;
+        compositionRunStartIndices = new int[maxCompositionRunCount];
+        compositionRunOffsets = new int[maxCompositionRunCount];
+        int compositionRunCount = 0;
+        sampleIndex = 0;
+        while (sampleIndex < sampleCount) {
           while (remainingSamplesAtTimestampOffset == 0 && remainingTimestampOffsetChanges > 0) {
             remainingSamplesAtTimestampOffset = ctts.readUnsignedIntToInt();
             // The BMFF spec (ISO/IEC 14496-12) states that sample offsets should be unsigned
@@ -458,45 +509,59 @@ import static java.lang.Math.max;
             timestampOffset = ctts.readInt();
             remainingTimestampOffsetChanges--;
           }
-          remainingSamplesAtTimestampOffset--;
+          if (compositionRunCount == 0
+              || compositionRunOffsets[compositionRunCount - 1] != timestampOffset) {
+            compositionRunStartIndices[compositionRunCount] = sampleIndex;
+            compositionRunOffsets[compositionRunCount] = timestampOffset;
+            compositionRunCount++;
+          }
+          int runSampleCount = sampleCount - sampleIndex;
+          if (remainingSamplesAtTimestampOffset > 0) {
+            runSampleCount = min(runSampleCount, remainingSamplesAtTimestampOffset);
+          }
+          sampleIndex += runSampleCount;
+          remainingSamplesAtTimestampOffset -= runSampleCount;
         }
-
-        offsets[i] = offset;
-        sizes[i] = sampleSizeBox.readNextSampleSize();
-        if (sizes[i] > maximumSize) {
-          maximumSize = sizes[i];
+        if (compositionRunCount == 1 && compositionRunOffsets[0] == 0) {
+          compositionRunStartIndices = null;
+          compositionRunOffsets = null;
+        } else {
+          compositionRunStartIndices =
+              Arrays.copyOf(compositionRunStartIndices, compositionRunCount);
+          compositionRunOffsets = Arrays.copyOf(compositionRunOffsets, compositionRunCount);
         }
-        timestamps[i] = timestampTimeUnits + timestampOffset;
+      }
+      timestampRuns =
+          new TrackSampleTable.TimestampRuns(
+              sampleCount,
+              Arrays.copyOf(decodingRunStartIndices, decodingRunCount),
+              Arrays.copyOf(decodingRunStartTimes, decodingRunCount),
+              Arrays.copyOf(decodingRunDeltas, decodingRunCount),
+              compositionRunStartIndices,
+              compositionRunOffsets,
+              track.timescale);
+      duration = timestampTimeUnits + timestampOffset;
 
-        // All samples are synchronization samples if the stss is not present.
-        flags[i] = stss == null ? C.BUFFER_FLAG_KEY_FRAME : 0;
-        if (i == nextSynchronizationSampleIndex) {
-          flags[i] = C.BUFFER_FLAG_KEY_FRAME;
+      // All samples are synchronization samples if the stss is not present. Otherwise the listed
+      // samples are, as long as they're in ascending order.
+      if (stss != null) {
+        syncSampleIndices = new int[min(remainingSynchronizationSamples, sampleCount)];
+        int syncSampleCount = 0;
+        while (nextSynchronizationSampleIndex < sampleCount
+            && nextSynchronizationSampleIndex
+                >= (syncSampleCount == 0 ? 0 : syncSampleIndices[syncSampleCount - 1] + 1)) {
+          syncSampleIndices[syncSampleCount++] = nextSynchronizationSampleIndex;
           remainingSynchronizationSamples--;
-          if (remainingSynchronizationSamples > 0) {
-            nextSynchronizationSampleIndex = checkNotNull(stss).readUnsignedIntToInt() - 1;
+          if (remainingSynchronizationSamples == 0) {
+            break;
           }
+          nextSynchronizationSampleIndex = stss.readUnsignedIntToInt() - 1;
         }
-
-        // Add on the duration of this sample.
-        timestampTimeUnits += timestampDeltaInTimeUnits;
-        remainingSamplesAtTimestampDelta--;
-        if (remainingSamplesAtTimestampDelta == 0 && remainingTimestampDeltaChanges > 0) {
-          remainingSamplesAtTimestampDelta = stts.readUnsignedIntToInt();
-          // The BMFF spec (ISO/IEC 14496-12) states that sample deltas should be unsigned integers
-          // in stts boxes, however some streams violate the spec and use signed integers instead.
-          // See https://github.com/google/ExoPlayer/issues/3384. It's safe to always decode sample
-          // deltas as signed integers here, because unsigned integers will still be parsed
-          // correctly (unless their top bit is set, which is never true in practice because sample
-          // deltas are always small).
-          timestampDeltaInTimeUnits = stts.readInt();
-          remainingTimestampDeltaChanges--;
-        }
-
-        offset += sizes[i];
-        remainingSamplesInChunk--;
+        syncSampleIndices =
+            syncSampleCount == sampleCount
+                ? null
+                : Arrays.copyOf(syncSampleIndices, syncSampleCount);
       }
-      duration = timestampTimeUnits + timestampOffset;
 
       // If the stbl's child boxes are not consistent the container is malformed, but the stream may
       // still be playable.
@@ -537,9 +602,7 @@ import static java.lang.Math.max;
     long durationUs = Util.scaleLargeTimestamp(duration, C.MICROS_PER_SECOND, track.timescale);
 
     if (track.editListDurations == null) {
-      Util.scaleLargeTimestampsInPlace(timestamps, C.MICROS_PER_SECOND, track.timescale);
-      return new TrackSampleTable(
-          track, offsets, sizes, maximumSize, timestamps, flags, durationUs);
+      return sampleTableBuilder.build(track, syncSampleIndices, timestampRuns, durationUs);
     }
 
     // See the BMFF spec (ISO/IEC 14496-12) subsection 8.6.6. Edit lists that require prerolling
@@ -551,13 +614,14 @@ import static java.lang.Math.max;
 
     if (track.editListDurations.length == 1
         && track.type == C.TRACK_TYPE_AUDIO
-        && timestamps.length >= 2) {
+        && sampleCount >= 2) {
       long editStartTime = checkNotNull(track.editListMediaTimes)[0];
       long editEndTime = editStartTime + Util.scaleLargeTimestamp(track.editListDurations[0],
           track.timescale, track.movieTimescale);
-      if (canApplyEditWithGaplessInfo(timestamps, duration, editStartTime, editEndTime)) {
+      if (canApplyEditWithGaplessInfo(
+          timestampRuns, sampleCount, duration, editStartTime, editEndTime)) {
         long paddingTimeUnits = duration - editEndTime;
-        long encoderDelay = Util.scaleLargeTimestamp(editStartTime - timestamps[0],
+        long encoderDelay = Util.scaleLargeTimestamp(editStartTime - timestampRuns.getTimestamp(0),
             track.format.sampleRate, track.timescale);
         long encoderPadding = Util.scaleLargeTimestamp(paddingTimeUnits,
             track.format.sampleRate, track.timescale);
@@ -565,12 +629,11 @@ import static java.lang.Math.max;
             && encoderPadding <= Integer.MAX_VALUE) {
           gaplessInfoHolder.encoderDelay = (int) encoderDelay;
           gaplessInfoHolder.encoderPadding = (int) encoderPadding;
-          Util.scaleLargeTimestampsInPlace(timestamps, C.MICROS_PER_SECOND, track.timescale);
           long editedDurationUs =
               Util.scaleLargeTimestamp(
                   track.editListDurations[0], C.MICROS_PER_SECOND, track.movieTimescale);
-          return new TrackSampleTable(
-              track, offsets, sizes, maximumSize, timestamps, flags, editedDurationUs);
+          return sampleTableBuilder.build(
+              track, syncSampleIndices, timestampRuns, editedDurationUs);
         }
       }
     }
@@ -580,20 +643,26 @@ import static java.lang.Math.max;
       // unfragmented files open to interpretation. We handle this as a special case and include all
       // samples in the edit.
       long editStartTime = checkNotNull(track.editListMediaTimes)[0];
-      for (int i = 0; i < timestamps.length; i++) {
-        timestamps[i] =
-            Util.scaleLargeTimestamp(
-                timestamps[i] - editStartTime, C.MICROS_PER_SECOND, track.timescale);
-      }
       durationUs =
           Util.scaleLargeTimestamp(duration - editStartTime, C.MICROS_PER_SECOND, track.timescale);
-      return new TrackSampleTable(
-          track, offsets, sizes, maximumSize, timestamps, flags, durationUs);
+      return sampleTableBuilder.build(
+          track,
+          syncSampleIndices,
+          timestampRuns.withEdit(
+              editStartTime, /* editStartTimeUs= */ 0, /* clampToEditMediaTime= */ false),
+          durationUs);
     }
 
     // Omit any sample at the end point of an edit for audio tracks.
     boolean omitClippedSample = track.type == C.TRACK_TYPE_AUDIO;
 
+    TrackSampleTable sampleTable =
+        sampleTableBuilder.build(track, syncSampleIndices, timestampRuns, durationUs);
+    long[] timestamps = new long[sampleCount];
+    for (int i = 0; i < sampleCount; i++) {
+      timestamps[i] = timestampRuns.getTimestamp(i);
+    }
+
     // Count the number of samples after applying edits.
     int editedSampleCount = 0;
     int nextSampleIndex = 0;
@@ -617,7 +686,7 @@ import static java.lang.Math.max;
                 /* inclusive= */ omitClippedSample,
                 /* stayInBounds= */ false);
         while (startIndices[i] < endIndices[i]
-            && (flags[startIndices[i]] & C.BUFFER_FLAG_KEY_FRAME) == 0) {
+            && !sampleTable.isSynchronizationSample(startIndices[i])) {
           // Applying the edit correctly would require prerolling from the previous sync sample. In
           // the current implementation we advance to the next sync sample instead. Only other
           // tracks (i.e. audio) will be rendered until the time of the first sync sample.
@@ -631,6 +700,50 @@ import static java.lang.Math.max;
     }
     copyMetadata |= editedSampleCount != sampleCount;
 
+    // If all samples are presented by a single edit, in their original order, the edit can be
+    // applied when timestamps are read instead of storing the edited timestamps.
+    int sampleEditIndex = C.INDEX_UNSET;
+    int sampleEditCount = 0;
+    for (int i = 0; i < track.editListDurations.length; i++) {
+      if (editListMediaTimes[i] != -1 && startIndices[i] < endIndices[i]) {
+        sampleEditIndex = i;
+        sampleEditCount++;
+      }
+    }
+    if (!copyMetadata && sampleEditCount == 1) {
+      long editStartTime = 0;
+      long editedDuration = 0;
+      for (int i = 0; i < track.editListDurations.length; i++) {
+        if (i < sampleEditIndex) {
+          editStartTime += track.editListDurations[i];
+        }
+        editedDuration += track.editListDurations[i];
+      }
+      long editStartTimeUs =
+          Util.scaleLargeTimestamp(editStartTime, C.MICROS_PER_SECOND, track.movieTimescale);
+      long editedDurationUs =
+          Util.scaleLargeTimestamp(editedDuration, C.MICROS_PER_SECOND, track.movieTimescale);
+      return sampleTableBuilder.build(
+          track,
+          syncSampleIndices,
+          timestampRuns.withEdit(
+              editListMediaTimes[sampleEditIndex],
+              editStartTimeUs,
+              /* clampToEditMediaTime= */ true),
+          editedDurationUs);
+    }
+
+    // Otherwise the edited table is built from per-sample arrays.
+    long[] offsets = new long[sampleCount];
+    int[] sizes = new int[sampleCount];
+    int[] flags = new int[sampleCount];
+    for (int i = 0; i < sampleCount; i++) {
+      offsets[i] = sampleTable.getOffset(i);
+      sizes[i] = sampleTable.getSize(i);
+      flags[i] = sampleTable.isSynchronizationSample(i) ? C.BUFFER_FLAG_KEY_FRAME : 0;
+    }
+    int maximumSize = sampleTable.maximumSize;
+
     // Calculate edited sample timestamps and update the corresponding metadata arrays.
     long[] editedOffsets = copyMetadata ? new long[editedSampleCount] : offsets;
     int[] editedSizes = copyMetadata ? new int[editedSampleCount] : sizes;
@@ -1563,14 +1676,18 @@ import static java.lang.Math.max;
 
   /** Returns whether it's possible to apply the specified edit using gapless playback info. */
   private static boolean canApplyEditWithGaplessInfo(
-      long[] timestamps, long duration, long editStartTime, long editEndTime) {
-    int lastIndex = timestamps.length - 1;
+      TrackSampleTable.TimestampRuns timestamps,
+      int sampleCount,
+      long duration,
+      long editStartTime,
+      long editEndTime) {
+    int lastIndex = sampleCount - 1;
     int latestDelayIndex = Util.constrainValue(MAX_GAPLESS_TRIM_SIZE_SAMPLES, 0, lastIndex);
     int earliestPaddingIndex =
-        Util.constrainValue(timestamps.length - MAX_GAPLESS_TRIM_SIZE_SAMPLES, 0, lastIndex);
-    return timestamps[0] <= editStartTime
-        && editStartTime < timestamps[latestDelayIndex]
-        && timestamps[earliestPaddingIndex] < editEndTime
+        Util.constrainValue(sampleCount - MAX_GAPLESS_TRIM_SIZE_SAMPLES, 0, lastIndex);
+    return timestamps.getTimestamp(0) <= editStartTime
+        && editStartTime < timestamps.getTimestamp(latestDelayIndex)
+        && timestamps.getTimestamp(earliestPaddingIndex) < editEndTime
         && editEndTime <= duration;
   }
 
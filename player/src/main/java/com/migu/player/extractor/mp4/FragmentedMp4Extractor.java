@@ -167,6 +167,9 @@ public class FragmentedMp4Extractor implements Extractor {
   private final ArrayDeque<ContainerAtom> containerAtoms;
   private final ArrayDeque<MetadataSampleInfo> pendingMetadataSampleInfos;
   @Nullable private final TrackOutput additionalEmsgTrackOutput;
+  // Holds the leaf atoms of moof atoms. The buffers are reused from one fragment to the next.
+  private final ArrayList<ParsableByteArray> moofLeafAtomDataPool;
+  private int moofLeafAtomDataPoolUsedCount;
 
   private int parserState;
   private int atomType;
@@ -277,6 +280,7 @@ public class FragmentedMp4Extractor implements Extractor {
     scratch = new ParsableByteArray(scratchBytes);
     containerAtoms = new ArrayDeque<>();
     pendingMetadataSampleInfos = new ArrayDeque<>();
+    moofLeafAtomDataPool = new ArrayList<>();
     trackBundles = new SparseArray<>();
     durationUs = C.TIME_UNSET;
     pendingSeekTimeUs = C.TIME_UNSET;
@@ -328,6 +332,7 @@ public class FragmentedMp4Extractor implements Extractor {
     pendingMetadataSampleBytes = 0;
     pendingSeekTimeUs = timeUs;
     containerAtoms.clear();
+    moofLeafAtomDataPoolUsedCount = 0;
     enterReadingAtomHeaderState();
   }
 
@@ -441,7 +446,7 @@ public class FragmentedMp4Extractor implements Extractor {
       if (atomSize > Integer.MAX_VALUE) {
         throw new ParserException("Leaf atom with length > 2147483647 (unsupported).");
       }
-      ParsableByteArray atomData = new ParsableByteArray((int) atomSize);
+      ParsableByteArray atomData = obtainLeafAtomData((int) atomSize);
       System.arraycopy(atomHeader.getData(), 0, atomData.getData(), 0, Atom.HEADER_SIZE);
       this.atomData = atomData;
       parserState = STATE_READING_ATOM_PAYLOAD;
@@ -456,6 +461,25 @@ public class FragmentedMp4Extractor implements Extractor {
     return true;
   }
 
+  /**
+   * Returns a buffer for the leaf atom whose header has just been read, with its limit set to the
+   * size of the atom. Leaf atoms of moof atoms are read into buffers that are reused once the moof
+   * has been processed, except for pssh atoms, whose data is kept by the {@link DrmInitData}.
+   */
+  private ParsableByteArray obtainLeafAtomData(int atomSize) {
+    if (atomType == Atom.TYPE_pssh
+        || containerAtoms.isEmpty()
+        || containerAtoms.peekLast().type != Atom.TYPE_moof) {
+      return new ParsableByteArray(atomSize);
+    }
+    if (moofLeafAtomDataPoolUsedCount == moofLeafAtomDataPool.size()) {
+      moofLeafAtomDataPool.add(new ParsableByteArray());
+    }
+    ParsableByteArray atomData = moofLeafAtomDataPool.get(moofLeafAtomDataPoolUsedCount++);
+    atomData.reset(atomSize);
+    return atomData;
+  }
+
   private void readAtomPayload(ExtractorInput input) throws IOException {
     int atomPayloadSize = (int) atomSize - atomHeaderBytesRead;
     @Nullable ParsableByteArray atomData = this.atomData;
@@ -586,6 +610,8 @@ public class FragmentedMp4Extractor implements Extractor {
 
   private void onMoofContainerAtomRead(ContainerAtom moof) throws ParserException {
     parseMoof(moof, trackBundles, flags, scratchBytes);
+    // The parsed data has been copied out of the leaf atoms, so their buffers can be reused.
+    moofLeafAtomDataPoolUsedCount = 0;
 
     @Nullable DrmInitData drmInitData = getDrmInitDataFromAtoms(moof.leafChildren);
     if (drmInitData != null) {
@@ -939,8 +965,16 @@ public class FragmentedMp4Extractor implements Extractor {
         ((atomFlags & 0x20 /* default_sample_flags_present */) != 0)
             ? tfhd.readInt()
             : defaultSampleValues.flags;
-    trackBundle.fragment.header = new DefaultSampleValues(defaultSampleDescriptionIndex,
-        defaultSampleDuration, defaultSampleSize, defaultSampleFlags);
+    @Nullable DefaultSampleValues header = trackBundle.fragment.header;
+    if (header == null
+        || header.sampleDescriptionIndex != defaultSampleDescriptionIndex
+        || header.duration != defaultSampleDuration
+        || header.size != defaultSampleSize
+        || header.flags != defaultSampleFlags) {
+      // The values rarely change from one fragment to the next, so the previous ones are reused.
+      trackBundle.fragment.header = new DefaultSampleValues(defaultSampleDescriptionIndex,
+          defaultSampleDuration, defaultSampleSize, defaultSampleFlags);
+    }
     return trackBundle;
   }
 
@@ -1035,6 +1069,9 @@ public class FragmentedMp4Extractor implements Extractor {
     int trackRunEnd = trackRunStart + fragment.trunLength[index];
     long timescale = track.timescale;
     long cumulativeTime = fragment.nextFragmentDecodeTime;
+    long decodingTimeOffsetUs =
+        (fragment.nextFragmentDecodeTimeIncludesMoov ? 0 : trackBundle.moovSampleTable.durationUs)
+            - edtsOffsetUs;
     for (int i = trackRunStart; i < trackRunEnd; i++) {
       // Use trun values if present, otherwise tfhd, otherwise trex.
       int sampleDuration =
@@ -1058,10 +1095,8 @@ public class FragmentedMp4Extractor implements Extractor {
         sampleCompositionTimeOffsetUsTable[i] = 0;
       }
       sampleDecodingTimeUsTable[i] =
-          Util.scaleLargeTimestamp(cumulativeTime, C.MICROS_PER_SECOND, timescale) - edtsOffsetUs;
-      if (!fragment.nextFragmentDecodeTimeIncludesMoov) {
-        sampleDecodingTimeUsTable[i] += trackBundle.moovSampleTable.durationUs;
-      }
+          Util.scaleLargeTimestamp(cumulativeTime, C.MICROS_PER_SECOND, timescale)
+              + decodingTimeOffsetUs;
       sampleSizeTable[i] = sampleSize;
       sampleIsSyncFrameTable[i] = ((sampleFlags >> 16) & 0x1) == 0
           && (!workaroundEveryVideoFrameIsSyncFrame || i == 0);
@@ -1663,21 +1698,21 @@ public class FragmentedMp4Extractor implements Extractor {
     /** Returns the presentation time of the current sample in microseconds. */
     public long getCurrentSamplePresentationTimeUs() {
       return !currentlyInFragment
-          ? moovSampleTable.timestampsUs[currentSampleIndex]
+          ? moovSampleTable.getTimestampUs(currentSampleIndex)
           : fragment.getSamplePresentationTimeUs(currentSampleIndex);
     }
 
     /** Returns the byte offset of the current sample. */
     public long getCurrentSampleOffset() {
       return !currentlyInFragment
-          ? moovSampleTable.offsets[currentSampleIndex]
+          ? moovSampleTable.getOffset(currentSampleIndex)
           : fragment.trunDataPosition[currentTrackRunIndex];
     }
 
     /** Returns the size of the current sample in bytes. */
     public int getCurrentSampleSize() {
       return !currentlyInFragment
-          ? moovSampleTable.sizes[currentSampleIndex]
+          ? moovSampleTable.getSize(currentSampleIndex)
           : fragment.sampleSizeTable[currentSampleIndex];
     }
 
@@ -1686,7 +1721,7 @@ public class FragmentedMp4Extractor implements Extractor {
     public int getCurrentSampleFlags() {
       int flags =
           !currentlyInFragment
-              ? moovSampleTable.flags[currentSampleIndex]
+              ? moovSampleTable.getFlags(currentSampleIndex)
               : (fragment.sampleIsSyncFrameTable[currentSampleIndex] ? C.BUFFER_FLAG_KEY_FRAME : 0);
       if (getEncryptionBoxIfEncrypted() != null) {
         flags |= C.BUFFER_FLAG_ENCRYPTED;
@@ -107,6 +107,14 @@ public final class Mp4Extractor implements Extractor, SeekMap {
    */
   private static final long MAXIMUM_READ_AHEAD_BYTES_STREAM = 10 * 1024 * 1024;
 
+  /**
+   * The maximum number of top-level atoms, and the maximum payload size of each atom, that {@link
+   * #peekTrailingMoovPosition(ExtractorInput)} peeks past to find the mdat atom.
+   */
+  private static final int MAX_PEEKED_ATOM_COUNT = 4;
+
+  private static final int MAX_PEEKED_ATOM_PAYLOAD_SIZE = 4096;
+
   private final @Flags int flags;
 
   // Temporary arrays.
@@ -131,7 +139,7 @@ public final class Mp4Extractor implements Extractor, SeekMap {
   // Extractor outputs.
   private  ExtractorOutput extractorOutput;
   private Mp4Track  [] tracks;
-  private long  [][] accumulatedSampleSizes;
+  private AccumulatedSampleSizes accumulatedSampleSizes;
   private int firstVideoTrackIndex;
   private long durationUs;
   private boolean isQuickTime;
@@ -159,6 +167,53 @@ public final class Mp4Extractor implements Extractor, SeekMap {
     sampleTrackIndex = C.INDEX_UNSET;
   }
 
+  /**
+   * Peeks the top-level atoms at the start of an unfragmented MP4 stream to find whether its moov
+   * atom follows its media data, as is the case for files that haven't been optimized for
+   * streaming. The extractor then needs to read the end of the stream before it can output any
+   * samples.
+   *
+   * <p>The peek position of the input is advanced, and should be reset by the caller.
+   *
+   * @param input The {@link ExtractorInput} from which to peek, positioned at the start of the
+   *     stream.
+   * @return The position of the atom that follows the mdat atom, if the mdat atom is found before
+   *     any moov atom, or {@link C#POSITION_UNSET} otherwise.
+   * @throws IOException If an error occurred peeking from the input.
+   */
+  public static long peekTrailingMoovPosition(ExtractorInput input) throws IOException {
+    ParsableByteArray atomHeader = new ParsableByteArray(Atom.LONG_HEADER_SIZE);
+    long atomPosition = input.getPeekPosition();
+    for (int i = 0; i < MAX_PEEKED_ATOM_COUNT; i++) {
+      if (!input.peekFully(
+          atomHeader.getData(), /* offset= */ 0, Atom.HEADER_SIZE, /* allowEndOfInput= */ true)) {
+        return C.POSITION_UNSET;
+      }
+      atomHeader.setPosition(0);
+      long atomSize = atomHeader.readUnsignedInt();
+      int atomType = atomHeader.readInt();
+      int headerSize = Atom.HEADER_SIZE;
+      if (atomSize == Atom.DEFINES_LARGE_SIZE) {
+        input.peekFully(
+            atomHeader.getData(),
+            /* offset= */ Atom.HEADER_SIZE,
+            /* length= */ Atom.LONG_HEADER_SIZE - Atom.HEADER_SIZE);
+        atomSize = atomHeader.readUnsignedLongToLong();
+        headerSize = Atom.LONG_HEADER_SIZE;
+      }
+      if (atomType == Atom.TYPE_moov || atomSize < headerSize) {
+        return C.POSITION_UNSET;
+      } else if (atomType == Atom.TYPE_mdat) {
+        return atomPosition + atomSize;
+      } else if (atomSize - headerSize > MAX_PEEKED_ATOM_PAYLOAD_SIZE) {
+        return C.POSITION_UNSET;
+      }
+      input.advancePeekPosition((int) (atomSize - headerSize));
+      atomPosition += atomSize;
+    }
+    return C.POSITION_UNSET;
+  }
+
   @Override
   public boolean sniff(ExtractorInput input) throws IOException {
     return Sniffer.sniffUnfragmented(input);
@@ -241,14 +296,14 @@ public final class Mp4Extractor implements Extractor, SeekMap {
       if (sampleIndex == C.INDEX_UNSET) {
         return new SeekPoints(SeekPoint.START);
       }
-      long sampleTimeUs = sampleTable.timestampsUs[sampleIndex];
+      long sampleTimeUs = sampleTable.getTimestampUs(sampleIndex);
       firstTimeUs = sampleTimeUs;
-      firstOffset = sampleTable.offsets[sampleIndex];
+      firstOffset = sampleTable.getOffset(sampleIndex);
       if (sampleTimeUs < timeUs && sampleIndex < sampleTable.sampleCount - 1) {
         int secondSampleIndex = sampleTable.getIndexOfLaterOrEqualSynchronizationSample(timeUs);
         if (secondSampleIndex != C.INDEX_UNSET && secondSampleIndex != sampleIndex) {
-          secondTimeUs = sampleTable.timestampsUs[secondSampleIndex];
-          secondOffset = sampleTable.offsets[secondSampleIndex];
+          secondTimeUs = sampleTable.getTimestampUs(secondSampleIndex);
+          secondOffset = sampleTable.getOffset(secondSampleIndex);
         }
       }
     } else {
@@ -482,7 +537,11 @@ public final class Mp4Extractor implements Extractor, SeekMap {
     this.firstVideoTrackIndex = firstVideoTrackIndex;
     this.durationUs = durationUs;
     this.tracks = tracks.toArray(new Mp4Track[0]);
-    accumulatedSampleSizes = calculateAccumulatedSampleSizes(this.tracks);
+    TrackSampleTable[] sampleTables = new TrackSampleTable[this.tracks.length];
+    for (int i = 0; i < sampleTables.length; i++) {
+      sampleTables[i] = this.tracks[i].sampleTable;
+    }
+    accumulatedSampleSizes = new AccumulatedSampleSizes(sampleTables);
 
     extractorOutput.endTracks();
     extractorOutput.seekMap(this);
@@ -514,8 +573,8 @@ public final class Mp4Extractor implements Extractor, SeekMap {
     Mp4Track track = castNonNull(tracks)[sampleTrackIndex];
     TrackOutput trackOutput = track.trackOutput;
     int sampleIndex = track.sampleIndex;
-    long position = track.sampleTable.offsets[sampleIndex];
-    int sampleSize = track.sampleTable.sizes[sampleIndex];
+    long position = track.sampleTable.getOffset(sampleIndex);
+    int sampleSize = track.sampleTable.getSize(sampleIndex);
     long skipAmount = position - inputPosition + sampleBytesRead;
     if (skipAmount < 0 || skipAmount >= RELOAD_MINIMUM_SEEK_DISTANCE) {
       positionHolder.position = position;
@@ -580,8 +639,8 @@ public final class Mp4Extractor implements Extractor, SeekMap {
         sampleCurrentNalBytesRemaining -= writtenBytes;
       }
     }
-    trackOutput.sampleMetadata(track.sampleTable.timestampsUs[sampleIndex],
-        track.sampleTable.flags[sampleIndex], sampleSize, 0, null);
+    trackOutput.sampleMetadata(track.sampleTable.getTimestampUs(sampleIndex),
+        track.sampleTable.getFlags(sampleIndex), sampleSize, 0, null);
     track.sampleIndex++;
     sampleTrackIndex = C.INDEX_UNSET;
     sampleBytesRead = 0;
@@ -617,8 +676,9 @@ public final class Mp4Extractor implements Extractor, SeekMap {
       if (sampleIndex == track.sampleTable.sampleCount) {
         continue;
       }
-      long sampleOffset = track.sampleTable.offsets[sampleIndex];
-      long sampleAccumulatedBytes = castNonNull(accumulatedSampleSizes)[trackIndex][sampleIndex];
+      long sampleOffset = track.sampleTable.getOffset(sampleIndex);
+      long sampleAccumulatedBytes =
+          castNonNull(accumulatedSampleSizes).get(trackIndex, sampleIndex);
       long skipAmount = sampleOffset - inputPosition;
       boolean requiresReload = skipAmount < 0 || skipAmount >= RELOAD_MINIMUM_SEEK_DISTANCE;
       if ((!requiresReload && preferredRequiresReload)
@@ -681,45 +741,6 @@ public final class Mp4Extractor implements Extractor, SeekMap {
     }
   }
 
-  /**
-   * For each sample of each track, calculates accumulated size of all samples which need to be read
-   * before this sample can be used.
-   */
-  private static long[][] calculateAccumulatedSampleSizes(Mp4Track[] tracks) {
-    long[][] accumulatedSampleSizes = new long[tracks.length][];
-    int[] nextSampleIndex = new int[tracks.length];
-    long[] nextSampleTimesUs = new long[tracks.length];
-    boolean[] tracksFinished = new boolean[tracks.length];
-    for (int i = 0; i < tracks.length; i++) {
-      accumulatedSampleSizes[i] = new long[tracks[i].sampleTable.sampleCount];
-      nextSampleTimesUs[i] = tracks[i].sampleTable.timestampsUs[0];
-    }
-    long accumulatedSampleSize = 0;
-    int finishedTracks = 0;
-    while (finishedTracks < tracks.length) {
-      long minTimeUs = Long.MAX_VALUE;
-      int minTimeTrackIndex = -1;
-      for (int i = 0; i < tracks.length; i++) {
-        if (!tracksFinished[i] && nextSampleTimesUs[i] <= minTimeUs) {
-          minTimeTrackIndex = i;
-          minTimeUs = nextSampleTimesUs[i];
-        }
-      }
-      int trackSampleIndex = nextSampleIndex[minTimeTrackIndex];
-      accumulatedSampleSizes[minTimeTrackIndex][trackSampleIndex] = accumulatedSampleSize;
-      accumulatedSampleSize += tracks[minTimeTrackIndex].sampleTable.sizes[trackSampleIndex];
-      nextSampleIndex[minTimeTrackIndex] = ++trackSampleIndex;
-      if (trackSampleIndex < accumulatedSampleSizes[minTimeTrackIndex].length) {
-        nextSampleTimesUs[minTimeTrackIndex] =
-            tracks[minTimeTrackIndex].sampleTable.timestampsUs[trackSampleIndex];
-      } else {
-        tracksFinished[minTimeTrackIndex] = true;
-        finishedTracks++;
-      }
-    }
-    return accumulatedSampleSizes;
-  }
-
   /**
    * Adjusts a seek point offset to take into account the track with the given {@code sampleTable},
    * for a given {@code seekTimeUs}.
@@ -735,7 +756,7 @@ public final class Mp4Extractor implements Extractor, SeekMap {
     if (sampleIndex == C.INDEX_UNSET) {
       return offset;
     }
-    long sampleOffset = sampleTable.offsets[sampleIndex];
+    long sampleOffset = sampleTable.getOffset(sampleIndex);
     return min(sampleOffset, offset);
   }
 
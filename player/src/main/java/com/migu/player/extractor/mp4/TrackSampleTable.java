@@ -15,12 +15,25 @@
  */
 package com.migu.player.extractor.mp4;
 
+import android.support.annotation.Nullable;
+
 import com.migu.player.C;
 import com.migu.player.util.Assertions;
 import com.migu.player.util.Util;
 
+import java.util.Arrays;
+
+import static java.lang.Math.max;
+
 /**
  * Sample table for a track in an MP4 file.
+ *
+ * <p>The sample tables of long files have millions of samples, so the table doesn't hold an array
+ * per sample property. Samples that are stored contiguously are grouped into chunks, and only the
+ * offset of each chunk and the offsets of samples within chunks are stored. Timestamps are stored
+ * as the runs of samples with the same duration and composition offset described by the stts and
+ * ctts boxes, and are converted to microseconds when they're read. Flags are stored as the indices
+ * of the synchronization samples.
  */
 /* package */ final class TrackSampleTable {
 
@@ -28,19 +41,31 @@ import com.migu.player.util.Util;
   public final Track track;
   /** Number of samples. */
   public final int sampleCount;
-  /** Sample offsets in bytes. */
-  public final long[] offsets;
-  /** Sample sizes in bytes. */
-  public final int[] sizes;
-  /** Maximum sample size in {@link #sizes}. */
+  /** Maximum sample size. */
   public final int maximumSize;
-  /** Sample timestamps in microseconds. */
-  public final long[] timestampsUs;
-  /** Sample flags. */
-  public final int[] flags;
   /** The duration of the track sample table in microseconds. */
   public final long durationUs;
 
+  @Nullable private final int[] sizes;
+  private final int fixedSampleSize;
+  private final int[] chunkStartIndices;
+  private final long[] chunkOffsets;
+  @Nullable private final int[] offsetsInChunk;
+  @Nullable private final int[] syncSampleIndices;
+  @Nullable private final long[] timestampsUs;
+  @Nullable private final TimestampRuns timestampRuns;
+
+  /**
+   * Creates a table from arrays holding the properties of each sample.
+   *
+   * @param track The track corresponding to the sample table.
+   * @param offsets Sample offsets in bytes.
+   * @param sizes Sample sizes in bytes.
+   * @param maximumSize Maximum sample size in {@code sizes}.
+   * @param timestampsUs Sample timestamps in microseconds.
+   * @param flags Sample flags. Only {@link C#BUFFER_FLAG_KEY_FRAME} is retained.
+   * @param durationUs The duration of the track sample table in microseconds.
+   */
   public TrackSampleTable(
       Track track,
       long[] offsets,
@@ -49,21 +74,75 @@ import com.migu.player.util.Util;
       long[] timestampsUs,
       int[] flags,
       long durationUs) {
-    Assertions.checkArgument(sizes.length == timestampsUs.length);
-    Assertions.checkArgument(offsets.length == timestampsUs.length);
-    Assertions.checkArgument(flags.length == timestampsUs.length);
+    this(
+        track,
+        Builder.fromArrays(offsets, sizes, timestampsUs, flags),
+        maximumSize,
+        getSyncSampleIndices(flags),
+        timestampsUs,
+        /* timestampRuns= */ null,
+        durationUs);
+  }
 
+  private TrackSampleTable(
+      Track track,
+      Builder builder,
+      int maximumSize,
+      @Nullable int[] syncSampleIndices,
+      @Nullable long[] timestampsUs,
+      @Nullable TimestampRuns timestampRuns,
+      long durationUs) {
     this.track = track;
-    this.offsets = offsets;
-    this.sizes = sizes;
     this.maximumSize = maximumSize;
+    this.syncSampleIndices = syncSampleIndices;
     this.timestampsUs = timestampsUs;
-    this.flags = flags;
+    this.timestampRuns = timestampRuns;
     this.durationUs = durationUs;
-    sampleCount = offsets.length;
-    if (flags.length > 0) {
-      flags[flags.length - 1] |= C.BUFFER_FLAG_LAST_SAMPLE;
+    sampleCount = builder.sampleCount;
+    sizes = builder.sizes;
+    fixedSampleSize = builder.fixedSampleSize;
+    chunkStartIndices = Arrays.copyOf(builder.chunkStartIndices, builder.chunkCount);
+    chunkOffsets = Arrays.copyOf(builder.chunkOffsets, builder.chunkCount);
+    offsetsInChunk = builder.offsetsInChunk;
+  }
+
+  /** Returns the offset of a sample in bytes. */
+  public long getOffset(int sampleIndex) {
+    int chunkIndex =
+        Util.binarySearchFloor(
+            chunkStartIndices, sampleIndex, /* inclusive= */ true, /* stayInBounds= */ true);
+    long chunkOffset = chunkOffsets[chunkIndex];
+    if (sizes == null) {
+      return chunkOffset + (long) (sampleIndex - chunkStartIndices[chunkIndex]) * fixedSampleSize;
     }
+    return offsetsInChunk == null ? chunkOffset : chunkOffset + offsetsInChunk[sampleIndex];
+  }
+
+  /** Returns the size of a sample in bytes. */
+  public int getSize(int sampleIndex) {
+    return sizes != null ? sizes[sampleIndex] : fixedSampleSize;
+  }
+
+  /** Returns the timestamp of a sample in microseconds. */
+  public long getTimestampUs(int sampleIndex) {
+    return timestampsUs != null
+        ? timestampsUs[sampleIndex]
+        : Assertions.checkNotNull(timestampRuns).getTimestampUs(sampleIndex);
+  }
+
+  /** Returns the {@link C.BufferFlags flags} of a sample. */
+  @C.BufferFlags
+  public int getFlags(int sampleIndex) {
+    int flags = isSynchronizationSample(sampleIndex) ? C.BUFFER_FLAG_KEY_FRAME : 0;
+    if (sampleIndex == sampleCount - 1) {
+      flags |= C.BUFFER_FLAG_LAST_SAMPLE;
+    }
+    return flags;
+  }
+
+  /** Returns whether a sample is a synchronization sample. */
+  public boolean isSynchronizationSample(int sampleIndex) {
+    return syncSampleIndices == null || Arrays.binarySearch(syncSampleIndices, sampleIndex) >= 0;
   }
 
   /**
@@ -76,13 +155,14 @@ import com.migu.player.util.Util;
   public int getIndexOfEarlierOrEqualSynchronizationSample(long timeUs) {
     // Video frame timestamps may not be sorted, so the behavior of this call can be undefined.
     // Frames are not reordered past synchronization samples so this works in practice.
-    int startIndex = Util.binarySearchFloor(timestampsUs, timeUs, true, false);
-    for (int i = startIndex; i >= 0; i--) {
-      if ((flags[i] & C.BUFFER_FLAG_KEY_FRAME) != 0) {
-        return i;
-      }
+    int startIndex = binarySearchTimestampsFloor(timeUs);
+    if (startIndex < 0 || syncSampleIndices == null) {
+      return startIndex < 0 ? C.INDEX_UNSET : startIndex;
     }
-    return C.INDEX_UNSET;
+    int syncIndex =
+        Util.binarySearchFloor(
+            syncSampleIndices, startIndex, /* inclusive= */ true, /* stayInBounds= */ false);
+    return syncIndex < 0 ? C.INDEX_UNSET : syncSampleIndices[syncIndex];
   }
 
   /**
@@ -93,13 +173,374 @@ import com.migu.player.util.Util;
    * @return index Index of the synchronization sample, or {@link C#INDEX_UNSET} if none.
    */
   public int getIndexOfLaterOrEqualSynchronizationSample(long timeUs) {
-    int startIndex = Util.binarySearchCeil(timestampsUs, timeUs, true, false);
-    for (int i = startIndex; i < timestampsUs.length; i++) {
+    int startIndex = binarySearchTimestampsCeil(timeUs);
+    if (startIndex >= sampleCount || syncSampleIndices == null) {
+      return startIndex >= sampleCount ? C.INDEX_UNSET : startIndex;
+    }
+    int syncIndex =
+        Util.binarySearchCeil(
+            syncSampleIndices, startIndex, /* inclusive= */ true, /* stayInBounds= */ false);
+    return syncIndex >= syncSampleIndices.length ? C.INDEX_UNSET : syncSampleIndices[syncIndex];
+  }
+
+  /**
+   * Equivalent to {@link Util#binarySearchFloor(long[], long, boolean, boolean)} on the sample
+   * timestamps, with {@code inclusive} set and {@code stayInBounds} unset.
+   */
+  private int binarySearchTimestampsFloor(long timeUs) {
+    int index = binarySearchTimestamps(timeUs);
+    if (index < 0) {
+      return -(index + 2);
+    }
+    while (--index >= 0 && getTimestampUs(index) == timeUs) {}
+    return index + 1;
+  }
+
+  /**
+   * Equivalent to {@link Util#binarySearchCeil(long[], long, boolean, boolean)} on the sample
+   * timestamps, with {@code inclusive} set and {@code stayInBounds} unset.
+   */
+  private int binarySearchTimestampsCeil(long timeUs) {
+    int index = binarySearchTimestamps(timeUs);
+    if (index < 0) {
+      return ~index;
+    }
+    while (++index < sampleCount && getTimestampUs(index) == timeUs) {}
+    return index - 1;
+  }
+
+  /**
+   * Equivalent to {@link Arrays#binarySearch(long[], long)} on the sample timestamps, which must
+   * return the same indices as the array search even if the timestamps aren't sorted.
+   */
+  private int binarySearchTimestamps(long timeUs) {
+    int low = 0;
+    int high = sampleCount - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      long midTimeUs = getTimestampUs(mid);
+      if (midTimeUs < timeUs) {
+        low = mid + 1;
+      } else if (midTimeUs > timeUs) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(low + 1);
+  }
+
+  /**
+   * Returns the indices of the samples whose flags have {@link C#BUFFER_FLAG_KEY_FRAME} set, or
+   * null if all of them have it set.
+   */
+  @Nullable
+  private static int[] getSyncSampleIndices(int[] flags) {
+    int[] syncSampleIndices = new int[flags.length];
+    int syncSampleCount = 0;
+    for (int i = 0; i < flags.length; i++) {
       if ((flags[i] & C.BUFFER_FLAG_KEY_FRAME) != 0) {
-        return i;
+        syncSampleIndices[syncSampleCount++] = i;
       }
     }
-    return C.INDEX_UNSET;
+    return syncSampleCount == flags.length
+        ? null
+        : Arrays.copyOf(syncSampleIndices, syncSampleCount);
   }
 
+  /** Builds a {@link TrackSampleTable} from the offsets and sizes of its samples. */
+  /* package */ static final class Builder {
+
+    @Nullable private final int[] sizes;
+    private final int fixedSampleSize;
+
+    private int[] chunkStartIndices;
+    private long[] chunkOffsets;
+    @Nullable private int[] offsetsInChunk;
+    private int sampleCount;
+    private int chunkCount;
+    private int maximumSize;
+    private long nextSampleOffset;
+
+    /**
+     * @param maxSampleCount The maximum number of samples that will be added.
+     * @param fixedSampleSize The size of every sample in bytes, or {@link C#LENGTH_UNSET} if the
+     *     sizes of samples differ.
+     * @param expectedChunkCount The expected number of chunks in which samples are stored.
+     */
+    public Builder(int maxSampleCount, int fixedSampleSize, int expectedChunkCount) {
+      this.fixedSampleSize = fixedSampleSize;
+      sizes = fixedSampleSize == C.LENGTH_UNSET ? new int[maxSampleCount] : null;
+      chunkStartIndices = new int[max(expectedChunkCount, 1)];
+      chunkOffsets = new long[max(expectedChunkCount, 1)];
+    }
+
+    /** Returns the number of samples that have been added. */
+    public int getSampleCount() {
+      return sampleCount;
+    }
+
+    /** Returns the maximum size of the samples that have been added. */
+    public int getMaximumSize() {
+      return maximumSize;
+    }
+
+    /**
+     * Adds a sample.
+     *
+     * @param offset The offset of the sample in bytes.
+     * @param size The size of the sample in bytes. Must be the fixed sample size, if the builder
+     *     was created with one.
+     */
+    public void addSample(long offset, int size) {
+      int sampleIndex = sampleCount++;
+      long offsetInChunk =
+          chunkCount > 0 && offset == nextSampleOffset ? offset - chunkOffsets[chunkCount - 1] : 0;
+      if (sizes == null) {
+        if (offsetInChunk == 0) {
+          startChunk(sampleIndex, offset);
+        }
+      } else {
+        sizes[sampleIndex] = size;
+        if (offsetInChunk == 0 || offsetInChunk > Integer.MAX_VALUE) {
+          startChunk(sampleIndex, offset);
+        } else {
+          if (offsetsInChunk == null) {
+            offsetsInChunk = new int[sizes.length];
+          }
+          offsetsInChunk[sampleIndex] = (int) offsetInChunk;
+        }
+      }
+      maximumSize = max(maximumSize, size);
+      nextSampleOffset = offset + size;
+    }
+
+    /**
+     * Builds the table.
+     *
+     * @param track The track corresponding to the sample table.
+     * @param syncSampleIndices The indices of the synchronization samples in ascending order, or
+     *     null if all samples are synchronization samples.
+     * @param timestampRuns The sample timestamps.
+     * @param durationUs The duration of the track sample table in microseconds.
+     * @return The table.
+     */
+    public TrackSampleTable build(
+        Track track,
+        @Nullable int[] syncSampleIndices,
+        TimestampRuns timestampRuns,
+        long durationUs) {
+      return new TrackSampleTable(
+          track,
+          /* builder= */ this,
+          maximumSize,
+          syncSampleIndices,
+          /* timestampsUs= */ null,
+          timestampRuns,
+          durationUs);
+    }
+
+    private void startChunk(int sampleIndex, long offset) {
+      if (chunkCount == chunkOffsets.length) {
+        chunkStartIndices = Arrays.copyOf(chunkStartIndices, chunkCount * 2);
+        chunkOffsets = Arrays.copyOf(chunkOffsets, chunkCount * 2);
+      }
+      chunkStartIndices[chunkCount] = sampleIndex;
+      chunkOffsets[chunkCount] = offset;
+      chunkCount++;
+    }
+
+    private static Builder fromArrays(
+        long[] offsets, int[] sizes, long[] timestampsUs, int[] flags) {
+      Assertions.checkArgument(sizes.length == timestampsUs.length);
+      Assertions.checkArgument(offsets.length == timestampsUs.length);
+      Assertions.checkArgument(flags.length == timestampsUs.length);
+      Builder builder =
+          new Builder(
+              offsets.length, /* fixedSampleSize= */ C.LENGTH_UNSET, /* expectedChunkCount= */ 16);
+      for (int i = 0; i < offsets.length; i++) {
+        builder.addSample(offsets[i], sizes[i]);
+      }
+      return builder;
+    }
+  }
+
+  /**
+   * Sample timestamps stored as runs of samples with the same duration and runs of samples with the
+   * same composition offset, optionally shifted by an edit.
+   */
+  /* package */ static final class TimestampRuns {
+
+    private final int[] decodingRunStartIndices;
+    private final long[] decodingRunStartTimes;
+    private final long[] decodingRunDeltas;
+    @Nullable private final int[] compositionRunStartIndices;
+    @Nullable private final int[] compositionRunOffsets;
+    @Nullable private final int[] compositionOffsets;
+    private final long timescale;
+    private final long editMediaTime;
+    private final long editStartTimeUs;
+    private final boolean clampToEditMediaTime;
+
+    /**
+     * @param sampleCount The number of samples.
+     * @param decodingRunStartIndices The index of the first sample of each run of samples with the
+     *     same duration, starting with 0.
+     * @param decodingRunStartTimes The decoding time of the first sample of each run, in the track
+     *     timescale.
+     * @param decodingRunDeltas The duration of the samples of each run, in the track timescale. The
+     *     last run extends to the last sample.
+     * @param compositionRunStartIndices The index of the first sample of each run of samples with
+     *     the same composition offset, starting with 0, or null if samples have no composition
+     *     offset.
+     * @param compositionRunOffsets The composition offset of the samples of each run, in the track
+     *     timescale, or null if samples have no composition offset.
+     * @param timescale The track timescale.
+     */
+    public TimestampRuns(
+        int sampleCount,
+        int[] decodingRunStartIndices,
+        long[] decodingRunStartTimes,
+        long[] decodingRunDeltas,
+        @Nullable int[] compositionRunStartIndices,
+        @Nullable int[] compositionRunOffsets,
+        long timescale) {
+      this.decodingRunStartIndices = decodingRunStartIndices;
+      this.decodingRunStartTimes = decodingRunStartTimes;
+      this.decodingRunDeltas = decodingRunDeltas;
+      this.timescale = timescale;
+      editMediaTime = 0;
+      editStartTimeUs = 0;
+      clampToEditMediaTime = false;
+      if (compositionRunStartIndices != null
+          && compositionRunStartIndices.length > sampleCount / 2) {
+        // Video with B-frames has a run for nearly every sample. An offset per sample takes less
+        // memory in that case, and avoids searching the runs.
+        int[] compositionOffsets = new int[sampleCount];
+        int[] runOffsets = Assertions.checkNotNull(compositionRunOffsets);
+        for (int i = 0; i < runOffsets.length; i++) {
+          int runEndIndex =
+              i + 1 < runOffsets.length ? compositionRunStartIndices[i + 1] : sampleCount;
+          Arrays.fill(
+              compositionOffsets, compositionRunStartIndices[i], runEndIndex, runOffsets[i]);
+        }
+        this.compositionOffsets = compositionOffsets;
+        this.compositionRunStartIndices = null;
+        this.compositionRunOffsets = null;
+      } else {
+        this.compositionOffsets = null;
+        this.compositionRunStartIndices = compositionRunStartIndices;
+        this.compositionRunOffsets = compositionRunOffsets;
+      }
+    }
+
+    private TimestampRuns(
+        TimestampRuns timestampRuns,
+        long editMediaTime,
+        long editStartTimeUs,
+        boolean clampToEditMediaTime) {
+      decodingRunStartIndices = timestampRuns.decodingRunStartIndices;
+      decodingRunStartTimes = timestampRuns.decodingRunStartTimes;
+      decodingRunDeltas = timestampRuns.decodingRunDeltas;
+      compositionRunStartIndices = timestampRuns.compositionRunStartIndices;
+      compositionRunOffsets = timestampRuns.compositionRunOffsets;
+      compositionOffsets = timestampRuns.compositionOffsets;
+      timescale = timestampRuns.timescale;
+      this.editMediaTime = editMediaTime;
+      this.editStartTimeUs = editStartTimeUs;
+      this.clampToEditMediaTime = clampToEditMediaTime;
+    }
+
+    /**
+     * Creates runs from sample timestamps.
+     *
+     * @param timestamps The sample timestamps, in the track timescale.
+     * @param timescale The track timescale.
+     * @return The runs.
+     */
+    public static TimestampRuns fromTimestamps(long[] timestamps, long timescale) {
+      int[] runStartIndices = new int[max(timestamps.length, 1)];
+      long[] runStartTimes = new long[runStartIndices.length];
+      long[] runDeltas = new long[runStartIndices.length];
+      int runCount = 0;
+      for (int i = 0; i < timestamps.length; i++) {
+        if (runCount > 0) {
+          int run = runCount - 1;
+          long delta = runDeltas[run];
+          long expectedTimestamp = runStartTimes[run] + (i - runStartIndices[run]) * delta;
+          if (timestamps[i] == expectedTimestamp) {
+            continue;
+          }
+          if (i - runStartIndices[run] == 1) {
+            // The run only has one sample, so its delta can still be changed.
+            runDeltas[run] = timestamps[i] - timestamps[i - 1];
+            continue;
+          }
+        }
+        runStartIndices[runCount] = i;
+        runStartTimes[runCount] = timestamps[i];
+        runDeltas[runCount] = 0;
+        runCount++;
+      }
+      return new TimestampRuns(
+          timestamps.length,
+          Arrays.copyOf(runStartIndices, runCount),
+          Arrays.copyOf(runStartTimes, runCount),
+          Arrays.copyOf(runDeltas, runCount),
+          /* compositionRunStartIndices= */ null,
+          /* compositionRunOffsets= */ null,
+          timescale);
+    }
+
+    /**
+     * Returns runs whose timestamps in microseconds are shifted so that samples at {@code
+     * editMediaTime} are at {@code editStartTimeUs}.
+     *
+     * @param editMediaTime The media time at which the edit starts, in the track timescale.
+     * @param editStartTimeUs The presentation time at which the edit starts, in microseconds.
+     * @param clampToEditMediaTime Whether samples before {@code editMediaTime} are presented at
+     *     {@code editStartTimeUs}.
+     * @return The shifted runs.
+     */
+    public TimestampRuns withEdit(
+        long editMediaTime, long editStartTimeUs, boolean clampToEditMediaTime) {
+      return new TimestampRuns(
+          /* timestampRuns= */ this, editMediaTime, editStartTimeUs, clampToEditMediaTime);
+    }
+
+    /** Returns the timestamp of a sample in the track timescale, ignoring any edit. */
+    public long getTimestamp(int sampleIndex) {
+      int run =
+          Util.binarySearchFloor(
+              decodingRunStartIndices,
+              sampleIndex,
+              /* inclusive= */ true,
+              /* stayInBounds= */ true);
+      long timestamp =
+          decodingRunStartTimes[run]
+              + (sampleIndex - decodingRunStartIndices[run]) * decodingRunDeltas[run];
+      if (compositionOffsets != null) {
+        timestamp += compositionOffsets[sampleIndex];
+      } else if (compositionRunStartIndices != null) {
+        int compositionRun =
+            Util.binarySearchFloor(
+                compositionRunStartIndices,
+                sampleIndex,
+                /* inclusive= */ true,
+                /* stayInBounds= */ true);
+        timestamp += Assertions.checkNotNull(compositionRunOffsets)[compositionRun];
+      }
+      return timestamp;
+    }
+
+    /** Returns the timestamp of a sample in microseconds. */
+    public long getTimestampUs(int sampleIndex) {
+      long timeInEdit = getTimestamp(sampleIndex) - editMediaTime;
+      if (clampToEditMediaTime) {
+        timeInEdit = max(0, timeInEdit);
+      }
+      return editStartTimeUs
+          + Util.scaleLargeTimestamp(timeInEdit, C.MICROS_PER_SECOND, timescale);
+    }
+  }
 }
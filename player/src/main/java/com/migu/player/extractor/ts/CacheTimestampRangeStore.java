@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.migu.player.extractor.ts;
+
+import android.net.Uri;
+import android.support.annotation.Nullable;
+
+import com.migu.player.upstream.cache.Cache;
+import com.migu.player.upstream.cache.CacheKeyFactory;
+import com.migu.player.upstream.cache.ContentMetadata;
+import com.migu.player.upstream.cache.ContentMetadataStore;
+
+/**
+ * A {@link TimestampRangeStore} that stores ranges in the {@link ContentMetadata} of the cached
+ * files of a {@link Cache}, using a {@link ContentMetadataStore}.
+ */
+public final class CacheTimestampRangeStore implements TimestampRangeStore {
+
+  /** The {@link ContentMetadata} key under which ranges are stored. */
+  public static final String METADATA_KEY_TIMESTAMP_RANGE =
+      ContentMetadata.KEY_CUSTOM_PREFIX + "ts_timestamp_range";
+
+  private final ContentMetadataStore contentMetadataStore;
+
+  /**
+   * Creates a store that uses {@link CacheKeyFactory#DEFAULT}.
+   *
+   * @param cache The {@link Cache} in which to store ranges.
+   */
+  public CacheTimestampRangeStore(Cache cache) {
+    this(new ContentMetadataStore(cache));
+  }
+
+  /**
+   * @param cache The {@link Cache} in which to store ranges.
+   * @param cacheKeyFactory The {@link CacheKeyFactory} that builds the cache keys of files.
+   */
+  public CacheTimestampRangeStore(Cache cache, CacheKeyFactory cacheKeyFactory) {
+    this(new ContentMetadataStore(cache, cacheKeyFactory));
+  }
+
+  /**
+   * @param contentMetadataStore The {@link ContentMetadataStore} in which to store ranges.
+   */
+  public CacheTimestampRangeStore(ContentMetadataStore contentMetadataStore) {
+    this.contentMetadataStore = contentMetadataStore;
+  }
+
+  @Override
+  @Nullable
+  public TimestampRange get(Uri uri) {
+    @Nullable byte[] data = contentMetadataStore.get(uri, METADATA_KEY_TIMESTAMP_RANGE);
+    return data != null ? TimestampRange.fromByteArray(data) : null;
+  }
+
+  @Override
+  public void put(Uri uri, TimestampRange timestampRange) {
+    contentMetadataStore.put(uri, METADATA_KEY_TIMESTAMP_RANGE, timestampRange.toByteArray());
+  }
+}
@@ -41,8 +41,8 @@ public final class DefaultTsPayloadReaderFactory implements TsPayloadReader.Fact
    * Flags controlling elementary stream readers' behavior. Possible flag values are {@link
    * #FLAG_ALLOW_NON_IDR_KEYFRAMES}, {@link #FLAG_IGNORE_AAC_STREAM}, {@link
    * #FLAG_IGNORE_H264_STREAM}, {@link #FLAG_DETECT_ACCESS_UNITS}, {@link
-   * #FLAG_IGNORE_SPLICE_INFO_STREAM}, {@link #FLAG_OVERRIDE_CAPTION_DESCRIPTORS} and {@link
-   * #FLAG_ENABLE_HDMV_DTS_AUDIO_STREAMS}.
+   * #FLAG_IGNORE_SPLICE_INFO_STREAM}, {@link #FLAG_OVERRIDE_CAPTION_DESCRIPTORS}, {@link
+   * #FLAG_ENABLE_HDMV_DTS_AUDIO_STREAMS} and {@link #FLAG_ENABLE_PARALLEL_PARSING}.
    */
   @Documented
   @Retention(RetentionPolicy.SOURCE)
@@ -55,7 +55,8 @@ public final class DefaultTsPayloadReaderFactory implements TsPayloadReader.Fact
         FLAG_DETECT_ACCESS_UNITS,
         FLAG_IGNORE_SPLICE_INFO_STREAM,
         FLAG_OVERRIDE_CAPTION_DESCRIPTORS,
-        FLAG_ENABLE_HDMV_DTS_AUDIO_STREAMS
+        FLAG_ENABLE_HDMV_DTS_AUDIO_STREAMS,
+        FLAG_ENABLE_PARALLEL_PARSING
       })
   public @interface Flags {}
 
@@ -99,6 +100,13 @@ public final class DefaultTsPayloadReaderFactory implements TsPayloadReader.Fact
    * not be detected, as they share the same elementary stream type as HDMV DTS.
    */
   public static final int FLAG_ENABLE_HDMV_DTS_AUDIO_STREAMS = 1 << 6;
+  /**
+   * Parses each elementary stream carried in PES packets on its own worker thread, so that parsing
+   * a high bitrate video stream doesn't hold up the parsing of the other streams and the demuxing
+   * of the transport stream. Samples are output in the same order as without this flag. Parsing
+   * the PES headers, and so adjusting the timestamps, remains on the loading thread.
+   */
+  public static final int FLAG_ENABLE_PARALLEL_PARSING = 1 << 7;
 
   private static final int DESCRIPTOR_TAG_CAPTION_SERVICE = 0x86;
 
@@ -143,43 +151,43 @@ public final class DefaultTsPayloadReaderFactory implements TsPayloadReader.Fact
     switch (streamType) {
       case TsExtractor.TS_STREAM_TYPE_MPA:
       case TsExtractor.TS_STREAM_TYPE_MPA_LSF:
-        return new PesReader(new MpegAudioReader(esInfo.language));
+        return newPesReader(new MpegAudioReader(esInfo.language));
       case TsExtractor.TS_STREAM_TYPE_AAC_ADTS:
         return isSet(FLAG_IGNORE_AAC_STREAM)
-            ? null : new PesReader(new AdtsReader(false, esInfo.language));
+            ? null : newPesReader(new AdtsReader(false, esInfo.language));
       case TsExtractor.TS_STREAM_TYPE_AAC_LATM:
         return isSet(FLAG_IGNORE_AAC_STREAM)
-            ? null : new PesReader(new LatmReader(esInfo.language));
+            ? null : newPesReader(new LatmReader(esInfo.language));
       case TsExtractor.TS_STREAM_TYPE_AC3:
       case TsExtractor.TS_STREAM_TYPE_E_AC3:
-        return new PesReader(new Ac3Reader(esInfo.language));
+        return newPesReader(new Ac3Reader(esInfo.language));
       case TsExtractor.TS_STREAM_TYPE_AC4:
-        return new PesReader(new Ac4Reader(esInfo.language));
+        return newPesReader(new Ac4Reader(esInfo.language));
       case TsExtractor.TS_STREAM_TYPE_HDMV_DTS:
         if (!isSet(FLAG_ENABLE_HDMV_DTS_AUDIO_STREAMS)) {
           return null;
         }
         // Fall through.
       case TsExtractor.TS_STREAM_TYPE_DTS:
-        return new PesReader(new DtsReader(esInfo.language));
+        return newPesReader(new DtsReader(esInfo.language));
       case TsExtractor.TS_STREAM_TYPE_H262:
-        return new PesReader(new H262Reader(buildUserDataReader(esInfo)));
+        return newPesReader(new H262Reader(buildUserDataReader(esInfo)));
       case TsExtractor.TS_STREAM_TYPE_H263:
-        return new PesReader(new H263Reader(buildUserDataReader(esInfo)));
+        return newPesReader(new H263Reader(buildUserDataReader(esInfo)));
       case TsExtractor.TS_STREAM_TYPE_H264:
         return isSet(FLAG_IGNORE_H264_STREAM) ? null
-            : new PesReader(new H264Reader(buildSeiReader(esInfo),
+            : newPesReader(new H264Reader(buildSeiReader(esInfo),
                 isSet(FLAG_ALLOW_NON_IDR_KEYFRAMES), isSet(FLAG_DETECT_ACCESS_UNITS)));
       case TsExtractor.TS_STREAM_TYPE_H265:
-        return new PesReader(new H265Reader(buildSeiReader(esInfo)));
+        return newPesReader(new H265Reader(buildSeiReader(esInfo)));
       case TsExtractor.TS_STREAM_TYPE_SPLICE_INFO:
         return isSet(FLAG_IGNORE_SPLICE_INFO_STREAM)
             ? null
             : new SectionReader(new PassthroughSectionPayloadReader(MimeTypes.APPLICATION_SCTE35));
       case TsExtractor.TS_STREAM_TYPE_ID3:
-        return new PesReader(new Id3Reader());
+        return newPesReader(new Id3Reader());
       case TsExtractor.TS_STREAM_TYPE_DVBSUBS:
-        return new PesReader(
+        return newPesReader(
             new DvbSubtitleReader(esInfo.dvbSubtitleInfos));
       case TsExtractor.TS_STREAM_TYPE_AIT:
         return new SectionReader(new PassthroughSectionPayloadReader(MimeTypes.APPLICATION_AIT));
@@ -188,6 +196,17 @@ public final class DefaultTsPayloadReaderFactory implements TsPayloadReader.Fact
     }
   }
 
+  /**
+   * Returns a {@link PesReader} for {@code reader}, which parses on a worker thread if {@link
+   * #FLAG_ENABLE_PARALLEL_PARSING} is set.
+   */
+  private PesReader newPesReader(ElementaryStreamReader reader) {
+    return new PesReader(
+        isSet(FLAG_ENABLE_PARALLEL_PARSING)
+            ? new ParallelElementaryStreamReader(reader, "ExoPlayer:ElementaryStreamReader")
+            : reader);
+  }
+
   /**
    * If {@link #FLAG_OVERRIDE_CAPTION_DESCRIPTORS} is set, returns a {@link SeiReader} for {@link
    * #closedCaptionFormats}. If unset, parses the PMT descriptor information and returns a {@link
@@ -20,6 +20,8 @@ import com.migu.player.extractor.ExtractorOutput;
 import com.migu.player.extractor.TrackOutput;
 import com.migu.player.util.ParsableByteArray;
 
+import java.io.IOException;
+
 /**
  * Extracts individual samples from an elementary media stream, preserving original order.
  */
@@ -60,4 +62,13 @@ public interface ElementaryStreamReader {
    */
   void packetFinished();
 
+  /**
+   * Blocks until the data passed to {@link #consume} has been fully parsed and output.
+   *
+   * @throws IOException If the data couldn't be parsed.
+   */
+  default void flush() throws IOException {}
+
+  /** Releases any resources held by the reader. */
+  default void release() {}
 }
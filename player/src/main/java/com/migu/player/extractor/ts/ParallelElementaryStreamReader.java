@@ -0,0 +1,296 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.migu.player.extractor.ts;
+
+import android.support.annotation.Nullable;
+
+import com.migu.player.ParserException;
+import com.migu.player.extractor.ExtractorOutput;
+import com.migu.player.util.ParsableByteArray;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.Math.max;
+
+/**
+ * An {@link ElementaryStreamReader} that parses the data of an elementary stream on a worker
+ * thread, so that the elementary streams of different PIDs are parsed in parallel with each other
+ * and with the demuxing of the transport stream.
+ *
+ * <p>The packet events and data passed to the reader are copied into batches, which the wrapped
+ * reader processes in order on the worker thread. The wrapped reader is therefore the only writer
+ * of its {@link com.migu.player.extractor.TrackOutput}s, and outputs exactly what it would output
+ * on the loading thread. A batch is handed to the worker thread when a packet ends, or when its
+ * data exceeds a size limit, and the loading thread continues without waiting for it. Only {@link
+ * #seek()} and {@link #flush()} wait until all the batches have been processed. To bound memory
+ * use, the loading thread also waits when the worker thread falls behind by too many batches.
+ *
+ * <p>The worker thread is terminated when it has been idle for a second.
+ */
+/* package */ final class ParallelElementaryStreamReader implements ElementaryStreamReader {
+
+  /** The size of the batch data above which a batch is handed to the worker thread. */
+  private static final int BATCH_SUBMIT_SIZE = 32 * 1024;
+  /** The maximum number of batches handed to the worker thread that it hasn't processed. */
+  private static final int MAX_SUBMITTED_BATCH_COUNT = 8;
+  private static final long KEEP_ALIVE_MS = 1000;
+
+  private static final int OPERATION_PACKET_STARTED = 0;
+  private static final int OPERATION_CONSUME = 1;
+  private static final int OPERATION_PACKET_FINISHED = 2;
+
+  private final ElementaryStreamReader reader;
+  private final String threadName;
+  private final ArrayDeque<Batch> freeBatches;
+  private final ArrayDeque<Future<?>> submittedBatchFutures;
+
+  @Nullable private ThreadPoolExecutor executor;
+  @Nullable private Batch pendingBatch;
+  @Nullable private volatile Exception error;
+
+  /**
+   * @param reader The {@link ElementaryStreamReader} that parses the elementary stream.
+   * @param threadName The name of the worker thread.
+   */
+  public ParallelElementaryStreamReader(ElementaryStreamReader reader, String threadName) {
+    this.reader = reader;
+    this.threadName = threadName;
+    freeBatches = new ArrayDeque<>();
+    submittedBatchFutures = new ArrayDeque<>();
+  }
+
+  @Override
+  public void seek() {
+    if (pendingBatch != null) {
+      pendingBatch.reset();
+    }
+    awaitSubmittedBatches();
+    error = null;
+    reader.seek();
+  }
+
+  @Override
+  public void createTracks(
+      ExtractorOutput extractorOutput, PesReader.TrackIdGenerator idGenerator) {
+    reader.createTracks(extractorOutput, idGenerator);
+  }
+
+  @Override
+  public void packetStarted(long pesTimeUs, @TsPayloadReader.Flags int flags) {
+    getPendingBatch().addOperation(OPERATION_PACKET_STARTED, pesTimeUs, flags);
+  }
+
+  @Override
+  public void consume(ParsableByteArray data) throws ParserException {
+    throwIfError();
+    Batch batch = getPendingBatch();
+    int length = data.bytesLeft();
+    batch.addOperation(OPERATION_CONSUME, /* longValue= */ batch.dataSize, /* intValue= */ length);
+    batch.addData(data, length);
+    if (batch.dataSize >= BATCH_SUBMIT_SIZE) {
+      submitPendingBatch();
+    }
+  }
+
+  @Override
+  public void packetFinished() {
+    getPendingBatch()
+        .addOperation(OPERATION_PACKET_FINISHED, /* longValue= */ 0, /* intValue= */ 0);
+    // Hand over complete packets straight away, so that their samples aren't held back until
+    // more data of the stream arrives.
+    submitPendingBatch();
+  }
+
+  @Override
+  public void flush() throws IOException {
+    submitPendingBatch();
+    awaitSubmittedBatches();
+    throwIfError();
+  }
+
+  @Override
+  public void release() {
+    if (executor != null) {
+      executor.shutdown();
+    }
+  }
+
+  // Internal methods.
+
+  private Batch getPendingBatch() {
+    if (pendingBatch == null) {
+      synchronized (freeBatches) {
+        pendingBatch = freeBatches.isEmpty() ? new Batch() : freeBatches.removeFirst();
+      }
+    }
+    return pendingBatch;
+  }
+
+  private void submitPendingBatch() {
+    @Nullable Batch batch = pendingBatch;
+    if (batch == null || batch.operationCount == 0) {
+      return;
+    }
+    pendingBatch = null;
+    while (!submittedBatchFutures.isEmpty() && submittedBatchFutures.peekFirst().isDone()) {
+      submittedBatchFutures.removeFirst();
+    }
+    if (submittedBatchFutures.size() >= MAX_SUBMITTED_BATCH_COUNT) {
+      awaitBatch(submittedBatchFutures.removeFirst());
+    }
+    if (executor == null) {
+      executor =
+          new ThreadPoolExecutor(
+              /* corePoolSize= */ 1,
+              /* maximumPoolSize= */ 1,
+              KEEP_ALIVE_MS,
+              TimeUnit.MILLISECONDS,
+              new LinkedBlockingQueue<Runnable>(),
+              new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                  return new Thread(runnable, threadName);
+                }
+              });
+      executor.allowCoreThreadTimeOut(true);
+    }
+    submittedBatchFutures.addLast(executor.submit(batch));
+  }
+
+  private void awaitSubmittedBatches() {
+    while (!submittedBatchFutures.isEmpty()) {
+      awaitBatch(submittedBatchFutures.removeFirst());
+    }
+  }
+
+  /**
+   * Waits until a batch has been processed. The wait isn't interrupted, as the batch may otherwise
+   * still output samples after the load has ended, and it's short because the number of submitted
+   * batches is bounded.
+   */
+  private static void awaitBatch(Future<?> batchFuture) {
+    boolean interrupted = false;
+    while (true) {
+      try {
+        batchFuture.get();
+        break;
+      } catch (InterruptedException e) {
+        interrupted = true;
+      } catch (ExecutionException e) {
+        // Batches store parse errors, so this is an Error thrown by the wrapped reader.
+        throw new IllegalStateException(e.getCause());
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void throwIfError() throws ParserException {
+    @Nullable Exception error = this.error;
+    if (error instanceof ParserException) {
+      throw (ParserException) error;
+    } else if (error != null) {
+      throw (RuntimeException) error;
+    }
+  }
+
+  /** Packet events and data passed to the reader, which are processed on the worker thread. */
+  private final class Batch implements Runnable {
+
+    private final ParsableByteArray consumeData;
+
+    private int[] operationTypes;
+    private long[] operationLongValues;
+    private int[] operationIntValues;
+    private int operationCount;
+    private byte[] data;
+    private int dataSize;
+
+    private Batch() {
+      consumeData = new ParsableByteArray();
+      operationTypes = new int[64];
+      operationLongValues = new long[64];
+      operationIntValues = new int[64];
+      data = new byte[BATCH_SUBMIT_SIZE];
+    }
+
+    private void addOperation(int type, long longValue, int intValue) {
+      if (operationCount == operationTypes.length) {
+        int newLength = operationCount * 2;
+        operationTypes = Arrays.copyOf(operationTypes, newLength);
+        operationLongValues = Arrays.copyOf(operationLongValues, newLength);
+        operationIntValues = Arrays.copyOf(operationIntValues, newLength);
+      }
+      operationTypes[operationCount] = type;
+      operationLongValues[operationCount] = longValue;
+      operationIntValues[operationCount] = intValue;
+      operationCount++;
+    }
+
+    private void addData(ParsableByteArray source, int length) {
+      if (dataSize + length > data.length) {
+        data = Arrays.copyOf(data, max(data.length * 2, dataSize + length));
+      }
+      source.readBytes(data, dataSize, length);
+      dataSize += length;
+    }
+
+    private void reset() {
+      operationCount = 0;
+      dataSize = 0;
+    }
+
+    @Override
+    public void run() {
+      try {
+        for (int i = 0; i < operationCount && error == null; i++) {
+          switch (operationTypes[i]) {
+            case OPERATION_PACKET_STARTED:
+              reader.packetStarted(operationLongValues[i], operationIntValues[i]);
+              break;
+            case OPERATION_CONSUME:
+              int offset = (int) operationLongValues[i];
+              consumeData.reset(data, /* limit= */ offset + operationIntValues[i]);
+              consumeData.setPosition(offset);
+              reader.consume(consumeData);
+              break;
+            case OPERATION_PACKET_FINISHED:
+              reader.packetFinished();
+              break;
+            default:
+              throw new IllegalStateException();
+          }
+        }
+      } catch (ParserException | RuntimeException e) {
+        error = e;
+      } finally {
+        reset();
+        synchronized (freeBatches) {
+          freeBatches.addLast(this);
+        }
+      }
+    }
+  }
+}
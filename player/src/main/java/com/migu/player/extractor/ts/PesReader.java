@@ -26,6 +26,8 @@ import com.migu.player.util.ParsableBitArray;
 import com.migu.player.util.ParsableByteArray;
 import com.migu.player.util.TimestampAdjuster;
 
+import java.io.IOException;
+
 import static java.lang.Math.min;
 
 
@@ -83,6 +85,16 @@ public final class PesReader implements TsPayloadReader {
     reader.seek();
   }
 
+  @Override
+  public void flush() throws IOException {
+    reader.flush();
+  }
+
+  @Override
+  public void release() {
+    reader.release();
+  }
+
   @Override
   public final void consume(ParsableByteArray data, @Flags int flags) throws ParserException {
     Assertions.checkStateNotNull(timestampAdjuster); // Asserts init has been called.
@@ -42,7 +42,7 @@ import static java.lang.Math.min;
  */
 /* package */ final class PsDurationReader {
 
-  private static final int TIMESTAMP_SEARCH_BYTES = 20_000;
+  /* package */ static final int TIMESTAMP_SEARCH_BYTES = 20_000;
 
   private final TimestampAdjuster scrTimestampAdjuster;
   private final ParsableByteArray packetBuffer;
@@ -106,6 +106,34 @@ import static java.lang.Math.min;
     return finishReadDuration(input);
   }
 
+  /**
+   * Sets the duration from SCR values that were read from the stream before, instead of reading
+   * them again.
+   *
+   * @param firstScrValue The SCR value at the start of the stream.
+   * @param lastScrValue The SCR value at the end of the stream.
+   */
+  public void restoreDuration(long firstScrValue, long lastScrValue) {
+    this.firstScrValue = firstScrValue;
+    this.lastScrValue = lastScrValue;
+    isFirstScrValueRead = true;
+    isLastScrValueRead = true;
+    long minScrPositionUs = scrTimestampAdjuster.adjustTsTimestamp(firstScrValue);
+    long maxScrPositionUs = scrTimestampAdjuster.adjustTsTimestamp(lastScrValue);
+    durationUs = maxScrPositionUs - minScrPositionUs;
+    isDurationRead = true;
+  }
+
+  /** Returns the SCR value read at the start of the stream, or {@link C#TIME_UNSET}. */
+  public long getFirstScrValue() {
+    return firstScrValue;
+  }
+
+  /** Returns the SCR value read at the end of the stream, or {@link C#TIME_UNSET}. */
+  public long getLastScrValue() {
+    return lastScrValue;
+  }
+
   /** Returns the duration last read from {@link #readDuration(ExtractorInput, PositionHolder)}. */
   public long getDurationUs() {
     return durationUs;
@@ -15,6 +15,7 @@
  */
 package com.migu.player.extractor.ts;
 
+import android.net.Uri;
 import android.support.annotation.Nullable;
 import android.util.SparseArray;
 
@@ -34,6 +35,8 @@ import com.migu.player.util.TimestampAdjuster;
 
 import java.io.IOException;
 
+import static java.lang.Math.max;
+
 
 /**
  * Extracts data from the MPEG-2 PS container format.
@@ -70,6 +73,8 @@ public final class PsExtractor implements Extractor {
   private final SparseArray<PesReader> psPayloadReaders; // Indexed by pid
   private final ParsableByteArray psPacketBuffer;
   private final PsDurationReader durationReader;
+  @Nullable private final TimestampRangeStore timestampRangeStore;
+  private final Uri uri;
 
   private boolean foundAllTracks;
   private boolean foundAudioTrack;
@@ -80,13 +85,38 @@ public final class PsExtractor implements Extractor {
   @Nullable private PsBinarySearchSeeker psBinarySearchSeeker;
   private  ExtractorOutput output;
   private boolean hasOutputSeekMap;
+  @Nullable private TimestampRange storedTimestampRange;
+  private boolean hasReadStoredTimestampRange;
 
   public PsExtractor() {
     this(new TimestampAdjuster(0));
   }
 
   public PsExtractor(TimestampAdjuster timestampAdjuster) {
+    this(timestampAdjuster, /* timestampRangeStore= */ null, Uri.EMPTY);
+  }
+
+  /**
+   * Creates an extractor that reads the duration of a stream from the {@link TimestampRangeStore}
+   * once it has been read from the stream, instead of searching the start and the end of the stream
+   * for SCR timestamps every time the stream is prepared.
+   *
+   * @param timestampRangeStore The {@link TimestampRangeStore} in which to store timestamp ranges,
+   *     or null.
+   * @param uri The {@link Uri} of the stream, by which its timestamp range is stored. Ranges aren't
+   *     stored if the uri is {@link Uri#EMPTY}.
+   */
+  public PsExtractor(@Nullable TimestampRangeStore timestampRangeStore, Uri uri) {
+    this(new TimestampAdjuster(0), timestampRangeStore, uri);
+  }
+
+  private PsExtractor(
+      TimestampAdjuster timestampAdjuster,
+      @Nullable TimestampRangeStore timestampRangeStore,
+      Uri uri) {
     this.timestampAdjuster = timestampAdjuster;
+    this.timestampRangeStore = Uri.EMPTY.equals(uri) ? null : timestampRangeStore;
+    this.uri = uri;
     psPacketBuffer = new ParsableByteArray(4096);
     psPayloadReaders = new SparseArray<>();
     durationReader = new PsDurationReader();
@@ -174,7 +204,17 @@ public final class PsExtractor implements Extractor {
     long inputLength = input.getLength();
     boolean canReadDuration = inputLength != C.LENGTH_UNSET;
     if (canReadDuration && !durationReader.isDurationReadFinished()) {
-      return durationReader.readDuration(input, seekPosition);
+      @Nullable TimestampRange storedTimestampRange = getStoredTimestampRange(inputLength);
+      if (storedTimestampRange != null) {
+        durationReader.restoreDuration(
+            storedTimestampRange.firstTimestamp, storedTimestampRange.lastTimestamp);
+      } else {
+        int result = durationReader.readDuration(input, seekPosition);
+        if (durationReader.isDurationReadFinished()) {
+          maybeStoreTimestampRange(inputLength);
+        }
+        return result;
+      }
     }
     maybeOutputSeekMap(inputLength);
     if (psBinarySearchSeeker != null && psBinarySearchSeeker.isSeeking()) {
@@ -286,8 +326,47 @@ public final class PsExtractor implements Extractor {
     return RESULT_CONTINUE;
   }
 
+  /**
+   * Returns the position from which the extractor will search the end of the stream for its
+   * duration, or {@link C#POSITION_UNSET} if it won't, so that the data from this position can be
+   * loaded concurrently with the start of the stream. Must be called on the loading thread.
+   *
+   * @param inputLength The length of the stream, or {@link C#LENGTH_UNSET}.
+   */
+  public long getDurationProbePosition(long inputLength) {
+    if (inputLength == C.LENGTH_UNSET
+        || durationReader.isDurationReadFinished()
+        || getStoredTimestampRange(inputLength) != null) {
+      return C.POSITION_UNSET;
+    }
+    return max(0, inputLength - PsDurationReader.TIMESTAMP_SEARCH_BYTES);
+  }
+
   // Internals.
 
+  @Nullable
+  private TimestampRange getStoredTimestampRange(long inputLength) {
+    if (timestampRangeStore == null) {
+      return null;
+    }
+    if (!hasReadStoredTimestampRange) {
+      hasReadStoredTimestampRange = true;
+      storedTimestampRange = timestampRangeStore.get(uri);
+    }
+    return storedTimestampRange != null && storedTimestampRange.inputLength == inputLength
+        ? storedTimestampRange
+        : null;
+  }
+
+  private void maybeStoreTimestampRange(long inputLength) {
+    if (timestampRangeStore != null && durationReader.getDurationUs() != C.TIME_UNSET) {
+      storedTimestampRange =
+          new TimestampRange(
+              inputLength, durationReader.getFirstScrValue(), durationReader.getLastScrValue());
+      timestampRangeStore.put(uri, storedTimestampRange);
+    }
+  }
+
   private void maybeOutputSeekMap(long inputLength) {
     if (!hasOutputSeekMap) {
       hasOutputSeekMap = true;
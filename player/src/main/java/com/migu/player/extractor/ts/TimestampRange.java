@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.migu.player.extractor.ts;
+
+import android.support.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The first and last clock reference values of an MPEG transport stream or program stream, from
+ * which {@link TsExtractor} and {@link PsExtractor} compute the duration of the stream.
+ *
+ * <p>The values are the 33-bit base of the program clock reference (PCR) of a transport stream, or
+ * of the system clock reference (SCR) of a program stream, in 90 kHz units.
+ */
+public final class TimestampRange {
+
+  private static final int VERSION = 1;
+  private static final int SIZE = 4 + 8 + 8 + 8;
+
+  /** The length of the stream. */
+  public final long inputLength;
+  /** The clock reference value found at the start of the stream. */
+  public final long firstTimestamp;
+  /** The clock reference value found at the end of the stream. */
+  public final long lastTimestamp;
+
+  /**
+   * @param inputLength See {@link #inputLength}.
+   * @param firstTimestamp See {@link #firstTimestamp}.
+   * @param lastTimestamp See {@link #lastTimestamp}.
+   */
+  public TimestampRange(long inputLength, long firstTimestamp, long lastTimestamp) {
+    this.inputLength = inputLength;
+    this.firstTimestamp = firstTimestamp;
+    this.lastTimestamp = lastTimestamp;
+  }
+
+  /** Serializes the range, so that it can be restored by {@link #fromByteArray(byte[])}. */
+  public byte[] toByteArray() {
+    return ByteBuffer.allocate(SIZE)
+        .putInt(VERSION)
+        .putLong(inputLength)
+        .putLong(firstTimestamp)
+        .putLong(lastTimestamp)
+        .array();
+  }
+
+  /**
+   * Restores a range serialized by {@link #toByteArray()}.
+   *
+   * @param data The serialized range.
+   * @return The range, or null if the data isn't a valid serialized range.
+   */
+  @Nullable
+  public static TimestampRange fromByteArray(byte[] data) {
+    if (data.length != SIZE) {
+      return null;
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(data);
+    if (buffer.getInt() != VERSION) {
+      return null;
+    }
+    long inputLength = buffer.getLong();
+    long firstTimestamp = buffer.getLong();
+    long lastTimestamp = buffer.getLong();
+    if (inputLength <= 0 || firstTimestamp < 0 || lastTimestamp < 0) {
+      return null;
+    }
+    return new TimestampRange(inputLength, firstTimestamp, lastTimestamp);
+  }
+}
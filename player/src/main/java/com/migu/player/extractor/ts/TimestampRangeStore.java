@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.migu.player.extractor.ts;
+
+import android.net.Uri;
+import android.support.annotation.Nullable;
+
+/**
+ * Stores the {@link TimestampRange timestamp ranges} that {@link TsExtractor} and {@link
+ * PsExtractor} read from the start and the end of streams to compute their duration, so that the
+ * ranges don't have to be read again when the streams are played again.
+ *
+ * <p>Methods are called on the loading threads of the extractors, and may block.
+ */
+public interface TimestampRangeStore {
+
+  /**
+   * Returns the range stored for a stream, or null if there is none.
+   *
+   * @param uri The {@link Uri} of the stream.
+   */
+  @Nullable
+  TimestampRange get(Uri uri);
+
+  /**
+   * Stores the range of a stream, replacing any range that was stored for it before.
+   *
+   * @param uri The {@link Uri} of the stream.
+   * @param timestampRange The range of the stream.
+   */
+  void put(Uri uri, TimestampRange timestampRange);
+}
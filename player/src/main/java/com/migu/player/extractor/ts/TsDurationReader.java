@@ -102,6 +102,34 @@ import static java.lang.Math.min;
     return finishReadDuration(input);
   }
 
+  /**
+   * Sets the duration from PCR values that were read from the stream before, instead of reading
+   * them again.
+   *
+   * @param firstPcrValue The PCR value at the start of the stream.
+   * @param lastPcrValue The PCR value at the end of the stream.
+   */
+  public void restoreDuration(long firstPcrValue, long lastPcrValue) {
+    this.firstPcrValue = firstPcrValue;
+    this.lastPcrValue = lastPcrValue;
+    isFirstPcrValueRead = true;
+    isLastPcrValueRead = true;
+    long minPcrPositionUs = pcrTimestampAdjuster.adjustTsTimestamp(firstPcrValue);
+    long maxPcrPositionUs = pcrTimestampAdjuster.adjustTsTimestamp(lastPcrValue);
+    durationUs = maxPcrPositionUs - minPcrPositionUs;
+    isDurationRead = true;
+  }
+
+  /** Returns the PCR value read at the start of the stream, or {@link C#TIME_UNSET}. */
+  public long getFirstPcrValue() {
+    return firstPcrValue;
+  }
+
+  /** Returns the PCR value read at the end of the stream, or {@link C#TIME_UNSET}. */
+  public long getLastPcrValue() {
+    return lastPcrValue;
+  }
+
   /**
    * Returns the duration last read from {@link #readDuration(ExtractorInput, PositionHolder, int)}.
    */
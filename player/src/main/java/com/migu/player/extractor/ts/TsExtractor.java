@@ -15,6 +15,7 @@
  */
 package com.migu.player.extractor.ts;
 
+import android.net.Uri;
 import android.support.annotation.IntDef;
 import android.support.annotation.Nullable;
 import android.util.SparseArray;
@@ -49,6 +50,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
+import static java.lang.Math.max;
 import static com.migu.player.extractor.ts.TsPayloadReader.FLAG_PAYLOAD_UNIT_START_INDICATOR;
 
 /**
@@ -134,6 +136,8 @@ public final class TsExtractor implements Extractor {
   private final SparseBooleanArray trackIds;
   private final SparseBooleanArray trackPids;
   private final TsDurationReader durationReader;
+  @Nullable private final TimestampRangeStore timestampRangeStore;
+  private final Uri uri;
 
   // Accessed only by the loading thread.
   private TsBinarySearchSeeker tsBinarySearchSeeker;
@@ -145,6 +149,8 @@ public final class TsExtractor implements Extractor {
   private TsPayloadReader id3Reader;
   private int bytesSinceLastSync;
   private int pcrPid;
+  @Nullable private TimestampRange storedTimestampRange;
+  private boolean hasReadStoredTimestampRange;
 
   public TsExtractor() {
     this(/* defaultTsPayloadReaderFlags= */ 0);
@@ -181,6 +187,36 @@ public final class TsExtractor implements Extractor {
         timestampSearchBytes);
   }
 
+  /**
+   * Creates an extractor that reads the duration of a progressive stream from the {@link
+   * TimestampRangeStore} once it has been read from the stream, instead of searching the start and
+   * the end of the stream for PCR timestamps every time the stream is prepared.
+   *
+   * @param mode Mode for the extractor. One of {@link #MODE_MULTI_PMT}, {@link #MODE_SINGLE_PMT}
+   *     and {@link #MODE_HLS}. Ranges aren't stored in {@link #MODE_HLS}.
+   * @param defaultTsPayloadReaderFlags A combination of {@link DefaultTsPayloadReaderFactory}
+   *     {@code FLAG_*} values that control the behavior of the payload readers.
+   * @param timestampSearchBytes See {@link #TsExtractor(int, int, int)}.
+   * @param timestampRangeStore The {@link TimestampRangeStore} in which to store timestamp ranges,
+   *     or null.
+   * @param uri The {@link Uri} of the stream, by which its timestamp range is stored. Ranges aren't
+   *     stored if the uri is {@link Uri#EMPTY}.
+   */
+  public TsExtractor(
+      @Mode int mode,
+      @Flags int defaultTsPayloadReaderFlags,
+      int timestampSearchBytes,
+      @Nullable TimestampRangeStore timestampRangeStore,
+      Uri uri) {
+    this(
+        mode,
+        new TimestampAdjuster(0),
+        new DefaultTsPayloadReaderFactory(defaultTsPayloadReaderFlags),
+        timestampSearchBytes,
+        timestampRangeStore,
+        uri);
+  }
+
   /**
    * @param mode Mode for the extractor. One of {@link #MODE_MULTI_PMT}, {@link #MODE_SINGLE_PMT}
    *     and {@link #MODE_HLS}.
@@ -213,6 +249,22 @@ public final class TsExtractor implements Extractor {
       TimestampAdjuster timestampAdjuster,
       TsPayloadReader.Factory payloadReaderFactory,
       int timestampSearchBytes) {
+    this(
+        mode,
+        timestampAdjuster,
+        payloadReaderFactory,
+        timestampSearchBytes,
+        /* timestampRangeStore= */ null,
+        Uri.EMPTY);
+  }
+
+  private TsExtractor(
+      @Mode int mode,
+      TimestampAdjuster timestampAdjuster,
+      TsPayloadReader.Factory payloadReaderFactory,
+      int timestampSearchBytes,
+      @Nullable TimestampRangeStore timestampRangeStore,
+      Uri uri) {
     this.payloadReaderFactory = Assertions.checkNotNull(payloadReaderFactory);
     this.timestampSearchBytes = timestampSearchBytes;
     this.mode = mode;
@@ -228,6 +280,9 @@ public final class TsExtractor implements Extractor {
     tsPayloadReaders = new SparseArray<>();
     continuityCounters = new SparseIntArray();
     durationReader = new TsDurationReader(timestampSearchBytes);
+    this.timestampRangeStore =
+        Uri.EMPTY.equals(uri) || mode == MODE_HLS ? null : timestampRangeStore;
+    this.uri = uri;
     pcrPid = -1;
     resetPayloadReaders();
   }
@@ -291,9 +346,22 @@ public final class TsExtractor implements Extractor {
     bytesSinceLastSync = 0;
   }
 
+  @Override
+  public void flush() {
+    for (int i = 0; i < tsPayloadReaders.size(); i++) {
+      try {
+        tsPayloadReaders.valueAt(i).flush();
+      } catch (IOException e) {
+        // The reader keeps the error and throws it again from the next read.
+      }
+    }
+  }
+
   @Override
   public void release() {
-    // Do nothing
+    for (int i = 0; i < tsPayloadReaders.size(); i++) {
+      tsPayloadReaders.valueAt(i).release();
+    }
   }
 
   @Override
@@ -303,7 +371,17 @@ public final class TsExtractor implements Extractor {
     if (tracksEnded) {
       boolean canReadDuration = inputLength != C.LENGTH_UNSET && mode != MODE_HLS;
       if (canReadDuration && !durationReader.isDurationReadFinished()) {
-        return durationReader.readDuration(input, seekPosition, pcrPid);
+        @Nullable TimestampRange storedTimestampRange = getStoredTimestampRange(inputLength);
+        if (storedTimestampRange != null) {
+          durationReader.restoreDuration(
+              storedTimestampRange.firstTimestamp, storedTimestampRange.lastTimestamp);
+        } else {
+          @ReadResult int result = durationReader.readDuration(input, seekPosition, pcrPid);
+          if (durationReader.isDurationReadFinished()) {
+            maybeStoreTimestampRange(inputLength);
+          }
+          return result;
+        }
       }
       maybeOutputSeekMap(inputLength);
 
@@ -322,15 +400,62 @@ public final class TsExtractor implements Extractor {
     }
 
     if (!fillBufferWithAtLeastOnePacket(input)) {
+      // Payload readers that parse on other threads must output all the samples before the end of
+      // the input is reported, and report any parse error.
+      for (int i = 0; i < tsPayloadReaders.size(); i++) {
+        tsPayloadReaders.valueAt(i).flush();
+      }
       return RESULT_END_OF_INPUT;
     }
 
+    // Consume all the packets in the buffer, rather than returning to the loader after each one.
+    boolean wereTracksEnded = tracksEnded;
     int endOfPacket = findEndOfFirstTsPacketInBuffer();
-    int limit = tsPacketBuffer.limit();
-    if (endOfPacket > limit) {
-      return RESULT_CONTINUE;
+    while (endOfPacket <= tsPacketBuffer.limit()) {
+      consumePacket(endOfPacket);
+      if (tracksEnded != wereTracksEnded) {
+        if (mode != MODE_HLS && inputLength != C.LENGTH_UNSET) {
+          // We have read all tracks from all PMTs in this non-live stream. Now seek to the
+          // beginning and read again to make sure we output all media, including any contained in
+          // packets prior to those containing the track information.
+          pendingSeekToStart = true;
+        }
+        // Return so that the duration is read and the seek map is output before more packets.
+        break;
+      }
+      endOfPacket = findEndOfFirstTsPacketInBuffer();
+    }
+    return RESULT_CONTINUE;
+  }
+
+  /**
+   * Returns the position from which the extractor will search the end of a progressive stream for
+   * its duration once it has read the stream's tracks, or {@link C#POSITION_UNSET} if it won't,
+   * so that the data from this position can be loaded concurrently with the start of the stream.
+   * Must be called on the loading thread.
+   *
+   * @param inputLength The length of the stream, or {@link C#LENGTH_UNSET}.
+   */
+  public long getDurationProbePosition(long inputLength) {
+    if (mode == MODE_HLS
+        || inputLength == C.LENGTH_UNSET
+        || durationReader.isDurationReadFinished()
+        || getStoredTimestampRange(inputLength) != null) {
+      return C.POSITION_UNSET;
     }
+    return max(0, inputLength - timestampSearchBytes);
+  }
+
+  // Internals.
 
+  /**
+   * Consumes the TS packet at the position of the packet buffer, and sets the position of the
+   * buffer to the end of the packet.
+   *
+   * @param endOfPacket The position of the end of the packet (exclusive) in the packet buffer.
+   */
+  private void consumePacket(int endOfPacket) throws ParserException {
+    int limit = tsPacketBuffer.limit();
     @TsPayloadReader.Flags int packetHeaderFlags = 0;
 
     // Note: See ISO/IEC 13818-1, section 2.4.3.2 for details of the header format.
@@ -338,7 +463,7 @@ public final class TsExtractor implements Extractor {
     if ((tsPacketHeader & 0x800000) != 0) { // transport_error_indicator
       // There are uncorrectable errors in this packet.
       tsPacketBuffer.setPosition(endOfPacket);
-      return RESULT_CONTINUE;
+      return;
     }
     packetHeaderFlags |= (tsPacketHeader & 0x400000) != 0 ? FLAG_PAYLOAD_UNIT_START_INDICATOR : 0;
     // Ignoring transport_priority (tsPacketHeader & 0x200000)
@@ -350,7 +475,7 @@ public final class TsExtractor implements Extractor {
     TsPayloadReader payloadReader = payloadExists ? tsPayloadReaders.get(pid) : null;
     if (payloadReader == null) {
       tsPacketBuffer.setPosition(endOfPacket);
-      return RESULT_CONTINUE;
+      return;
     }
 
     // Discontinuity check.
@@ -361,7 +486,7 @@ public final class TsExtractor implements Extractor {
       if (previousCounter == continuityCounter) {
         // Duplicate packet found.
         tsPacketBuffer.setPosition(endOfPacket);
-        return RESULT_CONTINUE;
+        return;
       } else if (continuityCounter != ((previousCounter + 1) & 0xF)) {
         // Discontinuity found.
         payloadReader.seek();
@@ -381,24 +506,37 @@ public final class TsExtractor implements Extractor {
     }
 
     // Read the payload.
-    boolean wereTracksEnded = tracksEnded;
     if (shouldConsumePacketPayload(pid)) {
       tsPacketBuffer.setLimit(endOfPacket);
       payloadReader.consume(tsPacketBuffer, packetHeaderFlags);
       tsPacketBuffer.setLimit(limit);
     }
-    if (mode != MODE_HLS && !wereTracksEnded && tracksEnded && inputLength != C.LENGTH_UNSET) {
-      // We have read all tracks from all PMTs in this non-live stream. Now seek to the beginning
-      // and read again to make sure we output all media, including any contained in packets prior
-      // to those containing the track information.
-      pendingSeekToStart = true;
-    }
 
     tsPacketBuffer.setPosition(endOfPacket);
-    return RESULT_CONTINUE;
   }
 
-  // Internals.
+  @Nullable
+  private TimestampRange getStoredTimestampRange(long inputLength) {
+    if (timestampRangeStore == null) {
+      return null;
+    }
+    if (!hasReadStoredTimestampRange) {
+      hasReadStoredTimestampRange = true;
+      storedTimestampRange = timestampRangeStore.get(uri);
+    }
+    return storedTimestampRange != null && storedTimestampRange.inputLength == inputLength
+        ? storedTimestampRange
+        : null;
+  }
+
+  private void maybeStoreTimestampRange(long inputLength) {
+    if (timestampRangeStore != null && durationReader.getDurationUs() != C.TIME_UNSET) {
+      storedTimestampRange =
+          new TimestampRange(
+              inputLength, durationReader.getFirstPcrValue(), durationReader.getLastPcrValue());
+      timestampRangeStore.put(uri, storedTimestampRange);
+    }
+  }
 
   private void maybeOutputSeekMap(long inputLength) {
     if (!hasOutputSeekMap) {
@@ -420,8 +558,9 @@ public final class TsExtractor implements Extractor {
 
   private boolean fillBufferWithAtLeastOnePacket(ExtractorInput input) throws IOException {
     byte[] data = tsPacketBuffer.getData();
-    // Shift bytes to the start of the buffer if there isn't enough space left at the end.
-    if (BUFFER_SIZE - tsPacketBuffer.getPosition() < TS_PACKET_SIZE) {
+    // Shift the bytes of the partial packet left, if any, to the start of the buffer, so that the
+    // whole buffer can be filled and its packets consumed by a single read.
+    if (tsPacketBuffer.bytesLeft() < TS_PACKET_SIZE && tsPacketBuffer.getPosition() > 0) {
       int bytesLeft = tsPacketBuffer.bytesLeft();
       if (bytesLeft > 0) {
         System.arraycopy(data, tsPacketBuffer.getPosition(), data, 0, bytesLeft);
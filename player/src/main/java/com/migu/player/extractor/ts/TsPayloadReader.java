@@ -25,6 +25,7 @@ import com.migu.player.extractor.TrackOutput;
 import com.migu.player.util.ParsableByteArray;
 import com.migu.player.util.TimestampAdjuster;
 
+import java.io.IOException;
 import java.lang.annotation.Documented;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
@@ -236,4 +237,18 @@ public interface TsPayloadReader {
    * @throws ParserException If the payload could not be parsed.
    */
   void consume(ParsableByteArray data, @Flags int flags) throws ParserException;
+
+  /**
+   * Blocks until the data passed to {@link #consume} has been fully parsed and output. Readers that
+   * parse on another thread must implement this method, which is called when the extractor reaches
+   * the end of the input and when it's {@link com.migu.player.extractor.Extractor#flush()
+   * flushed}. Readers that parse on another thread must also wait for the parsing to finish in
+   * {@link #seek()}.
+   *
+   * @throws IOException If the data couldn't be parsed.
+   */
+  default void flush() throws IOException {}
+
+  /** Releases any resources held by the reader. */
+  default void release() {}
 }
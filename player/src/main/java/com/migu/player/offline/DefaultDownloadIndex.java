@@ -209,6 +209,29 @@ public final class DefaultDownloadIndex implements WritableDownloadIndex {
     }
   }
 
+  /** Adds or replaces multiple {@link Download Downloads} in a single transaction. */
+  @Override
+  public void putDownloads(List<Download> downloads) throws DatabaseIOException {
+    if (downloads.isEmpty()) {
+      return;
+    }
+    ensureInitialized();
+    try {
+      SQLiteDatabase writableDatabase = databaseProvider.getWritableDatabase();
+      writableDatabase.beginTransactionNonExclusive();
+      try {
+        for (int i = 0; i < downloads.size(); i++) {
+          putDownloadInternal(downloads.get(i), writableDatabase);
+        }
+        writableDatabase.setTransactionSuccessful();
+      } finally {
+        writableDatabase.endTransaction();
+      }
+    } catch (SQLException e) {
+      throw new DatabaseIOException(e);
+    }
+  }
+
   @Override
   public void removeDownload(String id) throws DatabaseIOException {
     ensureInitialized();
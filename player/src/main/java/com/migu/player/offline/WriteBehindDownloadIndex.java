@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.migu.player.offline;
+
+import android.os.Looper;
+import android.support.annotation.GuardedBy;
+import android.support.annotation.Nullable;
+
+import com.migu.player.util.Clock;
+import com.migu.player.util.HandlerWrapper;
+import com.migu.player.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+import static java.lang.Math.max;
+
+/**
+ * A {@link WritableDownloadIndex} that coalesces progress updates in memory and writes them to an
+ * underlying index, such as a {@link DefaultDownloadIndex}, in batches.
+ *
+ * <p>Updates to downloads in {@link Download#STATE_DOWNLOADING} only carry progress, and are held
+ * back until {@code maxFlushIntervalMs} has elapsed since the previous flush. All pending updates
+ * are then written in a single transaction, either by the next update or, if the thread putting the
+ * updates has a {@link Looper}, by a flush posted to that thread, so that the last progress of a
+ * download whose updates stop is written too. Any other update, including a download reaching a
+ * terminal state, is written through immediately together with the pending updates, so that state
+ * transitions are never lost. If the process dies before a flush, only the progress of
+ * downloading downloads is lost. Such downloads are set back to {@link Download#STATE_QUEUED} by
+ * {@link DownloadManager} on restart regardless.
+ *
+ * <p>Every operation other than {@link #putDownload(Download)} and {@link #getDownload(String)}
+ * flushes pending updates before it runs, so that the underlying index always observes updates in
+ * order.
+ */
+public final class WriteBehindDownloadIndex implements WritableDownloadIndex {
+
+  /** The default maximum time between flushes of pending progress updates, in milliseconds. */
+  public static final long DEFAULT_MAX_FLUSH_INTERVAL_MS = 30_000;
+
+  private static final String TAG = "WriteBehindDownloadIdx";
+
+  private final WritableDownloadIndex downloadIndex;
+  private final long maxFlushIntervalMs;
+  private final Clock clock;
+  private final Runnable scheduledFlushRunnable;
+
+  @GuardedBy("this")
+  private final LinkedHashMap<String, Download> pendingDownloads;
+
+  @GuardedBy("this")
+  private long lastFlushTimeMs;
+
+  @GuardedBy("this")
+  @Nullable
+  private HandlerWrapper flushHandler;
+
+  @GuardedBy("this")
+  private boolean flushScheduled;
+
+  @GuardedBy("this")
+  private int flushCount;
+
+  @GuardedBy("this")
+  private long writtenDownloadCount;
+
+  @GuardedBy("this")
+  private long coalescedUpdateCount;
+
+  @GuardedBy("this")
+  private long totalFlushTimeMs;
+
+  /**
+   * Creates an instance that flushes pending progress updates at most every {@link
+   * #DEFAULT_MAX_FLUSH_INTERVAL_MS}.
+   *
+   * @param downloadIndex The index to which updates are written.
+   */
+  public WriteBehindDownloadIndex(WritableDownloadIndex downloadIndex) {
+    this(downloadIndex, DEFAULT_MAX_FLUSH_INTERVAL_MS, Clock.DEFAULT);
+  }
+
+  /**
+   * @param downloadIndex The index to which updates are written. Pending updates are written with
+   *     {@link WritableDownloadIndex#putDownloads(java.util.List)}.
+   * @param maxFlushIntervalMs The maximum time for which progress updates are held back, in
+   *     milliseconds. Zero causes every update to be written through.
+   * @param clock The {@link Clock} used to schedule flushes.
+   */
+  public WriteBehindDownloadIndex(
+      WritableDownloadIndex downloadIndex, long maxFlushIntervalMs, Clock clock) {
+    this.downloadIndex = downloadIndex;
+    this.maxFlushIntervalMs = maxFlushIntervalMs;
+    this.clock = clock;
+    pendingDownloads = new LinkedHashMap<>();
+    lastFlushTimeMs = clock.elapsedRealtime();
+    scheduledFlushRunnable =
+        new Runnable() {
+          @Override
+          public void run() {
+            onScheduledFlush();
+          }
+        };
+  }
+
+  @Override
+  @Nullable
+  public synchronized Download getDownload(String id) throws IOException {
+    @Nullable Download pendingDownload = pendingDownloads.get(id);
+    return pendingDownload != null ? pendingDownload : downloadIndex.getDownload(id);
+  }
+
+  @Override
+  public synchronized DownloadCursor getDownloads(@Download.State int... states)
+      throws IOException {
+    flush();
+    return downloadIndex.getDownloads(states);
+  }
+
+  @Override
+  public synchronized void putDownload(Download download) throws IOException {
+    if (pendingDownloads.put(download.request.id, download) != null) {
+      coalescedUpdateCount++;
+    }
+    if (download.state != Download.STATE_DOWNLOADING
+        || clock.elapsedRealtime() - lastFlushTimeMs >= maxFlushIntervalMs) {
+      flush();
+    } else {
+      maybeScheduleFlush();
+    }
+  }
+
+  @Override
+  public synchronized void removeDownload(String id) throws IOException {
+    if (pendingDownloads.remove(id) != null) {
+      coalescedUpdateCount++;
+    }
+    flush();
+    downloadIndex.removeDownload(id);
+  }
+
+  @Override
+  public synchronized void setDownloadingStatesToQueued() throws IOException {
+    flush();
+    downloadIndex.setDownloadingStatesToQueued();
+  }
+
+  @Override
+  public synchronized void setStatesToRemoving() throws IOException {
+    flush();
+    downloadIndex.setStatesToRemoving();
+  }
+
+  @Override
+  public synchronized void setStopReason(int stopReason) throws IOException {
+    flush();
+    downloadIndex.setStopReason(stopReason);
+  }
+
+  @Override
+  public synchronized void setStopReason(String id, int stopReason) throws IOException {
+    flush();
+    downloadIndex.setStopReason(id, stopReason);
+  }
+
+  /**
+   * Writes all pending updates to the underlying index in a single transaction.
+   *
+   * @throws IOException If an error occurs writing the updates. The updates remain
+   *     pending, and will be retried by the next flush.
+   */
+  public synchronized void flush() throws IOException {
+    if (flushScheduled) {
+      flushScheduled = false;
+      if (flushHandler != null) {
+        flushHandler.removeCallbacksAndMessages(/* token= */ null);
+      }
+    }
+    long nowMs = clock.elapsedRealtime();
+    if (!pendingDownloads.isEmpty()) {
+      ArrayList<Download> downloads = new ArrayList<>(pendingDownloads.values());
+      downloadIndex.putDownloads(downloads);
+      pendingDownloads.clear();
+      flushCount++;
+      writtenDownloadCount += downloads.size();
+      totalFlushTimeMs += clock.elapsedRealtime() - nowMs;
+    }
+    lastFlushTimeMs = nowMs;
+  }
+
+  @GuardedBy("this")
+  private void maybeScheduleFlush() {
+    @Nullable Looper looper = Looper.myLooper();
+    if (flushScheduled || looper == null) {
+      // Without a looper, pending updates are written by the next operation.
+      return;
+    }
+    if (flushHandler == null || flushHandler.getLooper() != looper) {
+      flushHandler = clock.createHandler(looper, /* callback= */ null);
+    }
+    flushScheduled = true;
+    long delayMs = max(0, lastFlushTimeMs + maxFlushIntervalMs - clock.elapsedRealtime());
+    flushHandler.postDelayed(scheduledFlushRunnable, delayMs);
+  }
+
+  private synchronized void onScheduledFlush() {
+    if (!flushScheduled) {
+      return;
+    }
+    try {
+      flush();
+    } catch (IOException e) {
+      // The updates remain pending, and a flush is scheduled again by the next update.
+      Log.w(TAG, "Failed to flush pending updates", e);
+    }
+  }
+
+  /** Returns the number of updates that are waiting to be written. */
+  public synchronized int getPendingDownloadCount() {
+    return pendingDownloads.size();
+  }
+
+  /** Returns the number of transactions written to the underlying index. */
+  public synchronized int getFlushCount() {
+    return flushCount;
+  }
+
+  /** Returns the number of downloads written to the underlying index. */
+  public synchronized long getWrittenDownloadCount() {
+    return writtenDownloadCount;
+  }
+
+  /** Returns the number of updates that were superseded before being written. */
+  public synchronized long getCoalescedUpdateCount() {
+    return coalescedUpdateCount;
+  }
+
+  /** Returns the total time spent writing to the underlying index, in milliseconds. */
+  public synchronized long getTotalFlushTimeMs() {
+    return totalFlushTimeMs;
+  }
+}
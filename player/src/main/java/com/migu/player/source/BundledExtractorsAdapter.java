@@ -21,11 +21,13 @@ import android.support.annotation.Nullable;
 import com.migu.player.C;
 import com.migu.player.extractor.DefaultExtractorInput;
 import com.migu.player.extractor.Extractor;
-import com.migu.player.extractor.ExtractorInput;
 import com.migu.player.extractor.ExtractorOutput;
 import com.migu.player.extractor.ExtractorsFactory;
 import com.migu.player.extractor.PositionHolder;
 import com.migu.player.extractor.mp3.Mp3Extractor;
+import com.migu.player.extractor.mp4.Mp4Extractor;
+import com.migu.player.extractor.ts.PsExtractor;
+import com.migu.player.extractor.ts.TsExtractor;
 import com.migu.player.upstream.DataReader;
 import com.migu.player.util.Assertions;
 import com.migu.player.util.Util;
@@ -44,7 +46,9 @@ import java.util.Map;
   private final ExtractorsFactory extractorsFactory;
 
   @Nullable private Extractor extractor;
-  @Nullable private ExtractorInput extractorInput;
+  @Nullable private DefaultExtractorInput extractorInput;
+  private long trailingDataPosition;
+  private long bytesCopiedByReleasedInputs;
 
   /**
    * Creates a holder that will select an extractor and initialize it using the specified output.
@@ -53,6 +57,7 @@ import java.util.Map;
    */
   public BundledExtractorsAdapter(ExtractorsFactory extractorsFactory) {
     this.extractorsFactory = extractorsFactory;
+    trailingDataPosition = C.POSITION_UNSET;
   }
 
   @Override
@@ -64,7 +69,10 @@ import java.util.Map;
       long length,
       ExtractorOutput output)
       throws IOException {
-    ExtractorInput extractorInput = new DefaultExtractorInput(dataReader, position, length);
+    if (this.extractorInput != null) {
+      bytesCopiedByReleasedInputs += this.extractorInput.getBytesCopied();
+    }
+    DefaultExtractorInput extractorInput = new DefaultExtractorInput(dataReader, position, length);
     this.extractorInput = extractorInput;
     if (extractor != null) {
       return;
@@ -94,6 +102,19 @@ import java.util.Map;
             Assertions.checkNotNull(uri));
       }
     }
+    if (position == 0 && extractor instanceof Mp4Extractor) {
+      try {
+        trailingDataPosition = Mp4Extractor.peekTrailingMoovPosition(extractorInput);
+      } catch (EOFException e) {
+        // Do nothing.
+      } finally {
+        extractorInput.resetPeekPosition();
+      }
+    } else if (position == 0 && extractor instanceof TsExtractor) {
+      trailingDataPosition = ((TsExtractor) extractor).getDurationProbePosition(length);
+    } else if (position == 0 && extractor instanceof PsExtractor) {
+      trailingDataPosition = ((PsExtractor) extractor).getDurationProbePosition(length);
+    }
     extractor.init(output);
   }
 
@@ -103,7 +124,10 @@ import java.util.Map;
       extractor.release();
       extractor = null;
     }
-    extractorInput = null;
+    if (extractorInput != null) {
+      bytesCopiedByReleasedInputs += extractorInput.getBytesCopied();
+      extractorInput = null;
+    }
   }
 
   @Override
@@ -118,6 +142,18 @@ import java.util.Map;
     return extractorInput != null ? extractorInput.getPosition() : C.POSITION_UNSET;
   }
 
+  @Override
+  public long getTrailingDataPosition() {
+    return trailingDataPosition;
+  }
+
+  @Override
+  public long getBytesCopied() {
+    @Nullable DefaultExtractorInput extractorInput = this.extractorInput;
+    return bytesCopiedByReleasedInputs
+        + (extractorInput != null ? extractorInput.getBytesCopied() : 0);
+  }
+
   @Override
   public void seek(long position, long seekTimeUs) {
     Assertions.checkNotNull(extractor).seek(position, seekTimeUs);
@@ -128,4 +164,11 @@ import java.util.Map;
     return Assertions.checkNotNull(extractor)
         .read(Assertions.checkNotNull(extractorInput), positionHolder);
   }
+
+  @Override
+  public void flush() {
+    if (extractor != null) {
+      extractor.flush();
+    }
+  }
 }
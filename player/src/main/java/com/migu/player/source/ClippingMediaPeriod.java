@@ -145,6 +145,11 @@ public final class ClippingMediaPeriod implements MediaPeriod, MediaPeriod.Callb
     mediaPeriod.reevaluateBuffer(positionUs);
   }
 
+  @Override
+  public void setLoadPriority(int priority) {
+    mediaPeriod.setLoadPriority(priority);
+  }
+
   @Override
   public long readDiscontinuity() {
     if (isPendingInitialDiscontinuity()) {
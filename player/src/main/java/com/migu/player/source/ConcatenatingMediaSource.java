@@ -24,6 +24,7 @@ import android.support.annotation.Nullable;
 
 import com.migu.player.AbstractConcatenatedTimeline;
 import com.migu.player.C;
+import com.migu.player.ConcatenatedTimelineIndex;
 import com.migu.player.MediaItem;
 import com.migu.player.Timeline;
 import com.migu.player.source.ConcatenatingMediaSource.MediaSourceHolder;
@@ -76,11 +77,16 @@ public final class ConcatenatingMediaSource extends CompositeMediaSource<MediaSo
   @Nullable
   private Handler playbackThreadHandler;
 
+  @GuardedBy("this")
+  @Nullable
+  private MessageData<List<MediaSourceHolder>> pendingAddMessage;
+
   // Accessed on the playback thread only.
   private final List<MediaSourceHolder> mediaSourceHolders;
   private final IdentityHashMap<MediaPeriod, MediaSourceHolder> mediaSourceByMediaPeriod;
   private final Map<Object, MediaSourceHolder> mediaSourceByUid;
   private final Set<MediaSourceHolder> enabledMediaSourceHolders;
+  private final ConcatenatedTimelineIndex.Builder timelineIndexBuilder;
   private final boolean isAtomic;
   private final boolean useLazyPreparation;
 
@@ -145,6 +151,7 @@ public final class ConcatenatingMediaSource extends CompositeMediaSource<MediaSo
     this.nextTimelineUpdateOnCompletionActions = new HashSet<>();
     this.pendingOnCompletionActions = new HashSet<>();
     this.enabledMediaSourceHolders = new HashSet<>();
+    this.timelineIndexBuilder = new ConcatenatedTimelineIndex.Builder();
     this.isAtomic = isAtomic;
     this.useLazyPreparation = useLazyPreparation;
     addMediaSources(Arrays.asList(mediaSources));
@@ -159,7 +166,10 @@ public final class ConcatenatingMediaSource extends CompositeMediaSource<MediaSo
                 .cloneAndInsert(
                     /* insertionIndex= */ 0, /* insertionCount= */ mediaSourcesPublic.size())
             : this.shuffleOrder;
-    return new ConcatenatedTimeline(mediaSourcesPublic, shuffleOrder, isAtomic);
+    return new ConcatenatedTimeline(
+        buildTimelineIndex(new ConcatenatedTimelineIndex.Builder(), mediaSourcesPublic),
+        shuffleOrder,
+        isAtomic);
   }
 
   @Override
@@ -525,11 +535,13 @@ public final class ConcatenatingMediaSource extends CompositeMediaSource<MediaSo
     mediaSourceHolders.clear();
     enabledMediaSourceHolders.clear();
     mediaSourceByUid.clear();
+    timelineIndexBuilder.reset();
     shuffleOrder = shuffleOrder.cloneAndClear();
     if (playbackThreadHandler != null) {
       playbackThreadHandler.removeCallbacksAndMessages(null);
       playbackThreadHandler = null;
     }
+    pendingAddMessage = null;
     timelineUpdateScheduled = false;
     nextTimelineUpdateOnCompletionActions.clear();
     dispatchOnCompletionActions(pendingOnCompletionActions);
@@ -584,9 +596,19 @@ public final class ConcatenatingMediaSource extends CompositeMediaSource<MediaSo
     if (playbackThreadHandler != null && !mediaSources.isEmpty()) {
       @Nullable
       HandlerAndRunnable callbackAction = createOnCompletionAction(handler, onCompletionAction);
-      playbackThreadHandler
-          .obtainMessage(MSG_ADD, new MessageData<>(index, mediaSourceHolders, callbackAction))
-          .sendToTarget();
+      @Nullable MessageData<List<MediaSourceHolder>> pendingAddMessage = this.pendingAddMessage;
+      if (pendingAddMessage != null
+          && index == pendingAddMessage.index + pendingAddMessage.customData.size()) {
+        // The sources directly follow those of an add message that hasn't been handled yet, so
+        // they can be inserted by the same message. This avoids cloning the shuffle order and
+        // handling a message for every source when sources are added one by one.
+        pendingAddMessage.customData.addAll(mediaSourceHolders);
+        pendingAddMessage.addOnCompletionAction(callbackAction);
+      } else {
+        pendingAddMessage = new MessageData<>(index, mediaSourceHolders, callbackAction);
+        this.pendingAddMessage = pendingAddMessage;
+        playbackThreadHandler.obtainMessage(MSG_ADD, pendingAddMessage).sendToTarget();
+      }
     } else if (onCompletionAction != null && handler != null) {
       handler.post(onCompletionAction);
     }
@@ -601,6 +623,7 @@ public final class ConcatenatingMediaSource extends CompositeMediaSource<MediaSo
     Assertions.checkArgument((handler == null) == (onCompletionAction == null));
     @Nullable Handler playbackThreadHandler = this.playbackThreadHandler;
     Util.removeRange(mediaSourcesPublic, fromIndex, toIndex);
+    pendingAddMessage = null;
     if (playbackThreadHandler != null) {
       @Nullable
       HandlerAndRunnable callbackAction = createOnCompletionAction(handler, onCompletionAction);
@@ -621,6 +644,7 @@ public final class ConcatenatingMediaSource extends CompositeMediaSource<MediaSo
     Assertions.checkArgument((handler == null) == (onCompletionAction == null));
     @Nullable Handler playbackThreadHandler = this.playbackThreadHandler;
     mediaSourcesPublic.add(newIndex, mediaSourcesPublic.remove(currentIndex));
+    pendingAddMessage = null;
     if (playbackThreadHandler != null) {
       @Nullable
       HandlerAndRunnable callbackAction = createOnCompletionAction(handler, onCompletionAction);
@@ -637,6 +661,7 @@ public final class ConcatenatingMediaSource extends CompositeMediaSource<MediaSo
       ShuffleOrder shuffleOrder, @Nullable Handler handler, @Nullable Runnable onCompletionAction) {
     Assertions.checkArgument((handler == null) == (onCompletionAction == null));
     @Nullable Handler playbackThreadHandler = this.playbackThreadHandler;
+    pendingAddMessage = null;
     if (playbackThreadHandler != null) {
       int size = getSize();
       if (shuffleOrder.getLength() != size) {
@@ -679,11 +704,13 @@ public final class ConcatenatingMediaSource extends CompositeMediaSource<MediaSo
   private boolean handleMessage(Message msg) {
     switch (msg.what) {
       case MSG_ADD:
-        MessageData<Collection<MediaSourceHolder>> addMessage =
-            (MessageData<Collection<MediaSourceHolder>>) Util.castNonNull(msg.obj);
+        MessageData<List<MediaSourceHolder>> addMessage =
+            (MessageData<List<MediaSourceHolder>>) Util.castNonNull(msg.obj);
+        // Stop further sources from being added to the message before it's applied.
+        finishPendingAddMessage(addMessage);
         shuffleOrder = shuffleOrder.cloneAndInsert(addMessage.index, addMessage.customData.size());
         addMediaSourcesInternal(addMessage.index, addMessage.customData);
-        scheduleTimelineUpdate(addMessage.onCompletionAction);
+        scheduleTimelineUpdate(addMessage.onCompletionActions);
         break;
       case MSG_REMOVE:
         MessageData<Integer> removeMessage = (MessageData<Integer>) Util.castNonNull(msg.obj);
@@ -697,20 +724,20 @@ public final class ConcatenatingMediaSource extends CompositeMediaSource<MediaSo
         for (int index = toIndex - 1; index >= fromIndex; index--) {
           removeMediaSourceInternal(index);
         }
-        scheduleTimelineUpdate(removeMessage.onCompletionAction);
+        scheduleTimelineUpdate(removeMessage.onCompletionActions);
         break;
       case MSG_MOVE:
         MessageData<Integer> moveMessage = (MessageData<Integer>) Util.castNonNull(msg.obj);
         shuffleOrder = shuffleOrder.cloneAndRemove(moveMessage.index, moveMessage.index + 1);
         shuffleOrder = shuffleOrder.cloneAndInsert(moveMessage.customData, 1);
         moveMediaSourceInternal(moveMessage.index, moveMessage.customData);
-        scheduleTimelineUpdate(moveMessage.onCompletionAction);
+        scheduleTimelineUpdate(moveMessage.onCompletionActions);
         break;
       case MSG_SET_SHUFFLE_ORDER:
         MessageData<ShuffleOrder> shuffleOrderMessage =
             (MessageData<ShuffleOrder>) Util.castNonNull(msg.obj);
         shuffleOrder = shuffleOrderMessage.customData;
-        scheduleTimelineUpdate(shuffleOrderMessage.onCompletionAction);
+        scheduleTimelineUpdate(shuffleOrderMessage.onCompletionActions);
         break;
       case MSG_UPDATE_TIMELINE:
         updateTimelineAndScheduleOnCompletionActions();
@@ -725,30 +752,45 @@ public final class ConcatenatingMediaSource extends CompositeMediaSource<MediaSo
     return true;
   }
 
+  private synchronized void finishPendingAddMessage(
+      MessageData<List<MediaSourceHolder>> addMessage) {
+    if (pendingAddMessage == addMessage) {
+      pendingAddMessage = null;
+    }
+  }
+
   private void scheduleTimelineUpdate() {
-    scheduleTimelineUpdate(/* onCompletionAction= */ null);
+    scheduleTimelineUpdate(Collections.<HandlerAndRunnable>emptyList());
   }
 
-  private void scheduleTimelineUpdate(@Nullable HandlerAndRunnable onCompletionAction) {
+  private void scheduleTimelineUpdate(List<HandlerAndRunnable> onCompletionActions) {
     if (!timelineUpdateScheduled) {
       getPlaybackThreadHandlerOnPlaybackThread().obtainMessage(MSG_UPDATE_TIMELINE).sendToTarget();
       timelineUpdateScheduled = true;
     }
-    if (onCompletionAction != null) {
-      nextTimelineUpdateOnCompletionActions.add(onCompletionAction);
-    }
+    nextTimelineUpdateOnCompletionActions.addAll(onCompletionActions);
   }
 
   private void updateTimelineAndScheduleOnCompletionActions() {
     timelineUpdateScheduled = false;
     Set<HandlerAndRunnable> onCompletionActions = nextTimelineUpdateOnCompletionActions;
     nextTimelineUpdateOnCompletionActions = new HashSet<>();
-    refreshSourceInfo(new ConcatenatedTimeline(mediaSourceHolders, shuffleOrder, isAtomic));
+    refreshSourceInfo(
+        new ConcatenatedTimeline(
+            buildTimelineIndex(timelineIndexBuilder, mediaSourceHolders), shuffleOrder, isAtomic));
     getPlaybackThreadHandlerOnPlaybackThread()
         .obtainMessage(MSG_ON_COMPLETION, onCompletionActions)
         .sendToTarget();
   }
 
+  private static ConcatenatedTimelineIndex buildTimelineIndex(
+      ConcatenatedTimelineIndex.Builder builder, Collection<MediaSourceHolder> mediaSourceHolders) {
+    for (MediaSourceHolder mediaSourceHolder : mediaSourceHolders) {
+      builder.add(mediaSourceHolder.uid, mediaSourceHolder.mediaSource.getTimeline());
+    }
+    return builder.build();
+  }
+
   @SuppressWarnings("GuardedBy")
   private Handler getPlaybackThreadHandlerOnPlaybackThread() {
     // Write access to this value happens on the playback thread only, so playback thread reads
@@ -901,105 +943,89 @@ public final class ConcatenatingMediaSource extends CompositeMediaSource<MediaSo
     }
   }
 
-  /** Message used to post actions from app thread to playback thread. */
+  /**
+   * Message used to post actions from app thread to playback thread. Add messages may have further
+   * sources and actions added to them on the app thread until the playback thread starts handling
+   * them.
+   */
   private static final class MessageData<T> {
 
     public final int index;
     public final T customData;
-    @Nullable public final HandlerAndRunnable onCompletionAction;
+    public final List<HandlerAndRunnable> onCompletionActions;
 
     public MessageData(int index, T customData, @Nullable HandlerAndRunnable onCompletionAction) {
       this.index = index;
       this.customData = customData;
-      this.onCompletionAction = onCompletionAction;
+      this.onCompletionActions = new ArrayList<>(/* initialCapacity= */ 1);
+      addOnCompletionAction(onCompletionAction);
+    }
+
+    public void addOnCompletionAction(@Nullable HandlerAndRunnable onCompletionAction) {
+      if (onCompletionAction != null) {
+        onCompletionActions.add(onCompletionAction);
+      }
     }
   }
 
   /** Timeline exposing concatenated timelines of playlist media sources. */
   private static final class ConcatenatedTimeline extends AbstractConcatenatedTimeline {
 
-    private final int windowCount;
-    private final int periodCount;
-    private final int[] firstPeriodInChildIndices;
-    private final int[] firstWindowInChildIndices;
-    private final Timeline[] timelines;
-    private final Object[] uids;
-    private final HashMap<Object, Integer> childIndexByUid;
+    private final ConcatenatedTimelineIndex index;
 
     public ConcatenatedTimeline(
-        Collection<MediaSourceHolder> mediaSourceHolders,
-        ShuffleOrder shuffleOrder,
-        boolean isAtomic) {
+        ConcatenatedTimelineIndex index, ShuffleOrder shuffleOrder, boolean isAtomic) {
       super(isAtomic, shuffleOrder);
-      int childCount = mediaSourceHolders.size();
-      firstPeriodInChildIndices = new int[childCount];
-      firstWindowInChildIndices = new int[childCount];
-      timelines = new Timeline[childCount];
-      uids = new Object[childCount];
-      childIndexByUid = new HashMap<>();
-      int index = 0;
-      int windowCount = 0;
-      int periodCount = 0;
-      for (MediaSourceHolder mediaSourceHolder : mediaSourceHolders) {
-        timelines[index] = mediaSourceHolder.mediaSource.getTimeline();
-        firstWindowInChildIndices[index] = windowCount;
-        firstPeriodInChildIndices[index] = periodCount;
-        windowCount += timelines[index].getWindowCount();
-        periodCount += timelines[index].getPeriodCount();
-        uids[index] = mediaSourceHolder.uid;
-        childIndexByUid.put(uids[index], index++);
-      }
-      this.windowCount = windowCount;
-      this.periodCount = periodCount;
+      this.index = index;
     }
 
     @Override
     protected int getChildIndexByPeriodIndex(int periodIndex) {
-      return Util.binarySearchFloor(firstPeriodInChildIndices, periodIndex + 1, false, false);
+      return index.getChildIndexByPeriodIndex(periodIndex);
     }
 
     @Override
     protected int getChildIndexByWindowIndex(int windowIndex) {
-      return Util.binarySearchFloor(firstWindowInChildIndices, windowIndex + 1, false, false);
+      return index.getChildIndexByWindowIndex(windowIndex);
     }
 
     @Override
     protected int getChildIndexByChildUid(Object childUid) {
-      @Nullable Integer index = childIndexByUid.get(childUid);
-      return index == null ? C.INDEX_UNSET : index;
+      return index.getChildIndexByChildUid(childUid);
     }
 
     @Override
     protected Timeline getTimelineByChildIndex(int childIndex) {
-      return timelines[childIndex];
+      return index.getTimeline(childIndex);
     }
 
     @Override
     protected int getFirstPeriodIndexByChildIndex(int childIndex) {
-      return firstPeriodInChildIndices[childIndex];
+      return index.getFirstPeriodIndex(childIndex);
     }
 
     @Override
     protected int getFirstWindowIndexByChildIndex(int childIndex) {
-      return firstWindowInChildIndices[childIndex];
+      return index.getFirstWindowIndex(childIndex);
     }
 
     @Override
     protected Object getChildUidByChildIndex(int childIndex) {
-      return uids[childIndex];
+      return index.getUid(childIndex);
     }
 
     @Override
     public int getWindowCount() {
-      return windowCount;
+      return index.getWindowCount();
     }
 
     @Override
     public int getPeriodCount() {
-      return periodCount;
+      return index.getPeriodCount();
     }
   }
 
+
   /** A media source which does nothing and does not support creating periods. */
   private static final class FakeMediaSource extends BaseMediaSource {
 
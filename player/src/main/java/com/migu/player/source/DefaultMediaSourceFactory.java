@@ -34,6 +34,7 @@ import com.migu.player.upstream.DataSpec;
 import com.migu.player.upstream.DefaultDataSourceFactory;
 import com.migu.player.upstream.HttpDataSource;
 import com.migu.player.upstream.LoadErrorHandlingPolicy;
+import com.migu.player.upstream.LoaderExecutor;
 import com.migu.player.util.Assertions;
 import com.migu.player.util.Log;
 import com.migu.player.util.MimeTypes;
@@ -109,6 +110,7 @@ public final class DefaultMediaSourceFactory implements MediaSourceFactory {
   @Nullable private DrmSessionManager drmSessionManager;
   @Nullable private List<StreamKey> streamKeys;
   @Nullable private LoadErrorHandlingPolicy loadErrorHandlingPolicy;
+  @Nullable private LoaderExecutor loaderExecutor;
 
   /**
    * Creates a new instance.
@@ -210,6 +212,12 @@ public final class DefaultMediaSourceFactory implements MediaSourceFactory {
     return this;
   }
 
+  @Override
+  public DefaultMediaSourceFactory setLoaderExecutor(@Nullable LoaderExecutor loaderExecutor) {
+    this.loaderExecutor = loaderExecutor;
+    return this;
+  }
+
   /**
    * @deprecated Use {@link MediaItem.Builder#setStreamKeys(List)} and {@link
    *     #createMediaSource(MediaItem)} instead.
@@ -245,6 +253,7 @@ public final class DefaultMediaSourceFactory implements MediaSourceFactory {
             ? mediaItem.playbackProperties.streamKeys
             : streamKeys);
     mediaSourceFactory.setLoadErrorHandlingPolicy(loadErrorHandlingPolicy);
+    mediaSourceFactory.setLoaderExecutor(loaderExecutor);
 
     MediaSource mediaSource = mediaSourceFactory.createMediaSource(mediaItem);
 
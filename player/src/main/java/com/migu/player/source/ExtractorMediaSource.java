@@ -350,7 +350,9 @@ public final class ExtractorMediaSource extends CompositeMediaSource<Void> {
             extractorsFactory,
             DrmSessionManager.getDummyDrmSessionManager(),
             loadableLoadErrorHandlingPolicy,
-            continueLoadingCheckIntervalBytes);
+            continueLoadingCheckIntervalBytes,
+            /* loaderExecutor= */ null,
+            /* tailPrefetchEnabled= */ false);
   }
 
   /**
@@ -54,6 +54,17 @@ public final class LoadEventInfo {
   public final long loadDurationMs;
   /** The number of bytes that were loaded up to the event time. */
   public final long bytesLoaded;
+  /**
+   * The time by which data needed by the load was made available earlier than it would have been
+   * by loading it sequentially, in milliseconds, or 0 if no data was prefetched for the load.
+   */
+  public final long prefetchTimeSavedMs;
+  /**
+   * The number of bytes that were copied through intermediate buffers while extracting the loaded
+   * data, in addition to the single copy of the data into its destination, or 0 if unknown. Divided
+   * by {@link #bytesLoaded}, this gives the number of extra copies made per byte loaded.
+   */
+  public final long bytesCopied;
 
   /**
    * Equivalent to {@link #LoadEventInfo(long, DataSpec, Uri, Map, long, long, long)
@@ -90,6 +101,73 @@ public final class LoadEventInfo {
       long elapsedRealtimeMs,
       long loadDurationMs,
       long bytesLoaded) {
+    this(
+        loadTaskId,
+        dataSpec,
+        uri,
+        responseHeaders,
+        elapsedRealtimeMs,
+        loadDurationMs,
+        bytesLoaded,
+        /* prefetchTimeSavedMs= */ 0);
+  }
+
+  /**
+   * Creates load event info.
+   *
+   * @param loadTaskId See {@link #loadTaskId}.
+   * @param dataSpec See {@link #dataSpec}.
+   * @param uri See {@link #uri}.
+   * @param responseHeaders See {@link #responseHeaders}.
+   * @param elapsedRealtimeMs See {@link #elapsedRealtimeMs}.
+   * @param loadDurationMs See {@link #loadDurationMs}.
+   * @param bytesLoaded See {@link #bytesLoaded}.
+   * @param prefetchTimeSavedMs See {@link #prefetchTimeSavedMs}.
+   */
+  public LoadEventInfo(
+      long loadTaskId,
+      DataSpec dataSpec,
+      Uri uri,
+      Map<String, List<String>> responseHeaders,
+      long elapsedRealtimeMs,
+      long loadDurationMs,
+      long bytesLoaded,
+      long prefetchTimeSavedMs) {
+    this(
+        loadTaskId,
+        dataSpec,
+        uri,
+        responseHeaders,
+        elapsedRealtimeMs,
+        loadDurationMs,
+        bytesLoaded,
+        prefetchTimeSavedMs,
+        /* bytesCopied= */ 0);
+  }
+
+  /**
+   * Creates load event info.
+   *
+   * @param loadTaskId See {@link #loadTaskId}.
+   * @param dataSpec See {@link #dataSpec}.
+   * @param uri See {@link #uri}.
+   * @param responseHeaders See {@link #responseHeaders}.
+   * @param elapsedRealtimeMs See {@link #elapsedRealtimeMs}.
+   * @param loadDurationMs See {@link #loadDurationMs}.
+   * @param bytesLoaded See {@link #bytesLoaded}.
+   * @param prefetchTimeSavedMs See {@link #prefetchTimeSavedMs}.
+   * @param bytesCopied See {@link #bytesCopied}.
+   */
+  public LoadEventInfo(
+      long loadTaskId,
+      DataSpec dataSpec,
+      Uri uri,
+      Map<String, List<String>> responseHeaders,
+      long elapsedRealtimeMs,
+      long loadDurationMs,
+      long bytesLoaded,
+      long prefetchTimeSavedMs,
+      long bytesCopied) {
     this.loadTaskId = loadTaskId;
     this.dataSpec = dataSpec;
     this.uri = uri;
@@ -97,5 +175,7 @@ public final class LoadEventInfo {
     this.elapsedRealtimeMs = elapsedRealtimeMs;
     this.loadDurationMs = loadDurationMs;
     this.bytesLoaded = bytesLoaded;
+    this.prefetchTimeSavedMs = prefetchTimeSavedMs;
+    this.bytesCopied = bytesCopied;
   }
 }
@@ -64,6 +64,7 @@ public final class MaskingMediaPeriod implements MediaPeriod, MediaPeriod.Callba
   @Nullable private PrepareListener listener;
   private boolean notifiedPrepareError;
   private long preparePositionOverrideUs;
+  private int loadPriority;
 
   /**
    * Creates a new masking media period. The media source must be set via {@link
@@ -78,6 +79,7 @@ public final class MaskingMediaPeriod implements MediaPeriod, MediaPeriod.Callba
     this.allocator = allocator;
     this.preparePositionUs = preparePositionUs;
     preparePositionOverrideUs = C.TIME_UNSET;
+    loadPriority = C.PRIORITY_PLAYBACK;
   }
 
   /**
@@ -127,6 +129,7 @@ public final class MaskingMediaPeriod implements MediaPeriod, MediaPeriod.Callba
   public void createPeriod(MediaPeriodId id) {
     long preparePositionUs = getPreparePositionWithOverride(this.preparePositionUs);
     mediaPeriod = checkNotNull(mediaSource).createPeriod(id, allocator, preparePositionUs);
+    mediaPeriod.setLoadPriority(loadPriority);
     if (callback != null) {
       mediaPeriod.prepare(/* callback= */ this, preparePositionUs);
     }
@@ -222,6 +225,14 @@ public final class MaskingMediaPeriod implements MediaPeriod, MediaPeriod.Callba
     castNonNull(mediaPeriod).reevaluateBuffer(positionUs);
   }
 
+  @Override
+  public void setLoadPriority(int priority) {
+    loadPriority = priority;
+    if (mediaPeriod != null) {
+      mediaPeriod.setLoadPriority(priority);
+    }
+  }
+
   @Override
   public boolean continueLoading(long positionUs) {
     return mediaPeriod != null && mediaPeriod.continueLoading(positionUs);
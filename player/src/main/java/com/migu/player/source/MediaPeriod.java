@@ -249,4 +249,15 @@ public interface MediaPeriod extends SequenceableLoader {
    */
   @Override
   void reevaluateBuffer(long positionUs);
+
+  /**
+   * Sets the priority of the period's loads that haven't started yet, relative to the loads of
+   * other periods sharing a {@link com.migu.player.upstream.LoaderExecutor}. Periods whose loads
+   * don't run on a shared executor may ignore the call.
+   *
+   * @param priority The priority. Loads with a priority lower than {@link C#PRIORITY_PLAYBACK},
+   *     such as the loads of periods buffered ahead of the playing period, are run as background
+   *     loads.
+   */
+  default void setLoadPriority(int priority) {}
 }
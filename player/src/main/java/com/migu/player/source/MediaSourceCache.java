@@ -0,0 +1,336 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.migu.player.source;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.GuardedBy;
+import android.support.annotation.Nullable;
+
+import com.migu.player.C;
+import com.migu.player.MediaItem;
+import com.migu.player.Timeline;
+import com.migu.player.source.MediaSource.MediaPeriodId;
+import com.migu.player.upstream.Allocator;
+import com.migu.player.upstream.DefaultAllocator;
+import com.migu.player.upstream.TransferListener;
+import com.migu.player.util.Assertions;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A least recently used cache of prepared {@link MediaSource MediaSources}, keyed by {@link
+ * MediaItem}, so that playing a recently played item again doesn't have to prepare its media from
+ * scratch.
+ *
+ * <p>The sources returned by the cache are kept prepared, and enabled, on the playback thread
+ * until they are evicted. When a player releases a prepared {@link MediaPeriod} of a cached
+ * source, the source keeps the period and hands it to the next player that creates a period with
+ * the same id, so that the period doesn't need to be prepared again. {@link #preload(MediaItem)}
+ * additionally prepares a period of an item before it is played.
+ *
+ * <p>As sources can only be prepared on a single thread, the sources returned by the cache must
+ * only be played by players whose playback looper is the one passed to the cache, such as the
+ * players of a {@link com.migu.player.SimpleExoPlayerPool}. Sources are prepared without a {@link
+ * TransferListener}, so their media loads aren't reported to the bandwidth meter of the player.
+ * Buffers of a reused period keep being allocated from the {@link Allocator} with which the period
+ * was created.
+ *
+ * <p>The methods of the cache can be called from any thread.
+ */
+public final class MediaSourceCache {
+
+  /** The default maximum number of sources in the cache. */
+  public static final int DEFAULT_MAX_SIZE = 4;
+
+  private final MediaSourceFactory mediaSourceFactory;
+  private final Handler playbackHandler;
+  private final Allocator preloadAllocator;
+  private final int maxSize;
+
+  @GuardedBy("this")
+  private final LinkedHashMap<MediaItem, CachedMediaSource> mediaSources;
+
+  @GuardedBy("this")
+  private int hitCount;
+
+  @GuardedBy("this")
+  private int missCount;
+
+  @GuardedBy("this")
+  private int reusedPeriodCount;
+
+  /**
+   * Creates a cache holding at most {@link #DEFAULT_MAX_SIZE} sources.
+   *
+   * @param mediaSourceFactory The {@link MediaSourceFactory} used to create sources.
+   * @param playbackLooper The {@link Looper} of the playback thread of the players of the sources.
+   */
+  public MediaSourceCache(MediaSourceFactory mediaSourceFactory, Looper playbackLooper) {
+    this(mediaSourceFactory, playbackLooper, DEFAULT_MAX_SIZE);
+  }
+
+  /**
+   * @param mediaSourceFactory The {@link MediaSourceFactory} used to create sources.
+   * @param playbackLooper The {@link Looper} of the playback thread of the players of the sources.
+   * @param maxSize The maximum number of sources in the cache. Must be positive.
+   */
+  public MediaSourceCache(
+      MediaSourceFactory mediaSourceFactory, Looper playbackLooper, int maxSize) {
+    Assertions.checkArgument(maxSize > 0);
+    this.mediaSourceFactory = mediaSourceFactory;
+    this.maxSize = maxSize;
+    playbackHandler = new Handler(playbackLooper);
+    preloadAllocator =
+        new DefaultAllocator(/* trimOnReset= */ true, C.DEFAULT_BUFFER_SEGMENT_SIZE);
+    mediaSources =
+        new LinkedHashMap<>(
+            /* initialCapacity= */ 16, /* loadFactor= */ 0.75f, /* accessOrder= */ true);
+  }
+
+  /**
+   * Returns the cached source of a {@link MediaItem}, or creates and caches a source if there is
+   * none.
+   *
+   * @param mediaItem The {@link MediaItem}.
+   * @return The source of the item.
+   */
+  public MediaSource getMediaSource(MediaItem mediaItem) {
+    return getMediaSource(mediaItem, /* preloadPeriod= */ false);
+  }
+
+  /**
+   * Returns the source of a {@link MediaItem} as {@link #getMediaSource(MediaItem)} does, and
+   * starts preparing the period at the default position of the first window of the source, if the
+   * source doesn't already hold a prepared period.
+   *
+   * @param mediaItem The {@link MediaItem}.
+   * @return The source of the item.
+   */
+  public MediaSource preload(MediaItem mediaItem) {
+    return getMediaSource(mediaItem, /* preloadPeriod= */ true);
+  }
+
+  /** Evicts all sources from the cache. */
+  public synchronized void clear() {
+    Iterator<CachedMediaSource> iterator = mediaSources.values().iterator();
+    while (iterator.hasNext()) {
+      evict(iterator.next());
+      iterator.remove();
+    }
+  }
+
+  /** Returns the number of requests for a source that was found in the cache. */
+  public synchronized int getHitCount() {
+    return hitCount;
+  }
+
+  /** Returns the number of requests for a source that had to be created. */
+  public synchronized int getMissCount() {
+    return missCount;
+  }
+
+  /** Returns the number of prepared periods handed to a player instead of new periods. */
+  public synchronized int getReusedPeriodCount() {
+    return reusedPeriodCount;
+  }
+
+  private synchronized MediaSource getMediaSource(MediaItem mediaItem, boolean preloadPeriod) {
+    @Nullable CachedMediaSource mediaSource = mediaSources.get(mediaItem);
+    if (mediaSource != null) {
+      hitCount++;
+    } else {
+      missCount++;
+      mediaSource = new CachedMediaSource(mediaSourceFactory.createMediaSource(mediaItem));
+      mediaSources.put(mediaItem, mediaSource);
+      Iterator<CachedMediaSource> iterator = mediaSources.values().iterator();
+      while (mediaSources.size() > maxSize) {
+        evict(iterator.next());
+        iterator.remove();
+      }
+    }
+    CachedMediaSource retainedMediaSource = mediaSource;
+    // Players prepare sources on the same thread later on, so the source is always retained first.
+    playbackHandler.post(
+        new Runnable() {
+          @Override
+          public void run() {
+            retainedMediaSource.retain(preloadPeriod);
+          }
+        });
+    return mediaSource;
+  }
+
+  private void evict(CachedMediaSource mediaSource) {
+    playbackHandler.post(
+        new Runnable() {
+          @Override
+          public void run() {
+            mediaSource.evict();
+          }
+        });
+  }
+
+  private synchronized void onPeriodReused() {
+    reusedPeriodCount++;
+  }
+
+  /** Wraps a source of the cache. All methods are called on the playback thread. */
+  private final class CachedMediaSource extends CompositeMediaSource<Void>
+      implements MediaSource.MediaSourceCaller {
+
+    private final MediaSource mediaSource;
+    private final Timeline.Window window;
+
+    @Nullable private Timeline timeline;
+    @Nullable private ReusableMediaPeriod idlePeriod;
+    private boolean retained;
+    private boolean evicted;
+    private boolean preloadPending;
+
+    public CachedMediaSource(MediaSource mediaSource) {
+      this.mediaSource = mediaSource;
+      window = new Timeline.Window();
+    }
+
+    /** Keeps the source prepared, and optionally preloads its period. */
+    public void retain(boolean preloadPeriod) {
+      if (evicted) {
+        return;
+      }
+      if (preloadPeriod) {
+        preloadPending = true;
+      }
+      if (!retained) {
+        retained = true;
+        prepareSource(/* caller= */ this, /* mediaTransferListener= */ null);
+      } else if (preloadPending) {
+        maybePreloadPeriod();
+      }
+    }
+
+    /** Releases the idle period, and the source unless it's still used by a player. */
+    public void evict() {
+      evicted = true;
+      preloadPending = false;
+      releaseIdlePeriod();
+      if (retained) {
+        retained = false;
+        releaseSource(/* caller= */ this);
+      }
+    }
+
+    // MediaSource implementation.
+
+    @Override
+    @Nullable
+    public Timeline getInitialTimeline() {
+      return mediaSource.getInitialTimeline();
+    }
+
+    @Override
+    public boolean isSingleWindow() {
+      return mediaSource.isSingleWindow();
+    }
+
+    @Override
+    public MediaItem getMediaItem() {
+      return mediaSource.getMediaItem();
+    }
+
+    @Override
+    protected void prepareSourceInternal(@Nullable TransferListener mediaTransferListener) {
+      super.prepareSourceInternal(mediaTransferListener);
+      prepareChildSource(/* id= */ null, mediaSource);
+    }
+
+    @Override
+    protected void onChildSourceInfoRefreshed(
+        Void id, MediaSource mediaSource, Timeline timeline) {
+      this.timeline = timeline;
+      refreshSourceInfo(timeline);
+    }
+
+    @Override
+    public MediaPeriod createPeriod(MediaPeriodId id, Allocator allocator, long startPositionUs) {
+      @Nullable ReusableMediaPeriod idlePeriod = this.idlePeriod;
+      if (idlePeriod != null && isSamePeriod(idlePeriod.id, id)) {
+        this.idlePeriod = null;
+        onPeriodReused();
+        return idlePeriod;
+      }
+      return new ReusableMediaPeriod(mediaSource.createPeriod(id, allocator, startPositionUs), id);
+    }
+
+    @Override
+    public void releasePeriod(MediaPeriod mediaPeriod) {
+      ReusableMediaPeriod period = (ReusableMediaPeriod) mediaPeriod;
+      if (!evicted && idlePeriod == null && period.isPrepared()) {
+        period.recycle();
+        idlePeriod = period;
+      } else {
+        this.mediaSource.releasePeriod(period.mediaPeriod);
+      }
+    }
+
+    @Override
+    protected void releaseSourceInternal() {
+      releaseIdlePeriod();
+      timeline = null;
+      super.releaseSourceInternal();
+    }
+
+    // MediaSourceCaller implementation.
+
+    @Override
+    public void onSourceInfoRefreshed(MediaSource source, Timeline timeline) {
+      maybePreloadPeriod();
+    }
+
+    private void maybePreloadPeriod() {
+      @Nullable Timeline timeline = this.timeline;
+      if (!preloadPending || idlePeriod != null || timeline == null || timeline.isEmpty()) {
+        return;
+      }
+      preloadPending = false;
+      // Placeholder timelines use the same period UIDs as the timelines that replace them.
+      timeline.getWindow(/* windowIndex= */ 0, window);
+      MediaPeriodId id = new MediaPeriodId(timeline.getUidOfPeriod(window.firstPeriodIndex));
+      long startPositionUs = window.getPositionInFirstPeriodUs() + window.getDefaultPositionUs();
+      ReusableMediaPeriod period =
+          new ReusableMediaPeriod(
+              mediaSource.createPeriod(id, preloadAllocator, startPositionUs), id);
+      period.preload(startPositionUs);
+      idlePeriod = period;
+    }
+
+    private void releaseIdlePeriod() {
+      if (idlePeriod != null) {
+        mediaSource.releasePeriod(idlePeriod.mediaPeriod);
+        idlePeriod = null;
+      }
+    }
+  }
+
+  private static boolean isSamePeriod(MediaPeriodId first, MediaPeriodId second) {
+    // The window sequence number differs for every player that plays the period.
+    return first.periodUid.equals(second.periodUid)
+        && first.adGroupIndex == second.adGroupIndex
+        && first.adIndexInAdGroup == second.adIndexInAdGroup
+        && first.nextAdGroupIndex == second.nextAdGroupIndex;
+  }
+}
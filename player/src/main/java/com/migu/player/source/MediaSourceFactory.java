@@ -28,6 +28,8 @@ import com.migu.player.upstream.DefaultHttpDataSourceFactory;
 import com.migu.player.upstream.DefaultLoadErrorHandlingPolicy;
 import com.migu.player.upstream.HttpDataSource;
 import com.migu.player.upstream.LoadErrorHandlingPolicy;
+import com.migu.player.upstream.Loader;
+import com.migu.player.upstream.LoaderExecutor;
 
 import java.util.List;
 
@@ -105,6 +107,19 @@ public interface MediaSourceFactory {
   MediaSourceFactory setLoadErrorHandlingPolicy(
           @Nullable LoadErrorHandlingPolicy loadErrorHandlingPolicy);
 
+  /**
+   * Sets an optional {@link LoaderExecutor} on whose threads the {@link Loader Loaders} of the
+   * created media sources run their loads. Factories that don't support a shared executor ignore
+   * it.
+   *
+   * @param loaderExecutor A {@link LoaderExecutor}, or {@code null} for each loader to use a thread
+   *     of its own.
+   * @return This factory, for convenience.
+   */
+  default MediaSourceFactory setLoaderExecutor(@Nullable LoaderExecutor loaderExecutor) {
+    return this;
+  }
+
   /**
    * Returns the {@link C.ContentType content types} supported by media sources created by this
    * factory.
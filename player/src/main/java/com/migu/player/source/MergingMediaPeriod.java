@@ -179,6 +179,13 @@ import static java.lang.Math.max;
     compositeSequenceableLoader.reevaluateBuffer(positionUs);
   }
 
+  @Override
+  public void setLoadPriority(int priority) {
+    for (MediaPeriod period : periods) {
+      period.setLoadPriority(priority);
+    }
+  }
+
   @Override
   public boolean continueLoading(long positionUs) {
     if (!childrenPendingPreparation.isEmpty()) {
@@ -405,6 +412,11 @@ import static java.lang.Math.max;
       mediaPeriod.reevaluateBuffer(positionUs - timeOffsetUs);
     }
 
+    @Override
+    public void setLoadPriority(int priority) {
+      mediaPeriod.setLoadPriority(priority);
+    }
+
     @Override
     public void onPrepared(MediaPeriod mediaPeriod) {
       Assertions.checkNotNull(callback).onPrepared(/* mediaPeriod= */ this);
@@ -68,6 +68,20 @@ import java.util.Map;
    */
   long getCurrentInputPosition();
 
+  /**
+   * Returns the position from which the selected extractor will read data at the end of the stream
+   * before it outputs samples from the start of the stream, or {@link C#POSITION_UNSET} if it's not
+   * expected to. Only known if the input was initialized at the start of the stream.
+   */
+  long getTrailingDataPosition();
+
+  /**
+   * Returns the number of bytes that the extracting infrastructure copied through intermediate
+   * buffers, rather than passing them straight from the input to the extractor, since it was
+   * created.
+   */
+  long getBytesCopied();
+
   /**
    * Notifies the extracting infrastructure that a seek has occurred.
    *
@@ -85,4 +99,10 @@ import java.util.Map;
    * @throws IOException If an error occurred reading from the input.
    */
   int read(PositionHolder positionHolder) throws IOException;
+
+  /**
+   * Blocks until the data that has been read is fully output, for extractors that parse data on
+   * other threads. Must be called when the load stops reading, before the outputs may be reset.
+   */
+  void flush();
 }
@@ -47,8 +47,10 @@ import com.migu.player.upstream.LoadErrorHandlingPolicy.LoadErrorInfo;
 import com.migu.player.upstream.Loader;
 import com.migu.player.upstream.Loader.LoadErrorAction;
 import com.migu.player.upstream.Loader.Loadable;
+import com.migu.player.upstream.LoaderExecutor;
 import com.migu.player.upstream.StatsDataSource;
 import com.migu.player.util.Assertions;
+import com.migu.player.util.Clock;
 import com.migu.player.util.ConditionVariable;
 import com.migu.player.util.MimeTypes;
 import com.migu.player.util.ParsableByteArray;
@@ -95,6 +97,9 @@ import static java.lang.Math.min;
    */
   private static final long DEFAULT_LAST_SAMPLE_DURATION_US = 10_000;
 
+  /** The maximum length of the end of a stream that is prefetched, in bytes. */
+  private static final long MAX_TAIL_PREFETCH_LENGTH = 8 * 1024 * 1024;
+
   private static final Map<String, String> ICY_METADATA_HEADERS = createIcyMetadataHeaders();
 
   private static final Format ICY_FORMAT =
@@ -111,6 +116,8 @@ import static java.lang.Math.min;
   @Nullable private final String customCacheKey;
   private final long continueLoadingCheckIntervalBytes;
   private final Loader loader;
+  @Nullable private final TailPrefetchDataSource tailPrefetchDataSource;
+  @Nullable private final Loader tailLoader;
   private final ProgressiveMediaExtractor progressiveMediaExtractor;
   private final ConditionVariable loadCondition;
   private final Runnable maybeFinishPrepareRunnable;
@@ -147,6 +154,9 @@ import static java.lang.Math.min;
   /**
    * @param uri The {@link Uri} of the media stream.
    * @param dataSource The data source to read the media.
+   * @param tailDataSource A data source from which to prefetch the end of the media in parallel
+   *     with its start, if the extractor reads the end first, or null to read all media from {@code
+   *     dataSource}.
    * @param extractorsFactory The {@link ExtractorsFactory} to use to read the data source.
    * @param drmSessionManager A {@link DrmSessionManager} to allow DRM interactions.
    * @param drmEventDispatcher A dispatcher to notify of {@link DrmSessionEventListener} events.
@@ -159,6 +169,8 @@ import static java.lang.Math.min;
    *     indexing. May be null.
    * @param continueLoadingCheckIntervalBytes The number of bytes that should be loaded between each
    *     invocation of {@link Callback#onContinueLoadingRequested(SequenceableLoader)}.
+   * @param loaderExecutor A {@link LoaderExecutor} on whose threads to load, or null to load on a
+   *     thread owned by the period.
    */
   // maybeFinishPrepare is not posted to the handler until initialization completes.
   @SuppressWarnings({
@@ -168,6 +180,7 @@ import static java.lang.Math.min;
   public ProgressiveMediaPeriod(
       Uri uri,
       DataSource dataSource,
+      @Nullable DataSource tailDataSource,
       ExtractorsFactory extractorsFactory,
       DrmSessionManager drmSessionManager,
       DrmSessionEventListener.EventDispatcher drmEventDispatcher,
@@ -176,9 +189,9 @@ import static java.lang.Math.min;
       Listener listener,
       Allocator allocator,
       @Nullable String customCacheKey,
-      int continueLoadingCheckIntervalBytes) {
+      int continueLoadingCheckIntervalBytes,
+      @Nullable LoaderExecutor loaderExecutor) {
     this.uri = uri;
-    this.dataSource = dataSource;
     this.drmSessionManager = drmSessionManager;
     this.drmEventDispatcher = drmEventDispatcher;
     this.loadErrorHandlingPolicy = loadErrorHandlingPolicy;
@@ -187,7 +200,17 @@ import static java.lang.Math.min;
     this.allocator = allocator;
     this.customCacheKey = customCacheKey;
     this.continueLoadingCheckIntervalBytes = continueLoadingCheckIntervalBytes;
-    loader = new Loader("Loader:ProgressiveMediaPeriod");
+    loader = new Loader("Loader:ProgressiveMediaPeriod", loaderExecutor);
+    if (tailDataSource != null) {
+      tailPrefetchDataSource =
+          new TailPrefetchDataSource(dataSource, tailDataSource, Clock.DEFAULT);
+      tailLoader = new Loader("Loader:ProgressiveMediaPeriod:Tail", loaderExecutor);
+      this.dataSource = tailPrefetchDataSource;
+    } else {
+      tailPrefetchDataSource = null;
+      tailLoader = null;
+      this.dataSource = dataSource;
+    }
     ProgressiveMediaExtractor progressiveMediaExtractor =
         new BundledExtractorsAdapter(extractorsFactory);
     this.progressiveMediaExtractor = progressiveMediaExtractor;
@@ -232,6 +255,10 @@ import static java.lang.Math.min;
         sampleQueue.preRelease();
       }
     }
+    if (tailPrefetchDataSource != null) {
+      tailPrefetchDataSource.cancelTail();
+      Assertions.checkNotNull(tailLoader).release();
+    }
     loader.release(/* callback= */ this);
     handler.removeCallbacksAndMessages(null);
     callback = null;
@@ -244,6 +271,9 @@ import static java.lang.Math.min;
       sampleQueue.release();
     }
     progressiveMediaExtractor.release();
+    if (tailPrefetchDataSource != null) {
+      tailPrefetchDataSource.release();
+    }
   }
 
   @Override
@@ -382,6 +412,11 @@ import static java.lang.Math.min;
     return loader.isLoading() && loadCondition.isOpen();
   }
 
+  @Override
+  public void setLoadPriority(int priority) {
+    loader.setPriority(priority);
+  }
+
   @Override
   public long getNextLoadPositionUs() {
     return enabledTrackCount == 0 ? C.TIME_END_OF_SOURCE : getBufferedPositionUs();
@@ -581,7 +616,9 @@ import static java.lang.Math.min;
             dataSource.getLastResponseHeaders(),
             elapsedRealtimeMs,
             loadDurationMs,
-            dataSource.getBytesRead());
+            dataSource.getBytesRead(),
+            getPrefetchTimeSavedMs(loadable),
+            loadable.bytesCopied);
     loadErrorHandlingPolicy.onLoadTaskConcluded(loadable.loadTaskId);
     mediaSourceEventDispatcher.loadCompleted(
         loadEventInfo,
@@ -609,7 +646,9 @@ import static java.lang.Math.min;
             dataSource.getLastResponseHeaders(),
             elapsedRealtimeMs,
             loadDurationMs,
-            dataSource.getBytesRead());
+            dataSource.getBytesRead(),
+            getPrefetchTimeSavedMs(loadable),
+            loadable.bytesCopied);
     loadErrorHandlingPolicy.onLoadTaskConcluded(loadable.loadTaskId);
     mediaSourceEventDispatcher.loadCanceled(
         loadEventInfo,
@@ -648,7 +687,9 @@ import static java.lang.Math.min;
             dataSource.getLastResponseHeaders(),
             elapsedRealtimeMs,
             loadDurationMs,
-            dataSource.getBytesRead());
+            dataSource.getBytesRead(),
+            getPrefetchTimeSavedMs(loadable),
+            loadable.bytesCopied);
     MediaLoadData mediaLoadData =
         new MediaLoadData(
             C.DATA_TYPE_MEDIA,
@@ -856,6 +897,38 @@ import static java.lang.Math.min;
         durationUs);
   }
 
+  private void startTailLoading(TailPrefetchDataSource.TailLoadable tailLoadable) {
+    if (released) {
+      return;
+    }
+    long elapsedRealtimeMs =
+        Assertions.checkNotNull(tailLoader)
+            .startLoading(tailLoadable, new TailLoadCallback(), /* defaultMinRetryCount= */ 0);
+    mediaSourceEventDispatcher.loadStarted(
+        new LoadEventInfo(tailLoadable.loadTaskId, tailLoadable.dataSpec, elapsedRealtimeMs),
+        C.DATA_TYPE_MEDIA_INITIALIZATION,
+        C.TRACK_TYPE_UNKNOWN,
+        /* trackFormat= */ null,
+        C.SELECTION_REASON_UNKNOWN,
+        /* trackSelectionData= */ null,
+        /* mediaStartTimeUs= */ C.TIME_UNSET,
+        /* mediaEndTimeUs= */ C.TIME_UNSET);
+  }
+
+  private long getPrefetchTimeSavedMs(ExtractingLoadable loadable) {
+    return tailPrefetchDataSource != null
+        ? tailPrefetchDataSource.getTimeSavedMs() - loadable.prefetchTimeSavedAtStartMs
+        : 0;
+  }
+
+  private long getBytesCopied() {
+    long bytesCopied = progressiveMediaExtractor.getBytesCopied();
+    for (SampleQueue sampleQueue : sampleQueues) {
+      bytesCopied += sampleQueue.getBytesCopied();
+    }
+    return bytesCopied;
+  }
+
   /**
    * Called to configure a retry when a load error occurs.
    *
@@ -991,8 +1064,11 @@ import static java.lang.Math.min;
     private final ExtractorOutput extractorOutput;
     private final ConditionVariable loadCondition;
     private final PositionHolder positionHolder;
+    private final long prefetchTimeSavedAtStartMs;
 
     private volatile boolean loadCanceled;
+    // The bytes copied while loading, snapshotted by the loading thread when a load attempt ends.
+    private volatile long bytesCopied;
 
     private boolean pendingExtractorSeek;
     private long seekTimeUs;
@@ -1016,6 +1092,8 @@ import static java.lang.Math.min;
       this.positionHolder = new PositionHolder();
       this.pendingExtractorSeek = true;
       this.length = C.LENGTH_UNSET;
+      prefetchTimeSavedAtStartMs =
+          tailPrefetchDataSource != null ? tailPrefetchDataSource.getTimeSavedMs() : 0;
       loadTaskId = LoadEventInfo.getNewId();
       dataSpec = buildDataSpec(/* position= */ 0);
     }
@@ -1029,6 +1107,9 @@ import static java.lang.Math.min;
 
     @Override
     public void load() throws IOException {
+      // Offset the counters so that bytes copied by earlier attempts of this load are kept, even if
+      // the sample queues were reset in between.
+      long bytesCopiedOffset = getBytesCopied() - bytesCopied;
       int result = Extractor.RESULT_CONTINUE;
       while (result == Extractor.RESULT_CONTINUE && !loadCanceled) {
         try {
@@ -1053,6 +1134,9 @@ import static java.lang.Math.min;
               length,
               extractorOutput);
 
+          if (position == 0) {
+            maybePrefetchTail(length);
+          }
           if (icyHeaders != null) {
             progressiveMediaExtractor.disableSeekingOnMp3Streams();
           }
@@ -1076,12 +1160,16 @@ import static java.lang.Math.min;
             }
           }
         } finally {
+          // The sample queues may be reset once the load ends, so extractors that parse on other
+          // threads must be done with them.
+          progressiveMediaExtractor.flush();
           if (result == Extractor.RESULT_SEEK) {
             result = Extractor.RESULT_CONTINUE;
           } else if (progressiveMediaExtractor.getCurrentInputPosition() != C.POSITION_UNSET) {
             positionHolder.position = progressiveMediaExtractor.getCurrentInputPosition();
           }
           Util.closeQuietly(dataSource);
+          bytesCopied = getBytesCopied() - bytesCopiedOffset;
         }
       }
     }
@@ -1116,6 +1204,34 @@ import static java.lang.Math.min;
           .build();
     }
 
+    private void maybePrefetchTail(long length) {
+      if (tailPrefetchDataSource == null) {
+        return;
+      }
+      @Nullable
+      DataSpec tailDataSpec =
+          TailPrefetchDataSource.getTailDataSpec(
+              dataSpec,
+              length,
+              progressiveMediaExtractor.getTrailingDataPosition(),
+              MAX_TAIL_PREFETCH_LENGTH);
+      if (tailDataSpec == null) {
+        return;
+      }
+      @Nullable
+      TailPrefetchDataSource.TailLoadable tailLoadable =
+          tailPrefetchDataSource.prefetchTail(tailDataSpec);
+      if (tailLoadable != null) {
+        handler.post(
+            new Runnable() {
+              @Override
+              public void run() {
+                startTailLoading(tailLoadable);
+              }
+            });
+      }
+    }
+
     private void setLoadPosition(long position, long timeUs) {
       positionHolder.position = position;
       seekTimeUs = timeUs;
@@ -1124,6 +1240,83 @@ import static java.lang.Math.min;
     }
   }
 
+  /**
+   * Reports the events of loads prefetching the end of the stream. If such a load fails, the end of
+   * the stream is read by the {@link ExtractingLoadable} instead, so errors are never retried.
+   */
+  private final class TailLoadCallback
+      implements Loader.Callback<TailPrefetchDataSource.TailLoadable> {
+
+    @Override
+    public void onLoadCompleted(
+        TailPrefetchDataSource.TailLoadable loadable,
+        long elapsedRealtimeMs,
+        long loadDurationMs) {
+      mediaSourceEventDispatcher.loadCompleted(
+          createLoadEventInfo(loadable, elapsedRealtimeMs, loadDurationMs),
+          C.DATA_TYPE_MEDIA_INITIALIZATION,
+          C.TRACK_TYPE_UNKNOWN,
+          /* trackFormat= */ null,
+          C.SELECTION_REASON_UNKNOWN,
+          /* trackSelectionData= */ null,
+          /* mediaStartTimeUs= */ C.TIME_UNSET,
+          /* mediaEndTimeUs= */ C.TIME_UNSET);
+    }
+
+    @Override
+    public void onLoadCanceled(
+        TailPrefetchDataSource.TailLoadable loadable,
+        long elapsedRealtimeMs,
+        long loadDurationMs,
+        boolean released) {
+      mediaSourceEventDispatcher.loadCanceled(
+          createLoadEventInfo(loadable, elapsedRealtimeMs, loadDurationMs),
+          C.DATA_TYPE_MEDIA_INITIALIZATION,
+          C.TRACK_TYPE_UNKNOWN,
+          /* trackFormat= */ null,
+          C.SELECTION_REASON_UNKNOWN,
+          /* trackSelectionData= */ null,
+          /* mediaStartTimeUs= */ C.TIME_UNSET,
+          /* mediaEndTimeUs= */ C.TIME_UNSET);
+    }
+
+    @Override
+    public LoadErrorAction onLoadError(
+        TailPrefetchDataSource.TailLoadable loadable,
+        long elapsedRealtimeMs,
+        long loadDurationMs,
+        IOException error,
+        int errorCount) {
+      mediaSourceEventDispatcher.loadError(
+          createLoadEventInfo(loadable, elapsedRealtimeMs, loadDurationMs),
+          C.DATA_TYPE_MEDIA_INITIALIZATION,
+          C.TRACK_TYPE_UNKNOWN,
+          /* trackFormat= */ null,
+          C.SELECTION_REASON_UNKNOWN,
+          /* trackSelectionData= */ null,
+          /* mediaStartTimeUs= */ C.TIME_UNSET,
+          /* mediaEndTimeUs= */ C.TIME_UNSET,
+          error,
+          /* wasCanceled= */ true);
+      return Loader.DONT_RETRY;
+    }
+
+    private LoadEventInfo createLoadEventInfo(
+        TailPrefetchDataSource.TailLoadable loadable,
+        long elapsedRealtimeMs,
+        long loadDurationMs) {
+      StatsDataSource dataSource = loadable.dataSource;
+      return new LoadEventInfo(
+          loadable.loadTaskId,
+          loadable.dataSpec,
+          dataSource.getLastOpenedUri(),
+          dataSource.getLastResponseHeaders(),
+          elapsedRealtimeMs,
+          loadDurationMs,
+          dataSource.getBytesRead());
+    }
+  }
+
   /** Stores track state. */
   private static final class TrackState {
 
@@ -30,6 +30,7 @@ import com.migu.player.upstream.DataSource;
 import com.migu.player.upstream.DefaultLoadErrorHandlingPolicy;
 import com.migu.player.upstream.HttpDataSource;
 import com.migu.player.upstream.LoadErrorHandlingPolicy;
+import com.migu.player.upstream.LoaderExecutor;
 import com.migu.player.upstream.TransferListener;
 
 import static com.migu.player.util.Assertions.checkNotNull;
@@ -60,6 +61,8 @@ public final class ProgressiveMediaSource extends BaseMediaSource
     private int continueLoadingCheckIntervalBytes;
     @Nullable private String customCacheKey;
     @Nullable private Object tag;
+    @Nullable private LoaderExecutor loaderExecutor;
+    private boolean tailPrefetchEnabled;
 
     /**
      * Creates a new factory for {@link ProgressiveMediaSource}s, using the extractors provided by
@@ -148,6 +151,28 @@ public final class ProgressiveMediaSource extends BaseMediaSource
       return this;
     }
 
+    /**
+     * Sets whether the end of a stream is prefetched in parallel with its start, if the extractor
+     * reads the end of the stream before it outputs samples from the start, as for MP4 files whose
+     * moov atom follows the media data, or for MPEG-TS and MPEG-PS streams whose duration is read
+     * from the timestamps at their end. The end is loaded through a second {@link DataSource}
+     * created by the factory, which must therefore create a new instance on each call, and held
+     * in memory until it's read. The default value is {@code false}.
+     *
+     * @param tailPrefetchEnabled Whether the end of a stream is prefetched.
+     * @return This factory, for convenience.
+     */
+    public Factory setTailPrefetchEnabled(boolean tailPrefetchEnabled) {
+      this.tailPrefetchEnabled = tailPrefetchEnabled;
+      return this;
+    }
+
+    @Override
+    public Factory setLoaderExecutor(@Nullable LoaderExecutor loaderExecutor) {
+      this.loaderExecutor = loaderExecutor;
+      return this;
+    }
+
     @Override
     public Factory setDrmSessionManager(@Nullable DrmSessionManager drmSessionManager) {
       this.drmSessionManager = drmSessionManager;
@@ -201,7 +226,9 @@ public final class ProgressiveMediaSource extends BaseMediaSource
           extractorsFactory,
           drmSessionManager != null ? drmSessionManager : mediaSourceDrmHelper.create(mediaItem),
           loadErrorHandlingPolicy,
-          continueLoadingCheckIntervalBytes);
+          continueLoadingCheckIntervalBytes,
+          loaderExecutor,
+          tailPrefetchEnabled);
     }
 
     @Override
@@ -223,6 +250,8 @@ public final class ProgressiveMediaSource extends BaseMediaSource
   private final DrmSessionManager drmSessionManager;
   private final LoadErrorHandlingPolicy loadableLoadErrorHandlingPolicy;
   private final int continueLoadingCheckIntervalBytes;
+  @Nullable private final LoaderExecutor loaderExecutor;
+  private final boolean tailPrefetchEnabled;
 
   private boolean timelineIsPlaceholder;
   private long timelineDurationUs;
@@ -237,7 +266,9 @@ public final class ProgressiveMediaSource extends BaseMediaSource
       ExtractorsFactory extractorsFactory,
       DrmSessionManager drmSessionManager,
       LoadErrorHandlingPolicy loadableLoadErrorHandlingPolicy,
-      int continueLoadingCheckIntervalBytes) {
+      int continueLoadingCheckIntervalBytes,
+      @Nullable LoaderExecutor loaderExecutor,
+      boolean tailPrefetchEnabled) {
     this.playbackProperties = checkNotNull(mediaItem.playbackProperties);
     this.mediaItem = mediaItem;
     this.dataSourceFactory = dataSourceFactory;
@@ -245,6 +276,8 @@ public final class ProgressiveMediaSource extends BaseMediaSource
     this.drmSessionManager = drmSessionManager;
     this.loadableLoadErrorHandlingPolicy = loadableLoadErrorHandlingPolicy;
     this.continueLoadingCheckIntervalBytes = continueLoadingCheckIntervalBytes;
+    this.loaderExecutor = loaderExecutor;
+    this.tailPrefetchEnabled = tailPrefetchEnabled;
     this.timelineIsPlaceholder = true;
     this.timelineDurationUs = C.TIME_UNSET;
   }
@@ -280,12 +313,20 @@ public final class ProgressiveMediaSource extends BaseMediaSource
   @Override
   public MediaPeriod createPeriod(MediaPeriodId id, Allocator allocator, long startPositionUs) {
     DataSource dataSource = dataSourceFactory.createDataSource();
+    @Nullable DataSource tailDataSource = null;
+    if (tailPrefetchEnabled) {
+      tailDataSource = dataSourceFactory.createDataSource();
+    }
     if (transferListener != null) {
       dataSource.addTransferListener(transferListener);
+      if (tailDataSource != null) {
+        tailDataSource.addTransferListener(transferListener);
+      }
     }
     return new ProgressiveMediaPeriod(
         playbackProperties.uri,
         dataSource,
+        tailDataSource,
         extractorsFactory,
         drmSessionManager,
         createDrmEventDispatcher(id),
@@ -294,7 +335,8 @@ public final class ProgressiveMediaSource extends BaseMediaSource
         this,
         allocator,
         playbackProperties.customCacheKey,
-        continueLoadingCheckIntervalBytes);
+        continueLoadingCheckIntervalBytes,
+        loaderExecutor);
   }
 
   @Override
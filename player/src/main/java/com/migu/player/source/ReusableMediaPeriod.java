@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.migu.player.source;
+
+import android.support.annotation.Nullable;
+
+import com.migu.player.SeekParameters;
+import com.migu.player.source.MediaSource.MediaPeriodId;
+import com.migu.player.trackselection.TrackSelection;
+
+import java.io.IOException;
+
+/**
+ * Wraps a {@link MediaPeriod} so that, once prepared, it can be handed from one user to the next
+ * instead of being released and prepared again.
+ *
+ * <p>Calls to {@link #prepare(Callback, long)} complete immediately if the period has already been
+ * prepared. Before the period is handed to another user, {@link #recycle()} disables all of its
+ * tracks, so that the next user starts from a period without enabled sample streams.
+ */
+/* package */ final class ReusableMediaPeriod implements MediaPeriod, MediaPeriod.Callback {
+
+  /** The {@link MediaPeriod} wrapped by this instance. */
+  public final MediaPeriod mediaPeriod;
+  /** The id with which the period was created. */
+  public final MediaPeriodId id;
+
+  @Nullable private Callback callback;
+  private boolean prepareCalled;
+  private boolean prepared;
+  @Nullable private SampleStream[] enabledStreams;
+  private long lastSelectionPositionUs;
+
+  /**
+   * @param mediaPeriod The {@link MediaPeriod} to wrap.
+   * @param id The id with which the period was created.
+   */
+  public ReusableMediaPeriod(MediaPeriod mediaPeriod, MediaPeriodId id) {
+    this.mediaPeriod = mediaPeriod;
+    this.id = id;
+  }
+
+  /**
+   * Starts preparing the period before it has a user.
+   *
+   * @param positionUs The position from which to prepare the period, in microseconds.
+   */
+  public void preload(long positionUs) {
+    if (!prepareCalled) {
+      prepareCalled = true;
+      mediaPeriod.prepare(/* callback= */ this, positionUs);
+    }
+  }
+
+  /** Returns whether the period has been prepared. */
+  public boolean isPrepared() {
+    return prepared;
+  }
+
+  /** Detaches the period from its current user and disables all of its tracks. */
+  public void recycle() {
+    callback = null;
+    @Nullable SampleStream[] enabledStreams = this.enabledStreams;
+    this.enabledStreams = null;
+    if (enabledStreams != null) {
+      int rendererCount = enabledStreams.length;
+      mediaPeriod.selectTracks(
+          new TrackSelection[rendererCount],
+          /* mayRetainStreamFlags= */ new boolean[rendererCount],
+          enabledStreams,
+          /* streamResetFlags= */ new boolean[rendererCount],
+          lastSelectionPositionUs);
+    }
+  }
+
+  // MediaPeriod implementation.
+
+  @Override
+  public void prepare(Callback callback, long positionUs) {
+    this.callback = callback;
+    if (prepared) {
+      callback.onPrepared(this);
+    } else if (!prepareCalled) {
+      prepareCalled = true;
+      mediaPeriod.prepare(/* callback= */ this, positionUs);
+    }
+  }
+
+  @Override
+  public void maybeThrowPrepareError() throws IOException {
+    mediaPeriod.maybeThrowPrepareError();
+  }
+
+  @Override
+  public TrackGroupArray getTrackGroups() {
+    return mediaPeriod.getTrackGroups();
+  }
+
+  @Override
+  public long selectTracks(
+      TrackSelection[] selections,
+      boolean[] mayRetainStreamFlags,
+      SampleStream[] streams,
+      boolean[] streamResetFlags,
+      long positionUs) {
+    lastSelectionPositionUs =
+        mediaPeriod.selectTracks(
+            selections, mayRetainStreamFlags, streams, streamResetFlags, positionUs);
+    enabledStreams = streams.clone();
+    return lastSelectionPositionUs;
+  }
+
+  @Override
+  public void discardBuffer(long positionUs, boolean toKeyframe) {
+    mediaPeriod.discardBuffer(positionUs, toKeyframe);
+  }
+
+  @Override
+  public long readDiscontinuity() {
+    return mediaPeriod.readDiscontinuity();
+  }
+
+  @Override
+  public long seekToUs(long positionUs) {
+    return mediaPeriod.seekToUs(positionUs);
+  }
+
+  @Override
+  public long getAdjustedSeekPositionUs(long positionUs, SeekParameters seekParameters) {
+    return mediaPeriod.getAdjustedSeekPositionUs(positionUs, seekParameters);
+  }
+
+  @Override
+  public long getBufferedPositionUs() {
+    return mediaPeriod.getBufferedPositionUs();
+  }
+
+  @Override
+  public long getNextLoadPositionUs() {
+    return mediaPeriod.getNextLoadPositionUs();
+  }
+
+  @Override
+  public boolean continueLoading(long positionUs) {
+    return mediaPeriod.continueLoading(positionUs);
+  }
+
+  @Override
+  public boolean isLoading() {
+    return mediaPeriod.isLoading();
+  }
+
+  @Override
+  public void reevaluateBuffer(long positionUs) {
+    mediaPeriod.reevaluateBuffer(positionUs);
+  }
+
+  @Override
+  public void setLoadPriority(int priority) {
+    mediaPeriod.setLoadPriority(priority);
+  }
+
+  // MediaPeriod.Callback implementation.
+
+  @Override
+  public void onPrepared(MediaPeriod mediaPeriod) {
+    prepared = true;
+    if (callback != null) {
+      callback.onPrepared(this);
+    }
+  }
+
+  @Override
+  public void onContinueLoadingRequested(MediaPeriod source) {
+    if (callback != null) {
+      callback.onContinueLoadingRequested(this);
+    }
+  }
+}
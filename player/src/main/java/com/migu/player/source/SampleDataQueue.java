@@ -51,6 +51,8 @@ import static java.lang.Math.min;
 
   // Accessed only by the loading thread (or the consuming thread when there is no loading thread).
   private long totalBytesWritten;
+  // Written by the loading thread and read by any thread.
+  private volatile long bytesCopied;
 
   public SampleDataQueue(Allocator allocator) {
     this.allocator = allocator;
@@ -181,6 +183,14 @@ import static java.lang.Math.min;
     return totalBytesWritten;
   }
 
+  /**
+   * Returns the number of bytes appended from a {@link ParsableByteArray} since the queue was
+   * created, which were copied into that array before being copied into the queue.
+   */
+  public long getBytesCopied() {
+    return bytesCopied;
+  }
+
   public int sampleData(DataReader input, int length, boolean allowEndOfInput) throws IOException {
     length = preAppend(length);
     int bytesAppended =
@@ -199,6 +209,7 @@ import static java.lang.Math.min;
   }
 
   public void sampleData(ParsableByteArray buffer, int length) {
+    bytesCopied += length;
     while (length > 0) {
       int bytesAppended = preAppend(length);
       buffer.readBytes(
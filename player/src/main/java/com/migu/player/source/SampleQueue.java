@@ -38,6 +38,7 @@ import com.migu.player.util.ParsableByteArray;
 import com.migu.player.util.Util;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 import static com.migu.player.util.Assertions.checkArgument;
 import static java.lang.Math.max;
@@ -57,7 +58,11 @@ public class SampleQueue implements TrackOutput {
     void onUpstreamFormatChanged(Format format);
   }
 
-  @VisibleForTesting /* package */ static final int SAMPLE_CAPACITY_INCREMENT = 1000;
+  private static final int METADATA_CHUNK_SHIFT = 10;
+  @VisibleForTesting /* package */ static final int METADATA_CHUNK_SIZE = 1 << METADATA_CHUNK_SHIFT;
+  private static final int METADATA_CHUNK_MASK = METADATA_CHUNK_SIZE - 1;
+  private static final int INITIAL_METADATA_CHUNK_RING_SIZE = 4;
+  private static final int INITIAL_KEYFRAME_INDEX_CAPACITY = 16;
   private static final String TAG = "SampleQueue";
 
   private final SampleDataQueue sampleDataQueue;
@@ -70,29 +75,58 @@ public class SampleQueue implements TrackOutput {
   @Nullable private Format downstreamFormat;
   @Nullable private DrmSession currentDrmSession;
 
-  private int capacity;
-  private int[] sourceIds;
-  private long[] offsets;
-  private int[] sizes;
-  private int[] flags;
-  private long[] timesUs;
-  private  CryptoData[] cryptoDatas;
-  private Format[] formats;
-
-  private int length;
-  private int absoluteFirstIndex;
-  private int relativeFirstIndex;
-  private int readPosition;
-
-  private long startTimeUs;
-  private long largestDiscardedTimestampUs;
-  private long largestQueuedTimestampUs;
-  private boolean isLastSampleQueued;
+  // Samples are handed from the loading thread to the playback thread without a lock. Each thread
+  // owns the fields it writes, and the fields read by the other thread are volatile:
+  //
+  // - The loading thread owns writeIndex, the chunks and the end of the keyframe index. It writes
+  //   the metadata of a sample before publishing the sample by incrementing writeIndex.
+  // - The playback thread owns firstIndex and readIndex, and the start of the keyframe index. The
+  //   loading thread only reuses chunks and keyframe index slots that are before them.
+  // - Splicing is the only way the loading thread removes samples that it has published. It lowers
+  //   writeIndex and then checks readIndex, while the playback thread raises readIndex and then
+  //   checks writeIndex, so at least one of them sees the other and backs off. The loading thread
+  //   then waits for any read operation that may have seen the removed samples to end, before it
+  //   overwrites their metadata.
+  //
+  // Methods called by the consuming thread when there is no loading thread may write any field.
+
+  // Sample metadata is held in fixed size chunks, so that the queue never copies metadata when it
+  // grows. The chunk holding the sample with absolute index i is chunk number
+  // i >> METADATA_CHUNK_SHIFT, and the allocated chunks [firstChunkNumber,
+  // firstChunkNumber + chunkCount) are held at position chunkNumber & (chunks.length - 1) of a ring
+  // of chunk references.
+  private volatile MetadataChunk[] chunks;
+  private int firstChunkNumber;
+  private int chunkCount;
+  @Nullable private MetadataChunk spareChunk;
+
+  // The absolute indices and timestamps of the queued keyframes [firstKeyframeNumber,
+  // keyframeEndNumber), so that keyframes can be found by binary search. A keyframe is expected to
+  // have a larger timestamp than all samples queued before it. lastUnorderedKeyframeIndex is the
+  // absolute index of the last keyframe that didn't, before which searches fall back to a linear
+  // scan.
+  private volatile KeyframeIndex keyframeIndex;
+  private volatile int firstKeyframeNumber;
+  private volatile int keyframeEndNumber;
+  private volatile int lastUnorderedKeyframeIndex;
+
+  private volatile int firstIndex;
+  private volatile int readIndex;
+  private volatile int writeIndex;
+  // Incremented when the playback thread starts and ends an operation that reads sample metadata,
+  // so that it's odd during the operation.
+  private volatile int readOperationCount;
+
+  private volatile long startTimeUs;
+  private volatile long largestDiscardedTimestampUs;
+  private volatile long largestReadTimestampUs;
+  private volatile long largestQueuedTimestampUs;
+  private volatile boolean isLastSampleQueued;
   private boolean upstreamKeyframeRequired;
-  private boolean upstreamFormatRequired;
+  private volatile boolean upstreamFormatRequired;
   private boolean upstreamFormatAdjustmentRequired;
   @Nullable private Format unadjustedUpstreamFormat;
-  @Nullable private Format upstreamFormat;
+  @Nullable private volatile Format upstreamFormat;
   @Nullable private Format upstreamCommittedFormat;
   private int upstreamSourceId;
   private boolean upstreamAllSamplesAreSyncSamples;
@@ -121,16 +155,12 @@ public class SampleQueue implements TrackOutput {
     this.drmEventDispatcher = drmEventDispatcher;
     sampleDataQueue = new SampleDataQueue(allocator);
     extrasHolder = new SampleExtrasHolder();
-    capacity = SAMPLE_CAPACITY_INCREMENT;
-    sourceIds = new int[capacity];
-    offsets = new long[capacity];
-    timesUs = new long[capacity];
-    flags = new int[capacity];
-    sizes = new int[capacity];
-    cryptoDatas = new CryptoData[capacity];
-    formats = new Format[capacity];
+    chunks = new MetadataChunk[INITIAL_METADATA_CHUNK_RING_SIZE];
+    keyframeIndex = new KeyframeIndex(INITIAL_KEYFRAME_INDEX_CAPACITY);
+    lastUnorderedKeyframeIndex = C.INDEX_UNSET;
     startTimeUs = Long.MIN_VALUE;
     largestDiscardedTimestampUs = Long.MIN_VALUE;
+    largestReadTimestampUs = Long.MIN_VALUE;
     largestQueuedTimestampUs = Long.MIN_VALUE;
     upstreamFormatRequired = true;
     upstreamKeyframeRequired = true;
@@ -161,13 +191,18 @@ public class SampleQueue implements TrackOutput {
   @CallSuper
   public void reset(boolean resetUpstreamFormat) {
     sampleDataQueue.reset();
-    length = 0;
-    absoluteFirstIndex = 0;
-    relativeFirstIndex = 0;
-    readPosition = 0;
+    firstIndex = 0;
+    readIndex = 0;
+    writeIndex = 0;
+    releaseChunksBefore(/* chunkNumber= */ Integer.MAX_VALUE);
+    firstChunkNumber = 0;
+    firstKeyframeNumber = 0;
+    keyframeEndNumber = 0;
+    lastUnorderedKeyframeIndex = C.INDEX_UNSET;
     upstreamKeyframeRequired = true;
     startTimeUs = Long.MIN_VALUE;
     largestDiscardedTimestampUs = Long.MIN_VALUE;
+    largestReadTimestampUs = Long.MIN_VALUE;
     largestQueuedTimestampUs = Long.MIN_VALUE;
     isLastSampleQueued = false;
     upstreamCommittedFormat = null;
@@ -204,7 +239,7 @@ public class SampleQueue implements TrackOutput {
 
   /** Returns the current absolute write index. */
   public final int getWriteIndex() {
-    return absoluteFirstIndex + length;
+    return writeIndex;
   }
 
   /**
@@ -225,12 +260,11 @@ public class SampleQueue implements TrackOutput {
    *     than {@link #getLargestReadTimestampUs()}.
    */
   public final void discardUpstreamFrom(long timeUs) {
-    if (length == 0) {
+    if (firstIndex == writeIndex) {
       return;
     }
     checkArgument(timeUs > getLargestReadTimestampUs());
-    int retainCount = countUnreadSamplesBefore(timeUs);
-    discardUpstreamSamples(absoluteFirstIndex + retainCount);
+    discardUpstreamSamples(findUpstreamDiscardIndex(timeUs, readIndex, writeIndex));
   }
 
   // Called by the consuming thread.
@@ -257,12 +291,12 @@ public class SampleQueue implements TrackOutput {
 
   /** Returns the current absolute start index. */
   public final int getFirstIndex() {
-    return absoluteFirstIndex;
+    return firstIndex;
   }
 
   /** Returns the current absolute read index. */
   public final int getReadIndex() {
-    return absoluteFirstIndex + readPosition;
+    return readIndex;
   }
 
   /**
@@ -271,14 +305,23 @@ public class SampleQueue implements TrackOutput {
    *
    * @return The source id.
    */
-  public final synchronized int peekSourceId() {
-    int relativeReadIndex = getRelativeIndex(readPosition);
-    return hasNextSample() ? sourceIds[relativeReadIndex] : upstreamSourceId;
+  public final int peekSourceId() {
+    beginReadOperation();
+    try {
+      int readIndex = this.readIndex;
+      if (readIndex == writeIndex) {
+        return upstreamSourceId;
+      }
+      return getChunk(readIndex).sourceIds[readIndex & METADATA_CHUNK_MASK];
+    } finally {
+      endReadOperation();
+    }
   }
 
   /** Returns the upstream {@link Format} in which samples are being queued. */
   @Nullable
-  public final synchronized Format getUpstreamFormat() {
+  public final Format getUpstreamFormat() {
+    // upstreamFormat is written before upstreamFormatRequired is cleared.
     return upstreamFormatRequired ? null : upstreamFormat;
   }
 
@@ -292,7 +335,7 @@ public class SampleQueue implements TrackOutput {
    * @return The largest sample timestamp that has been queued, or {@link Long#MIN_VALUE} if no
    *     samples have been queued.
    */
-  public final synchronized long getLargestQueuedTimestampUs() {
+  public final long getLargestQueuedTimestampUs() {
     return largestQueuedTimestampUs;
   }
 
@@ -302,8 +345,8 @@ public class SampleQueue implements TrackOutput {
    * @return The largest sample timestamp that has been read, or {@link Long#MIN_VALUE} if no
    *     samples have been read.
    */
-  public final synchronized long getLargestReadTimestampUs() {
-    return max(largestDiscardedTimestampUs, getLargestTimestamp(readPosition));
+  public final long getLargestReadTimestampUs() {
+    return largestReadTimestampUs;
   }
 
   /**
@@ -315,13 +358,19 @@ public class SampleQueue implements TrackOutput {
    * considered as having been queued. Samples that were dequeued from the front of the queue are
    * considered as having been queued.
    */
-  public final synchronized boolean isLastSampleQueued() {
+  public final boolean isLastSampleQueued() {
     return isLastSampleQueued;
   }
 
   /** Returns the timestamp of the first sample, or {@link Long#MIN_VALUE} if the queue is empty. */
-  public final synchronized long getFirstTimestampUs() {
-    return length == 0 ? Long.MIN_VALUE : timesUs[relativeFirstIndex];
+  public final long getFirstTimestampUs() {
+    beginReadOperation();
+    try {
+      int firstIndex = this.firstIndex;
+      return firstIndex == writeIndex ? Long.MIN_VALUE : getTimeUs(firstIndex);
+    } finally {
+      endReadOperation();
+    }
   }
 
   /**
@@ -337,18 +386,28 @@ public class SampleQueue implements TrackOutput {
    */
   @SuppressWarnings("ReferenceEquality") // See comments in setUpstreamFormat
   @CallSuper
-  public synchronized boolean isReady(boolean loadingFinished) {
-    if (!hasNextSample()) {
-      return loadingFinished
-          || isLastSampleQueued
-          || (upstreamFormat != null && upstreamFormat != downstreamFormat);
-    }
-    int relativeReadIndex = getRelativeIndex(readPosition);
-    if (formats[relativeReadIndex] != downstreamFormat) {
-      // A format can be read.
-      return true;
+  public boolean isReady(boolean loadingFinished) {
+    beginReadOperation();
+    try {
+      // isLastSampleQueued is written after writeIndex, so it must be read before it.
+      boolean isLastSampleQueued = this.isLastSampleQueued;
+      int readIndex = this.readIndex;
+      if (readIndex == writeIndex) {
+        @Nullable Format upstreamFormat = this.upstreamFormat;
+        return loadingFinished
+            || isLastSampleQueued
+            || (upstreamFormat != null && upstreamFormat != downstreamFormat);
+      }
+      MetadataChunk chunk = getChunk(readIndex);
+      int slot = readIndex & METADATA_CHUNK_MASK;
+      if (chunk.formats[slot] != downstreamFormat) {
+        // A format can be read.
+        return true;
+      }
+      return mayReadSample(chunk.flags[slot]);
+    } finally {
+      endReadOperation();
     }
-    return mayReadSample(relativeReadIndex);
   }
 
   /**
@@ -390,14 +449,22 @@ public class SampleQueue implements TrackOutput {
    * @param sampleIndex The sample index.
    * @return Whether the seek was successful.
    */
-  public final synchronized boolean seekTo(int sampleIndex) {
-    rewind();
-    if (sampleIndex < absoluteFirstIndex || sampleIndex > absoluteFirstIndex + length) {
-      return false;
+  public final boolean seekTo(int sampleIndex) {
+    beginReadOperation();
+    try {
+      rewind();
+      int firstIndex = this.firstIndex;
+      if (sampleIndex < firstIndex
+          || sampleIndex > writeIndex
+          || !advanceReadIndex(firstIndex, sampleIndex)) {
+        return false;
+      }
+      startTimeUs = Long.MIN_VALUE;
+      updateLargestReadTimestamp();
+      return true;
+    } finally {
+      endReadOperation();
     }
-    startTimeUs = Long.MIN_VALUE;
-    readPosition = sampleIndex - absoluteFirstIndex;
-    return true;
   }
 
   /**
@@ -408,22 +475,28 @@ public class SampleQueue implements TrackOutput {
    *     end of the queue, by seeking to the last sample (or keyframe).
    * @return Whether the seek was successful.
    */
-  public final synchronized boolean seekTo(long timeUs, boolean allowTimeBeyondBuffer) {
-    rewind();
-    int relativeReadIndex = getRelativeIndex(readPosition);
-    if (!hasNextSample()
-        || timeUs < timesUs[relativeReadIndex]
-        || (timeUs > largestQueuedTimestampUs && !allowTimeBeyondBuffer)) {
-      return false;
-    }
-    int offset =
-        findSampleBefore(relativeReadIndex, length - readPosition, timeUs, /* keyframe= */ true);
-    if (offset == -1) {
-      return false;
+  public final boolean seekTo(long timeUs, boolean allowTimeBeyondBuffer) {
+    beginReadOperation();
+    try {
+      rewind();
+      int readIndex = this.readIndex;
+      int writeIndex = this.writeIndex;
+      if (readIndex == writeIndex
+          || timeUs < getTimeUs(readIndex)
+          || (timeUs > largestQueuedTimestampUs && !allowTimeBeyondBuffer)) {
+        return false;
+      }
+      int offset =
+          findSampleBefore(readIndex, writeIndex - readIndex, timeUs, /* keyframe= */ true);
+      if (offset == -1 || !advanceReadIndex(readIndex, readIndex + offset)) {
+        return false;
+      }
+      startTimeUs = timeUs;
+      updateLargestReadTimestamp();
+      return true;
+    } finally {
+      endReadOperation();
     }
-    startTimeUs = timeUs;
-    readPosition += offset;
-    return true;
   }
 
   /**
@@ -435,20 +508,26 @@ public class SampleQueue implements TrackOutput {
    *     timeUs} is larger than the largest queued timestamp.
    * @return The number of samples that need to be skipped, which may be equal to 0.
    */
-  public final synchronized int getSkipCount(long timeUs, boolean allowEndOfQueue) {
-    int relativeReadIndex = getRelativeIndex(readPosition);
-    if (!hasNextSample() || timeUs < timesUs[relativeReadIndex]) {
-      return 0;
-    }
-    if (timeUs > largestQueuedTimestampUs && allowEndOfQueue) {
-      return length - readPosition;
-    }
-    int offset =
-        findSampleBefore(relativeReadIndex, length - readPosition, timeUs, /* keyframe= */ true);
-    if (offset == -1) {
-      return 0;
+  public final int getSkipCount(long timeUs, boolean allowEndOfQueue) {
+    beginReadOperation();
+    try {
+      int readIndex = this.readIndex;
+      int writeIndex = this.writeIndex;
+      if (readIndex == writeIndex || timeUs < getTimeUs(readIndex)) {
+        return 0;
+      }
+      if (timeUs > largestQueuedTimestampUs && allowEndOfQueue) {
+        return writeIndex - readIndex;
+      }
+      int offset =
+          findSampleBefore(readIndex, writeIndex - readIndex, timeUs, /* keyframe= */ true);
+      if (offset == -1) {
+        return 0;
+      }
+      return offset;
+    } finally {
+      endReadOperation();
     }
-    return offset;
   }
 
   /**
@@ -457,9 +536,18 @@ public class SampleQueue implements TrackOutput {
    * @param count The number of samples to advance the read position by. Must be at least 0 and at
    *     most {@link #getWriteIndex()} - {@link #getReadIndex()}.
    */
-  public final synchronized void skip(int count) {
-    checkArgument(count >= 0 && readPosition + count <= length);
-    readPosition += count;
+  public final void skip(int count) {
+    beginReadOperation();
+    try {
+      int readIndex = this.readIndex;
+      checkArgument(count >= 0 && readIndex + count <= writeIndex);
+      if (count > 0) {
+        checkArgument(advanceReadIndex(readIndex, readIndex + count));
+        updateLargestReadTimestamp();
+      }
+    } finally {
+      endReadOperation();
+    }
   }
 
   /**
@@ -512,6 +600,15 @@ public class SampleQueue implements TrackOutput {
     upstreamFormatChangeListener = listener;
   }
 
+  /**
+   * Returns the number of sample data bytes that were written to the queue from a {@link
+   * ParsableByteArray} held by the extractor, rather than read straight from the input into the
+   * queue's memory.
+   */
+  public final long getBytesCopied() {
+    return sampleDataQueue.getBytesCopied();
+  }
+
   // TrackOutput implementation. Called by the loading thread.
 
   @Override
@@ -617,106 +714,186 @@ public class SampleQueue implements TrackOutput {
 
   // Internal methods.
 
+  /**
+   * Marks the start of an operation of the playback thread that reads sample metadata. A splice
+   * doesn't overwrite the metadata of the samples it removes until the operation has ended.
+   */
+  private void beginReadOperation() {
+    readOperationCount++;
+  }
+
+  /** Marks the end of an operation started by {@link #beginReadOperation()}. */
+  private void endReadOperation() {
+    readOperationCount++;
+  }
+
+  /**
+   * Advances the read index, unless a concurrent splice has removed samples before the new read
+   * index. See {@link #attemptSplice(long)}.
+   *
+   * @param readIndex The current read index.
+   * @param newReadIndex The new read index.
+   * @return Whether the read index was advanced.
+   */
+  private boolean advanceReadIndex(int readIndex, int newReadIndex) {
+    this.readIndex = newReadIndex;
+    if (newReadIndex > writeIndex) {
+      this.readIndex = readIndex;
+      return false;
+    }
+    return true;
+  }
+
   /** Rewinds the read position to the first sample in the queue. */
-  private synchronized void rewind() {
-    readPosition = 0;
+  private void rewind() {
+    readIndex = firstIndex;
+    largestReadTimestampUs = largestDiscardedTimestampUs;
     sampleDataQueue.rewind();
   }
 
+  /** Updates {@link #largestReadTimestampUs} after the read or first index has changed. */
+  private void updateLargestReadTimestamp() {
+    largestReadTimestampUs =
+        max(largestDiscardedTimestampUs, getLargestTimestamp(firstIndex, readIndex));
+  }
+
   @SuppressWarnings("ReferenceEquality") // See comments in setUpstreamFormat
-  private synchronized int readSampleMetadata(
+  private int readSampleMetadata(
       FormatHolder formatHolder,
       DecoderInputBuffer buffer,
       boolean formatRequired,
       boolean loadingFinished,
       SampleExtrasHolder extrasHolder) {
-    buffer.waitingForKeys = false;
-    if (!hasNextSample()) {
-      if (loadingFinished || isLastSampleQueued) {
-        buffer.setFlags(C.BUFFER_FLAG_END_OF_STREAM);
-        return C.RESULT_BUFFER_READ;
-      } else if (upstreamFormat != null && (formatRequired || upstreamFormat != downstreamFormat)) {
-        onFormatResult(Assertions.checkNotNull(upstreamFormat), formatHolder);
-        return C.RESULT_FORMAT_READ;
-      } else {
-        return C.RESULT_NOTHING_READ;
+    beginReadOperation();
+    try {
+      buffer.waitingForKeys = false;
+      // isLastSampleQueued is written after writeIndex, so it must be read before it.
+      boolean isLastSampleQueued = this.isLastSampleQueued;
+      int readIndex = this.readIndex;
+      if (readIndex == writeIndex) {
+        @Nullable Format upstreamFormat = this.upstreamFormat;
+        if (loadingFinished || isLastSampleQueued) {
+          buffer.setFlags(C.BUFFER_FLAG_END_OF_STREAM);
+          return C.RESULT_BUFFER_READ;
+        } else if (upstreamFormat != null
+            && (formatRequired || upstreamFormat != downstreamFormat)) {
+          onFormatResult(upstreamFormat, formatHolder);
+          return C.RESULT_FORMAT_READ;
+        } else {
+          return C.RESULT_NOTHING_READ;
+        }
       }
-    }
 
-    int relativeReadIndex = getRelativeIndex(readPosition);
-    if (formatRequired || formats[relativeReadIndex] != downstreamFormat) {
-      onFormatResult(formats[relativeReadIndex], formatHolder);
-      return C.RESULT_FORMAT_READ;
-    }
+      MetadataChunk chunk = getChunk(readIndex);
+      int slot = readIndex & METADATA_CHUNK_MASK;
+      if (formatRequired || chunk.formats[slot] != downstreamFormat) {
+        onFormatResult(chunk.formats[slot], formatHolder);
+        return C.RESULT_FORMAT_READ;
+      }
 
-    if (!mayReadSample(relativeReadIndex)) {
-      buffer.waitingForKeys = true;
-      return C.RESULT_NOTHING_READ;
-    }
+      if (!mayReadSample(chunk.flags[slot])) {
+        buffer.waitingForKeys = true;
+        return C.RESULT_NOTHING_READ;
+      }
 
-    buffer.setFlags(flags[relativeReadIndex]);
-    buffer.timeUs = timesUs[relativeReadIndex];
-    if (buffer.timeUs < startTimeUs) {
-      buffer.addFlag(C.BUFFER_FLAG_DECODE_ONLY);
-    }
-    if (buffer.isFlagsOnly()) {
+      if (!buffer.isFlagsOnly() && !advanceReadIndex(readIndex, readIndex + 1)) {
+        // The sample was removed by a splice.
+        return C.RESULT_NOTHING_READ;
+      }
+      buffer.setFlags(chunk.flags[slot]);
+      buffer.timeUs = chunk.timesUs[slot];
+      if (buffer.timeUs < startTimeUs) {
+        buffer.addFlag(C.BUFFER_FLAG_DECODE_ONLY);
+      }
+      if (buffer.isFlagsOnly()) {
+        return C.RESULT_BUFFER_READ;
+      }
+      extrasHolder.size = chunk.sizes[slot];
+      extrasHolder.offset = chunk.offsets[slot];
+      extrasHolder.cryptoData = chunk.cryptoDatas[slot];
+      // As in getLargestTimestamp, only samples from the last keyframe are considered.
+      largestReadTimestampUs =
+          max(
+              buffer.isKeyFrame() ? largestDiscardedTimestampUs : largestReadTimestampUs,
+              buffer.timeUs);
       return C.RESULT_BUFFER_READ;
+    } finally {
+      endReadOperation();
     }
-    extrasHolder.size = sizes[relativeReadIndex];
-    extrasHolder.offset = offsets[relativeReadIndex];
-    extrasHolder.cryptoData = cryptoDatas[relativeReadIndex];
-
-    readPosition++;
-    return C.RESULT_BUFFER_READ;
   }
 
-  private synchronized boolean setUpstreamFormat(Format format) {
-    upstreamFormatRequired = false;
+  private boolean setUpstreamFormat(Format format) {
     if (Util.areEqual(format, upstreamFormat)) {
       // The format is unchanged. If format and upstreamFormat are different objects, we keep the
       // current upstreamFormat so we can detect format changes on the read side using cheap
       // referential quality.
+      upstreamFormatRequired = false;
       return false;
     }
+    Format upstreamFormat;
     if (Util.areEqual(format, upstreamCommittedFormat)) {
       // The format has changed back to the format of the last committed sample. If they are
       // different objects, we revert back to using upstreamCommittedFormat as the upstreamFormat
       // so we can detect format changes on the read side using cheap referential equality.
-      upstreamFormat = upstreamCommittedFormat;
+      upstreamFormat = Assertions.checkNotNull(upstreamCommittedFormat);
     } else {
       upstreamFormat = format;
     }
+    this.upstreamFormat = upstreamFormat;
+    upstreamFormatRequired = false;
     upstreamAllSamplesAreSyncSamples =
         MimeTypes.allSamplesAreSyncSamples(upstreamFormat.sampleMimeType, upstreamFormat.codecs);
     loggedUnexpectedNonSyncSample = false;
     return true;
   }
 
-  private synchronized long discardSampleMetadataTo(
+  private long discardSampleMetadataTo(
       long timeUs, boolean toKeyframe, boolean stopAtReadPosition) {
-    if (length == 0 || timeUs < timesUs[relativeFirstIndex]) {
-      return C.POSITION_UNSET;
-    }
-    int searchLength = stopAtReadPosition && readPosition != length ? readPosition + 1 : length;
-    int discardCount = findSampleBefore(relativeFirstIndex, searchLength, timeUs, toKeyframe);
-    if (discardCount == -1) {
-      return C.POSITION_UNSET;
+    beginReadOperation();
+    try {
+      int firstIndex = this.firstIndex;
+      int readIndex = this.readIndex;
+      int writeIndex = this.writeIndex;
+      if (firstIndex == writeIndex || timeUs < getTimeUs(firstIndex)) {
+        return C.POSITION_UNSET;
+      }
+      int searchEndIndex =
+          stopAtReadPosition && readIndex != writeIndex ? readIndex + 1 : writeIndex;
+      int discardCount =
+          findSampleBefore(firstIndex, searchEndIndex - firstIndex, timeUs, toKeyframe);
+      if (discardCount == -1) {
+        return C.POSITION_UNSET;
+      }
+      return discardSamples(discardCount);
+    } finally {
+      endReadOperation();
     }
-    return discardSamples(discardCount);
   }
 
-  public synchronized long discardSampleMetadataToRead() {
-    if (readPosition == 0) {
-      return C.POSITION_UNSET;
+  public long discardSampleMetadataToRead() {
+    beginReadOperation();
+    try {
+      int discardCount = readIndex - firstIndex;
+      if (discardCount == 0) {
+        return C.POSITION_UNSET;
+      }
+      return discardSamples(discardCount);
+    } finally {
+      endReadOperation();
     }
-    return discardSamples(readPosition);
   }
 
-  private synchronized long discardSampleMetadataToEnd() {
-    if (length == 0) {
-      return C.POSITION_UNSET;
+  private long discardSampleMetadataToEnd() {
+    beginReadOperation();
+    try {
+      int discardCount = writeIndex - firstIndex;
+      if (discardCount == 0) {
+        return C.POSITION_UNSET;
+      }
+      return discardSamples(discardCount);
+    } finally {
+      endReadOperation();
     }
-    return discardSamples(length);
   }
 
   private void releaseDrmSessionReferences() {
@@ -729,69 +906,42 @@ public class SampleQueue implements TrackOutput {
     }
   }
 
-  private synchronized void commitSample(
+  private void commitSample(
       long timeUs,
       @C.BufferFlags int sampleFlags,
       long offset,
       int size,
       @Nullable CryptoData cryptoData) {
-    if (length > 0) {
+    int writeIndex = this.writeIndex;
+    if (writeIndex > firstIndex) {
       // Ensure sample data doesn't overlap.
-      int previousSampleRelativeIndex = getRelativeIndex(length - 1);
-      checkArgument(
-          offsets[previousSampleRelativeIndex] + sizes[previousSampleRelativeIndex] <= offset);
+      checkArgument(getEndOffset(writeIndex - 1) <= offset);
     }
 
-    isLastSampleQueued = (sampleFlags & C.BUFFER_FLAG_LAST_SAMPLE) != 0;
-    largestQueuedTimestampUs = max(largestQueuedTimestampUs, timeUs);
+    boolean isKeyframe = (sampleFlags & C.BUFFER_FLAG_KEY_FRAME) != 0;
+    if (isKeyframe && timeUs <= largestQueuedTimestampUs) {
+      lastUnorderedKeyframeIndex = writeIndex;
+    }
 
-    int relativeEndIndex = getRelativeIndex(length);
-    timesUs[relativeEndIndex] = timeUs;
-    offsets[relativeEndIndex] = offset;
-    sizes[relativeEndIndex] = size;
-    flags[relativeEndIndex] = sampleFlags;
-    cryptoDatas[relativeEndIndex] = cryptoData;
-    formats[relativeEndIndex] = upstreamFormat;
-    sourceIds[relativeEndIndex] = upstreamSourceId;
+    MetadataChunk chunk = getOrAllocateChunk(writeIndex);
+    int slot = writeIndex & METADATA_CHUNK_MASK;
+    chunk.timesUs[slot] = timeUs;
+    chunk.offsets[slot] = offset;
+    chunk.sizes[slot] = size;
+    chunk.flags[slot] = sampleFlags;
+    chunk.cryptoDatas[slot] = cryptoData;
+    chunk.formats[slot] = upstreamFormat;
+    chunk.sourceIds[slot] = upstreamSourceId;
     upstreamCommittedFormat = upstreamFormat;
-
-    length++;
-    if (length == capacity) {
-      // Increase the capacity.
-      int newCapacity = capacity + SAMPLE_CAPACITY_INCREMENT;
-      int[] newSourceIds = new int[newCapacity];
-      long[] newOffsets = new long[newCapacity];
-      long[] newTimesUs = new long[newCapacity];
-      int[] newFlags = new int[newCapacity];
-      int[] newSizes = new int[newCapacity];
-      CryptoData[] newCryptoDatas = new CryptoData[newCapacity];
-      Format[] newFormats = new Format[newCapacity];
-      int beforeWrap = capacity - relativeFirstIndex;
-      System.arraycopy(offsets, relativeFirstIndex, newOffsets, 0, beforeWrap);
-      System.arraycopy(timesUs, relativeFirstIndex, newTimesUs, 0, beforeWrap);
-      System.arraycopy(flags, relativeFirstIndex, newFlags, 0, beforeWrap);
-      System.arraycopy(sizes, relativeFirstIndex, newSizes, 0, beforeWrap);
-      System.arraycopy(cryptoDatas, relativeFirstIndex, newCryptoDatas, 0, beforeWrap);
-      System.arraycopy(formats, relativeFirstIndex, newFormats, 0, beforeWrap);
-      System.arraycopy(sourceIds, relativeFirstIndex, newSourceIds, 0, beforeWrap);
-      int afterWrap = relativeFirstIndex;
-      System.arraycopy(offsets, 0, newOffsets, beforeWrap, afterWrap);
-      System.arraycopy(timesUs, 0, newTimesUs, beforeWrap, afterWrap);
-      System.arraycopy(flags, 0, newFlags, beforeWrap, afterWrap);
-      System.arraycopy(sizes, 0, newSizes, beforeWrap, afterWrap);
-      System.arraycopy(cryptoDatas, 0, newCryptoDatas, beforeWrap, afterWrap);
-      System.arraycopy(formats, 0, newFormats, beforeWrap, afterWrap);
-      System.arraycopy(sourceIds, 0, newSourceIds, beforeWrap, afterWrap);
-      offsets = newOffsets;
-      timesUs = newTimesUs;
-      flags = newFlags;
-      sizes = newSizes;
-      cryptoDatas = newCryptoDatas;
-      formats = newFormats;
-      sourceIds = newSourceIds;
-      relativeFirstIndex = 0;
-      capacity = newCapacity;
+    if (isKeyframe) {
+      addKeyframe(writeIndex, timeUs);
     }
+
+    // Publish the sample. isLastSampleQueued is written after writeIndex, so that the playback
+    // thread sees the last sample if it sees the flag.
+    this.writeIndex = writeIndex + 1;
+    largestQueuedTimestampUs = max(largestQueuedTimestampUs, timeUs);
+    isLastSampleQueued = (sampleFlags & C.BUFFER_FLAG_LAST_SAMPLE) != 0;
   }
 
   /**
@@ -801,35 +951,73 @@ public class SampleQueue implements TrackOutput {
    * @param timeUs The timestamp at which the splice occurs.
    * @return Whether the splice was successful.
    */
-  private synchronized boolean attemptSplice(long timeUs) {
-    if (length == 0) {
+  private boolean attemptSplice(long timeUs) {
+    int writeIndex = this.writeIndex;
+    if (firstIndex == writeIndex) {
       return timeUs > largestDiscardedTimestampUs;
     }
     if (getLargestReadTimestampUs() >= timeUs) {
       return false;
     }
-    int retainCount = countUnreadSamplesBefore(timeUs);
-    discardUpstreamSampleMetadata(absoluteFirstIndex + retainCount);
+    int discardFromIndex = findUpstreamDiscardIndex(timeUs, readIndex, writeIndex);
+    if (discardFromIndex == writeIndex) {
+      return true;
+    }
+    // Unpublish the samples, and then check that the playback thread hasn't started reading them.
+    // advanceReadIndex does the opposite, so if both threads miss each other's writes, one of them
+    // sees the other's write and backs off.
+    this.writeIndex = discardFromIndex;
+    if (readIndex > discardFromIndex) {
+      this.writeIndex = writeIndex;
+      return false;
+    }
+    onUpstreamSampleMetadataDiscarded(writeIndex - discardFromIndex);
+    // Wait for any read operation that started before the samples were unpublished to end, so that
+    // their metadata isn't overwritten while it's read.
+    int readOperationCount = this.readOperationCount;
+    if ((readOperationCount & 1) != 0) {
+      while (this.readOperationCount == readOperationCount) {
+        Thread.yield();
+      }
+    }
     return true;
   }
 
   private long discardUpstreamSampleMetadata(int discardFromIndex) {
-    int discardCount = getWriteIndex() - discardFromIndex;
-    checkArgument(0 <= discardCount && discardCount <= (length - readPosition));
-    length -= discardCount;
-    largestQueuedTimestampUs = max(largestDiscardedTimestampUs, getLargestTimestamp(length));
+    int discardCount = writeIndex - discardFromIndex;
+    checkArgument(0 <= discardCount && discardFromIndex >= readIndex);
+    writeIndex = discardFromIndex;
+    return onUpstreamSampleMetadataDiscarded(discardCount);
+  }
+
+  /**
+   * Updates the keyframe index and the write side state after samples were discarded from the write
+   * side of the queue.
+   *
+   * @param discardCount The number of discarded samples.
+   * @return The offset of the end of the data of the last remaining sample, or 0 if the queue is
+   *     empty.
+   */
+  private long onUpstreamSampleMetadataDiscarded(int discardCount) {
+    int writeIndex = this.writeIndex;
+    int firstKeyframeNumber = this.firstKeyframeNumber;
+    int keyframeEndNumber = this.keyframeEndNumber;
+    KeyframeIndex keyframeIndex = this.keyframeIndex;
+    while (keyframeEndNumber > firstKeyframeNumber
+        && keyframeIndex.getSampleIndex(keyframeEndNumber - 1) >= writeIndex) {
+      keyframeEndNumber--;
+    }
+    this.keyframeEndNumber = keyframeEndNumber;
+    int firstIndex = this.firstIndex;
+    largestQueuedTimestampUs =
+        max(largestDiscardedTimestampUs, getLargestTimestamp(firstIndex, writeIndex));
     isLastSampleQueued = discardCount == 0 && isLastSampleQueued;
-    if (length != 0) {
-      int relativeLastWriteIndex = getRelativeIndex(length - 1);
-      return offsets[relativeLastWriteIndex] + sizes[relativeLastWriteIndex];
+    if (writeIndex > firstIndex) {
+      return getEndOffset(writeIndex - 1);
     }
     return 0;
   }
 
-  private boolean hasNextSample() {
-    return readPosition != length;
-  }
-
   /**
    * Sets the downstream format, performs DRM resource management, and populates the {@code
    * outputFormatHolder}.
@@ -865,13 +1053,13 @@ public class SampleQueue implements TrackOutput {
   /**
    * Returns whether it's possible to read the next sample.
    *
-   * @param relativeReadIndex The relative read index of the next sample.
+   * @param sampleFlags The flags of the next sample.
    * @return Whether it's possible to read the next sample.
    */
-  private boolean mayReadSample(int relativeReadIndex) {
+  private boolean mayReadSample(@C.BufferFlags int sampleFlags) {
     return currentDrmSession == null
         || currentDrmSession.getState() == DrmSession.STATE_OPENED_WITH_KEYS
-        || ((flags[relativeReadIndex] & C.BUFFER_FLAG_ENCRYPTED) == 0
+        || ((sampleFlags & C.BUFFER_FLAG_ENCRYPTED) == 0
             && currentDrmSession.playClearSamplesWithoutKeys());
   }
 
@@ -879,119 +1067,317 @@ public class SampleQueue implements TrackOutput {
    * Finds the sample in the specified range that's before or at the specified time. If {@code
    * keyframe} is {@code true} then the sample is additionally required to be a keyframe.
    *
-   * @param relativeStartIndex The relative index from which to start searching.
+   * @param startIndex The absolute index from which to start searching.
    * @param length The length of the range being searched.
    * @param timeUs The specified time.
    * @param keyframe Whether only keyframes should be considered.
-   * @return The offset from {@code relativeFirstIndex} to the found sample, or -1 if no matching
-   *     sample was found.
+   * @return The offset from {@code startIndex} to the found sample, or -1 if no matching sample was
+   *     found.
    */
-  private int findSampleBefore(int relativeStartIndex, int length, long timeUs, boolean keyframe) {
-    // This could be optimized to use a binary search, however in practice callers to this method
-    // normally pass times near to the start of the search region. Hence it's unclear whether
-    // switching to a binary search would yield any real benefit.
+  private int findSampleBefore(int startIndex, int length, long timeUs, boolean keyframe) {
+    if (keyframe && lastUnorderedKeyframeIndex <= startIndex) {
+      return findKeyframeBefore(startIndex, length, timeUs);
+    }
     int sampleCountToTarget = -1;
-    int searchIndex = relativeStartIndex;
-    for (int i = 0; i < length && timesUs[searchIndex] <= timeUs; i++) {
-      if (!keyframe || (flags[searchIndex] & C.BUFFER_FLAG_KEY_FRAME) != 0) {
+    for (int i = 0; i < length; i++) {
+      int searchIndex = startIndex + i;
+      MetadataChunk chunk = getChunk(searchIndex);
+      int slot = searchIndex & METADATA_CHUNK_MASK;
+      if (chunk.timesUs[slot] > timeUs) {
+        break;
+      }
+      if (!keyframe || (chunk.flags[slot] & C.BUFFER_FLAG_KEY_FRAME) != 0) {
         // We've found a suitable sample.
         sampleCountToTarget = i;
-        if (timesUs[searchIndex] == timeUs) {
+        if (chunk.timesUs[slot] == timeUs) {
           // Stop the search if we found a sample at the specified time to avoid returning a later
           // sample with the same exactly matching timestamp.
           break;
         }
       }
-      searchIndex++;
-      if (searchIndex == capacity) {
-        searchIndex = 0;
-      }
     }
     return sampleCountToTarget;
   }
 
   /**
-   * Counts the number of samples that haven't been read that have a timestamp smaller than {@code
-   * timeUs}.
+   * Equivalent to {@link #findSampleBefore(int, int, long, boolean)} with {@code keyframe} set to
+   * true, but runs in O(log n) time using the keyframe index. Assumes that the timestamps prior to
+   * a keyframe are always less than the timestamp of the keyframe itself, and of subsequent frames.
    *
+   * @param startIndex The absolute index from which to start searching.
+   * @param length The length of the range being searched.
    * @param timeUs The specified time.
-   * @return The number of unread samples with a timestamp smaller than {@code timeUs}.
+   * @return The offset from {@code startIndex} to the found keyframe, or -1 if no matching keyframe
+   *     was found.
    */
-  private int countUnreadSamplesBefore(long timeUs) {
-    int count = length;
-    int relativeSampleIndex = getRelativeIndex(length - 1);
-    while (count > readPosition && timesUs[relativeSampleIndex] >= timeUs) {
-      count--;
-      relativeSampleIndex--;
-      if (relativeSampleIndex == -1) {
-        relativeSampleIndex = capacity - 1;
+  private int findKeyframeBefore(int startIndex, int length, long timeUs) {
+    // The end of the keyframe index is published before the samples, so it's read first.
+    int keyframeEndNumber = this.keyframeEndNumber;
+    KeyframeIndex keyframeIndex = this.keyframeIndex;
+    // Find the keyframes in [startIndex, startIndex + length).
+    int firstNumber =
+        findFirstKeyframeAtOrAfter(
+            keyframeIndex, firstKeyframeNumber, keyframeEndNumber, startIndex);
+    int endNumber =
+        findFirstKeyframeAtOrAfter(
+            keyframeIndex, firstNumber, keyframeEndNumber, startIndex + length);
+    // Find the last of these keyframes whose timestamp is before or at the specified time.
+    int low = firstNumber;
+    int high = endNumber - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (keyframeIndex.getTimeUs(mid) <= timeUs) {
+        low = mid + 1;
+      } else {
+        high = mid - 1;
       }
     }
-    return count;
+    return high < firstNumber ? -1 : keyframeIndex.getSampleIndex(high) - startIndex;
+  }
+
+  /**
+   * Returns the number of the first keyframe in [{@code fromNumber}, {@code toNumber}) whose
+   * absolute index is greater than or equal to {@code sampleIndex}, or {@code toNumber} if there is
+   * none.
+   */
+  private static int findFirstKeyframeAtOrAfter(
+      KeyframeIndex keyframeIndex, int fromNumber, int toNumber, int sampleIndex) {
+    int low = fromNumber;
+    int high = toNumber;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (keyframeIndex.getSampleIndex(mid) < sampleIndex) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private void addKeyframe(int sampleIndex, long timeUs) {
+    KeyframeIndex keyframeIndex = this.keyframeIndex;
+    int firstKeyframeNumber = this.firstKeyframeNumber;
+    int keyframeEndNumber = this.keyframeEndNumber;
+    if (keyframeEndNumber - firstKeyframeNumber == keyframeIndex.capacity()) {
+      KeyframeIndex newKeyframeIndex = new KeyframeIndex(keyframeIndex.capacity() * 2);
+      for (int i = firstKeyframeNumber; i < keyframeEndNumber; i++) {
+        newKeyframeIndex.set(i, keyframeIndex.getSampleIndex(i), keyframeIndex.getTimeUs(i));
+      }
+      keyframeIndex = newKeyframeIndex;
+      this.keyframeIndex = newKeyframeIndex;
+    }
+    keyframeIndex.set(keyframeEndNumber, sampleIndex, timeUs);
+    this.keyframeEndNumber = keyframeEndNumber + 1;
+  }
+
+  /**
+   * Returns the absolute index of the first of the unread samples at the end of the queue whose
+   * timestamps are greater than or equal to {@code timeUs}, or {@code writeIndex} if there is none.
+   */
+  private int findUpstreamDiscardIndex(long timeUs, int readIndex, int writeIndex) {
+    int discardFromIndex = writeIndex;
+    while (discardFromIndex > readIndex && getTimeUs(discardFromIndex - 1) >= timeUs) {
+      discardFromIndex--;
+    }
+    return discardFromIndex;
   }
 
   /**
    * Discards the specified number of samples.
    *
    * @param discardCount The number of samples to discard.
-   * @return The corresponding offset up to which data should be discarded.
+   * @return The corresponding offset up to which data should be discarded, or {@link
+   *     C#POSITION_UNSET} if a concurrent splice removed some of the samples.
    */
   private long discardSamples(int discardCount) {
+    int firstIndex = this.firstIndex;
+    int newFirstIndex = firstIndex + discardCount;
+    int readIndex = this.readIndex;
+    if (newFirstIndex > readIndex && !advanceReadIndex(readIndex, newFirstIndex)) {
+      return C.POSITION_UNSET;
+    }
     largestDiscardedTimestampUs =
-        max(largestDiscardedTimestampUs, getLargestTimestamp(discardCount));
-    length -= discardCount;
-    absoluteFirstIndex += discardCount;
-    relativeFirstIndex += discardCount;
-    if (relativeFirstIndex >= capacity) {
-      relativeFirstIndex -= capacity;
-    }
-    readPosition -= discardCount;
-    if (readPosition < 0) {
-      readPosition = 0;
-    }
-    if (length == 0) {
-      int relativeLastDiscardIndex = (relativeFirstIndex == 0 ? capacity : relativeFirstIndex) - 1;
-      return offsets[relativeLastDiscardIndex] + sizes[relativeLastDiscardIndex];
+        max(largestDiscardedTimestampUs, getLargestTimestamp(firstIndex, newFirstIndex));
+    int keyframeEndNumber = this.keyframeEndNumber;
+    KeyframeIndex keyframeIndex = this.keyframeIndex;
+    int firstKeyframeNumber = this.firstKeyframeNumber;
+    while (firstKeyframeNumber < keyframeEndNumber
+        && keyframeIndex.getSampleIndex(firstKeyframeNumber) < newFirstIndex) {
+      firstKeyframeNumber++;
+    }
+    this.firstKeyframeNumber = firstKeyframeNumber;
+    long discardToOffset;
+    if (newFirstIndex == writeIndex) {
+      discardToOffset = getEndOffset(newFirstIndex - 1);
     } else {
-      return offsets[relativeFirstIndex];
+      MetadataChunk firstChunk = getChunk(newFirstIndex);
+      discardToOffset = firstChunk.offsets[newFirstIndex & METADATA_CHUNK_MASK];
     }
+    // The loading thread releases the chunks before the new first index when it next allocates a
+    // chunk, so they're no longer read once it's published.
+    this.firstIndex = newFirstIndex;
+    updateLargestReadTimestamp();
+    return discardToOffset;
   }
 
   /**
-   * Finds the largest timestamp of any sample from the start of the queue up to the specified
-   * length, assuming that the timestamps prior to a keyframe are always less than the timestamp of
-   * the keyframe itself, and of subsequent frames.
+   * Finds the largest timestamp of any sample in the specified range, searching back from the end
+   * of the range to the last keyframe, assuming that the timestamps prior to a keyframe are always
+   * less than the timestamp of the keyframe itself, and of subsequent frames.
    *
-   * @param length The length of the range being searched.
-   * @return The largest timestamp, or {@link Long#MIN_VALUE} if {@code length == 0}.
+   * @param fromIndex The absolute index of the first sample of the range.
+   * @param toIndex The absolute index after the last sample of the range.
+   * @return The largest timestamp, or {@link Long#MIN_VALUE} if the range is empty.
    */
-  private long getLargestTimestamp(int length) {
-    if (length == 0) {
-      return Long.MIN_VALUE;
-    }
+  private long getLargestTimestamp(int fromIndex, int toIndex) {
     long largestTimestampUs = Long.MIN_VALUE;
-    int relativeSampleIndex = getRelativeIndex(length - 1);
-    for (int i = 0; i < length; i++) {
-      largestTimestampUs = max(largestTimestampUs, timesUs[relativeSampleIndex]);
-      if ((flags[relativeSampleIndex] & C.BUFFER_FLAG_KEY_FRAME) != 0) {
+    for (int sampleIndex = toIndex - 1; sampleIndex >= fromIndex; sampleIndex--) {
+      MetadataChunk chunk = getChunk(sampleIndex);
+      int slot = sampleIndex & METADATA_CHUNK_MASK;
+      largestTimestampUs = max(largestTimestampUs, chunk.timesUs[slot]);
+      if ((chunk.flags[slot] & C.BUFFER_FLAG_KEY_FRAME) != 0) {
         break;
       }
-      relativeSampleIndex--;
-      if (relativeSampleIndex == -1) {
-        relativeSampleIndex = capacity - 1;
-      }
     }
     return largestTimestampUs;
   }
 
+  /** Returns the timestamp of the sample with the specified absolute index. */
+  private long getTimeUs(int sampleIndex) {
+    return getChunk(sampleIndex).timesUs[sampleIndex & METADATA_CHUNK_MASK];
+  }
+
+  /** Returns the offset of the end of the data of the sample with the specified absolute index. */
+  private long getEndOffset(int sampleIndex) {
+    MetadataChunk chunk = getChunk(sampleIndex);
+    int slot = sampleIndex & METADATA_CHUNK_MASK;
+    return chunk.offsets[slot] + chunk.sizes[slot];
+  }
+
   /**
-   * Returns the relative index for a given offset from the start of the queue.
+   * Returns the chunk holding the metadata of the sample with the specified absolute index, which
+   * must have been committed and not released.
+   */
+  private MetadataChunk getChunk(int sampleIndex) {
+    MetadataChunk[] chunks = this.chunks;
+    return chunks[(sampleIndex >> METADATA_CHUNK_SHIFT) & (chunks.length - 1)];
+  }
+
+  /**
+   * Returns the chunk that will hold the metadata of the sample with the specified absolute index,
+   * allocating it if necessary.
    *
-   * @param offset The offset, which must be in the range [0, length].
+   * @param sampleIndex The absolute index of the sample, which must be the write index.
    */
-  private int getRelativeIndex(int offset) {
-    int relativeIndex = relativeFirstIndex + offset;
-    return relativeIndex < capacity ? relativeIndex : relativeIndex - capacity;
+  private MetadataChunk getOrAllocateChunk(int sampleIndex) {
+    int chunkNumber = sampleIndex >> METADATA_CHUNK_SHIFT;
+    MetadataChunk[] chunks = this.chunks;
+    if (chunkCount > 0 && chunkNumber < firstChunkNumber + chunkCount) {
+      return chunks[chunkNumber & (chunks.length - 1)];
+    }
+    // Release the chunks of the samples discarded by the playback thread, so they can be reused.
+    releaseChunksBefore(firstIndex >> METADATA_CHUNK_SHIFT);
+    if (chunkCount == 0) {
+      firstChunkNumber = chunkNumber;
+    }
+    if (chunkCount == chunks.length) {
+      // Grow the ring. Only the chunk references are copied.
+      MetadataChunk[] newChunks = new MetadataChunk[chunks.length * 2];
+      for (int i = firstChunkNumber; i < firstChunkNumber + chunkCount; i++) {
+        newChunks[i & (newChunks.length - 1)] = chunks[i & (chunks.length - 1)];
+      }
+      chunks = newChunks;
+      this.chunks = newChunks;
+    }
+    MetadataChunk chunk;
+    if (spareChunk != null) {
+      chunk = spareChunk;
+      spareChunk = null;
+    } else {
+      chunk = new MetadataChunk();
+    }
+    chunks[chunkNumber & (chunks.length - 1)] = chunk;
+    chunkCount++;
+    return chunk;
+  }
+
+  /**
+   * Releases the allocated chunks whose chunk number is smaller than the specified chunk number.
+   * The most recently released chunk is retained for reuse.
+   */
+  private void releaseChunksBefore(int chunkNumber) {
+    MetadataChunk[] chunks = this.chunks;
+    while (chunkCount > 0 && firstChunkNumber < chunkNumber) {
+      int position = firstChunkNumber & (chunks.length - 1);
+      MetadataChunk chunk = chunks[position];
+      chunks[position] = null;
+      chunk.clear();
+      spareChunk = chunk;
+      firstChunkNumber++;
+      chunkCount--;
+    }
+  }
+
+  /** Sample metadata for {@link #METADATA_CHUNK_SIZE} consecutive samples. */
+  private static final class MetadataChunk {
+
+    public final int[] sourceIds;
+    public final long[] offsets;
+    public final int[] sizes;
+    public final int[] flags;
+    public final long[] timesUs;
+    public final CryptoData[] cryptoDatas;
+    public final Format[] formats;
+
+    public MetadataChunk() {
+      sourceIds = new int[METADATA_CHUNK_SIZE];
+      offsets = new long[METADATA_CHUNK_SIZE];
+      sizes = new int[METADATA_CHUNK_SIZE];
+      flags = new int[METADATA_CHUNK_SIZE];
+      timesUs = new long[METADATA_CHUNK_SIZE];
+      cryptoDatas = new CryptoData[METADATA_CHUNK_SIZE];
+      formats = new Format[METADATA_CHUNK_SIZE];
+    }
+
+    /** Clears references held by the chunk, so that they can be garbage collected. */
+    public void clear() {
+      Arrays.fill(cryptoDatas, null);
+      Arrays.fill(formats, null);
+    }
+  }
+
+  /**
+   * The absolute indices and timestamps of keyframes, in a circular buffer indexed by keyframe
+   * number.
+   */
+  private static final class KeyframeIndex {
+
+    private final int[] sampleIndices;
+    private final long[] timesUs;
+
+    /** @param capacity The capacity of the index, which must be a power of two. */
+    public KeyframeIndex(int capacity) {
+      sampleIndices = new int[capacity];
+      timesUs = new long[capacity];
+    }
+
+    public int capacity() {
+      return sampleIndices.length;
+    }
+
+    public int getSampleIndex(int keyframeNumber) {
+      return sampleIndices[keyframeNumber & (sampleIndices.length - 1)];
+    }
+
+    public long getTimeUs(int keyframeNumber) {
+      return timesUs[keyframeNumber & (timesUs.length - 1)];
+    }
+
+    public void set(int keyframeNumber, int sampleIndex, long timeUs) {
+      sampleIndices[keyframeNumber & (sampleIndices.length - 1)] = sampleIndex;
+      timesUs[keyframeNumber & (timesUs.length - 1)] = timeUs;
+    }
   }
 
   /** A holder for sample metadata not held by {@link DecoderInputBuffer}. */
@@ -0,0 +1,363 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.migu.player.source;
+
+import android.net.Uri;
+import android.support.annotation.Nullable;
+
+import com.migu.player.C;
+import com.migu.player.upstream.DataSource;
+import com.migu.player.upstream.DataSpec;
+import com.migu.player.upstream.Loader.Loadable;
+import com.migu.player.upstream.StatsDataSource;
+import com.migu.player.upstream.TransferListener;
+import com.migu.player.util.Assertions;
+import com.migu.player.util.Clock;
+import com.migu.player.util.ConditionVariable;
+import com.migu.player.util.Util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+/**
+ * A {@link DataSource} that serves the end of a progressive stream from data prefetched in
+ * parallel with the start of the stream, for media whose extractor reads the end of the stream
+ * before it outputs samples from the start, such as MP4 files with a trailing moov atom.
+ *
+ * <p>Once {@link #prefetchTail(DataSpec)} has been called, opening the source at or after the
+ * position of the tail blocks until the tail has been loaded, and then serves it from memory. While
+ * the tail hasn't been served, closing the source keeps the upstream connection open, so that it
+ * can be reused when the extractor seeks back to the start of the stream shortly after.
+ *
+ * <p>Except for {@link #cancelTail()}, the source is used by a single loading thread. Its tail is
+ * loaded by a {@link TailLoadable} on another thread.
+ */
+/* package */ final class TailPrefetchDataSource implements DataSource {
+
+  /**
+   * The maximum number of bytes that are read and discarded from an open upstream connection
+   * instead of opening a new connection at a later position.
+   */
+  private static final int MAX_SKIP_LENGTH = 64 * 1024;
+
+  private final DataSource upstream;
+  private final DataSource tailUpstream;
+  private final Clock clock;
+
+  @Nullable private volatile TailLoadable tailLoadable;
+  private volatile long timeSavedMs;
+
+  @Nullable private byte[] tailData;
+  private int tailReadPosition;
+  private boolean tailServed;
+
+  @Nullable private DataSpec upstreamDataSpec;
+  private boolean upstreamReusable;
+  private long upstreamPosition;
+  private long upstreamBytesRemaining;
+  @Nullable private byte[] skipBuffer;
+
+  /**
+   * @param upstream The upstream {@link DataSource} from which the stream is read.
+   * @param tailUpstream The {@link DataSource} from which the tail of the stream is prefetched.
+   * @param clock The {@link Clock} used to measure the time saved by prefetching the tail.
+   */
+  public TailPrefetchDataSource(DataSource upstream, DataSource tailUpstream, Clock clock) {
+    this.upstream = upstream;
+    this.tailUpstream = tailUpstream;
+    this.clock = clock;
+  }
+
+  /**
+   * Returns the {@link DataSpec} of the tail of a stream that should be prefetched, or null if the
+   * tail shouldn't be prefetched because the length of the stream is unknown, the extractor doesn't
+   * read trailing data, or the tail is longer than {@code maxTailLength}.
+   *
+   * @param dataSpec The {@link DataSpec} of the stream, starting at its first byte.
+   * @param length The length of the stream, or {@link C#LENGTH_UNSET} if unknown.
+   * @param tailPosition The position of the trailing data read by the extractor, or {@link
+   *     C#POSITION_UNSET} if it doesn't read trailing data.
+   * @param maxTailLength The maximum length of the tail, in bytes.
+   * @return The {@link DataSpec} of the tail, or null.
+   */
+  @Nullable
+  public static DataSpec getTailDataSpec(
+      DataSpec dataSpec, long length, long tailPosition, long maxTailLength) {
+    if (length == C.LENGTH_UNSET
+        || tailPosition == C.POSITION_UNSET
+        || tailPosition >= length
+        || length - tailPosition > maxTailLength) {
+      return null;
+    }
+    return dataSpec.subrange(/* offset= */ tailPosition, /* length= */ length - tailPosition);
+  }
+
+  /**
+   * Creates the {@link TailLoadable} prefetching the tail of the stream, which must be started by
+   * the caller.
+   *
+   * @param dataSpec The {@link DataSpec} of the tail. Its length must be set.
+   * @return The {@link TailLoadable}, or null if the tail has already been prefetched.
+   */
+  @Nullable
+  public TailLoadable prefetchTail(DataSpec dataSpec) {
+    Assertions.checkArgument(dataSpec.length != C.LENGTH_UNSET);
+    if (tailLoadable != null) {
+      return null;
+    }
+    TailLoadable tailLoadable = new TailLoadable(dataSpec, tailUpstream, clock);
+    this.tailLoadable = tailLoadable;
+    return tailLoadable;
+  }
+
+  /**
+   * Returns the total time by which the tail was available earlier than it would have been if it
+   * had been requested when the source was opened at its position, in milliseconds.
+   */
+  public long getTimeSavedMs() {
+    return timeSavedMs;
+  }
+
+  /**
+   * Cancels prefetching the tail, so that reads of the tail no longer wait for it. May be called
+   * from any thread.
+   */
+  public void cancelTail() {
+    @Nullable TailLoadable tailLoadable = this.tailLoadable;
+    if (tailLoadable != null) {
+      tailLoadable.cancelLoad();
+    }
+  }
+
+  /** Closes the upstream connection, if it has been kept open. Must be called once done. */
+  public void release() {
+    closeUpstreamQuietly();
+  }
+
+  // DataSource implementation.
+
+  @Override
+  public void addTransferListener(TransferListener transferListener) {
+    Assertions.checkNotNull(transferListener);
+    upstream.addTransferListener(transferListener);
+    tailUpstream.addTransferListener(transferListener);
+  }
+
+  @Override
+  public long open(DataSpec dataSpec) throws IOException {
+    @Nullable TailLoadable tailLoadable = this.tailLoadable;
+    if (tailLoadable != null
+        && dataSpec.length == C.LENGTH_UNSET
+        && dataSpec.position >= tailLoadable.dataSpec.position) {
+      long openTimeMs = clock.elapsedRealtime();
+      tailLoadable.blockUntilLoaded();
+      @Nullable byte[] data = tailLoadable.data;
+      if (data != null && dataSpec.position - tailLoadable.dataSpec.position <= data.length) {
+        if (!tailServed) {
+          tailServed = true;
+          long loadEndTimeMs = min(tailLoadable.loadEndTimeMs, openTimeMs);
+          timeSavedMs += max(0, loadEndTimeMs - tailLoadable.loadStartTimeMs);
+        }
+        tailData = data;
+        tailReadPosition = (int) (dataSpec.position - tailLoadable.dataSpec.position);
+        return data.length - tailReadPosition;
+      }
+      // The tail couldn't be prefetched. Fall through to read it from upstream.
+    }
+    if (upstreamDataSpec != null) {
+      if (upstreamReusable && skipUpstreamTo(dataSpec)) {
+        upstreamDataSpec = dataSpec;
+        return upstreamBytesRemaining;
+      }
+      closeUpstreamQuietly();
+    }
+    upstreamDataSpec = dataSpec;
+    upstreamReusable = false;
+    upstreamPosition = dataSpec.position;
+    upstreamBytesRemaining = upstream.open(dataSpec);
+    upstreamReusable = true;
+    return upstreamBytesRemaining;
+  }
+
+  @Override
+  public int read(byte[] buffer, int offset, int readLength) throws IOException {
+    if (readLength == 0) {
+      return 0;
+    }
+    @Nullable byte[] tailData = this.tailData;
+    if (tailData != null) {
+      int bytesRemaining = tailData.length - tailReadPosition;
+      if (bytesRemaining == 0) {
+        return C.RESULT_END_OF_INPUT;
+      }
+      int bytesToRead = min(readLength, bytesRemaining);
+      System.arraycopy(tailData, tailReadPosition, buffer, offset, bytesToRead);
+      tailReadPosition += bytesToRead;
+      return bytesToRead;
+    }
+    int bytesRead;
+    try {
+      bytesRead = upstream.read(buffer, offset, readLength);
+    } catch (IOException e) {
+      upstreamReusable = false;
+      throw e;
+    }
+    if (bytesRead == C.RESULT_END_OF_INPUT) {
+      upstreamReusable = false;
+    } else {
+      upstreamPosition += bytesRead;
+      if (upstreamBytesRemaining != C.LENGTH_UNSET) {
+        upstreamBytesRemaining -= bytesRead;
+      }
+    }
+    return bytesRead;
+  }
+
+  @Override
+  @Nullable
+  public Uri getUri() {
+    if (tailData != null) {
+      return Assertions.checkNotNull(tailLoadable).dataSource.getLastOpenedUri();
+    }
+    return upstream.getUri();
+  }
+
+  @Override
+  public Map<String, List<String>> getResponseHeaders() {
+    return tailData != null ? Collections.emptyMap() : upstream.getResponseHeaders();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (tailData != null) {
+      tailData = null;
+      return;
+    }
+    if (upstreamReusable && tailLoadable != null && !tailServed) {
+      // Keep the connection open, as the extractor is about to seek back after reading the tail.
+      return;
+    }
+    if (upstreamDataSpec != null) {
+      upstreamDataSpec = null;
+      upstream.close();
+    }
+  }
+
+  // Internal methods.
+
+  private boolean skipUpstreamTo(DataSpec dataSpec) throws IOException {
+    DataSpec upstreamDataSpec = Assertions.checkNotNull(this.upstreamDataSpec);
+    long skipLength = dataSpec.position - upstreamPosition;
+    if (dataSpec.length != C.LENGTH_UNSET
+        || !dataSpec.uri.equals(upstreamDataSpec.uri)
+        || skipLength < 0
+        || skipLength > MAX_SKIP_LENGTH) {
+      return false;
+    }
+    if (skipBuffer == null) {
+      skipBuffer = new byte[4096];
+    }
+    while (upstreamPosition < dataSpec.position) {
+      int bytesToSkip = (int) min(skipBuffer.length, dataSpec.position - upstreamPosition);
+      if (read(skipBuffer, /* offset= */ 0, bytesToSkip) == C.RESULT_END_OF_INPUT) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void closeUpstreamQuietly() {
+    if (upstreamDataSpec != null) {
+      upstreamDataSpec = null;
+      Util.closeQuietly(upstream);
+    }
+  }
+
+  /** Loads the tail of a stream into memory. */
+  /* package */ static final class TailLoadable implements Loadable {
+
+    /** The id of the load task. */
+    public final long loadTaskId;
+    /** The {@link DataSpec} of the tail. */
+    public final DataSpec dataSpec;
+    /** The {@link StatsDataSource} from which the tail is loaded. */
+    public final StatsDataSource dataSource;
+
+    private final Clock clock;
+    private final ConditionVariable loadedCondition;
+
+    @Nullable private volatile byte[] data;
+    private volatile long loadStartTimeMs;
+    private volatile long loadEndTimeMs;
+    private volatile boolean loadCanceled;
+
+    private TailLoadable(DataSpec dataSpec, DataSource dataSource, Clock clock) {
+      this.dataSpec = dataSpec;
+      this.dataSource = new StatsDataSource(dataSource);
+      this.clock = clock;
+      loadTaskId = LoadEventInfo.getNewId();
+      loadedCondition = new ConditionVariable();
+    }
+
+    // Loadable implementation.
+
+    @Override
+    public void cancelLoad() {
+      loadCanceled = true;
+      loadedCondition.open();
+    }
+
+    @Override
+    public void load() throws IOException {
+      loadStartTimeMs = clock.elapsedRealtime();
+      try {
+        dataSource.open(dataSpec);
+        byte[] buffer = new byte[(int) dataSpec.length];
+        int bytesRead = 0;
+        while (bytesRead < buffer.length && !loadCanceled) {
+          int result = dataSource.read(buffer, bytesRead, buffer.length - bytesRead);
+          if (result == C.RESULT_END_OF_INPUT) {
+            break;
+          }
+          bytesRead += result;
+        }
+        if (bytesRead == buffer.length) {
+          loadEndTimeMs = clock.elapsedRealtime();
+          data = buffer;
+        }
+      } finally {
+        Util.closeQuietly(dataSource);
+        loadedCondition.open();
+      }
+    }
+
+    // Internal methods.
+
+    private void blockUntilLoaded() throws InterruptedIOException {
+      try {
+        loadedCondition.block();
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException();
+      }
+    }
+  }
+}
@@ -62,7 +62,7 @@ public abstract class SimpleSubtitleDecoder extends
       return new SimpleSubtitleOutputBuffer(new OutputBuffer.Owner<SubtitleOutputBuffer>() {
           @Override
           public void releaseOutputBuffer(SubtitleOutputBuffer outputBuffer) {
-              releaseOutputBuffer(outputBuffer);
+              SimpleSubtitleDecoder.this.releaseOutputBuffer(outputBuffer);
           }
       });
   }
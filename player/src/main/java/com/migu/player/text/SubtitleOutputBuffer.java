@@ -47,6 +47,19 @@ public abstract class SubtitleOutputBuffer extends OutputBuffer implements Subti
         : subsampleOffsetUs;
   }
 
+  /**
+   * Sets the content of the output buffer to the content of another output buffer, so that the
+   * other buffer can be released.
+   *
+   * @param outputBuffer The output buffer whose content should be copied. Must not be an end of
+   *     stream buffer.
+   */
+  public void setContent(SubtitleOutputBuffer outputBuffer) {
+    this.timeUs = outputBuffer.timeUs;
+    this.subtitle = Assertions.checkNotNull(outputBuffer.subtitle);
+    this.subsampleOffsetUs = outputBuffer.subsampleOffsetUs;
+  }
+
   @Override
   public int getEventTimeCount() {
     return Assertions.checkNotNull(subtitle).getEventTimeCount();
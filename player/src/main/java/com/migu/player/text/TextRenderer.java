@@ -19,6 +19,7 @@ import android.os.Handler;
 import android.os.Handler.Callback;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.support.annotation.IntDef;
 import android.support.annotation.Nullable;
 
@@ -35,6 +36,7 @@ import com.migu.player.util.Util;
 import java.lang.annotation.Documented;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayDeque;
 import java.util.Collections;
 import java.util.List;
 
@@ -46,6 +48,10 @@ import static com.migu.player.util.Assertions.checkNotNull;
  * {@link Subtitle}s are decoded from sample data using {@link SubtitleDecoder} instances obtained
  * from a {@link SubtitleDecoderFactory}. The actual rendering of the subtitle {@link Cue}s is
  * delegated to a {@link TextOutput}.
+ *
+ * <p>If a decode-ahead count is set, decoded {@link Subtitle}s are taken from the decoder as soon
+ * as they're available and held by the renderer until they're due. The decoder's buffers are then
+ * released, so that it can keep decoding ahead of the playback position on its own thread.
  */
 public final class TextRenderer extends BaseRenderer implements Callback {
 
@@ -78,10 +84,19 @@ public final class TextRenderer extends BaseRenderer implements Callback {
 
   private static final int MSG_UPDATE_OUTPUT = 0;
 
+  /** The default number of decoded subtitles to hold ahead of the playback position. */
+  public static final int DEFAULT_DECODE_AHEAD_COUNT = 0;
+
+  // The maximum number of queued input buffers tracked to measure decode latency.
+  private static final int MAX_PENDING_DECODE_START_TIMES = 32;
+
   @Nullable private final Handler outputHandler;
   private final TextOutput output;
   private final SubtitleDecoderFactory decoderFactory;
   private final FormatHolder formatHolder;
+  private final int decodeAheadCount;
+  private final ArrayDeque<SubtitleOutputBuffer> decodedSubtitles;
+  private final ArrayDeque<long[]> pendingDecodeStartTimes;
 
   private boolean inputStreamEnded;
   private boolean outputStreamEnded;
@@ -94,6 +109,10 @@ public final class TextRenderer extends BaseRenderer implements Callback {
   @Nullable private SubtitleOutputBuffer nextSubtitle;
   private int nextSubtitleEventIndex;
 
+  private volatile int decodedSampleCount;
+  private volatile long totalDecodeLatencyMs;
+  private volatile long maxDecodeLatencyMs;
+
   /**
    * @param output The output.
    * @param outputLooper The looper associated with the thread on which the output should be called.
@@ -117,12 +136,36 @@ public final class TextRenderer extends BaseRenderer implements Callback {
    */
   public TextRenderer(
       TextOutput output, @Nullable Looper outputLooper, SubtitleDecoderFactory decoderFactory) {
+    this(output, outputLooper, decoderFactory, DEFAULT_DECODE_AHEAD_COUNT);
+  }
+
+  /**
+   * @param output The output.
+   * @param outputLooper The looper associated with the thread on which the output should be called.
+   *     If the output makes use of standard Android UI components, then this should normally be the
+   *     looper associated with the application's main thread, which can be obtained using {@link
+   *     android.app.Activity#getMainLooper()}. Null may be passed if the output should be called
+   *     directly on the player's internal rendering thread.
+   * @param decoderFactory A factory from which to obtain {@link SubtitleDecoder} instances. If
+   *     {@code decodeAheadCount} is positive, the decoders must not reuse the {@link Subtitle}
+   *     instances they output once the output buffers are released.
+   * @param decodeAheadCount The maximum number of decoded subtitles to hold ahead of the playback
+   *     position, or 0 to take subtitles from the decoder only when they're due.
+   */
+  public TextRenderer(
+      TextOutput output,
+      @Nullable Looper outputLooper,
+      SubtitleDecoderFactory decoderFactory,
+      int decodeAheadCount) {
     super(C.TRACK_TYPE_TEXT);
     this.output = checkNotNull(output);
     this.outputHandler =
         outputLooper == null ? null : Util.createHandler(outputLooper, /* callback= */ this);
     this.decoderFactory = decoderFactory;
+    this.decodeAheadCount = decodeAheadCount;
     formatHolder = new FormatHolder();
+    decodedSubtitles = new ArrayDeque<>();
+    pendingDecodeStartTimes = new ArrayDeque<>();
   }
 
   @Override
@@ -172,10 +215,24 @@ public final class TextRenderer extends BaseRenderer implements Callback {
       return;
     }
 
-    if (nextSubtitle == null) {
+    if (decodeAheadCount > 0) {
+      checkNotNull(decoder).setPositionUs(positionUs);
+      try {
+        decodeAhead();
+      } catch (SubtitleDecoderException e) {
+        handleDecoderError(e);
+        return;
+      }
+      if (nextSubtitle == null) {
+        nextSubtitle = decodedSubtitles.pollFirst();
+      }
+    } else if (nextSubtitle == null) {
       checkNotNull(decoder).setPositionUs(positionUs);
       try {
         nextSubtitle = checkNotNull(decoder).dequeueOutputBuffer();
+        if (nextSubtitle != null) {
+          onSubtitleDecoded(nextSubtitle);
+        }
       } catch (SubtitleDecoderException e) {
         handleDecoderError(e);
         return;
@@ -265,6 +322,9 @@ public final class TextRenderer extends BaseRenderer implements Callback {
             waitingForKeyFrame &= !nextInputBuffer.isKeyFrame();
           }
           if (!waitingForKeyFrame) {
+            if (!nextInputBuffer.isEndOfStream()) {
+              onSampleQueued(nextInputBuffer.timeUs);
+            }
             checkNotNull(decoder).queueInputBuffer(nextInputBuffer);
             this.nextInputBuffer = null;
           }
@@ -296,9 +356,82 @@ public final class TextRenderer extends BaseRenderer implements Callback {
     return true;
   }
 
+  /** Returns the number of subtitle samples whose decode latency has been measured. */
+  public int getDecodedSampleCount() {
+    return decodedSampleCount;
+  }
+
+  /**
+   * Returns the total time between subtitle samples being queued to the decoder and the
+   * corresponding subtitles being output, in milliseconds.
+   */
+  public long getTotalDecodeLatencyMs() {
+    return totalDecodeLatencyMs;
+  }
+
+  /**
+   * Returns the longest time between a subtitle sample being queued to the decoder and the
+   * corresponding subtitle being output, in milliseconds.
+   */
+  public long getMaxDecodeLatencyMs() {
+    return maxDecodeLatencyMs;
+  }
+
+  /**
+   * Takes decoded subtitles from the decoder until {@link #decodeAheadCount} subtitles are held,
+   * copying their content so that the decoder's output buffers can be released immediately.
+   */
+  private void decodeAhead() throws SubtitleDecoderException {
+    while (decodedSubtitles.size() < decodeAheadCount
+        && (decodedSubtitles.isEmpty() || !decodedSubtitles.peekLast().isEndOfStream())) {
+      @Nullable SubtitleOutputBuffer outputBuffer = checkNotNull(decoder).dequeueOutputBuffer();
+      if (outputBuffer == null) {
+        return;
+      }
+      if (outputBuffer.isEndOfStream()) {
+        // Nothing follows the end of stream buffer, so it's held without being copied.
+        decodedSubtitles.addLast(outputBuffer);
+        return;
+      }
+      onSubtitleDecoded(outputBuffer);
+      DecodedSubtitle decodedSubtitle = new DecodedSubtitle();
+      decodedSubtitle.setContent(outputBuffer);
+      outputBuffer.release();
+      decodedSubtitles.addLast(decodedSubtitle);
+    }
+  }
+
+  private void onSampleQueued(long timeUs) {
+    if (pendingDecodeStartTimes.size() == MAX_PENDING_DECODE_START_TIMES) {
+      pendingDecodeStartTimes.removeFirst();
+    }
+    pendingDecodeStartTimes.addLast(new long[] {timeUs, SystemClock.elapsedRealtime()});
+  }
+
+  private void onSubtitleDecoded(SubtitleOutputBuffer outputBuffer) {
+    if (outputBuffer.isEndOfStream()) {
+      return;
+    }
+    // Samples are decoded in order, so any sample queued before the decoded one was skipped.
+    while (!pendingDecodeStartTimes.isEmpty()) {
+      long[] pendingDecodeStartTime = pendingDecodeStartTimes.removeFirst();
+      if (pendingDecodeStartTime[0] == outputBuffer.timeUs) {
+        long latencyMs = SystemClock.elapsedRealtime() - pendingDecodeStartTime[1];
+        decodedSampleCount++;
+        totalDecodeLatencyMs += latencyMs;
+        maxDecodeLatencyMs = Math.max(maxDecodeLatencyMs, latencyMs);
+        return;
+      }
+    }
+  }
+
   private void releaseBuffers() {
     nextInputBuffer = null;
     nextSubtitleEventIndex = C.INDEX_UNSET;
+    pendingDecodeStartTimes.clear();
+    while (!decodedSubtitles.isEmpty()) {
+      decodedSubtitles.removeFirst().release();
+    }
     if (subtitle != null) {
       subtitle.release();
       subtitle = null;
@@ -375,4 +508,13 @@ public final class TextRenderer extends BaseRenderer implements Callback {
     clearOutput();
     replaceDecoder();
   }
+
+  /** A subtitle held by the renderer after the decoder's output buffer has been released. */
+  private static final class DecodedSubtitle extends SubtitleOutputBuffer {
+
+    @Override
+    public void release() {
+      clear();
+    }
+  }
 }
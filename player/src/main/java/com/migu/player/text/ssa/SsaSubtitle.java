@@ -15,6 +15,7 @@
  */
 package com.migu.player.text.ssa;
 
+import com.google.common.primitives.Longs;
 import com.migu.player.C;
 import com.migu.player.text.Cue;
 import com.migu.player.text.Subtitle;
@@ -26,11 +27,14 @@ import java.util.List;
 
 /**
  * A representation of an SSA/ASS subtitle.
+ *
+ * <p>The cues active between each pair of consecutive event times are resolved at decode time, so
+ * {@link #getCues(long)} is a single binary search over the event times.
  */
 /* package */ final class SsaSubtitle implements Subtitle {
 
   private final List<List<Cue>> cues;
-  private final List<Long> cueTimesUs;
+  private final long[] cueTimesUs;
 
   /**
    * @param cues The cues in the subtitle.
@@ -38,25 +42,25 @@ import java.util.List;
    */
   public SsaSubtitle(List<List<Cue>> cues, List<Long> cueTimesUs) {
     this.cues = cues;
-    this.cueTimesUs = cueTimesUs;
+    this.cueTimesUs = Longs.toArray(cueTimesUs);
   }
 
   @Override
   public int getNextEventTimeIndex(long timeUs) {
     int index = Util.binarySearchCeil(cueTimesUs, timeUs, false, false);
-    return index < cueTimesUs.size() ? index : C.INDEX_UNSET;
+    return index < cueTimesUs.length ? index : C.INDEX_UNSET;
   }
 
   @Override
   public int getEventTimeCount() {
-    return cueTimesUs.size();
+    return cueTimesUs.length;
   }
 
   @Override
   public long getEventTime(int index) {
     Assertions.checkArgument(index >= 0);
-    Assertions.checkArgument(index < cueTimesUs.size());
-    return cueTimesUs.get(index);
+    Assertions.checkArgument(index < cueTimesUs.length);
+    return cueTimesUs[index];
   }
 
   @Override
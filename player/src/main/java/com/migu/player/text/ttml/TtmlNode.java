@@ -22,11 +22,15 @@ import android.text.SpannableStringBuilder;
 import android.util.Base64;
 import android.util.Pair;
 
+import com.google.common.primitives.Ints;
 import com.migu.player.C;
 import com.migu.player.text.Cue;
 import com.migu.player.util.Assertions;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -108,6 +112,9 @@ import java.util.TreeSet;
   public static final String VERTICAL_LR = "tblr";
   public static final String VERTICAL_RL = "tbrl";
 
+  // The minimum number of children for which buildIndex() indexes the children by time.
+  private static final int MIN_CHILD_COUNT_FOR_INDEX = 16;
+
   @Nullable public final String tag;
   @Nullable public final String text;
   public final boolean isTextNode;
@@ -124,6 +131,18 @@ import java.util.TreeSet;
 
   private  List<TtmlNode> children;
 
+  // Set by buildIndex().
+  private boolean subtreeContainsImage;
+  // The children whose start and end times are both set, sorted by start time, and the maximum end
+  // time in the subtree of an implicit balanced binary tree over them, in which the node for the
+  // range [from, to) is at the middle. The remaining children are held in untimedChildIndices.
+  @Nullable private int[] timedChildIndicesByStartTime;
+  @Nullable private long[] timedChildSubtreeMaxEndTimesUs;
+  @Nullable private int[] untimedChildIndices;
+
+  @Nullable private TtmlStyle resolvedStyle;
+  private boolean isStyleResolved;
+
   public static TtmlNode buildTextNode(String text) {
     return new TtmlNode(
         /* tag= */ null,
@@ -234,6 +253,64 @@ import java.util.TreeSet;
     return styleIds;
   }
 
+  /**
+   * Returns the style of this node merged with its referential styles. The style is resolved on
+   * the first call, and the same instance is returned by subsequent calls.
+   *
+   * @param globalStyles The global styles, which must be the same on every call.
+   * @return The resolved style, or null if the node has no style.
+   */
+  @Nullable
+  public TtmlStyle getResolvedStyle(Map<String, TtmlStyle> globalStyles) {
+    if (!isStyleResolved) {
+      resolvedStyle = TtmlRenderUtil.resolveStyle(style, styleIds, globalStyles);
+      isStyleResolved = true;
+    }
+    return resolvedStyle;
+  }
+
+  /**
+   * Builds the structures used to speed up {@link #getCues} for the subtree rooted at this node.
+   * Must be called once the subtree is complete, and before {@link #getCues} is first called.
+   */
+  public void buildIndex() {
+    subtreeContainsImage = TAG_DIV.equals(tag) && imageId != null;
+    int childCount = getChildCount();
+    for (int i = 0; i < childCount; i++) {
+      TtmlNode child = getChild(i);
+      child.buildIndex();
+      subtreeContainsImage |= child.subtreeContainsImage;
+    }
+    if (childCount < MIN_CHILD_COUNT_FOR_INDEX) {
+      return;
+    }
+    // Text and br nodes may be output even if they're not active, so they're never skipped.
+    List<Integer> timedChildIndices = new ArrayList<>();
+    List<Integer> untimedChildIndices = new ArrayList<>();
+    for (int i = 0; i < childCount; i++) {
+      TtmlNode child = getChild(i);
+      if (!child.isTextNode
+          && !TAG_BR.equals(child.tag)
+          && child.startTimeUs != C.TIME_UNSET
+          && child.endTimeUs != C.TIME_UNSET) {
+        timedChildIndices.add(i);
+      } else {
+        untimedChildIndices.add(i);
+      }
+    }
+    // Collections.sort is stable, so children with equal start times stay in document order.
+    Collections.sort(timedChildIndices, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer i1, Integer i2) {
+        return Long.compare(getChild(i1).startTimeUs, getChild(i2).startTimeUs);
+      }
+    });
+    this.timedChildIndicesByStartTime = Ints.toArray(timedChildIndices);
+    this.untimedChildIndices = Ints.toArray(untimedChildIndices);
+    timedChildSubtreeMaxEndTimesUs = new long[timedChildIndices.size()];
+    computeTimedChildSubtreeMaxEndTimes(/* from= */ 0, /* to= */ timedChildIndices.size());
+  }
+
   public List<Cue> getCues(
       long timeUs,
       Map<String, TtmlStyle> globalStyles,
@@ -241,7 +318,9 @@ import java.util.TreeSet;
       Map<String, String> imageMap) {
 
     List<Pair<String, String>> regionImageOutputs = new ArrayList<>();
-    traverseForImage(timeUs, regionId, regionImageOutputs);
+    if (subtreeContainsImage) {
+      traverseForImage(timeUs, regionId, regionImageOutputs);
+    }
 
     TreeMap<String, Cue.Builder> regionTextOutputs = new TreeMap<>();
     traverseForText(timeUs, false, regionId, regionTextOutputs);
@@ -299,7 +378,10 @@ import java.util.TreeSet;
       return;
     }
     for (int i = 0; i < getChildCount(); ++i) {
-      getChild(i).traverseForImage(timeUs, resolvedRegionId, regionImageList);
+      TtmlNode child = getChild(i);
+      if (child.subtreeContainsImage) {
+        child.traverseForImage(timeUs, resolvedRegionId, regionImageList);
+      }
     }
   }
 
@@ -329,9 +411,11 @@ import java.util.TreeSet;
       }
 
       boolean isPNode = TAG_P.equals(tag);
-      for (int i = 0; i < getChildCount(); i++) {
-        getChild(i).traverseForText(timeUs, descendsPNode || isPNode, resolvedRegionId,
-            regionOutputs);
+      @Nullable int[] childIndices = getCandidateChildIndices(timeUs);
+      int childCount = childIndices == null ? getChildCount() : childIndices.length;
+      for (int i = 0; i < childCount; i++) {
+        getChild(childIndices == null ? i : childIndices[i])
+            .traverseForText(timeUs, descendsPNode || isPNode, resolvedRegionId, regionOutputs);
       }
       if (isPNode) {
         TtmlRenderUtil.endParagraph(getRegionOutputText(resolvedRegionId, regionOutputs));
@@ -369,14 +453,83 @@ import java.util.TreeSet;
         applyStyleToOutput(globalStyles, regionOutput, start, end);
       }
     }
-    for (int i = 0; i < getChildCount(); ++i) {
-      getChild(i).traverseForStyle(timeUs, globalStyles, regionOutputs);
+    @Nullable int[] childIndices = getCandidateChildIndices(timeUs);
+    int childCount = childIndices == null ? getChildCount() : childIndices.length;
+    for (int i = 0; i < childCount; ++i) {
+      getChild(childIndices == null ? i : childIndices[i])
+          .traverseForStyle(timeUs, globalStyles, regionOutputs);
+    }
+  }
+
+  /**
+   * Returns the indices of the children that may be active at {@code timeUs}, in document order,
+   * or null if every child should be visited. Children that aren't returned are inactive
+   * containers, which don't contribute to the output.
+   */
+  @Nullable
+  private int[] getCandidateChildIndices(long timeUs) {
+    if (timedChildIndicesByStartTime == null || untimedChildIndices == null) {
+      return null;
+    }
+    int[] childIndices = new int[getChildCount()];
+    System.arraycopy(untimedChildIndices, 0, childIndices, 0, untimedChildIndices.length);
+    int count =
+        addActiveTimedChildIndices(
+            /* from= */ 0,
+            timedChildIndicesByStartTime.length,
+            timeUs,
+            childIndices,
+            untimedChildIndices.length);
+    Arrays.sort(childIndices, 0, count);
+    return Arrays.copyOf(childIndices, count);
+  }
+
+  /**
+   * Writes the indices of the timed children in the subtree for the range [from, to) of {@link
+   * #timedChildIndicesByStartTime} that are active at {@code timeUs} to {@code output}, starting
+   * at {@code count}, and returns the updated count.
+   */
+  private int addActiveTimedChildIndices(
+      int from, int to, long timeUs, int[] output, int count) {
+    int[] timedChildIndices = Assertions.checkNotNull(timedChildIndicesByStartTime);
+    long[] subtreeMaxEndTimesUs = Assertions.checkNotNull(timedChildSubtreeMaxEndTimesUs);
+    if (from >= to) {
+      return count;
+    }
+    int middle = (from + to) >>> 1;
+    if (subtreeMaxEndTimesUs[middle] <= timeUs) {
+      // Every child in the subtree ends before or at timeUs.
+      return count;
+    }
+    count = addActiveTimedChildIndices(from, middle, timeUs, output, count);
+    TtmlNode child = getChild(timedChildIndices[middle]);
+    if (child.startTimeUs > timeUs) {
+      // This child, and every child to its right, starts after timeUs.
+      return count;
+    }
+    if (timeUs < child.endTimeUs) {
+      output[count++] = timedChildIndices[middle];
+    }
+    return addActiveTimedChildIndices(middle + 1, to, timeUs, output, count);
+  }
+
+  private long computeTimedChildSubtreeMaxEndTimes(int from, int to) {
+    if (from >= to) {
+      return Long.MIN_VALUE;
     }
+    int[] timedChildIndices = Assertions.checkNotNull(timedChildIndicesByStartTime);
+    long[] subtreeMaxEndTimesUs = Assertions.checkNotNull(timedChildSubtreeMaxEndTimesUs);
+    int middle = (from + to) >>> 1;
+    long maxEndTimeUs = getChild(timedChildIndices[middle]).endTimeUs;
+    maxEndTimeUs = Math.max(maxEndTimeUs, computeTimedChildSubtreeMaxEndTimes(from, middle));
+    maxEndTimeUs = Math.max(maxEndTimeUs, computeTimedChildSubtreeMaxEndTimes(middle + 1, to));
+    subtreeMaxEndTimesUs[middle] = maxEndTimeUs;
+    return maxEndTimeUs;
   }
 
   private void applyStyleToOutput(
       Map<String, TtmlStyle> globalStyles, Cue.Builder regionOutput, int start, int end) {
-    @Nullable TtmlStyle resolvedStyle = TtmlRenderUtil.resolveStyle(style, styleIds, globalStyles);
+    @Nullable TtmlStyle resolvedStyle = getResolvedStyle(globalStyles);
     @Nullable SpannableStringBuilder text = (SpannableStringBuilder) regionOutput.getText();
     if (text == null) {
       text = new SpannableStringBuilder();
@@ -213,8 +213,7 @@ import java.util.Map;
     childNodesStack.push(rubyContainerNode);
     while (!childNodesStack.isEmpty()) {
       TtmlNode childNode = childNodesStack.pop();
-      @Nullable
-      TtmlStyle style = resolveStyle(childNode.style, childNode.getStyleIds(), globalStyles);
+      @Nullable TtmlStyle style = childNode.getResolvedStyle(globalStyles);
       if (style != null && style.getRubyType() == TtmlStyle.RUBY_TYPE_TEXT) {
         return childNode;
       }
@@ -230,7 +229,7 @@ import java.util.Map;
   private static TtmlNode findRubyContainerNode(
       @Nullable TtmlNode node, Map<String, TtmlStyle> globalStyles) {
     while (node != null) {
-      @Nullable TtmlStyle style = resolveStyle(node.style, node.getStyleIds(), globalStyles);
+      @Nullable TtmlStyle style = node.getResolvedStyle(globalStyles);
       if (style != null && style.getRubyType() == TtmlStyle.RUBY_TYPE_CONTAINER) {
         return node;
       }
@@ -15,6 +15,7 @@
  */
 package com.migu.player.text.ttml;
 
+import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
 
 import com.migu.player.C;
@@ -28,6 +29,10 @@ import java.util.Map;
 
 /**
  * A representation of a TTML subtitle.
+ *
+ * <p>The node tree is indexed on construction, so that inactive nodes are skipped when cues are
+ * built. Text cues are built once for each interval between consecutive event times, and then
+ * reused. Cues containing images aren't retained, to bound memory usage.
  */
 /* package */ final class TtmlSubtitle implements Subtitle {
 
@@ -36,7 +41,11 @@ import java.util.Map;
   private final Map<String, TtmlStyle> globalStyles;
   private final Map<String, TtmlRegion> regionMap;
   private final Map<String, String> imageMap;
+  // The text cues for each interval between consecutive event times, indexed by the number of
+  // event times before or at the times in the interval. Populated lazily.
+  private final List<Cue>[] cachedCues;
 
+  @SuppressWarnings("unchecked")
   public TtmlSubtitle(
       TtmlNode root,
       Map<String, TtmlStyle> globalStyles,
@@ -48,6 +57,8 @@ import java.util.Map;
     this.globalStyles =
         globalStyles != null ? Collections.unmodifiableMap(globalStyles) : Collections.emptyMap();
     this.eventTimesUs = root.getEventTimesUs();
+    root.buildIndex();
+    cachedCues = (List<Cue>[]) new List<?>[eventTimesUs.length + 1];
   }
 
   @Override
@@ -73,7 +84,26 @@ import java.util.Map;
 
   @Override
   public List<Cue> getCues(long timeUs) {
-    return root.getCues(timeUs, globalStyles, regionMap, imageMap);
+    // The cues only change at event times.
+    int intervalIndex = Util.binarySearchCeil(eventTimesUs, timeUs, false, false);
+    @Nullable List<Cue> cues = cachedCues[intervalIndex];
+    if (cues == null) {
+      cues =
+          Collections.unmodifiableList(root.getCues(timeUs, globalStyles, regionMap, imageMap));
+      if (!containsBitmap(cues)) {
+        cachedCues[intervalIndex] = cues;
+      }
+    }
+    return cues;
+  }
+
+  private static boolean containsBitmap(List<Cue> cues) {
+    for (int i = 0; i < cues.size(); i++) {
+      if (cues.get(i).bitmap != null) {
+        return true;
+      }
+    }
+    return false;
   }
 
   @VisibleForTesting
@@ -27,16 +27,31 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 
+import static java.lang.Math.max;
+
 /**
  * A representation of a WebVTT subtitle.
+ *
+ * <p>Cues are indexed by an interval tree built at construction, so that the cues active at a time
+ * are found in O((k + 1) log n) time for k active cues. The result is cached for each interval
+ * between consecutive event times, which is the granularity at which {@code TextRenderer} queries
+ * cues.
  */
 /* package */ final class WebvttSubtitle implements Subtitle {
 
   private final List<WebvttCueInfo> cueInfos;
   private final long[] cueTimesUs;
   private final long[] sortedCueTimesUs;
+  // The cue indices sorted by start time, and the maximum end time in the subtree of an implicit
+  // balanced binary tree over them, in which the node for the range [from, to) is at the middle.
+  private final int[] cueIndicesByStartTime;
+  private final long[] subtreeMaxEndTimesUs;
+  // The cues for each interval between consecutive event times, indexed by the number of event
+  // times before or at the times in the interval. Populated lazily.
+  private final List<Cue>[] cachedCues;
 
   /** Constructs a new WebvttSubtitle from a list of {@link WebvttCueInfo}s. */
+  @SuppressWarnings("unchecked")
   public WebvttSubtitle(List<WebvttCueInfo> cueInfos) {
     this.cueInfos = Collections.unmodifiableList(new ArrayList<>(cueInfos));
     cueTimesUs = new long[2 * cueInfos.size()];
@@ -48,6 +63,10 @@ import java.util.List;
     }
     sortedCueTimesUs = Arrays.copyOf(cueTimesUs, cueTimesUs.length);
     Arrays.sort(sortedCueTimesUs);
+    cueIndicesByStartTime = sortCueIndicesByStartTime(cueTimesUs);
+    subtreeMaxEndTimesUs = new long[cueIndicesByStartTime.length];
+    computeSubtreeMaxEndTimes(/* from= */ 0, /* to= */ cueIndicesByStartTime.length);
+    cachedCues = (List<Cue>[]) new List<?>[sortedCueTimesUs.length + 1];
   }
 
   @Override
@@ -70,16 +89,29 @@ import java.util.List;
 
   @Override
   public List<Cue> getCues(long timeUs) {
+    // The set of active cues only changes at event times.
+    int intervalIndex = Util.binarySearchCeil(sortedCueTimesUs, timeUs, false, false);
+    List<Cue> cues = cachedCues[intervalIndex];
+    if (cues == null) {
+      cues = Collections.unmodifiableList(computeCues(timeUs));
+      cachedCues[intervalIndex] = cues;
+    }
+    return cues;
+  }
+
+  private List<Cue> computeCues(long timeUs) {
+    List<Integer> activeCueIndices = new ArrayList<>();
+    addActiveCueIndices(/* from= */ 0, cueIndicesByStartTime.length, timeUs, activeCueIndices);
+    // Return cues in the order in which they appear in the file.
+    Collections.sort(activeCueIndices);
     List<Cue> currentCues = new ArrayList<>();
     List<WebvttCueInfo> cuesWithUnsetLine = new ArrayList<>();
-    for (int i = 0; i < cueInfos.size(); i++) {
-      if ((cueTimesUs[i * 2] <= timeUs) && (timeUs < cueTimesUs[i * 2 + 1])) {
-        WebvttCueInfo cueInfo = cueInfos.get(i);
-        if (cueInfo.cue.line == Cue.DIMEN_UNSET) {
-          cuesWithUnsetLine.add(cueInfo);
-        } else {
-          currentCues.add(cueInfo.cue);
-        }
+    for (int i = 0; i < activeCueIndices.size(); i++) {
+      WebvttCueInfo cueInfo = cueInfos.get(activeCueIndices.get(i));
+      if (cueInfo.cue.line == Cue.DIMEN_UNSET) {
+        cuesWithUnsetLine.add(cueInfo);
+      } else {
+        currentCues.add(cueInfo.cue);
       }
     }
     // Steps 4 - 10 of https://www.w3.org/TR/webvtt1/#cue-computed-line
@@ -97,4 +129,62 @@ import java.util.List;
     }
     return currentCues;
   }
+
+  /**
+   * Adds the indices of the cues in the subtree for the range [from, to) of {@link
+   * #cueIndicesByStartTime} that are active at {@code timeUs} to {@code activeCueIndices}.
+   */
+  private void addActiveCueIndices(int from, int to, long timeUs, List<Integer> activeCueIndices) {
+    if (from >= to) {
+      return;
+    }
+    int middle = (from + to) >>> 1;
+    if (subtreeMaxEndTimesUs[middle] <= timeUs) {
+      // Every cue in the subtree ends before or at timeUs.
+      return;
+    }
+    addActiveCueIndices(from, middle, timeUs, activeCueIndices);
+    int cueIndex = cueIndicesByStartTime[middle];
+    if (cueTimesUs[cueIndex * 2] > timeUs) {
+      // This cue, and every cue to its right, starts after timeUs.
+      return;
+    }
+    if (timeUs < cueTimesUs[cueIndex * 2 + 1]) {
+      activeCueIndices.add(cueIndex);
+    }
+    addActiveCueIndices(middle + 1, to, timeUs, activeCueIndices);
+  }
+
+  private long computeSubtreeMaxEndTimes(int from, int to) {
+    if (from >= to) {
+      return Long.MIN_VALUE;
+    }
+    int middle = (from + to) >>> 1;
+    long maxEndTimeUs = cueTimesUs[cueIndicesByStartTime[middle] * 2 + 1];
+    maxEndTimeUs = max(maxEndTimeUs, computeSubtreeMaxEndTimes(from, middle));
+    maxEndTimeUs = max(maxEndTimeUs, computeSubtreeMaxEndTimes(middle + 1, to));
+    subtreeMaxEndTimesUs[middle] = maxEndTimeUs;
+    return maxEndTimeUs;
+  }
+
+  private static int[] sortCueIndicesByStartTime(final long[] cueTimesUs) {
+    Integer[] cueIndices = new Integer[cueTimesUs.length / 2];
+    for (int i = 0; i < cueIndices.length; i++) {
+      cueIndices[i] = i;
+    }
+    // Arrays.sort is stable for objects, so cues with equal start times stay in file order.
+    Arrays.sort(
+        cueIndices,
+        new Comparator<Integer>() {
+          @Override
+          public int compare(Integer i1, Integer i2) {
+            return Long.compare(cueTimesUs[i1 * 2], cueTimesUs[i2 * 2]);
+          }
+        });
+    int[] sortedCueIndices = new int[cueIndices.length];
+    for (int i = 0; i < cueIndices.length; i++) {
+      sortedCueIndices[i] = cueIndices[i];
+    }
+    return sortedCueIndices;
+  }
 }
@@ -0,0 +1,308 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.migu.player.trackselection;
+
+import android.support.annotation.Nullable;
+
+import com.google.common.collect.Iterables;
+import com.migu.player.C;
+import com.migu.player.Format;
+import com.migu.player.source.TrackGroup;
+import com.migu.player.source.chunk.MediaChunk;
+import com.migu.player.source.chunk.MediaChunkIterator;
+import com.migu.player.upstream.BandwidthMeter;
+import com.migu.player.upstream.DataSpec;
+import com.migu.player.util.Assertions;
+import com.migu.player.util.Clock;
+import com.migu.player.util.Util;
+
+import java.util.List;
+
+/**
+ * A buffer based adaptive {@link TrackSelection}, whose selected track is chosen from the amount of
+ * buffered media using the BOLA algorithm.
+ *
+ * <p>Each track is assigned a utility that grows with the logarithm of its bitrate. The selection
+ * maximizes the utility gained per bit downloaded, where the weight given to utility decreases as
+ * the buffer fills. The selection therefore moves to the lowest quality as the buffer approaches
+ * {@code minBufferMs}, and to the highest quality as it approaches {@code bufferTargetMs}. When
+ * {@link MediaChunkIterator MediaChunkIterators} provide the size of upcoming chunks, the actual
+ * chunk sizes are used in place of the nominal track bitrates.
+ *
+ * <p>The bandwidth estimate is only used while the buffer is below {@code minBufferMs}, and to
+ * prevent switching up to a track that can't be sustained by the current bandwidth, which would
+ * otherwise cause the selection to oscillate.
+ *
+ * <p>The selection isn't used by default. To enable it, pass a {@link Factory} to {@link
+ * DefaultTrackSelector#DefaultTrackSelector(android.content.Context, TrackSelection.Factory)}.
+ *
+ * @see <a href="https://arxiv.org/abs/1601.06748">BOLA: Near-Optimal Bitrate Adaptation for Online
+ *     Videos</a>
+ */
+public class BufferBasedTrackSelection extends BaseTrackSelection {
+
+  /** Factory for {@link BufferBasedTrackSelection} instances. */
+  public static class Factory implements TrackSelection.Factory {
+
+    private final int minBufferMs;
+    private final int bufferTargetMs;
+    private final float bandwidthFraction;
+    private final Clock clock;
+
+    /** Creates a buffer based track selection factory with default parameters. */
+    public Factory() {
+      this(
+          DEFAULT_MIN_BUFFER_MS,
+          DEFAULT_BUFFER_TARGET_MS,
+          DEFAULT_BANDWIDTH_FRACTION,
+          Clock.DEFAULT);
+    }
+
+    /**
+     * Creates a buffer based track selection factory.
+     *
+     * @param minBufferMs The duration of buffered media below which the lowest quality track is
+     *     preferred, and the selection is based on the bandwidth estimate.
+     * @param bufferTargetMs The duration of buffered media at which the highest quality track is
+     *     preferred. Should not exceed the maximum buffer duration of the {@code LoadControl}.
+     * @param bandwidthFraction The fraction of the available bandwidth that the selection should
+     *     consider available for use.
+     * @param clock A {@link Clock}.
+     */
+    public Factory(int minBufferMs, int bufferTargetMs, float bandwidthFraction, Clock clock) {
+      Assertions.checkArgument(minBufferMs > 0 && bufferTargetMs > minBufferMs);
+      this.minBufferMs = minBufferMs;
+      this.bufferTargetMs = bufferTargetMs;
+      this.bandwidthFraction = bandwidthFraction;
+      this.clock = clock;
+    }
+
+    @Override
+    public TrackSelection[] createTrackSelections(
+        Definition[] definitions, final BandwidthMeter bandwidthMeter) {
+      return TrackSelectionUtil.createTrackSelectionsForDefinitions(
+          definitions,
+          new TrackSelectionUtil.AdaptiveTrackSelectionFactory() {
+            @Override
+            public TrackSelection createAdaptiveTrackSelection(Definition definition) {
+              return new BufferBasedTrackSelection(
+                  definition.group,
+                  definition.tracks,
+                  bandwidthMeter,
+                  minBufferMs,
+                  bufferTargetMs,
+                  bandwidthFraction,
+                  clock);
+            }
+          });
+    }
+  }
+
+  public static final int DEFAULT_MIN_BUFFER_MS = 10_000;
+  public static final int DEFAULT_BUFFER_TARGET_MS = 40_000;
+  public static final float DEFAULT_BANDWIDTH_FRACTION = 0.7f;
+
+  private final BandwidthMeter bandwidthMeter;
+  private final long minBufferUs;
+  private final float bandwidthFraction;
+  private final Clock clock;
+  private final double[] utilities;
+  private final double utilityOffset;
+  private final double bufferUtilityWeightUs;
+  private final long[] effectiveBitrates;
+
+  private float playbackSpeed;
+  private int selectedIndex;
+  private int reason;
+
+  /**
+   * @param group The {@link TrackGroup}.
+   * @param tracks The indices of the selected tracks within the {@link TrackGroup}. Must not be
+   *     empty. May be in any order.
+   * @param bandwidthMeter Provides an estimate of the currently available bandwidth.
+   * @param minBufferMs The duration of buffered media below which the lowest quality track is
+   *     preferred, and the selection is based on the bandwidth estimate.
+   * @param bufferTargetMs The duration of buffered media at which the highest quality track is
+   *     preferred.
+   * @param bandwidthFraction The fraction of the available bandwidth that the selection should
+   *     consider available for use.
+   * @param clock A {@link Clock}.
+   */
+  public BufferBasedTrackSelection(
+      TrackGroup group,
+      int[] tracks,
+      BandwidthMeter bandwidthMeter,
+      int minBufferMs,
+      int bufferTargetMs,
+      float bandwidthFraction,
+      Clock clock) {
+    super(group, tracks);
+    this.bandwidthMeter = bandwidthMeter;
+    this.minBufferUs = minBufferMs * 1000L;
+    this.bandwidthFraction = bandwidthFraction;
+    this.clock = clock;
+    playbackSpeed = 1f;
+    reason = C.SELECTION_REASON_UNKNOWN;
+    effectiveBitrates = new long[length];
+    // Utilities are the log of the bitrate relative to the lowest bitrate, offset so that the
+    // lowest utility is 1. Tracks are in decreasing bitrate order.
+    utilities = new double[length];
+    double lowestLogBitrate = Math.log(getNominalBitrate(length - 1));
+    for (int i = 0; i < length; i++) {
+      utilities[i] = Math.log(getNominalBitrate(i)) - lowestLogBitrate + 1;
+    }
+    double bufferTargetRatio = (double) bufferTargetMs / minBufferMs;
+    utilityOffset = (utilities[0] - 1) / (bufferTargetRatio - 1);
+    bufferUtilityWeightUs = utilityOffset > 0 ? minBufferUs / utilityOffset : 0;
+  }
+
+  @Override
+  public void onPlaybackSpeed(float playbackSpeed) {
+    this.playbackSpeed = playbackSpeed;
+  }
+
+  @Override
+  public void updateSelectedTrack(
+      long playbackPositionUs,
+      long bufferedDurationUs,
+      long availableDurationUs,
+      List<? extends MediaChunk> queue,
+      MediaChunkIterator[] mediaChunkIterators) {
+    long nowMs = clock.elapsedRealtime();
+    updateEffectiveBitrates(mediaChunkIterators);
+    int throughputIndex = determineThroughputSelectedIndex(nowMs);
+
+    // Make initial selection
+    if (reason == C.SELECTION_REASON_UNKNOWN) {
+      reason = C.SELECTION_REASON_INITIAL;
+      selectedIndex = throughputIndex;
+      return;
+    }
+
+    int previousSelectedIndex = selectedIndex;
+    int previousReason = reason;
+    int formatIndexOfPreviousChunk =
+        queue.isEmpty() ? C.INDEX_UNSET : indexOf(Iterables.getLast(queue).trackFormat);
+    if (formatIndexOfPreviousChunk != C.INDEX_UNSET) {
+      previousSelectedIndex = formatIndexOfPreviousChunk;
+      previousReason = Iterables.getLast(queue).trackSelectionReason;
+    }
+
+    long playoutBufferedDurationUs =
+        Util.getPlayoutDurationForMediaDuration(bufferedDurationUs, playbackSpeed);
+    int newSelectedIndex;
+    if (playoutBufferedDurationUs < minBufferUs) {
+      // Too little is buffered for the buffer level to be meaningful, for example after a seek.
+      newSelectedIndex = throughputIndex;
+    } else {
+      newSelectedIndex = determineBufferBasedSelectedIndex(nowMs, playoutBufferedDurationUs);
+      if (newSelectedIndex < previousSelectedIndex) {
+        // Only switch up as far as the current bandwidth allows, so that the buffer doesn't drain
+        // and force a switch back down.
+        newSelectedIndex =
+            Math.max(newSelectedIndex, Math.min(throughputIndex, previousSelectedIndex));
+      }
+    }
+    if (isBlacklisted(newSelectedIndex, nowMs)) {
+      newSelectedIndex = throughputIndex;
+    }
+    // If we adapted, update the trigger.
+    reason =
+        newSelectedIndex == previousSelectedIndex ? previousReason : C.SELECTION_REASON_ADAPTIVE;
+    selectedIndex = newSelectedIndex;
+  }
+
+  @Override
+  public int getSelectedIndex() {
+    return selectedIndex;
+  }
+
+  @Override
+  public int getSelectionReason() {
+    return reason;
+  }
+
+  @Override
+  @Nullable
+  public Object getSelectionData() {
+    return null;
+  }
+
+  /**
+   * Computes the index that maximizes the utility gained per bit downloaded, given the buffered
+   * duration.
+   */
+  private int determineBufferBasedSelectedIndex(long nowMs, long playoutBufferedDurationUs) {
+    int bestIndex = C.INDEX_UNSET;
+    double bestScore = 0;
+    for (int i = 0; i < length; i++) {
+      if (isBlacklisted(i, nowMs)) {
+        continue;
+      }
+      double score =
+          (bufferUtilityWeightUs * (utilities[i] + utilityOffset) - playoutBufferedDurationUs)
+              / effectiveBitrates[i];
+      if (bestIndex == C.INDEX_UNSET || score > bestScore) {
+        bestIndex = i;
+        bestScore = score;
+      }
+    }
+    return bestIndex == C.INDEX_UNSET ? length - 1 : bestIndex;
+  }
+
+  /** Computes the index of highest quality that the current bandwidth estimate can sustain. */
+  private int determineThroughputSelectedIndex(long nowMs) {
+    long effectiveBitrate = (long) (bandwidthMeter.getBitrateEstimate() * bandwidthFraction);
+    int lowestBitrateAllowedIndex = 0;
+    for (int i = 0; i < length; i++) {
+      if (!isBlacklisted(i, nowMs)) {
+        if (Math.round(effectiveBitrates[i] * playbackSpeed) <= effectiveBitrate) {
+          return i;
+        } else {
+          lowestBitrateAllowedIndex = i;
+        }
+      }
+    }
+    return lowestBitrateAllowedIndex;
+  }
+
+  /**
+   * Updates {@link #effectiveBitrates} from the sizes of the next chunks, falling back to the
+   * nominal bitrates for tracks whose next chunk size is unknown.
+   */
+  private void updateEffectiveBitrates(MediaChunkIterator[] mediaChunkIterators) {
+    for (int i = 0; i < length; i++) {
+      long bitrate = C.LENGTH_UNSET;
+      if (i < mediaChunkIterators.length) {
+        MediaChunkIterator iterator = mediaChunkIterators[i];
+        iterator.reset();
+        if (iterator.next()) {
+          DataSpec dataSpec = iterator.getDataSpec();
+          long durationUs = iterator.getChunkEndTimeUs() - iterator.getChunkStartTimeUs();
+          if (dataSpec.length != C.LENGTH_UNSET && durationUs > 0) {
+            bitrate = dataSpec.length * 8 * C.MICROS_PER_SECOND / durationUs;
+          }
+        }
+        iterator.reset();
+      }
+      effectiveBitrates[i] = bitrate > 0 ? bitrate : getNominalBitrate(i);
+    }
+  }
+
+  private int getNominalBitrate(int index) {
+    return Math.max(getFormat(index).bitrate, 1);
+  }
+}
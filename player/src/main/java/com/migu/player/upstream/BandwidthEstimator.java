@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.migu.player.upstream;
+
+/**
+ * Estimates bandwidth from samples of transferred data. Used by {@link DefaultBandwidthMeter},
+ * which is responsible for measuring the samples.
+ *
+ * <p>Implementations need not be thread safe. They are only accessed while holding the lock of the
+ * owning {@link DefaultBandwidthMeter}.
+ */
+public interface BandwidthEstimator {
+
+  /** Returned by {@link #getBandwidthEstimate()} when no estimate is available. */
+  long ESTIMATE_NOT_AVAILABLE = Long.MIN_VALUE;
+
+  /**
+   * Adds a sample of transferred data.
+   *
+   * @param bytesTransferred The number of bytes transferred in the sample.
+   * @param elapsedMs The time taken to transfer the bytes, in milliseconds. Always greater than
+   *     zero.
+   */
+  void addSample(long bytesTransferred, long elapsedMs);
+
+  /**
+   * Returns the bandwidth estimate in bits per second, or {@link #ESTIMATE_NOT_AVAILABLE} if no
+   * estimate is available.
+   */
+  long getBandwidthEstimate();
+
+  /** Discards all samples. */
+  void reset();
+}
@@ -31,7 +31,6 @@ import com.migu.player.C;
 import com.migu.player.upstream.BandwidthMeter.EventListener.EventDispatcher;
 import com.migu.player.util.Assertions;
 import com.migu.player.util.Clock;
-import com.migu.player.util.SlidingPercentile;
 import com.migu.player.util.Util;
 
 import java.lang.ref.WeakReference;
@@ -44,10 +43,10 @@ import java.util.Map;
 /**
  * Estimates bandwidth by listening to data transfers.
  *
- * <p>The bandwidth estimate is calculated using a {@link SlidingPercentile} and is updated each
- * time a transfer ends. The initial estimate is based on the current operator's network country
- * code or the locale of the user, as well as the network connection type. This can be configured in
- * the {@link Builder}.
+ * <p>The bandwidth estimate is calculated by a {@link BandwidthEstimator} and is updated each time
+ * a transfer ends. By default a {@link SlidingPercentileBandwidthEstimator} is used. The initial
+ * estimate is based on the current operator's network country code or the locale of the user, as
+ * well as the network connection type. This can be configured in the {@link Builder}.
  */
 public final class DefaultBandwidthMeter implements BandwidthMeter, TransferListener {
 
@@ -107,6 +106,7 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
 
     private Map<Integer, Long> initialBitrateEstimates;
     private int slidingWindowMaxWeight;
+    @Nullable private BandwidthEstimator bandwidthEstimator;
     private Clock clock;
     private boolean resetOnNetworkTypeChange;
 
@@ -135,6 +135,20 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
       return this;
     }
 
+    /**
+     * Sets the {@link BandwidthEstimator} used to compute the estimate from data transfers. If set,
+     * the sliding window maximum weight is ignored. The default is a {@link
+     * SlidingPercentileBandwidthEstimator} that returns the median.
+     *
+     * @param bandwidthEstimator The {@link BandwidthEstimator}. Must not be shared with other
+     *     bandwidth meters.
+     * @return This builder.
+     */
+    public Builder setBandwidthEstimator(BandwidthEstimator bandwidthEstimator) {
+      this.bandwidthEstimator = bandwidthEstimator;
+      return this;
+    }
+
     /**
      * Sets the initial bitrate estimate in bits per second that should be assumed when a bandwidth
      * estimate is unavailable.
@@ -209,7 +223,10 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
       return new DefaultBandwidthMeter(
           context,
           initialBitrateEstimates,
-          slidingWindowMaxWeight,
+          bandwidthEstimator != null
+              ? bandwidthEstimator
+              : new SlidingPercentileBandwidthEstimator(
+                  slidingWindowMaxWeight, SlidingPercentileBandwidthEstimator.DEFAULT_PERCENTILE),
           clock,
           resetOnNetworkTypeChange);
     }
@@ -267,7 +284,7 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
   @Nullable private final Context context;
   private final ImmutableMap<Integer, Long> initialBitrateEstimates;
   private final EventDispatcher eventDispatcher;
-  private final SlidingPercentile slidingPercentile;
+  private final BandwidthEstimator bandwidthEstimator;
   private final Clock clock;
 
   private int streamCount;
@@ -289,7 +306,7 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
     this(
         /* context= */ null,
         /* initialBitrateEstimates= */ ImmutableMap.of(),
-        DEFAULT_SLIDING_WINDOW_MAX_WEIGHT,
+        new SlidingPercentileBandwidthEstimator(),
         Clock.DEFAULT,
         /* resetOnNetworkTypeChange= */ false);
   }
@@ -297,13 +314,13 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
   private DefaultBandwidthMeter(
       @Nullable Context context,
       Map<Integer, Long> initialBitrateEstimates,
-      int maxWeight,
+      BandwidthEstimator bandwidthEstimator,
       Clock clock,
       boolean resetOnNetworkTypeChange) {
     this.context = context == null ? null : context.getApplicationContext();
     this.initialBitrateEstimates = ImmutableMap.copyOf(initialBitrateEstimates);
     this.eventDispatcher = new EventDispatcher();
-    this.slidingPercentile = new SlidingPercentile(maxWeight);
+    this.bandwidthEstimator = bandwidthEstimator;
     this.clock = clock;
     // Set the initial network type and bitrate estimate
     networkType = context == null ? C.NETWORK_TYPE_UNKNOWN : Util.getNetworkType(context);
@@ -389,11 +406,13 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
     totalElapsedTimeMs += sampleElapsedTimeMs;
     totalBytesTransferred += sampleBytesTransferred;
     if (sampleElapsedTimeMs > 0) {
-      float bitsPerSecond = (sampleBytesTransferred * 8000f) / sampleElapsedTimeMs;
-      slidingPercentile.addSample((int) Math.sqrt(sampleBytesTransferred), bitsPerSecond);
+      bandwidthEstimator.addSample(sampleBytesTransferred, sampleElapsedTimeMs);
       if (totalElapsedTimeMs >= ELAPSED_MILLIS_FOR_ESTIMATE
           || totalBytesTransferred >= BYTES_TRANSFERRED_FOR_ESTIMATE) {
-        bitrateEstimate = (long) slidingPercentile.getPercentile(0.5f);
+        long estimate = bandwidthEstimator.getBandwidthEstimate();
+        if (estimate != BandwidthEstimator.ESTIMATE_NOT_AVAILABLE) {
+          bitrateEstimate = estimate;
+        }
       }
       maybeNotifyBandwidthSample(sampleElapsedTimeMs, sampleBytesTransferred, bitrateEstimate);
       sampleStartTimeMs = nowMs;
@@ -430,7 +449,7 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
     sampleBytesTransferred = 0;
     totalBytesTransferred = 0;
     totalElapsedTimeMs = 0;
-    slidingPercentile.reset();
+    bandwidthEstimator.reset();
   }
 
   private void maybeNotifyBandwidthSample(
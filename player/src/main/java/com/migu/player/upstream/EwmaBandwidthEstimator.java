@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.migu.player.upstream;
+
+/**
+ * A {@link BandwidthEstimator} that returns an exponentially weighted moving average of the
+ * bitrates of the samples. The contribution of a sample decays by half for every {@code
+ * halfLifeMs} of transfer time that follows it.
+ *
+ * <p>The average is corrected for the bias towards zero that it has while only a little transfer
+ * time has been observed, so early estimates are not artificially low.
+ */
+public final class EwmaBandwidthEstimator implements BandwidthEstimator {
+
+  /** The default half life, in milliseconds. */
+  public static final long DEFAULT_HALF_LIFE_MS = 3000;
+
+  private final double decayPerMs;
+
+  private double estimate;
+  private double totalWeight;
+
+  /** Creates an instance with {@link #DEFAULT_HALF_LIFE_MS}. */
+  public EwmaBandwidthEstimator() {
+    this(DEFAULT_HALF_LIFE_MS);
+  }
+
+  /** @param halfLifeMs The half life of a sample's contribution, in milliseconds. */
+  public EwmaBandwidthEstimator(long halfLifeMs) {
+    decayPerMs = Math.log(0.5) / halfLifeMs;
+  }
+
+  @Override
+  public void addSample(long bytesTransferred, long elapsedMs) {
+    double bitsPerSecond = (bytesTransferred * 8000d) / elapsedMs;
+    double alpha = Math.exp(decayPerMs * elapsedMs);
+    estimate = alpha * estimate + (1 - alpha) * bitsPerSecond;
+    totalWeight = alpha * totalWeight + (1 - alpha);
+  }
+
+  @Override
+  public long getBandwidthEstimate() {
+    return totalWeight == 0 ? ESTIMATE_NOT_AVAILABLE : (long) (estimate / totalWeight);
+  }
+
+  @Override
+  public void reset() {
+    estimate = 0;
+    totalWeight = 0;
+  }
+}
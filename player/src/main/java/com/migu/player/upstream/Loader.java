@@ -33,6 +33,7 @@ import java.io.IOException;
 import java.lang.annotation.Documented;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -206,7 +207,9 @@ public final class Loader implements LoaderErrorThrower {
     }
   }
 
-  private final ExecutorService downloadExecutorService;
+  private final Executor downloadExecutor;
+  @Nullable private final ExecutorService downloadExecutorService;
+  @Nullable private final LoaderExecutor.TaskQueue loaderTaskQueue;
 
   @Nullable private LoadTask<? extends Loadable> currentTask;
   @Nullable private IOException fatalError;
@@ -215,7 +218,24 @@ public final class Loader implements LoaderErrorThrower {
    * @param threadName A name for the loader's thread.
    */
   public Loader(String threadName) {
-    this.downloadExecutorService = Util.newSingleThreadExecutor(threadName);
+    this(threadName, /* loaderExecutor= */ null);
+  }
+
+  /**
+   * @param threadName A name for the loader's thread. Ignored if {@code loaderExecutor} is set.
+   * @param loaderExecutor A {@link LoaderExecutor} on whose threads loads are run, or null if the
+   *     loader should use a thread of its own.
+   */
+  public Loader(String threadName, @Nullable LoaderExecutor loaderExecutor) {
+    if (loaderExecutor != null) {
+      loaderTaskQueue = loaderExecutor.createTaskQueue(C.PRIORITY_PLAYBACK);
+      downloadExecutorService = null;
+      downloadExecutor = loaderTaskQueue;
+    } else {
+      loaderTaskQueue = null;
+      downloadExecutorService = Util.newSingleThreadExecutor(threadName);
+      downloadExecutor = downloadExecutorService;
+    }
   }
 
   /**
@@ -267,6 +287,19 @@ public final class Loader implements LoaderErrorThrower {
     return startTimeMs;
   }
 
+  /**
+   * Sets the priority of loads that haven't started yet, relative to the loads of other loaders
+   * sharing the same {@link LoaderExecutor}. Has no effect if the loader uses a thread of its own.
+   *
+   * @param priority The priority. Loads with a priority lower than {@link C#PRIORITY_PLAYBACK}
+   *     are treated as background loads, as described in {@link LoaderExecutor}.
+   */
+  public void setPriority(int priority) {
+    if (loaderTaskQueue != null) {
+      loaderTaskQueue.setPriority(priority);
+    }
+  }
+
   /** Returns whether the loader is currently loading. */
   public boolean isLoading() {
     return currentTask != null;
@@ -297,9 +330,11 @@ public final class Loader implements LoaderErrorThrower {
       currentTask.cancel(true);
     }
     if (callback != null) {
-      downloadExecutorService.execute(new ReleaseTask(callback));
+      downloadExecutor.execute(new ReleaseTask(callback));
+    }
+    if (downloadExecutorService != null) {
+      downloadExecutorService.shutdown();
     }
-    downloadExecutorService.shutdown();
   }
 
   // LoaderErrorThrower implementation.
@@ -419,11 +454,6 @@ public final class Loader implements LoaderErrorThrower {
             TraceUtil.endSection();
           }
         }
-        synchronized (this) {
-          executorThread = null;
-          // Clear the interrupted flag if set, to avoid it leaking into a subsequent task.
-          Thread.interrupted();
-        }
         if (!released) {
           sendEmptyMessage(MSG_FINISH);
         }
@@ -454,6 +484,12 @@ public final class Loader implements LoaderErrorThrower {
           obtainMessage(MSG_FATAL_ERROR, e).sendToTarget();
         }
         throw e;
+      } finally {
+        synchronized (this) {
+          executorThread = null;
+          // Clear the interrupted flag if set, to avoid it leaking into a subsequent task.
+          Thread.interrupted();
+        }
       }
     }
 
@@ -512,7 +548,7 @@ public final class Loader implements LoaderErrorThrower {
 
     private void execute() {
       currentError = null;
-      downloadExecutorService.execute(Assertions.checkNotNull(currentTask));
+      downloadExecutor.execute(Assertions.checkNotNull(currentTask));
     }
 
     private void finish() {
@@ -0,0 +1,346 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.migu.player.upstream;
+
+import android.os.SystemClock;
+import android.support.annotation.GuardedBy;
+import android.support.annotation.Nullable;
+
+import com.migu.player.C;
+import com.migu.player.util.Assertions;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+
+import static java.lang.Math.max;
+
+/**
+ * Runs the loads of multiple {@link Loader Loaders} on a shared pool of threads, instead of each
+ * loader owning a thread for its whole lifetime.
+ *
+ * <p>The tasks of each loader run one at a time and in order, as they would on a dedicated thread.
+ * Loaders with a priority of {@link C#PRIORITY_PLAYBACK} or higher start their tasks immediately,
+ * on an idle thread of the pool if there is one and on a new thread otherwise. This is required
+ * because a load may block its thread until the player asks for more data, and so waiting for
+ * another load of the same player to complete could stall playback indefinitely. Tasks of loaders
+ * with a lower priority, such as loaders used for preloading, run on at most {@code
+ * maxBackgroundThreadCount} threads at a time. Waiting tasks are started in order of decreasing
+ * priority, and then in the order in which they were submitted.
+ *
+ * <p>Threads that are idle for longer than {@code keepAliveMs} are terminated.
+ */
+public final class LoaderExecutor {
+
+  /** The default maximum number of threads running tasks of loaders with a background priority. */
+  public static final int DEFAULT_MAX_BACKGROUND_THREAD_COUNT = 2;
+  /** The default time for which idle threads are kept alive, in milliseconds. */
+  public static final long DEFAULT_KEEP_ALIVE_MS = 10_000;
+
+  private final String threadNamePrefix;
+  private final int maxBackgroundThreadCount;
+  private final long keepAliveMs;
+
+  @GuardedBy("this")
+  private final PriorityQueue<TaskQueue> readyTaskQueues;
+
+  @GuardedBy("this")
+  private final ArrayDeque<Worker> idleWorkers;
+
+  @GuardedBy("this")
+  private long nextSequenceNumber;
+
+  @GuardedBy("this")
+  private int threadCount;
+
+  @GuardedBy("this")
+  private int peakThreadCount;
+
+  @GuardedBy("this")
+  private int backgroundThreadCount;
+
+  @GuardedBy("this")
+  private int queuedTaskCount;
+
+  @GuardedBy("this")
+  private int peakQueuedTaskCount;
+
+  @GuardedBy("this")
+  private long completedTaskCount;
+
+  @GuardedBy("this")
+  private long createdThreadCount;
+
+  /**
+   * Creates an instance that uses at most {@link #DEFAULT_MAX_BACKGROUND_THREAD_COUNT} threads for
+   * background loads, and keeps idle threads alive for {@link #DEFAULT_KEEP_ALIVE_MS}.
+   *
+   * @param threadNamePrefix A prefix for the names of the threads of the pool.
+   */
+  public LoaderExecutor(String threadNamePrefix) {
+    this(threadNamePrefix, DEFAULT_MAX_BACKGROUND_THREAD_COUNT, DEFAULT_KEEP_ALIVE_MS);
+  }
+
+  /**
+   * @param threadNamePrefix A prefix for the names of the threads of the pool.
+   * @param maxBackgroundThreadCount The maximum number of threads running tasks of loaders with a
+   *     priority lower than {@link C#PRIORITY_PLAYBACK}. Must be positive.
+   * @param keepAliveMs The time for which idle threads are kept alive, in milliseconds.
+   */
+  public LoaderExecutor(String threadNamePrefix, int maxBackgroundThreadCount, long keepAliveMs) {
+    Assertions.checkArgument(maxBackgroundThreadCount > 0);
+    this.threadNamePrefix = threadNamePrefix;
+    this.maxBackgroundThreadCount = maxBackgroundThreadCount;
+    this.keepAliveMs = keepAliveMs;
+    readyTaskQueues = new PriorityQueue<>(/* initialCapacity= */ 11, new TaskQueueComparator());
+    idleWorkers = new ArrayDeque<>();
+  }
+
+  /** Returns the number of threads in the pool, including idle threads. */
+  public synchronized int getThreadCount() {
+    return threadCount;
+  }
+
+  /** Returns the largest number of threads that have been in the pool at the same time. */
+  public synchronized int getPeakThreadCount() {
+    return peakThreadCount;
+  }
+
+  /** Returns the number of threads that have been created by the pool. */
+  public synchronized long getCreatedThreadCount() {
+    return createdThreadCount;
+  }
+
+  /** Returns the number of threads that are running a task. */
+  public synchronized int getActiveThreadCount() {
+    return threadCount - idleWorkers.size();
+  }
+
+  /** Returns the number of submitted tasks that haven't started running. */
+  public synchronized int getQueuedTaskCount() {
+    return queuedTaskCount;
+  }
+
+  /** Returns the largest number of tasks that have been waiting to run at the same time. */
+  public synchronized int getPeakQueuedTaskCount() {
+    return peakQueuedTaskCount;
+  }
+
+  /** Returns the number of tasks that have completed. */
+  public synchronized long getCompletedTaskCount() {
+    return completedTaskCount;
+  }
+
+  /**
+   * Creates a queue of tasks that run one at a time and in order on the pool.
+   *
+   * @param priority The priority of the tasks. Higher values run first.
+   * @return The task queue.
+   */
+  /* package */ TaskQueue createTaskQueue(int priority) {
+    return new TaskQueue(priority);
+  }
+
+  @GuardedBy("this")
+  private void enqueue(TaskQueue taskQueue) {
+    taskQueue.sequenceNumber = nextSequenceNumber++;
+    readyTaskQueues.add(taskQueue);
+    dispatch();
+  }
+
+  /** Hands ready task queues to threads, as far as the limit on background threads allows. */
+  @GuardedBy("this")
+  private void dispatch() {
+    while (!readyTaskQueues.isEmpty()) {
+      TaskQueue taskQueue = readyTaskQueues.peek();
+      boolean isBackground = taskQueue.priority < C.PRIORITY_PLAYBACK;
+      if (isBackground && backgroundThreadCount >= maxBackgroundThreadCount) {
+        // Queues with a playback priority are ordered first, so all remaining queues must wait.
+        return;
+      }
+      readyTaskQueues.poll();
+      taskQueue.isRunningInBackground = isBackground;
+      if (isBackground) {
+        backgroundThreadCount++;
+      }
+      if (idleWorkers.isEmpty()) {
+        Worker worker = new Worker(taskQueue);
+        threadCount++;
+        createdThreadCount++;
+        peakThreadCount = max(peakThreadCount, threadCount);
+        new Thread(worker, threadNamePrefix + ":" + createdThreadCount).start();
+      } else {
+        idleWorkers.pop().assignedTaskQueue = taskQueue;
+        notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Runs the next task of a queue.
+   *
+   * @return The next task queue to run, or null if the calling thread should terminate.
+   */
+  @Nullable
+  private TaskQueue runNextTask(Worker worker, TaskQueue taskQueue) {
+    Runnable task;
+    synchronized (this) {
+      task = taskQueue.tasks.remove();
+      queuedTaskCount--;
+    }
+    // Clear any interrupt left over from a previous task, as ThreadPoolExecutor does.
+    Thread.interrupted();
+    boolean completedNormally = false;
+    try {
+      task.run();
+      completedNormally = true;
+    } finally {
+      synchronized (this) {
+        completedTaskCount++;
+        if (taskQueue.isRunningInBackground) {
+          backgroundThreadCount--;
+        }
+        if (taskQueue.tasks.isEmpty()) {
+          taskQueue.isScheduled = false;
+        } else {
+          taskQueue.sequenceNumber = nextSequenceNumber++;
+          readyTaskQueues.add(taskQueue);
+        }
+        if (completedNormally) {
+          // Make this thread the first to be reused, so that it may continue with the same queue.
+          idleWorkers.push(worker);
+        } else {
+          // The thread terminates with the exception.
+          threadCount--;
+        }
+        dispatch();
+      }
+    }
+    return awaitTaskQueue(worker);
+  }
+
+  @Nullable
+  private synchronized TaskQueue awaitTaskQueue(Worker worker) {
+    long deadlineMs = SystemClock.elapsedRealtime() + keepAliveMs;
+    while (worker.assignedTaskQueue == null) {
+      long remainingMs = deadlineMs - SystemClock.elapsedRealtime();
+      if (remainingMs <= 0) {
+        idleWorkers.remove(worker);
+        threadCount--;
+        return null;
+      }
+      try {
+        wait(remainingMs);
+      } catch (InterruptedException e) {
+        // Interrupts are meant for the load that was running on this thread.
+      }
+    }
+    @Nullable TaskQueue taskQueue = worker.assignedTaskQueue;
+    worker.assignedTaskQueue = null;
+    return taskQueue;
+  }
+
+  /**
+   * A queue of tasks that run one at a time and in order on the pool, on behalf of a single {@link
+   * Loader}.
+   */
+  /* package */ final class TaskQueue implements Executor {
+
+    @GuardedBy("LoaderExecutor.this")
+    private final ArrayDeque<Runnable> tasks;
+
+    @GuardedBy("LoaderExecutor.this")
+    private int priority;
+
+    @GuardedBy("LoaderExecutor.this")
+    private long sequenceNumber;
+
+    @GuardedBy("LoaderExecutor.this")
+    private boolean isScheduled;
+
+    @GuardedBy("LoaderExecutor.this")
+    private boolean isRunningInBackground;
+
+    private TaskQueue(int priority) {
+      this.priority = priority;
+      tasks = new ArrayDeque<>();
+    }
+
+    /** Sets the priority of tasks that haven't started running yet. */
+    public void setPriority(int priority) {
+      synchronized (LoaderExecutor.this) {
+        if (this.priority == priority) {
+          return;
+        }
+        boolean wasReady = readyTaskQueues.remove(this);
+        this.priority = priority;
+        if (wasReady) {
+          readyTaskQueues.add(this);
+          dispatch();
+        }
+      }
+    }
+
+    @Override
+    public void execute(Runnable task) {
+      synchronized (LoaderExecutor.this) {
+        tasks.add(task);
+        queuedTaskCount++;
+        peakQueuedTaskCount = max(peakQueuedTaskCount, queuedTaskCount);
+        if (!isScheduled) {
+          isScheduled = true;
+          enqueue(this);
+        }
+      }
+    }
+  }
+
+  private final class Worker implements Runnable {
+
+    @GuardedBy("LoaderExecutor.this")
+    @Nullable
+    private TaskQueue assignedTaskQueue;
+
+    public Worker(TaskQueue taskQueue) {
+      assignedTaskQueue = taskQueue;
+    }
+
+    @Override
+    public void run() {
+      @Nullable TaskQueue taskQueue;
+      synchronized (LoaderExecutor.this) {
+        taskQueue = assignedTaskQueue;
+        assignedTaskQueue = null;
+      }
+      while (taskQueue != null) {
+        taskQueue = runNextTask(this, taskQueue);
+      }
+    }
+  }
+
+  private static final class TaskQueueComparator implements Comparator<TaskQueue> {
+
+    @Override
+    @SuppressWarnings("GuardedBy") // Only used by readyTaskQueues, which is guarded by the pool.
+    public int compare(TaskQueue first, TaskQueue second) {
+      if (first.priority != second.priority) {
+        return first.priority > second.priority ? -1 : 1;
+      }
+      return Long.compare(first.sequenceNumber, second.sequenceNumber);
+    }
+  }
+}
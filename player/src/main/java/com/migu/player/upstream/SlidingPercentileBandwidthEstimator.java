@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.migu.player.upstream;
+
+import com.migu.player.util.SlidingPercentile;
+
+/**
+ * A {@link BandwidthEstimator} that returns a percentile of the bitrates of recent samples. Each
+ * sample is weighted by the square root of the number of bytes transferred, and samples are
+ * discarded once the total weight exceeds a maximum.
+ */
+public final class SlidingPercentileBandwidthEstimator implements BandwidthEstimator {
+
+  /** The default percentile returned as the estimate. */
+  public static final float DEFAULT_PERCENTILE = 0.5f;
+
+  private final SlidingPercentile slidingPercentile;
+  private final float percentile;
+
+  /**
+   * Creates an instance with {@link DefaultBandwidthMeter#DEFAULT_SLIDING_WINDOW_MAX_WEIGHT} and
+   * {@link #DEFAULT_PERCENTILE}.
+   */
+  public SlidingPercentileBandwidthEstimator() {
+    this(DefaultBandwidthMeter.DEFAULT_SLIDING_WINDOW_MAX_WEIGHT, DEFAULT_PERCENTILE);
+  }
+
+  /**
+   * @param maxWeight The maximum total weight of the samples.
+   * @param percentile The percentile returned as the estimate, expressed as a fraction in the
+   *     range (0,1].
+   */
+  public SlidingPercentileBandwidthEstimator(int maxWeight, float percentile) {
+    this.percentile = percentile;
+    slidingPercentile = new SlidingPercentile(maxWeight);
+  }
+
+  @Override
+  public void addSample(long bytesTransferred, long elapsedMs) {
+    float bitsPerSecond = (bytesTransferred * 8000f) / elapsedMs;
+    slidingPercentile.addSample((int) Math.sqrt(bytesTransferred), bitsPerSecond);
+  }
+
+  @Override
+  public long getBandwidthEstimate() {
+    float estimate = slidingPercentile.getPercentile(percentile);
+    return Float.isNaN(estimate) ? ESTIMATE_NOT_AVAILABLE : (long) estimate;
+  }
+
+  @Override
+  public void reset() {
+    slidingPercentile.reset();
+  }
+}
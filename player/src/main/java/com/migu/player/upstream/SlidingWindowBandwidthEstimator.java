@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.migu.player.upstream;
+
+import java.util.ArrayDeque;
+
+/**
+ * A {@link BandwidthEstimator} that returns the throughput over a sliding window of transfer time,
+ * computed as the total number of bytes divided by the total time of the samples in the window.
+ *
+ * <p>The oldest sample is discarded once the window without it still covers {@code windowMs}.
+ */
+public final class SlidingWindowBandwidthEstimator implements BandwidthEstimator {
+
+  /** The default window length, in milliseconds. */
+  public static final long DEFAULT_WINDOW_MS = 10_000;
+
+  private static final int MAX_RECYCLED_SAMPLES = 5;
+
+  private final long windowMs;
+  private final ArrayDeque<Sample> samples;
+  private final Sample[] recycledSamples;
+
+  private long totalBytesTransferred;
+  private long totalElapsedMs;
+  private int recycledSampleCount;
+
+  /** Creates an instance with {@link #DEFAULT_WINDOW_MS}. */
+  public SlidingWindowBandwidthEstimator() {
+    this(DEFAULT_WINDOW_MS);
+  }
+
+  /** @param windowMs The length of the window of transfer time, in milliseconds. */
+  public SlidingWindowBandwidthEstimator(long windowMs) {
+    this.windowMs = windowMs;
+    samples = new ArrayDeque<>();
+    recycledSamples = new Sample[MAX_RECYCLED_SAMPLES];
+  }
+
+  @Override
+  public void addSample(long bytesTransferred, long elapsedMs) {
+    Sample sample =
+        recycledSampleCount > 0 ? recycledSamples[--recycledSampleCount] : new Sample();
+    sample.bytesTransferred = bytesTransferred;
+    sample.elapsedMs = elapsedMs;
+    samples.addLast(sample);
+    totalBytesTransferred += bytesTransferred;
+    totalElapsedMs += elapsedMs;
+    while (samples.size() > 1 && totalElapsedMs - samples.peekFirst().elapsedMs >= windowMs) {
+      Sample oldestSample = samples.removeFirst();
+      totalBytesTransferred -= oldestSample.bytesTransferred;
+      totalElapsedMs -= oldestSample.elapsedMs;
+      if (recycledSampleCount < MAX_RECYCLED_SAMPLES) {
+        recycledSamples[recycledSampleCount++] = oldestSample;
+      }
+    }
+  }
+
+  @Override
+  public long getBandwidthEstimate() {
+    return totalElapsedMs == 0
+        ? ESTIMATE_NOT_AVAILABLE
+        : (totalBytesTransferred * 8000) / totalElapsedMs;
+  }
+
+  @Override
+  public void reset() {
+    samples.clear();
+    totalBytesTransferred = 0;
+    totalElapsedMs = 0;
+  }
+
+  private static final class Sample {
+
+    public long bytesTransferred;
+    public long elapsedMs;
+  }
+}
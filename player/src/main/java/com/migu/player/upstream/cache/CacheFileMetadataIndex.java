@@ -32,7 +32,7 @@ import java.util.Set;
 
 
 /** Maintains an index of cache file metadata. */
-/* package */ final class CacheFileMetadataIndex {
+/* package */ class CacheFileMetadataIndex {
 
   private static final String TABLE_PREFIX = DatabaseProvider.TABLE_PREFIX + "CacheFileMetadata";
   private static final int TABLE_VERSION = 1;
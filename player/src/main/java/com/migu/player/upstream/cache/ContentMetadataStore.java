@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.migu.player.upstream.cache;
+
+import android.net.Uri;
+import android.support.annotation.Nullable;
+
+import com.migu.player.upstream.DataSpec;
+import com.migu.player.util.Log;
+
+/**
+ * Stores byte array values in the {@link ContentMetadata} of the cached files of a {@link Cache},
+ * so that they're persisted with the cache index and removed with the cached data of the file.
+ *
+ * <p>Values are stored under the cache key of the file, which is built by the {@link
+ * CacheKeyFactory} of the store from a {@link DataSpec} with the {@link Uri} of the file. If the
+ * media is played with custom cache keys, the factory must map the uri to the same key.
+ */
+public final class ContentMetadataStore {
+
+  private static final String TAG = "ContentMetadataStore";
+
+  private final Cache cache;
+  private final CacheKeyFactory cacheKeyFactory;
+
+  /**
+   * Creates a store that uses {@link CacheKeyFactory#DEFAULT}.
+   *
+   * @param cache The {@link Cache} in which to store values.
+   */
+  public ContentMetadataStore(Cache cache) {
+    this(cache, CacheKeyFactory.DEFAULT);
+  }
+
+  /**
+   * @param cache The {@link Cache} in which to store values.
+   * @param cacheKeyFactory The {@link CacheKeyFactory} that builds the cache keys of files.
+   */
+  public ContentMetadataStore(Cache cache, CacheKeyFactory cacheKeyFactory) {
+    this.cache = cache;
+    this.cacheKeyFactory = cacheKeyFactory;
+  }
+
+  /**
+   * Returns the value stored for a file, or null if there is none.
+   *
+   * @param uri The {@link Uri} of the file.
+   * @param metadataKey The {@link ContentMetadata} key of the value.
+   */
+  @Nullable
+  public byte[] get(Uri uri, String metadataKey) {
+    return cache.getContentMetadata(buildCacheKey(uri)).get(metadataKey, (byte[]) null);
+  }
+
+  /**
+   * Stores a value for a file, replacing any value that was stored under the same key before.
+   * Failures are logged, as the stored values can always be computed again.
+   *
+   * @param uri The {@link Uri} of the file.
+   * @param metadataKey The {@link ContentMetadata} key of the value.
+   * @param value The value.
+   */
+  public void put(Uri uri, String metadataKey, byte[] value) {
+    ContentMetadataMutations mutations = new ContentMetadataMutations().set(metadataKey, value);
+    try {
+      cache.applyContentMetadataMutations(buildCacheKey(uri), mutations);
+    } catch (Cache.CacheException e) {
+      Log.w(TAG, "Failed to store " + metadataKey, e);
+    }
+  }
+
+  private String buildCacheKey(Uri uri) {
+    return cacheKeyFactory.buildCacheKey(new DataSpec(uri));
+  }
+}
@@ -37,6 +37,7 @@ import java.util.NavigableSet;
 import java.util.Random;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Executor;
 
 
 /**
@@ -61,12 +62,16 @@ public final class SimpleCache implements Cache {
 
   private static final String UID_FILE_SUFFIX = ".uid";
 
+  /** The maximum number of files reconciled by a single deferred verification task. */
+  private static final int FILES_PER_VERIFICATION_TASK = 256;
+
   private static final HashSet<File> lockedCacheDirs = new HashSet<>();
 
   private final File cacheDir;
   private final CacheEvictor evictor;
   private final CachedContentIndex contentIndex;
   @Nullable private final CacheFileMetadataIndex fileIndex;
+  @Nullable private final Executor verificationExecutor;
   private final HashMap<String, ArrayList<Listener>> listeners;
   private final Random random;
   private final boolean touchCacheSpans;
@@ -74,6 +79,7 @@ public final class SimpleCache implements Cache {
   private long uid;
   private long totalSpace;
   private boolean released;
+  private int pendingVerificationTaskCount;
   private  CacheException initializationException;
 
   /**
@@ -202,6 +208,41 @@ public final class SimpleCache implements Cache {
         /* preferLegacyIndex= */ false);
   }
 
+  /**
+   * Constructs the cache, deferring verification of cache files to a background {@link Executor}.
+   * The cache will delete any unrecognized files from the cache directory. Hence the directory
+   * cannot be used to store other files.
+   *
+   * <p>The cache becomes usable as soon as the index has been loaded and the cache directory has
+   * been listed. Spans are created from the file index without querying the file system. Files
+   * that are missing from the file index, or whose length no longer matches it, are reconciled by
+   * tasks posted to {@code verificationExecutor}. Using an {@link Executor} with multiple threads
+   * allows these tasks to run in parallel.
+   *
+   * @param cacheDir A dedicated cache directory.
+   * @param evictor The evictor to be used. For download use cases where cache eviction should not
+   *     occur, use {@link NoOpCacheEvictor}.
+   * @param databaseProvider Provides the database in which the cache index is stored.
+   * @param verificationExecutor An {@link Executor} used to verify cache files.
+   */
+  public SimpleCache(
+      File cacheDir,
+      CacheEvictor evictor,
+      DatabaseProvider databaseProvider,
+      Executor verificationExecutor) {
+    this(
+        cacheDir,
+        evictor,
+        new CachedContentIndex(
+            databaseProvider,
+            cacheDir,
+            /* legacyIndexSecretKey= */ null,
+            /* legacyIndexEncrypt= */ false,
+            /* preferLegacyIndex= */ false),
+        new CacheFileMetadataIndex(databaseProvider),
+        verificationExecutor);
+  }
+
   /**
    * Constructs the cache. The cache will delete any unrecognized files from the cache directory.
    * Hence the directory cannot be used to store other files.
@@ -247,6 +288,15 @@ public final class SimpleCache implements Cache {
       CacheEvictor evictor,
       CachedContentIndex contentIndex,
       @Nullable CacheFileMetadataIndex fileIndex) {
+    this(cacheDir, evictor, contentIndex, fileIndex, /* verificationExecutor= */ null);
+  }
+
+  /* package */ SimpleCache(
+      File cacheDir,
+      CacheEvictor evictor,
+      CachedContentIndex contentIndex,
+      @Nullable CacheFileMetadataIndex fileIndex,
+      @Nullable Executor verificationExecutor) {
     if (!lockFolder(cacheDir)) {
       throw new IllegalStateException("Another SimpleCache instance uses the folder: " + cacheDir);
     }
@@ -255,6 +305,7 @@ public final class SimpleCache implements Cache {
     this.evictor = evictor;
     this.contentIndex = contentIndex;
     this.fileIndex = fileIndex;
+    this.verificationExecutor = fileIndex != null ? verificationExecutor : null;
     listeners = new HashMap<>();
     random = new Random();
     touchCacheSpans = evictor.requiresCacheSpanTouches();
@@ -286,6 +337,14 @@ public final class SimpleCache implements Cache {
     }
   }
 
+  /**
+   * Returns whether cache files are still being verified in the background. Always returns {@code
+   * false} if the cache was not constructed with a verification {@link Executor}.
+   */
+  public synchronized boolean isVerificationPending() {
+    return pendingVerificationTaskCount > 0;
+  }
+
   @Override
   public synchronized long getUid() {
     return uid;
@@ -585,8 +644,24 @@ public final class SimpleCache implements Cache {
       if (fileIndex != null) {
         fileIndex.initialize(uid);
         Map<String, CacheFileMetadata> fileMetadata = fileIndex.getAll();
-        loadDirectory(cacheDir, /* isRoot= */ true, files, fileMetadata);
-        fileIndex.removeAll(fileMetadata.keySet());
+        if (verificationExecutor != null) {
+          ArrayList<SimpleCacheSpan> spansToVerify = new ArrayList<>();
+          ArrayList<File> filesToVerify = new ArrayList<>();
+          ArrayList<String> keysToVerify = new ArrayList<>();
+          loadDirectoryDeferred(
+              cacheDir,
+              /* isRoot= */ true,
+              files,
+              fileMetadata,
+              spansToVerify,
+              filesToVerify,
+              keysToVerify);
+          fileIndex.removeAll(fileMetadata.keySet());
+          startVerification(spansToVerify, filesToVerify, keysToVerify);
+        } else {
+          loadDirectory(cacheDir, /* isRoot= */ true, files, fileMetadata);
+          fileIndex.removeAll(fileMetadata.keySet());
+        }
       } else {
         loadDirectory(cacheDir, /* isRoot= */ true, files, /* fileMetadata= */ null);
       }
@@ -597,6 +672,10 @@ public final class SimpleCache implements Cache {
       return;
     }
 
+    if (pendingVerificationTaskCount > 0) {
+      // Empty resources may still own cache files that are pending verification.
+      return;
+    }
     contentIndex.removeEmpty();
     try {
       contentIndex.store();
@@ -659,6 +738,187 @@ public final class SimpleCache implements Cache {
     }
   }
 
+  /**
+   * Loads a cache directory without querying the file system for file lengths. Spans are created
+   * for files that have an entry in the file index. Other files are left for deferred verification.
+   *
+   * @param directory The directory.
+   * @param isRoot Whether the directory is the root directory.
+   * @param files The files belonging to the directory.
+   * @param fileMetadata A mutable map containing cache file metadata, keyed by file name. The map
+   *     is modified by removing entries for all loaded files.
+   * @param spansToVerify Receives the spans that were created from the file index.
+   * @param filesToVerify Receives the files that are missing from the file index.
+   * @param keysToVerify Receives the keys to which the files in {@code filesToVerify} belong.
+   */
+  private void loadDirectoryDeferred(
+      File directory,
+      boolean isRoot,
+      @Nullable File[] files,
+      Map<String, CacheFileMetadata> fileMetadata,
+      ArrayList<SimpleCacheSpan> spansToVerify,
+      ArrayList<File> filesToVerify,
+      ArrayList<String> keysToVerify) {
+    if (files == null || files.length == 0) {
+      if (!isRoot) {
+        directory.delete();
+      }
+      return;
+    }
+    for (File file : files) {
+      String fileName = file.getName();
+      if (isRoot && fileName.indexOf('.') == -1) {
+        loadDirectoryDeferred(
+            file,
+            /* isRoot= */ false,
+            file.listFiles(),
+            fileMetadata,
+            spansToVerify,
+            filesToVerify,
+            keysToVerify);
+      } else {
+        if (isRoot
+            && (CachedContentIndex.isIndexFile(fileName) || fileName.endsWith(UID_FILE_SUFFIX))) {
+          // Skip expected UID and index files in the root directory.
+          continue;
+        }
+        @Nullable CacheFileMetadata metadata = fileMetadata.remove(fileName);
+        int id = metadata == null ? SimpleCacheSpan.getCacheFileId(fileName) : C.INDEX_UNSET;
+        if (id != C.INDEX_UNSET) {
+          // Querying the length requires file system access, so is deferred. The key is resolved
+          // now, since the id of the file may be reassigned before the file is verified.
+          @Nullable String key = contentIndex.getKeyForId(id);
+          if (key != null) {
+            filesToVerify.add(file);
+            keysToVerify.add(key);
+          } else {
+            file.delete();
+          }
+          continue;
+        }
+        // Files from earlier versions of SimpleCache are upgraded immediately.
+        @Nullable
+        SimpleCacheSpan span =
+            metadata != null
+                ? SimpleCacheSpan.createCacheEntry(
+                    file, metadata.length, metadata.lastTouchTimestamp, contentIndex)
+                : SimpleCacheSpan.createCacheEntry(file, C.LENGTH_UNSET, contentIndex);
+        if (span != null) {
+          addSpan(span);
+          if (metadata != null) {
+            spansToVerify.add(span);
+          }
+        } else {
+          file.delete();
+        }
+      }
+    }
+  }
+
+  /**
+   * Posts tasks to {@link #verificationExecutor} that reconcile the given spans and files with the
+   * file system.
+   */
+  private void startVerification(
+      ArrayList<SimpleCacheSpan> spansToVerify,
+      ArrayList<File> filesToVerify,
+      ArrayList<String> keysToVerify) {
+    Executor executor = Assertions.checkNotNull(verificationExecutor);
+    for (int start = 0; start < spansToVerify.size(); start += FILES_PER_VERIFICATION_TASK) {
+      int end = Math.min(start + FILES_PER_VERIFICATION_TASK, spansToVerify.size());
+      pendingVerificationTaskCount++;
+      executor.execute(
+          new SpanVerificationTask(new ArrayList<>(spansToVerify.subList(start, end))));
+    }
+    for (int start = 0; start < filesToVerify.size(); start += FILES_PER_VERIFICATION_TASK) {
+      int end = Math.min(start + FILES_PER_VERIFICATION_TASK, filesToVerify.size());
+      pendingVerificationTaskCount++;
+      executor.execute(
+          new FileVerificationTask(
+              new ArrayList<>(filesToVerify.subList(start, end)),
+              new ArrayList<>(keysToVerify.subList(start, end))));
+    }
+  }
+
+  /**
+   * Removes spans whose files no longer have the length recorded in the file index.
+   *
+   * @param spans The spans that were verified.
+   * @param fileLengths The lengths of the span files, as queried from the file system.
+   */
+  private synchronized void onSpansVerified(
+      ArrayList<SimpleCacheSpan> spans, long[] fileLengths) {
+    if (!released) {
+      for (int i = 0; i < spans.size(); i++) {
+        SimpleCacheSpan span = spans.get(i);
+        if (fileLengths[i] == span.length) {
+          continue;
+        }
+        @Nullable CachedContent cachedContent = contentIndex.get(span.key);
+        if (cachedContent != null
+            && span.file.equals(cachedContent.getSpan(span.position, span.length).file)) {
+          removeSpanInternal(span);
+        }
+      }
+    }
+    onVerificationTaskEnded();
+  }
+
+  /**
+   * Adds spans for cache files that were missing from the file index, and deletes files that can't
+   * be added.
+   *
+   * @param files The files that were verified.
+   * @param keys The keys to which the files belonged when the cache was initialized.
+   * @param fileLengths The lengths of the files, as queried from the file system.
+   */
+  private synchronized void onFilesVerified(
+      ArrayList<File> files, ArrayList<String> keys, long[] fileLengths) {
+    if (!released) {
+      CacheFileMetadataIndex fileIndex = Assertions.checkNotNull(this.fileIndex);
+      for (int i = 0; i < files.size(); i++) {
+        File file = files.get(i);
+        @Nullable
+        SimpleCacheSpan span =
+            fileLengths[i] > 0
+                ? SimpleCacheSpan.createCacheEntry(file, fileLengths[i], contentIndex)
+                : null;
+        if (span == null || !span.key.equals(keys.get(i))) {
+          file.delete();
+          continue;
+        }
+        CachedContent cachedContent = contentIndex.getOrAdd(span.key);
+        SimpleCacheSpan existingSpan = cachedContent.getSpan(span.position, span.length);
+        if (!cachedContent.isFullyUnlocked()
+            || !existingSpan.isHoleSpan()
+            || existingSpan.length != span.length) {
+          // The range has been written since the cache was initialized.
+          span.file.delete();
+          continue;
+        }
+        try {
+          fileIndex.set(span.file.getName(), span.length, span.lastTouchTimestamp);
+        } catch (IOException e) {
+          Log.w(TAG, "Failed to add file index entry for: " + span.file.getName());
+        }
+        addSpan(span);
+      }
+    }
+    onVerificationTaskEnded();
+  }
+
+  private void onVerificationTaskEnded() {
+    pendingVerificationTaskCount--;
+    if (pendingVerificationTaskCount == 0 && !released) {
+      contentIndex.removeEmpty();
+      try {
+        contentIndex.store();
+      } catch (IOException e) {
+        Log.e(TAG, "Storing index file failed", e);
+      }
+    }
+  }
+
   /**
    * Touches a cache span, returning the updated result. If the evictor does not require cache spans
    * to be touched, then this method does nothing and the span is returned without modification.
@@ -797,6 +1057,46 @@ public final class SimpleCache implements Cache {
     evictor.onSpanTouched(this, oldSpan, newSpan);
   }
 
+  /** Queries the file system for the lengths of spans created from the file index. */
+  private final class SpanVerificationTask implements Runnable {
+
+    private final ArrayList<SimpleCacheSpan> spans;
+
+    public SpanVerificationTask(ArrayList<SimpleCacheSpan> spans) {
+      this.spans = spans;
+    }
+
+    @Override
+    public void run() {
+      long[] fileLengths = new long[spans.size()];
+      for (int i = 0; i < spans.size(); i++) {
+        fileLengths[i] = spans.get(i).file.length();
+      }
+      onSpansVerified(spans, fileLengths);
+    }
+  }
+
+  /** Queries the file system for the lengths of files that are missing from the file index. */
+  private final class FileVerificationTask implements Runnable {
+
+    private final ArrayList<File> files;
+    private final ArrayList<String> keys;
+
+    public FileVerificationTask(ArrayList<File> files, ArrayList<String> keys) {
+      this.files = files;
+      this.keys = keys;
+    }
+
+    @Override
+    public void run() {
+      long[] fileLengths = new long[files.size()];
+      for (int i = 0; i < files.size(); i++) {
+        fileLengths[i] = files.get(i).length();
+      }
+      onFilesVerified(files, keys, fileLengths);
+    }
+  }
+
   /**
    * Loads the cache UID from the files belonging to the root directory.
    *
@@ -52,6 +52,25 @@ import java.util.regex.Pattern;
     return new File(cacheDir, id + "." + position + "." + timestamp + SUFFIX);
   }
 
+  /**
+   * Returns the cache file id encoded in the name of a file created by {@link #getCacheFile(File,
+   * int, long, long)}, without accessing the file system.
+   *
+   * @param fileName The name of the file.
+   * @return The id, or {@link C#INDEX_UNSET} if the name isn't the name of a cache file of the
+   *     current version.
+   */
+  public static int getCacheFileId(String fileName) {
+    if (!fileName.endsWith(SUFFIX)) {
+      return C.INDEX_UNSET;
+    }
+    try {
+      return Integer.parseInt(fileName.substring(0, fileName.indexOf('.')));
+    } catch (NumberFormatException e) {
+      return C.INDEX_UNSET;
+    }
+  }
+
   /**
    * Creates a lookup span.
    *
@@ -15,9 +15,7 @@
  */
 package com.migu.player.util;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Arrays;
 
 /**
  * Calculate any percentile over a sliding window of weighted values. A maximum weight is
@@ -28,58 +26,64 @@ import java.util.Comparator;
  * This class can be used for bandwidth estimation based on a sliding window of past transfer rate
  * observations. This is an alternative to sliding mean and exponential averaging which suffer from
  * susceptibility to outliers and slow adaptation to step functions.
+ * <p>
+ * Samples are held in a treap ordered by value, in which every node stores the total weight of its
+ * subtree, so that both {@link #addSample(int, float)} and {@link #getPercentile(float)} run in
+ * O(log n) expected time. Nodes are allocated from a pool that only grows when the number of
+ * samples in the window exceeds its capacity.
  *
  * @see <a href="http://en.wikipedia.org/wiki/Moving_average">Wiki: Moving average</a>
  * @see <a href="http://en.wikipedia.org/wiki/Selection_algorithm">Wiki: Selection algorithm</a>
+ * @see <a href="http://en.wikipedia.org/wiki/Treap">Wiki: Treap</a>
  */
 public class SlidingPercentile {
 
-  // Orderings.
-//  private static final Comparator<Sample> INDEX_COMPARATOR = (a, b) -> a.index - b.index;
-    private static final Comparator<Sample> INDEX_COMPARATOR = new Comparator<Sample>() {
-        @Override
-        public int compare(Sample a, Sample b) {
-            return a.index - b.index;
-        }
-    };
-//  private static final Comparator<Sample> VALUE_COMPARATOR = (a, b) -> Float.compare(a.value, b.value);
-    private static final Comparator<Sample> VALUE_COMPARATOR = new Comparator<Sample>() {
-        @Override
-        public int compare(Sample a, Sample b) {
-            return Float.compare(a.value, b.value);
-        }
-    };
-
-  private static final int SORT_ORDER_NONE = -1;
-  private static final int SORT_ORDER_BY_VALUE = 0;
-  private static final int SORT_ORDER_BY_INDEX = 1;
-
-  private static final int MAX_RECYCLED_SAMPLES = 5;
+  private static final int NONE = -1;
+  private static final int INITIAL_CAPACITY = 16;
 
   private final int maxWeight;
-  private final ArrayList<Sample> samples;
 
-  private final Sample[] recycledSamples;
+  // Node pool. Nodes are ordered by value, and by insertion index for equal values.
+  private float[] values;
+  private int[] indices;
+  private int[] weights;
+  private long[] subtreeWeights;
+  private int[] priorities;
+  private int[] leftChildren;
+  private int[] rightChildren;
+  private int[] freeNodes;
+  private int freeNodeCount;
+  private int capacity;
+
+  // Nodes in insertion order, as a circular queue.
+  private int[] insertionOrder;
+  private int oldestPosition;
+  private int sampleCount;
 
-  private int currentSortOrder;
+  private int root;
   private int nextSampleIndex;
   private int totalWeight;
-  private int recycledSampleCount;
+  private int randomState;
 
   /**
    * @param maxWeight The maximum weight.
    */
   public SlidingPercentile(int maxWeight) {
     this.maxWeight = maxWeight;
-    recycledSamples = new Sample[MAX_RECYCLED_SAMPLES];
-    samples = new ArrayList<>();
-    currentSortOrder = SORT_ORDER_NONE;
+    randomState = 0x2545F491;
+    allocateNodes(INITIAL_CAPACITY);
+    reset();
   }
 
   /** Resets the sliding percentile. */
   public void reset() {
-    samples.clear();
-    currentSortOrder = SORT_ORDER_NONE;
+    for (int i = 0; i < capacity; i++) {
+      freeNodes[i] = capacity - 1 - i;
+    }
+    freeNodeCount = capacity;
+    root = NONE;
+    oldestPosition = 0;
+    sampleCount = 0;
     nextSampleIndex = 0;
     totalWeight = 0;
   }
@@ -91,27 +95,33 @@ public class SlidingPercentile {
    * @param value The value of the new observation.
    */
   public void addSample(int weight, float value) {
-    ensureSortedByIndex();
-
-    Sample newSample = recycledSampleCount > 0 ? recycledSamples[--recycledSampleCount]
-        : new Sample();
-    newSample.index = nextSampleIndex++;
-    newSample.weight = weight;
-    newSample.value = value;
-    samples.add(newSample);
+    if (freeNodeCount == 0) {
+      allocateNodes(capacity * 2);
+    }
+    int node = freeNodes[--freeNodeCount];
+    values[node] = value;
+    indices[node] = nextSampleIndex++;
+    weights[node] = weight;
+    subtreeWeights[node] = weight;
+    priorities[node] = nextRandom();
+    leftChildren[node] = NONE;
+    rightChildren[node] = NONE;
+    root = insert(root, node);
+    insertionOrder[(oldestPosition + sampleCount) % capacity] = node;
+    sampleCount++;
     totalWeight += weight;
 
     while (totalWeight > maxWeight) {
       int excessWeight = totalWeight - maxWeight;
-      Sample oldestSample = samples.get(0);
-      if (oldestSample.weight <= excessWeight) {
-        totalWeight -= oldestSample.weight;
-        samples.remove(0);
-        if (recycledSampleCount < MAX_RECYCLED_SAMPLES) {
-          recycledSamples[recycledSampleCount++] = oldestSample;
-        }
+      int oldestNode = insertionOrder[oldestPosition];
+      if (weights[oldestNode] <= excessWeight) {
+        totalWeight -= weights[oldestNode];
+        root = remove(root, values[oldestNode], indices[oldestNode]);
+        freeNodes[freeNodeCount++] = oldestNode;
+        oldestPosition = (oldestPosition + 1) % capacity;
+        sampleCount--;
       } else {
-        oldestSample.weight -= excessWeight;
+        reduceWeight(oldestNode, excessWeight);
         totalWeight -= excessWeight;
       }
     }
@@ -124,46 +134,176 @@ public class SlidingPercentile {
    * @return The requested percentile value or {@link Float#NaN} if no samples have been added.
    */
   public float getPercentile(float percentile) {
-    ensureSortedByValue();
+    if (root == NONE) {
+      return Float.NaN;
+    }
     float desiredWeight = percentile * totalWeight;
-    int accumulatedWeight = 0;
-    for (int i = 0; i < samples.size(); i++) {
-      Sample currentSample = samples.get(i);
-      accumulatedWeight += currentSample.weight;
-      if (accumulatedWeight >= desiredWeight) {
-        return currentSample.value;
+    // Find the first node in value order at which the accumulated weight reaches the desired
+    // weight.
+    long accumulatedWeight = 0;
+    int node = root;
+    int result = NONE;
+    while (node != NONE) {
+      int left = leftChildren[node];
+      long weightUpToNode = accumulatedWeight + getSubtreeWeight(left) + weights[node];
+      if (weightUpToNode >= desiredWeight) {
+        result = node;
+        node = left;
+      } else {
+        accumulatedWeight = weightUpToNode;
+        node = rightChildren[node];
+      }
+    }
+    if (result == NONE) {
+      // Clamp to maximum value.
+      result = root;
+      while (rightChildren[result] != NONE) {
+        result = rightChildren[result];
       }
     }
-    // Clamp to maximum value or NaN if no values.
-    return samples.isEmpty() ? Float.NaN : samples.get(samples.size() - 1).value;
+    return values[result];
   }
 
-  /**
-   * Sorts the samples by index.
-   */
-  private void ensureSortedByIndex() {
-    if (currentSortOrder != SORT_ORDER_BY_INDEX) {
-      Collections.sort(samples, INDEX_COMPARATOR);
-      currentSortOrder = SORT_ORDER_BY_INDEX;
+  private int insert(int subtree, int node) {
+    if (subtree == NONE) {
+      return node;
     }
+    subtreeWeights[subtree] += weights[node];
+    if (compare(values[node], indices[node], subtree) < 0) {
+      leftChildren[subtree] = insert(leftChildren[subtree], node);
+      if (priorities[leftChildren[subtree]] > priorities[subtree]) {
+        subtree = rotateRight(subtree);
+      }
+    } else {
+      rightChildren[subtree] = insert(rightChildren[subtree], node);
+      if (priorities[rightChildren[subtree]] > priorities[subtree]) {
+        subtree = rotateLeft(subtree);
+      }
+    }
+    return subtree;
   }
 
-  /**
-   * Sorts the samples by value.
-   */
-  private void ensureSortedByValue() {
-    if (currentSortOrder != SORT_ORDER_BY_VALUE) {
-      Collections.sort(samples, VALUE_COMPARATOR);
-      currentSortOrder = SORT_ORDER_BY_VALUE;
+  private int remove(int subtree, float value, int index) {
+    int comparison = compare(value, index, subtree);
+    if (comparison != 0) {
+      if (comparison < 0) {
+        leftChildren[subtree] = remove(leftChildren[subtree], value, index);
+      } else {
+        rightChildren[subtree] = remove(rightChildren[subtree], value, index);
+      }
+      updateSubtreeWeight(subtree);
+      return subtree;
+    }
+    int left = leftChildren[subtree];
+    int right = rightChildren[subtree];
+    if (left == NONE) {
+      return right;
+    } else if (right == NONE) {
+      return left;
     }
+    // Rotate the node down towards a leaf, then continue removing it from the rotated subtree.
+    int newSubtree;
+    if (priorities[left] > priorities[right]) {
+      newSubtree = rotateRight(subtree);
+      rightChildren[newSubtree] = remove(subtree, value, index);
+    } else {
+      newSubtree = rotateLeft(subtree);
+      leftChildren[newSubtree] = remove(subtree, value, index);
+    }
+    updateSubtreeWeight(newSubtree);
+    return newSubtree;
   }
 
-  private static class Sample {
+  private void reduceWeight(int node, int weightReduction) {
+    float value = values[node];
+    int index = indices[node];
+    int current = root;
+    while (true) {
+      subtreeWeights[current] -= weightReduction;
+      int comparison = compare(value, index, current);
+      if (comparison == 0) {
+        weights[current] -= weightReduction;
+        return;
+      }
+      current = comparison < 0 ? leftChildren[current] : rightChildren[current];
+    }
+  }
 
-    public int index;
-    public int weight;
-    public float value;
+  private int rotateRight(int node) {
+    int left = leftChildren[node];
+    leftChildren[node] = rightChildren[left];
+    rightChildren[left] = node;
+    updateSubtreeWeight(node);
+    updateSubtreeWeight(left);
+    return left;
+  }
+
+  private int rotateLeft(int node) {
+    int right = rightChildren[node];
+    rightChildren[node] = leftChildren[right];
+    leftChildren[right] = node;
+    updateSubtreeWeight(node);
+    updateSubtreeWeight(right);
+    return right;
+  }
+
+  private void updateSubtreeWeight(int node) {
+    subtreeWeights[node] =
+        getSubtreeWeight(leftChildren[node])
+            + weights[node]
+            + getSubtreeWeight(rightChildren[node]);
+  }
 
+  private long getSubtreeWeight(int node) {
+    return node == NONE ? 0 : subtreeWeights[node];
   }
 
+  private int compare(float value, int index, int node) {
+    int comparison = Float.compare(value, values[node]);
+    return comparison != 0 ? comparison : Integer.compare(index, indices[node]);
+  }
+
+  private int nextRandom() {
+    // Xorshift, which is sufficient to keep the treap balanced in expectation.
+    randomState ^= randomState << 13;
+    randomState ^= randomState >>> 17;
+    randomState ^= randomState << 5;
+    return randomState;
+  }
+
+  private void allocateNodes(int newCapacity) {
+    int oldCapacity = capacity;
+    if (oldCapacity == 0) {
+      values = new float[newCapacity];
+      indices = new int[newCapacity];
+      weights = new int[newCapacity];
+      subtreeWeights = new long[newCapacity];
+      priorities = new int[newCapacity];
+      leftChildren = new int[newCapacity];
+      rightChildren = new int[newCapacity];
+      freeNodes = new int[newCapacity];
+      insertionOrder = new int[newCapacity];
+    } else {
+      values = Arrays.copyOf(values, newCapacity);
+      indices = Arrays.copyOf(indices, newCapacity);
+      weights = Arrays.copyOf(weights, newCapacity);
+      subtreeWeights = Arrays.copyOf(subtreeWeights, newCapacity);
+      priorities = Arrays.copyOf(priorities, newCapacity);
+      leftChildren = Arrays.copyOf(leftChildren, newCapacity);
+      rightChildren = Arrays.copyOf(rightChildren, newCapacity);
+      freeNodes = Arrays.copyOf(freeNodes, newCapacity);
+      // Unwrap the circular queue into the start of the new array.
+      int[] newInsertionOrder = new int[newCapacity];
+      for (int i = 0; i < sampleCount; i++) {
+        newInsertionOrder[i] = insertionOrder[(oldestPosition + i) % oldCapacity];
+      }
+      insertionOrder = newInsertionOrder;
+      oldestPosition = 0;
+      // The pool is full when it grows, so all of the new nodes are free.
+      for (int i = newCapacity - 1; i >= oldCapacity; i--) {
+        freeNodes[freeNodeCount++] = i;
+      }
+    }
+    capacity = newCapacity;
+  }
 }
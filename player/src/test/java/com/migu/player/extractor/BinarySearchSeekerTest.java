@@ -0,0 +1,370 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.migu.player.extractor;
+
+import com.migu.player.C;
+import com.migu.player.extractor.BinarySearchSeeker.SeekOperationParams;
+import com.migu.player.extractor.BinarySearchSeeker.TimestampSearchResult;
+import com.migu.player.upstream.DataReader;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Unit tests for {@link BinarySearchSeeker}. */
+public final class BinarySearchSeekerTest {
+
+  private static final long DURATION_US = 1000;
+  private static final long STREAM_LENGTH = 100_000_000;
+  private static final long APPROX_BYTES_PER_FRAME = 1000;
+  private static final int MINIMUM_SEARCH_RANGE = 10_000;
+  private static final long SIMULATED_ROUND_TRIP_MS = 100;
+  private static final long SIMULATED_BANDWIDTH_KBPS = 20_000;
+
+  @Test
+  public void getSeekPoints_withLearnedPointsAroundTarget_searchesBetweenThem() throws IOException {
+    FakeTimestampSeeker timestampSeeker = new FakeTimestampSeeker();
+    BinarySearchSeeker seeker = createSeeker(timestampSeeker, STREAM_LENGTH);
+    timestampSeeker.addResult(TimestampSearchResult.underestimatedResult(400, 20_000_000));
+    timestampSeeker.addResult(TimestampSearchResult.overestimatedResult(600, 80_000_000));
+    seek(seeker, /* timeUs= */ 500);
+
+    long position = seeker.getSeekMap().getSeekPoints(/* timeUs= */ 450).first.position;
+
+    assertEquals(
+        SeekOperationParams.calculateNextSearchBytePosition(
+            /* targetTimePosition= */ 450,
+            /* floorTimePosition= */ 400,
+            /* ceilingTimePosition= */ 600,
+            /* floorBytePosition= */ 20_000_000,
+            /* ceilingBytePosition= */ 80_000_000,
+            APPROX_BYTES_PER_FRAME),
+        position);
+  }
+
+  @Test
+  public void seek_withLearnedPointsAroundTarget_probesBetweenThem() throws IOException {
+    FakeTimestampSeeker timestampSeeker = new FakeTimestampSeeker();
+    BinarySearchSeeker seeker = createSeeker(timestampSeeker, STREAM_LENGTH);
+    timestampSeeker.addResult(TimestampSearchResult.underestimatedResult(400, 20_000_000));
+    timestampSeeker.addResult(TimestampSearchResult.overestimatedResult(600, 80_000_000));
+    seek(seeker, /* timeUs= */ 500);
+    timestampSeeker.probePositions.clear();
+
+    seek(seeker, /* timeUs= */ 550);
+
+    long firstProbePosition = timestampSeeker.probePositions.get(0);
+    assertTrue(firstProbePosition >= 20_000_000 && firstProbePosition < 80_000_000);
+  }
+
+  @Test
+  public void getSeekPoints_withInconsistentLearnedPoints_searchesWholeStream() throws IOException {
+    FakeTimestampSeeker timestampSeeker = new FakeTimestampSeeker();
+    BinarySearchSeeker seeker = createSeeker(timestampSeeker, STREAM_LENGTH);
+    // The later timestamp is found at the earlier byte position, as if timestamps weren't
+    // monotonic.
+    timestampSeeker.addResult(TimestampSearchResult.underestimatedResult(400, 80_000_000));
+    timestampSeeker.addResult(TimestampSearchResult.overestimatedResult(600, 20_000_000));
+    seek(seeker, /* timeUs= */ 500);
+
+    long position = seeker.getSeekMap().getSeekPoints(/* timeUs= */ 500).first.position;
+
+    BinarySearchSeeker freshSeeker = createSeeker(new FakeTimestampSeeker(), STREAM_LENGTH);
+    assertEquals(
+        freshSeeker.getSeekMap().getSeekPoints(/* timeUs= */ 500).first.position, position);
+  }
+
+  @Test
+  public void seek_afterThreeUnderestimates_bisectsRange() throws IOException {
+    FakeTimestampSeeker timestampSeeker = new FakeTimestampSeeker();
+    BinarySearchSeeker seeker = createSeeker(timestampSeeker, STREAM_LENGTH);
+    timestampSeeker.addResult(TimestampSearchResult.underestimatedResult(899, 10_000_000));
+    timestampSeeker.addResult(TimestampSearchResult.underestimatedResult(899, 20_000_000));
+    timestampSeeker.addResult(TimestampSearchResult.underestimatedResult(899, 30_000_000));
+
+    seek(seeker, /* timeUs= */ 900);
+
+    List<Long> probePositions = timestampSeeker.probePositions;
+    assertEquals(
+        interpolate(/* target= */ 900, 899, 1000, 20_000_000, STREAM_LENGTH),
+        (long) probePositions.get(2));
+    assertEquals(30_000_000 + (STREAM_LENGTH - 30_000_000) / 2, (long) probePositions.get(3));
+  }
+
+  @Test
+  public void seek_afterThreeOverestimates_bisectsRange() throws IOException {
+    FakeTimestampSeeker timestampSeeker = new FakeTimestampSeeker();
+    BinarySearchSeeker seeker = createSeeker(timestampSeeker, STREAM_LENGTH);
+    timestampSeeker.addResult(TimestampSearchResult.overestimatedResult(101, 90_000_000));
+    timestampSeeker.addResult(TimestampSearchResult.overestimatedResult(101, 80_000_000));
+    timestampSeeker.addResult(TimestampSearchResult.overestimatedResult(101, 70_000_000));
+
+    seek(seeker, /* timeUs= */ 100);
+
+    List<Long> probePositions = timestampSeeker.probePositions;
+    assertEquals(
+        interpolate(/* target= */ 100, 0, 101, 0, 80_000_000), (long) probePositions.get(2));
+    assertEquals(70_000_000 / 2, (long) probePositions.get(3));
+  }
+
+  @Test
+  public void seek_withMissesOnAlternatingSides_interpolates() throws IOException {
+    FakeTimestampSeeker timestampSeeker = new FakeTimestampSeeker();
+    BinarySearchSeeker seeker = createSeeker(timestampSeeker, STREAM_LENGTH);
+    timestampSeeker.addResult(TimestampSearchResult.underestimatedResult(899, 10_000_000));
+    timestampSeeker.addResult(TimestampSearchResult.underestimatedResult(899, 20_000_000));
+    timestampSeeker.addResult(TimestampSearchResult.overestimatedResult(950, 90_000_000));
+    timestampSeeker.addResult(TimestampSearchResult.underestimatedResult(899, 30_000_000));
+
+    seek(seeker, /* timeUs= */ 900);
+
+    assertEquals(
+        interpolate(/* target= */ 900, 899, 950, 30_000_000, 90_000_000),
+        (long) timestampSeeker.probePositions.get(4));
+  }
+
+  @Test
+  public void seek_afterThreeUnderestimatesInSkippableRange_interpolates() throws IOException {
+    FakeTimestampSeeker timestampSeeker = new FakeTimestampSeeker();
+    BinarySearchSeeker seeker = createSeeker(timestampSeeker, /* streamLength= */ 200_000);
+    timestampSeeker.addResult(TimestampSearchResult.underestimatedResult(899, 10_000));
+    timestampSeeker.addResult(TimestampSearchResult.underestimatedResult(899, 20_000));
+    timestampSeeker.addResult(TimestampSearchResult.underestimatedResult(899, 30_000));
+
+    seek(seeker, /* timeUs= */ 900);
+
+    assertEquals(
+        interpolate(/* target= */ 900, 899, 1000, 30_000, 200_000),
+        (long) timestampSeeker.probePositions.get(3));
+  }
+
+  @Test
+  public void seek_in2GbTsStream_needsFewRequestsPerSeek() throws IOException {
+    SimulatedTsStream stream = new SimulatedTsStream(new Random(/* seed= */ 0));
+    BinarySearchSeeker seeker = createTsSeeker(stream);
+    Random random = new Random(/* seed= */ 1);
+    int warmUpSeekCount = 5;
+    int seekCount = 50;
+    int requestCount = 0;
+    int freshSeekerRequestCount = 0;
+    long bytesProbed = 0;
+    for (int i = 0; i < seekCount; i++) {
+      long timeUs = (long) (random.nextDouble() * SimulatedTsStream.DURATION_US);
+      stream.bytesProbed = 0;
+      int seekRequestCount = seek(seeker, timeUs);
+      if (i >= warmUpSeekCount) {
+        requestCount += seekRequestCount;
+        bytesProbed += stream.bytesProbed;
+        freshSeekerRequestCount += seek(createTsSeeker(stream), timeUs);
+      }
+    }
+
+    int measuredSeekCount = seekCount - warmUpSeekCount;
+    double requestsPerSeek = (double) requestCount / measuredSeekCount;
+    double freshSeekerRequestsPerSeek = (double) freshSeekerRequestCount / measuredSeekCount;
+    // Each request costs a round trip, and each probe transfers the searched bytes.
+    double latencyMsPerSeek =
+        requestsPerSeek * SIMULATED_ROUND_TRIP_MS
+            + bytesProbed * 8.0 / SIMULATED_BANDWIDTH_KBPS / measuredSeekCount;
+    System.out.println(
+        "2 GB TS seeks: "
+            + requestsPerSeek
+            + " requests/seek ("
+            + Math.round(latencyMsPerSeek)
+            + " ms/seek), "
+            + freshSeekerRequestsPerSeek
+            + " requests/seek without learned points");
+    assertTrue(requestsPerSeek <= 4);
+    assertTrue(requestsPerSeek < freshSeekerRequestsPerSeek);
+  }
+
+  private static BinarySearchSeeker createSeeker(
+      BinarySearchSeeker.TimestampSeeker timestampSeeker, long streamLength) {
+    return new BinarySearchSeeker(
+        new BinarySearchSeeker.DefaultSeekTimestampConverter(),
+        timestampSeeker,
+        DURATION_US,
+        /* floorTimePosition= */ 0,
+        /* ceilingTimePosition= */ DURATION_US,
+        /* floorBytePosition= */ 0,
+        /* ceilingBytePosition= */ streamLength,
+        APPROX_BYTES_PER_FRAME,
+        MINIMUM_SEARCH_RANGE) {};
+  }
+
+  private static BinarySearchSeeker createTsSeeker(SimulatedTsStream stream) {
+    return new BinarySearchSeeker(
+        new BinarySearchSeeker.DefaultSeekTimestampConverter(),
+        stream,
+        SimulatedTsStream.DURATION_US,
+        /* floorTimePosition= */ 0,
+        /* ceilingTimePosition= */ SimulatedTsStream.DURATION_US + 1,
+        /* floorBytePosition= */ 0,
+        /* ceilingBytePosition= */ stream.length,
+        /* approxBytesPerFrame= */ SimulatedTsStream.TS_PACKET_SIZE,
+        /* minimumSearchRange= */ 5 * SimulatedTsStream.TS_PACKET_SIZE) {};
+  }
+
+  private static long interpolate(
+      long targetTimePosition,
+      long floorTimePosition,
+      long ceilingTimePosition,
+      long floorBytePosition,
+      long ceilingBytePosition) {
+    return SeekOperationParams.calculateNextSearchBytePosition(
+        targetTimePosition,
+        floorTimePosition,
+        ceilingTimePosition,
+        floorBytePosition,
+        ceilingBytePosition,
+        APPROX_BYTES_PER_FRAME);
+  }
+
+  /**
+   * Runs a seek to completion, opening a new input at each position the seeker asks for.
+   *
+   * @return The number of inputs opened, including the input opened at the resulting position.
+   */
+  private static int seek(BinarySearchSeeker seeker, long timeUs) throws IOException {
+    seeker.setSeekTargetUs(timeUs);
+    PositionHolder positionHolder = new PositionHolder();
+    long position = 0;
+    int requestCount = 0;
+    while (seeker.isSeeking()) {
+      ExtractorInput input =
+          new DefaultExtractorInput(new ZeroDataReader(), position, C.LENGTH_UNSET);
+      if (seeker.handlePendingSeek(input, positionHolder) == Extractor.RESULT_SEEK) {
+        position = positionHolder.position;
+        requestCount++;
+      }
+    }
+    return requestCount;
+  }
+
+  /**
+   * Returns queued results, recording the position of each probe, and finds the target once the
+   * results have been used up.
+   */
+  private static final class FakeTimestampSeeker implements BinarySearchSeeker.TimestampSeeker {
+
+    public final List<Long> probePositions;
+    private final ArrayDeque<TimestampSearchResult> results;
+
+    public FakeTimestampSeeker() {
+      probePositions = new ArrayList<>();
+      results = new ArrayDeque<>();
+    }
+
+    public void addResult(TimestampSearchResult result) {
+      results.add(result);
+    }
+
+    @Override
+    public TimestampSearchResult searchForTimestamp(ExtractorInput input, long targetTimestamp) {
+      probePositions.add(input.getPosition());
+      TimestampSearchResult result = results.poll();
+      return result != null ? result : TimestampSearchResult.targetFoundResult(input.getPosition());
+    }
+  }
+
+  /**
+   * A {@link BinarySearchSeeker.TimestampSeeker} over a simulated variable bitrate TS stream of
+   * about 2 GB, which searches {@link #SEARCH_BYTES} from each probed position for PCR timestamps
+   * the way the TS extractor does.
+   */
+  private static final class SimulatedTsStream implements BinarySearchSeeker.TimestampSeeker {
+
+    public static final int TS_PACKET_SIZE = 188;
+    public static final long DURATION_US = 2L * 3600 * 1_000_000;
+
+    private static final long LENGTH = 2L * 1024 * 1024 * 1024;
+    private static final int SEARCH_BYTES = 600 * TS_PACKET_SIZE;
+    private static final long PCR_INTERVAL_US = 40_000;
+    private static final long SEGMENT_DURATION_US = 10_000_000;
+    private static final long SEEK_TOLERANCE_US = 100_000;
+
+    public final long length;
+    public long bytesProbed;
+
+    private final long[] pcrTimesUs;
+    private final long[] pcrPositions;
+
+    public SimulatedTsStream(Random random) {
+      // The bitrate of each segment varies between half and one and a half times the average.
+      int segmentCount = (int) (DURATION_US / SEGMENT_DURATION_US);
+      double[] segmentWeights = new double[segmentCount];
+      double totalWeight = 0;
+      for (int i = 0; i < segmentCount; i++) {
+        segmentWeights[i] = 0.5 + random.nextDouble();
+        totalWeight += segmentWeights[i];
+      }
+      int pcrCount = (int) (DURATION_US / PCR_INTERVAL_US);
+      pcrTimesUs = new long[pcrCount];
+      pcrPositions = new long[pcrCount];
+      int pcrsPerSegment = (int) (SEGMENT_DURATION_US / PCR_INTERVAL_US);
+      double position = 0;
+      for (int i = 0; i < pcrCount; i++) {
+        pcrTimesUs[i] = i * PCR_INTERVAL_US;
+        long packetIndex = (long) position / TS_PACKET_SIZE;
+        pcrPositions[i] = packetIndex * TS_PACKET_SIZE;
+        position += LENGTH * segmentWeights[i / pcrsPerSegment] / totalWeight / pcrsPerSegment;
+      }
+      length = (long) position / TS_PACKET_SIZE * TS_PACKET_SIZE;
+    }
+
+    @Override
+    public TimestampSearchResult searchForTimestamp(ExtractorInput input, long targetTimestamp) {
+      long searchStart = input.getPosition();
+      long searchEnd = Math.min(searchStart + SEARCH_BYTES, length);
+      bytesProbed += searchEnd - searchStart;
+      int pcrIndex = Arrays.binarySearch(pcrPositions, searchStart);
+      pcrIndex = pcrIndex >= 0 ? pcrIndex : -pcrIndex - 1;
+      long lastPcrTimeUs = C.TIME_UNSET;
+      long lastPcrPosition = C.POSITION_UNSET;
+      for (; pcrIndex < pcrPositions.length && pcrPositions[pcrIndex] < searchEnd; pcrIndex++) {
+        long pcrTimeUs = pcrTimesUs[pcrIndex];
+        if (pcrTimeUs > targetTimestamp) {
+          return lastPcrTimeUs == C.TIME_UNSET
+              ? TimestampSearchResult.overestimatedResult(pcrTimeUs, searchStart)
+              : TimestampSearchResult.targetFoundResult(lastPcrPosition);
+        } else if (pcrTimeUs + SEEK_TOLERANCE_US > targetTimestamp) {
+          return TimestampSearchResult.targetFoundResult(pcrPositions[pcrIndex]);
+        }
+        lastPcrTimeUs = pcrTimeUs;
+        lastPcrPosition = pcrPositions[pcrIndex];
+      }
+      return lastPcrTimeUs != C.TIME_UNSET
+          ? TimestampSearchResult.underestimatedResult(lastPcrTimeUs, searchEnd)
+          : TimestampSearchResult.NO_TIMESTAMP_IN_RANGE_RESULT;
+    }
+  }
+
+  private static final class ZeroDataReader implements DataReader {
+
+    @Override
+    public int read(byte[] target, int offset, int length) {
+      return length;
+    }
+  }
+}
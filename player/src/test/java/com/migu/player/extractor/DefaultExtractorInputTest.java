@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.migu.player.extractor;
+
+import com.migu.player.C;
+import com.migu.player.upstream.DataReader;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static java.lang.Math.min;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link DefaultExtractorInput}, focusing on the peek buffer, whose consumed data is
+ * only reclaimed when the buffer runs out of space or shrinks.
+ */
+public final class DefaultExtractorInputTest {
+
+  private static final int INITIAL_PEEK_BUFFER_SIZE = 64 * 1024;
+
+  @Test
+  public void readAfterPeek_doesNotMoveRemainingPeekedData() throws IOException {
+    byte[] data = createData(4096);
+    DefaultExtractorInput input = createInput(data, /* maxReadLength= */ 4096);
+
+    input.peekFully(new byte[1000], /* offset= */ 0, /* length= */ 1000);
+    byte[] target = new byte[1000];
+    for (int i = 0; i < 10; i++) {
+      input.readFully(target, /* offset= */ i * 100, /* length= */ 100);
+    }
+
+    assertArrayEquals(Arrays.copyOf(data, 1000), target);
+    assertEquals(1000, input.getPosition());
+    // Only the bytes read from the peek buffer are copied. Moving the remaining peeked data to the
+    // start of the buffer after each read would have copied another 4500 bytes.
+    assertEquals(1000, input.getBytesCopied());
+  }
+
+  @Test
+  public void peekPastEndOfBuffer_compactsRemainingPeekedData() throws IOException {
+    byte[] data = createData(100_000);
+    DefaultExtractorInput input = createInput(data, /* maxReadLength= */ 10_000);
+
+    input.peekFully(new byte[60_000], /* offset= */ 0, /* length= */ 60_000);
+    input.readFully(new byte[50_000], /* offset= */ 0, /* length= */ 50_000);
+    assertEquals(50_000, input.getBytesCopied());
+    // The 10000 peeked bytes left at offset 50000 and the 10000 new bytes don't fit after them, so
+    // the remaining peeked data is moved to the start of the buffer, which doesn't grow.
+    byte[] peeked = new byte[20_000];
+    input.peekFully(peeked, /* offset= */ 0, /* length= */ 20_000);
+
+    assertArrayEquals(Arrays.copyOfRange(data, 50_000, 70_000), peeked);
+    assertEquals(60_000, input.getBytesCopied());
+    assertEquals(50_000, input.getPosition());
+    assertEquals(70_000, input.getPeekPosition());
+    byte[] read = new byte[30_000];
+    input.readFully(read, /* offset= */ 0, /* length= */ 30_000);
+    assertArrayEquals(Arrays.copyOfRange(data, 50_000, 80_000), read);
+    // 20000 bytes come from the peek buffer and the rest straight from the data reader.
+    assertEquals(80_000, input.getBytesCopied());
+  }
+
+  @Test
+  public void peekPastCapacity_growsBufferAndKeepsPeekedData() throws IOException {
+    byte[] data = createData(3 * INITIAL_PEEK_BUFFER_SIZE);
+    DefaultExtractorInput input = createInput(data, /* maxReadLength= */ 4096);
+
+    input.peekFully(new byte[1000], /* offset= */ 0, /* length= */ 1000);
+    input.skipFully(500);
+    input.peekFully(new byte[500], /* offset= */ 0, /* length= */ 500);
+    byte[] peeked = new byte[2 * INITIAL_PEEK_BUFFER_SIZE];
+    input.peekFully(peeked, /* offset= */ 0, peeked.length);
+
+    assertArrayEquals(Arrays.copyOfRange(data, 1000, 1000 + peeked.length), peeked);
+    // Growing the buffer moves the 500 peeked bytes that hadn't been skipped.
+    assertEquals(500, input.getBytesCopied());
+    input.resetPeekPosition();
+    byte[] read = new byte[peeked.length + 500];
+    input.readFully(read, /* offset= */ 0, read.length);
+    assertArrayEquals(Arrays.copyOfRange(data, 500, 1000 + peeked.length), read);
+  }
+
+  @Test
+  public void readMostOfLargePeek_shrinksBufferAndKeepsPeekedData() throws IOException {
+    byte[] data = createData(1024 * 1024);
+    DefaultExtractorInput input = createInput(data, /* maxReadLength= */ 64 * 1024);
+
+    input.peekFully(new byte[700_000], /* offset= */ 0, /* length= */ 700_000);
+    input.skipFully(650_000);
+    // The buffer now has more than the maximum free space, so the remaining 50000 peeked bytes are
+    // moved to a smaller buffer.
+    assertEquals(50_000, input.getBytesCopied());
+    byte[] read = new byte[100_000];
+    input.readFully(read, /* offset= */ 0, read.length);
+
+    assertArrayEquals(Arrays.copyOfRange(data, 650_000, 750_000), read);
+    assertEquals(100_000, input.getBytesCopied());
+  }
+
+  @Test
+  public void randomPeeksReadsAndSkips_returnStreamData() throws IOException {
+    byte[] data = createData(2 * 1024 * 1024);
+    DefaultExtractorInput input = createInput(data, /* maxReadLength= */ 3000);
+    Random random = new Random(/* seed= */ 0);
+
+    long position = 0;
+    int peekLength = 0;
+    while (position + peekLength < data.length - 200_000) {
+      int length = 1 + random.nextInt(random.nextInt(10) == 0 ? 150_000 : 2000);
+      byte[] target = new byte[length];
+      switch (random.nextInt(4)) {
+        case 0:
+          input.peekFully(target, /* offset= */ 0, length);
+          assertDataEquals(data, position + peekLength, target, length);
+          peekLength += length;
+          break;
+        case 1:
+          input.resetPeekPosition();
+          peekLength = 0;
+          break;
+        case 2:
+          input.readFully(target, /* offset= */ 0, length);
+          assertDataEquals(data, position, target, length);
+          position += length;
+          peekLength = 0;
+          break;
+        default:
+          int bytesSkipped = input.skip(length);
+          position += bytesSkipped;
+          peekLength = 0;
+          break;
+      }
+      assertEquals(position, input.getPosition());
+      assertEquals(position + peekLength, input.getPeekPosition());
+    }
+  }
+
+  @Test
+  public void smallReadsAfterLargePeek_measureBytesCopiedAndTime() throws IOException {
+    // A peek-heavy pattern, as when an extractor peeks a whole box or tag before reading its
+    // fields: peek 60 KiB, then read it 16 bytes at a time.
+    int peekLength = 60 * 1024;
+    int readLength = 16;
+    int iterations = 20;
+    byte[] data = createData(peekLength * iterations);
+
+    long compactingNs = Long.MAX_VALUE;
+    long compactingBytesCopied = 0;
+    long shiftingNs = Long.MAX_VALUE;
+    long shiftingBytesCopied = 0;
+    byte[] target = new byte[readLength];
+    for (int run = 0; run < 5; run++) {
+      DefaultExtractorInput input = createInput(data, /* maxReadLength= */ peekLength);
+      long startTimeNs = System.nanoTime();
+      for (int i = 0; i < iterations; i++) {
+        input.advancePeekPosition(peekLength);
+        for (int j = 0; j < peekLength; j += readLength) {
+          input.readFully(target, /* offset= */ 0, readLength);
+        }
+      }
+      compactingNs = min(compactingNs, System.nanoTime() - startTimeNs);
+      compactingBytesCopied = input.getBytesCopied();
+      assertEquals(data.length, input.getPosition());
+
+      ShiftingPeekBuffer shiftingBuffer = new ShiftingPeekBuffer();
+      startTimeNs = System.nanoTime();
+      for (int i = 0; i < iterations; i++) {
+        shiftingBuffer.peek(data, i * peekLength, peekLength);
+        for (int j = 0; j < peekLength; j += readLength) {
+          shiftingBuffer.read(target, readLength);
+        }
+      }
+      shiftingNs = min(shiftingNs, System.nanoTime() - startTimeNs);
+      shiftingBytesCopied = shiftingBuffer.bytesCopied;
+    }
+
+    System.out.println(
+        "Peek buffer, "
+            + (data.length / 1024)
+            + " KiB in "
+            + readLength
+            + " byte reads: compacting "
+            + (compactingBytesCopied / 1024)
+            + " KiB copied in "
+            + (compactingNs / 1000)
+            + " us, shifting after each read "
+            + (shiftingBytesCopied / 1024)
+            + " KiB copied in "
+            + (shiftingNs / 1000)
+            + " us");
+    assertEquals(data.length, compactingBytesCopied);
+    assertTrue(compactingBytesCopied * 100 < shiftingBytesCopied);
+  }
+
+  private static DefaultExtractorInput createInput(byte[] data, int maxReadLength) {
+    return new DefaultExtractorInput(
+        new ChunkedDataReader(data, maxReadLength), /* position= */ 0, data.length);
+  }
+
+  private static byte[] createData(int length) {
+    byte[] data = new byte[length];
+    new Random(/* seed= */ length).nextBytes(data);
+    return data;
+  }
+
+  private static void assertDataEquals(byte[] data, long position, byte[] target, int length) {
+    assertArrayEquals(
+        Arrays.copyOfRange(data, (int) position, (int) position + length),
+        Arrays.copyOf(target, length));
+  }
+
+  /** A {@link DataReader} that returns at most a fixed number of bytes from each read. */
+  private static final class ChunkedDataReader implements DataReader {
+
+    private final byte[] data;
+    private final int maxReadLength;
+
+    private int position;
+
+    public ChunkedDataReader(byte[] data, int maxReadLength) {
+      this.data = data;
+      this.maxReadLength = maxReadLength;
+    }
+
+    @Override
+    public int read(byte[] target, int offset, int length) {
+      if (position == data.length) {
+        return C.RESULT_END_OF_INPUT;
+      }
+      int bytesRead = min(min(length, maxReadLength), data.length - position);
+      System.arraycopy(data, position, target, offset, bytesRead);
+      position += bytesRead;
+      return bytesRead;
+    }
+  }
+
+  /**
+   * The peek buffer as it was before compaction, which moved the remaining peeked data to the start
+   * of the buffer after every read from it.
+   */
+  private static final class ShiftingPeekBuffer {
+
+    private final byte[] buffer = new byte[INITIAL_PEEK_BUFFER_SIZE];
+
+    private int length;
+    private long bytesCopied;
+
+    public void peek(byte[] data, int offset, int peekLength) {
+      System.arraycopy(data, offset, buffer, length, peekLength);
+      length += peekLength;
+    }
+
+    public void read(byte[] target, int readLength) {
+      System.arraycopy(buffer, 0, target, 0, readLength);
+      length -= readLength;
+      System.arraycopy(buffer, readLength, buffer, 0, length);
+      bytesCopied += readLength + length;
+    }
+  }
+}
@@ -0,0 +1,633 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.migu.player.extractor.flv;
+
+import android.support.annotation.Nullable;
+
+import com.migu.player.C;
+import com.migu.player.Format;
+import com.migu.player.ParserException;
+import com.migu.player.extractor.ExtractorInput;
+import com.migu.player.extractor.TrackOutput;
+import com.migu.player.upstream.DataReader;
+import com.migu.player.util.MimeTypes;
+import com.migu.player.util.ParsableByteArray;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static java.lang.Math.min;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for {@link TagPayloadReader#consumeSample(ExtractorInput, int, long)} in {@link
+ * AudioTagPayloadReader} and {@link VideoTagPayloadReader}, which must output the same samples as
+ * {@link TagPayloadReader#consume(ParsableByteArray, long)}, and resume after I/O errors.
+ */
+public final class TagPayloadReaderTest {
+
+  private static final int AUDIO_HEADER_AAC = 0xAF;
+  private static final int AUDIO_HEADER_MP3 = 0x2E;
+  private static final int VIDEO_HEADER_KEYFRAME_AVC = 0x17;
+  private static final int VIDEO_HEADER_INTER_FRAME_AVC = 0x27;
+  private static final long TIME_US = 1_000_000;
+
+  @Test
+  public void audioConsumeSample_aacRaw_outputsSameSampleAsConsume() throws IOException {
+    byte[] payload = createAudioPayload(AUDIO_HEADER_AAC, /* packetType= */ 1, 300);
+
+    RecordingTrackOutput expectedOutput = consumeAudio(payload);
+    RecordingTrackOutput output = new RecordingTrackOutput();
+    AudioTagPayloadReader reader = createAacReader(output);
+    FakeExtractorInput input = new FakeExtractorInput(payload, /* simulateIOErrors= */ false);
+
+    assertTrue(consumeSample(reader, input, payload.length));
+    assertEquals(payload.length, input.getPosition());
+    assertSamplesEqual(expectedOutput, output);
+    assertEquals(1, output.sampleSizes.size());
+    assertEquals(298, (int) output.sampleSizes.get(0));
+  }
+
+  @Test
+  public void audioConsumeSample_mp3_outputsSameSamplesAsConsume() throws IOException {
+    byte[] firstPayload = createAudioPayload(AUDIO_HEADER_MP3, /* packetType= */ 0xFF, 200);
+    byte[] payload = createAudioPayload(AUDIO_HEADER_MP3, /* packetType= */ 0xFF, 300);
+
+    AudioTagPayloadReader expectedReader = new AudioTagPayloadReader(new RecordingTrackOutput());
+    RecordingTrackOutput expectedOutput = (RecordingTrackOutput) expectedReader.output;
+    expectedReader.consume(new ParsableByteArray(firstPayload), TIME_US);
+    expectedReader.consume(new ParsableByteArray(payload), TIME_US);
+    RecordingTrackOutput output = new RecordingTrackOutput();
+    AudioTagPayloadReader reader = new AudioTagPayloadReader(output);
+    // The header of the first tag holds the format, so it has to be consumed from a buffer.
+    assertFalse(
+        consumeSample(
+            reader,
+            new FakeExtractorInput(firstPayload, /* simulateIOErrors= */ false),
+            firstPayload.length));
+    reader.consume(new ParsableByteArray(firstPayload), TIME_US);
+
+    assertTrue(
+        consumeSample(
+            reader,
+            new FakeExtractorInput(payload, /* simulateIOErrors= */ false),
+            payload.length));
+    assertEquals(MimeTypes.AUDIO_MPEG, output.format.sampleMimeType);
+    assertSamplesEqual(expectedOutput, output);
+    assertEquals(299, (int) output.sampleSizes.get(1));
+  }
+
+  @Test
+  public void audioConsumeSample_aacSequenceHeader_returnsFalseWithoutReading()
+      throws IOException {
+    byte[] payload = createAudioPayload(AUDIO_HEADER_AAC, /* packetType= */ 0, 2);
+    RecordingTrackOutput output = new RecordingTrackOutput();
+    AudioTagPayloadReader reader = createAacReader(output);
+    FakeExtractorInput input = new FakeExtractorInput(payload, /* simulateIOErrors= */ false);
+
+    assertFalse(consumeSample(reader, input, payload.length));
+    assertEquals(0, input.getPosition());
+    assertEquals(0, input.getPeekPosition());
+    assertEquals(0, output.sampleSizes.size());
+  }
+
+  @Test
+  public void audioConsumeSample_withIOErrors_resumesSample() throws IOException {
+    byte[] payload = createAudioPayload(AUDIO_HEADER_AAC, /* packetType= */ 1, 300);
+
+    RecordingTrackOutput expectedOutput = consumeAudio(payload);
+    RecordingTrackOutput output = new RecordingTrackOutput();
+    AudioTagPayloadReader reader = createAacReader(output);
+    FakeExtractorInput input = new FakeExtractorInput(payload, /* simulateIOErrors= */ true);
+
+    assertTrue(consumeSample(reader, input, payload.length));
+    assertTrue(input.ioErrorCount > payload.length / FakeExtractorInput.MAX_READ_LENGTH);
+    assertSamplesEqual(expectedOutput, output);
+  }
+
+  @Test
+  public void audioConsumeSample_afterResetPendingSample_startsNewSample() throws IOException {
+    byte[] payload = createAudioPayload(AUDIO_HEADER_AAC, /* packetType= */ 1, 300);
+    byte[] nextPayload = createAudioPayload(AUDIO_HEADER_AAC, /* packetType= */ 1, 100);
+    RecordingTrackOutput output = new RecordingTrackOutput();
+    AudioTagPayloadReader reader = createAacReader(output);
+    FakeExtractorInput input = new FakeExtractorInput(payload, /* simulateIOErrors= */ true);
+
+    consumeSampleUntilFirstIOErrorAfter(reader, input, payload.length, /* position= */ 100);
+    reader.resetPendingSample();
+
+    assertTrue(
+        consumeSample(
+            reader,
+            new FakeExtractorInput(nextPayload, /* simulateIOErrors= */ false),
+            nextPayload.length));
+    assertEquals(1, output.sampleSizes.size());
+    assertEquals(98, (int) output.sampleSizes.get(0));
+  }
+
+  @Test
+  public void videoConsumeSample_outputsSameSamplesAsConsume() throws IOException {
+    for (int nalUnitLengthFieldLength : new int[] {1, 2, 4}) {
+      byte[] keyframe =
+          createVideoPayload(
+              VIDEO_HEADER_KEYFRAME_AVC, /* compositionTimeMs= */ 40, nalUnitLengthFieldLength);
+      byte[] interFrame =
+          createVideoPayload(
+              VIDEO_HEADER_INTER_FRAME_AVC, /* compositionTimeMs= */ 0, nalUnitLengthFieldLength);
+
+      RecordingTrackOutput expectedOutput =
+          consumeVideo(nalUnitLengthFieldLength, keyframe, interFrame);
+      RecordingTrackOutput output = new RecordingTrackOutput();
+      VideoTagPayloadReader reader = createVideoReader(output, nalUnitLengthFieldLength);
+      assertTrue(
+          consumeSample(
+              reader,
+              new FakeExtractorInput(keyframe, /* simulateIOErrors= */ false),
+              keyframe.length));
+      assertTrue(
+          consumeSample(
+              reader,
+              new FakeExtractorInput(interFrame, /* simulateIOErrors= */ false),
+              interFrame.length));
+
+      assertSamplesEqual(expectedOutput, output);
+      assertEquals(TIME_US + 40_000, (long) output.sampleTimesUs.get(0));
+      assertEquals(C.BUFFER_FLAG_KEY_FRAME, (int) output.sampleFlags.get(0));
+      assertEquals(0, (int) output.sampleFlags.get(1));
+    }
+  }
+
+  @Test
+  public void videoConsumeSample_writesStartCodes() throws IOException {
+    byte[] payload =
+        new byte[] {
+          VIDEO_HEADER_KEYFRAME_AVC, 1, 0, 0, 0, 0, 0, 0, 2, 0x65, 0x11, 0, 0, 0, 1, 0x06
+        };
+    RecordingTrackOutput output = new RecordingTrackOutput();
+    VideoTagPayloadReader reader = createVideoReader(output, /* nalUnitLengthFieldLength= */ 4);
+
+    assertTrue(
+        consumeSample(
+            reader,
+            new FakeExtractorInput(payload, /* simulateIOErrors= */ false),
+            payload.length));
+    assertArrayEquals(
+        new byte[] {0, 0, 0, 1, 0x65, 0x11, 0, 0, 0, 1, 0x06}, output.sampleData.toByteArray());
+    assertEquals(11, (int) output.sampleSizes.get(0));
+  }
+
+  @Test
+  public void videoConsumeSample_sequenceHeaderOrInterFrameBeforeKeyframe_returnsFalse()
+      throws IOException {
+    byte[] sequenceHeader = createVideoSequenceHeader(/* nalUnitLengthFieldLength= */ 4);
+    byte[] interFrame =
+        createVideoPayload(
+            VIDEO_HEADER_INTER_FRAME_AVC,
+            /* compositionTimeMs= */ 0,
+            /* nalUnitLengthFieldLength= */ 4);
+    RecordingTrackOutput output = new RecordingTrackOutput();
+    VideoTagPayloadReader reader = new VideoTagPayloadReader(output);
+
+    // The format hasn't been output before the sequence header is consumed.
+    FakeExtractorInput input =
+        new FakeExtractorInput(sequenceHeader, /* simulateIOErrors= */ false);
+    assertFalse(consumeSample(reader, input, sequenceHeader.length));
+    reader.consume(new ParsableByteArray(sequenceHeader), TIME_US);
+    assertFalse(consumeSample(reader, input, sequenceHeader.length));
+    assertEquals(0, input.getPosition());
+    input = new FakeExtractorInput(interFrame, /* simulateIOErrors= */ false);
+    assertFalse(consumeSample(reader, input, interFrame.length));
+    assertEquals(0, input.getPosition());
+    assertEquals(0, input.getPeekPosition());
+    assertEquals(0, output.sampleSizes.size());
+  }
+
+  @Test
+  public void videoConsumeSample_nalUnitExceedingTag_throwsParserException() throws IOException {
+    byte[] payload = new byte[] {VIDEO_HEADER_KEYFRAME_AVC, 1, 0, 0, 0, 0, 0, 0, 3, 0x65, 0x11};
+    VideoTagPayloadReader reader =
+        createVideoReader(new RecordingTrackOutput(), /* nalUnitLengthFieldLength= */ 4);
+
+    try {
+      consumeSample(
+          reader, new FakeExtractorInput(payload, /* simulateIOErrors= */ false), payload.length);
+      fail();
+    } catch (ParserException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void videoConsumeSample_withIOErrors_resumesSample() throws IOException {
+    for (int nalUnitLengthFieldLength : new int[] {1, 2, 4}) {
+      byte[] keyframe =
+          createVideoPayload(
+              VIDEO_HEADER_KEYFRAME_AVC, /* compositionTimeMs= */ 40, nalUnitLengthFieldLength);
+
+      RecordingTrackOutput expectedOutput = consumeVideo(nalUnitLengthFieldLength, keyframe);
+      RecordingTrackOutput output = new RecordingTrackOutput();
+      VideoTagPayloadReader reader = createVideoReader(output, nalUnitLengthFieldLength);
+      FakeExtractorInput input = new FakeExtractorInput(keyframe, /* simulateIOErrors= */ true);
+
+      assertTrue(consumeSample(reader, input, keyframe.length));
+      assertTrue(input.ioErrorCount > keyframe.length / FakeExtractorInput.MAX_READ_LENGTH);
+      assertSamplesEqual(expectedOutput, output);
+    }
+  }
+
+  @Test
+  public void videoConsumeSample_afterResetPendingSample_startsNewSample() throws IOException {
+    byte[] keyframe =
+        createVideoPayload(
+            VIDEO_HEADER_KEYFRAME_AVC,
+            /* compositionTimeMs= */ 0,
+            /* nalUnitLengthFieldLength= */ 4);
+    byte[] payload = new byte[] {VIDEO_HEADER_KEYFRAME_AVC, 1, 0, 0, 0, 0, 0, 0, 1, 0x65};
+    RecordingTrackOutput output = new RecordingTrackOutput();
+    VideoTagPayloadReader reader = createVideoReader(output, /* nalUnitLengthFieldLength= */ 4);
+    FakeExtractorInput input = new FakeExtractorInput(keyframe, /* simulateIOErrors= */ true);
+
+    consumeSampleUntilFirstIOErrorAfter(reader, input, keyframe.length, /* position= */ 50);
+    reader.resetPendingSample();
+
+    assertTrue(
+        consumeSample(
+            reader,
+            new FakeExtractorInput(payload, /* simulateIOErrors= */ false),
+            payload.length));
+    assertEquals(1, output.sampleSizes.size());
+    assertEquals(5, (int) output.sampleSizes.get(0));
+  }
+
+  /** Calls {@link TagPayloadReader#consumeSample} until it completes without an I/O error. */
+  private static boolean consumeSample(
+      TagPayloadReader reader, FakeExtractorInput input, int payloadSize) throws IOException {
+    while (true) {
+      try {
+        return reader.consumeSample(input, payloadSize, TIME_US);
+      } catch (SimulatedIOException e) {
+        // Resume writing the sample, as the extractor does when it's called again.
+      }
+    }
+  }
+
+  /**
+   * Calls {@link TagPayloadReader#consumeSample} until it fails with an I/O error after reading
+   * past {@code position}.
+   */
+  private static void consumeSampleUntilFirstIOErrorAfter(
+      TagPayloadReader reader, FakeExtractorInput input, int payloadSize, int position)
+      throws IOException {
+    while (true) {
+      try {
+        reader.consumeSample(input, payloadSize, TIME_US);
+        fail();
+      } catch (SimulatedIOException e) {
+        if (input.getPosition() > position) {
+          return;
+        }
+      }
+    }
+  }
+
+  private static RecordingTrackOutput consumeAudio(byte[] payload) throws ParserException {
+    RecordingTrackOutput output = new RecordingTrackOutput();
+    createAacReader(output).consume(new ParsableByteArray(payload), TIME_US);
+    return output;
+  }
+
+  private static RecordingTrackOutput consumeVideo(int nalUnitLengthFieldLength, byte[]... payloads)
+      throws ParserException {
+    RecordingTrackOutput output = new RecordingTrackOutput();
+    VideoTagPayloadReader reader = createVideoReader(output, nalUnitLengthFieldLength);
+    for (byte[] payload : payloads) {
+      reader.consume(new ParsableByteArray(payload), TIME_US);
+    }
+    return output;
+  }
+
+  /** Returns an AAC reader that has consumed a sequence header for 44.1 kHz stereo AAC LC. */
+  private static AudioTagPayloadReader createAacReader(RecordingTrackOutput output)
+      throws ParserException {
+    AudioTagPayloadReader reader = new AudioTagPayloadReader(output);
+    reader.consume(
+        new ParsableByteArray(new byte[] {(byte) AUDIO_HEADER_AAC, 0, 0x12, 0x10}), TIME_US);
+    assertNotNull(output.format);
+    return reader;
+  }
+
+  /** Returns an AVC reader that has consumed a sequence header. */
+  private static VideoTagPayloadReader createVideoReader(
+      RecordingTrackOutput output, int nalUnitLengthFieldLength) throws ParserException {
+    VideoTagPayloadReader reader = new VideoTagPayloadReader(output);
+    reader.consume(
+        new ParsableByteArray(createVideoSequenceHeader(nalUnitLengthFieldLength)), TIME_US);
+    assertNotNull(output.format);
+    return reader;
+  }
+
+  /** Returns an audio tag payload holding a header, a packet type and random data. */
+  private static byte[] createAudioPayload(int header, int packetType, int length) {
+    byte[] payload = createRandomData(length);
+    payload[0] = (byte) header;
+    payload[1] = (byte) packetType;
+    return payload;
+  }
+
+  /**
+   * Returns a video sequence header holding an AVCDecoderConfigurationRecord without parameter
+   * sets.
+   */
+  private static byte[] createVideoSequenceHeader(int nalUnitLengthFieldLength) {
+    return new byte[] {
+      VIDEO_HEADER_KEYFRAME_AVC, 0, 0, 0, 0,
+      1, 0x64, 0, 0x28, (byte) (0xFC | (nalUnitLengthFieldLength - 1)), (byte) 0xE0, 0
+    };
+  }
+
+  /** Returns a video tag payload holding NAL units of various sizes, including empty ones. */
+  private static byte[] createVideoPayload(
+      int header, int compositionTimeMs, int nalUnitLengthFieldLength) {
+    ByteArrayOutputStream payload = new ByteArrayOutputStream();
+    payload.write(header);
+    payload.write(/* packetType= */ 1);
+    payload.write(compositionTimeMs >> 16);
+    payload.write(compositionTimeMs >> 8);
+    payload.write(compositionTimeMs);
+    int maxNalUnitLength = nalUnitLengthFieldLength == 1 ? 0xFF : 1000;
+    for (int nalUnitLength : new int[] {10, maxNalUnitLength, 0, 1, 200}) {
+      for (int i = nalUnitLengthFieldLength - 1; i >= 0; i--) {
+        payload.write(nalUnitLength >> (i * 8));
+      }
+      byte[] nalUnit = createRandomData(nalUnitLength);
+      payload.write(nalUnit, /* off= */ 0, nalUnitLength);
+    }
+    return payload.toByteArray();
+  }
+
+  private static byte[] createRandomData(int length) {
+    byte[] data = new byte[length];
+    new Random(/* seed= */ length).nextBytes(data);
+    return data;
+  }
+
+  private static void assertSamplesEqual(
+      RecordingTrackOutput expected, RecordingTrackOutput actual) {
+    assertEquals(expected.format, actual.format);
+    assertEquals(expected.sampleTimesUs, actual.sampleTimesUs);
+    assertEquals(expected.sampleFlags, actual.sampleFlags);
+    assertEquals(expected.sampleSizes, actual.sampleSizes);
+    assertArrayEquals(expected.sampleData.toByteArray(), actual.sampleData.toByteArray());
+  }
+
+  private static final class SimulatedIOException extends IOException {}
+
+  /**
+   * An {@link ExtractorInput} reading from a byte array, which returns at most {@link
+   * #MAX_READ_LENGTH} bytes from each read. If I/O errors are simulated, the first attempt to read,
+   * skip or peek from each position throws a {@link SimulatedIOException}, without consuming any
+   * data.
+   */
+  private static final class FakeExtractorInput implements ExtractorInput {
+
+    public static final int MAX_READ_LENGTH = 7;
+
+    private final byte[] data;
+    private final boolean simulateIOErrors;
+    private final Set<Long> failedReadPositions;
+    private final Set<Long> failedPeekPositions;
+
+    public int ioErrorCount;
+    private int position;
+    private int peekPosition;
+
+    public FakeExtractorInput(byte[] data, boolean simulateIOErrors) {
+      this.data = data;
+      this.simulateIOErrors = simulateIOErrors;
+      failedReadPositions = new HashSet<>();
+      failedPeekPositions = new HashSet<>();
+    }
+
+    @Override
+    public int read(byte[] target, int offset, int length) throws IOException {
+      checkIOError(failedReadPositions, position);
+      if (position == data.length) {
+        return C.RESULT_END_OF_INPUT;
+      }
+      int bytesRead = min(min(length, MAX_READ_LENGTH), data.length - position);
+      System.arraycopy(data, position, target, offset, bytesRead);
+      position += bytesRead;
+      peekPosition = position;
+      return bytesRead;
+    }
+
+    @Override
+    public boolean readFully(byte[] target, int offset, int length, boolean allowEndOfInput)
+        throws IOException {
+      checkIOError(failedReadPositions, position);
+      if (!checkLength(position, length, allowEndOfInput)) {
+        return false;
+      }
+      System.arraycopy(data, position, target, offset, length);
+      position += length;
+      peekPosition = position;
+      return true;
+    }
+
+    @Override
+    public void readFully(byte[] target, int offset, int length) throws IOException {
+      readFully(target, offset, length, /* allowEndOfInput= */ false);
+    }
+
+    @Override
+    public int skip(int length) throws IOException {
+      checkIOError(failedReadPositions, position);
+      int bytesSkipped = min(min(length, MAX_READ_LENGTH), data.length - position);
+      position += bytesSkipped;
+      peekPosition = position;
+      return bytesSkipped == 0 ? C.RESULT_END_OF_INPUT : bytesSkipped;
+    }
+
+    @Override
+    public boolean skipFully(int length, boolean allowEndOfInput) throws IOException {
+      checkIOError(failedReadPositions, position);
+      if (!checkLength(position, length, allowEndOfInput)) {
+        return false;
+      }
+      position += length;
+      peekPosition = position;
+      return true;
+    }
+
+    @Override
+    public void skipFully(int length) throws IOException {
+      skipFully(length, /* allowEndOfInput= */ false);
+    }
+
+    @Override
+    public int peek(byte[] target, int offset, int length) throws IOException {
+      checkIOError(failedPeekPositions, peekPosition);
+      if (peekPosition == data.length) {
+        return C.RESULT_END_OF_INPUT;
+      }
+      int bytesPeeked = min(min(length, MAX_READ_LENGTH), data.length - peekPosition);
+      System.arraycopy(data, peekPosition, target, offset, bytesPeeked);
+      peekPosition += bytesPeeked;
+      return bytesPeeked;
+    }
+
+    @Override
+    public boolean peekFully(byte[] target, int offset, int length, boolean allowEndOfInput)
+        throws IOException {
+      if (!advancePeekPosition(length, allowEndOfInput)) {
+        return false;
+      }
+      System.arraycopy(data, peekPosition - length, target, offset, length);
+      return true;
+    }
+
+    @Override
+    public void peekFully(byte[] target, int offset, int length) throws IOException {
+      peekFully(target, offset, length, /* allowEndOfInput= */ false);
+    }
+
+    @Override
+    public boolean advancePeekPosition(int length, boolean allowEndOfInput) throws IOException {
+      checkIOError(failedPeekPositions, peekPosition);
+      if (!checkLength(peekPosition, length, allowEndOfInput)) {
+        return false;
+      }
+      peekPosition += length;
+      return true;
+    }
+
+    @Override
+    public void advancePeekPosition(int length) throws IOException {
+      advancePeekPosition(length, /* allowEndOfInput= */ false);
+    }
+
+    @Override
+    public void resetPeekPosition() {
+      peekPosition = position;
+    }
+
+    @Override
+    public long getPeekPosition() {
+      return peekPosition;
+    }
+
+    @Override
+    public long getPosition() {
+      return position;
+    }
+
+    @Override
+    public long getLength() {
+      return data.length;
+    }
+
+    @Override
+    public <E extends Throwable> void setRetryPosition(long position, E e) throws E {
+      throw e;
+    }
+
+    private void checkIOError(Set<Long> failedPositions, long position)
+        throws SimulatedIOException {
+      if (simulateIOErrors && failedPositions.add(position)) {
+        ioErrorCount++;
+        throw new SimulatedIOException();
+      }
+    }
+
+    private boolean checkLength(int position, int length, boolean allowEndOfInput)
+        throws EOFException {
+      if (position + length <= data.length) {
+        return true;
+      }
+      if (position == data.length && allowEndOfInput) {
+        return false;
+      }
+      throw new EOFException();
+    }
+  }
+
+  /** A {@link TrackOutput} that records the format, the sample data and the sample metadata. */
+  private static final class RecordingTrackOutput implements TrackOutput {
+
+    public final ByteArrayOutputStream sampleData;
+    public final List<Long> sampleTimesUs;
+    public final List<Integer> sampleFlags;
+    public final List<Integer> sampleSizes;
+    @Nullable public Format format;
+
+    public RecordingTrackOutput() {
+      sampleData = new ByteArrayOutputStream();
+      sampleTimesUs = new ArrayList<>();
+      sampleFlags = new ArrayList<>();
+      sampleSizes = new ArrayList<>();
+    }
+
+    @Override
+    public void format(Format format) {
+      this.format = format;
+    }
+
+    @Override
+    public int sampleData(
+        DataReader input, int length, boolean allowEndOfInput, @SampleDataPart int sampleDataPart)
+        throws IOException {
+      byte[] buffer = new byte[length];
+      int bytesRead = input.read(buffer, /* offset= */ 0, length);
+      if (bytesRead == C.RESULT_END_OF_INPUT) {
+        if (allowEndOfInput) {
+          return C.RESULT_END_OF_INPUT;
+        }
+        throw new EOFException();
+      }
+      sampleData.write(buffer, /* off= */ 0, bytesRead);
+      return bytesRead;
+    }
+
+    @Override
+    public void sampleData(
+        ParsableByteArray data, int length, @SampleDataPart int sampleDataPart) {
+      byte[] buffer = new byte[length];
+      data.readBytes(buffer, /* offset= */ 0, length);
+      sampleData.write(buffer, /* off= */ 0, length);
+    }
+
+    @Override
+    public void sampleMetadata(
+        long timeUs, int flags, int size, int offset, @Nullable CryptoData cryptoData) {
+      sampleTimesUs.add(timeUs);
+      sampleFlags.add(flags);
+      sampleSizes.add(size);
+    }
+  }
+}
@@ -0,0 +1,482 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.migu.player.extractor.mkv;
+
+import android.net.Uri;
+import android.support.annotation.Nullable;
+
+import com.migu.player.C;
+import com.migu.player.extractor.ChunkIndex;
+import com.migu.player.extractor.DefaultExtractorInput;
+import com.migu.player.extractor.ExtractorInput;
+import com.migu.player.extractor.SeekMap;
+import com.migu.player.upstream.ByteArrayDataSource;
+import com.migu.player.upstream.DataSpec;
+import com.migu.player.util.Util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link ClusterIndex}, including indexes of synthetic files without a Cues
+ * element.
+ */
+public final class ClusterIndexTest {
+
+  private static final Uri URI = Uri.parse("https://example.test/media.webm");
+
+  private static final int ID_EBML = 0x1A45DFA3;
+  private static final int ID_DOC_TYPE = 0x4282;
+  private static final int ID_SEGMENT = 0x18538067;
+  private static final int ID_SEGMENT_INFO = 0x1549A966;
+  private static final int ID_TIMECODE_SCALE = 0x2AD7B1;
+  private static final int ID_DURATION = 0x4489;
+  private static final int ID_TRACKS = 0x1654AE6B;
+  private static final int ID_TRACK_ENTRY = 0xAE;
+  private static final int ID_TRACK_NUMBER = 0xD7;
+  private static final int ID_TRACK_TYPE = 0x83;
+  private static final int ID_CODEC_ID = 0x86;
+  private static final int ID_VIDEO = 0xE0;
+  private static final int ID_PIXEL_WIDTH = 0xB0;
+  private static final int ID_PIXEL_HEIGHT = 0xBA;
+  private static final int ID_CLUSTER = 0x1F43B675;
+  private static final int ID_TIME_CODE = 0xE7;
+  private static final int ID_SIMPLE_BLOCK = 0xA3;
+
+  private static final int CLUSTER_COUNT = 10;
+  private static final long CLUSTER_DURATION_MS = 2000;
+  private static final int SAMPLE_SIZE = 1000;
+  private static final long UNKNOWN_SIZE = -1;
+
+  @Test
+  public void toSeekMap_segmentEndKnown_lastClusterExtendsToSegmentEnd() {
+    ClusterIndex clusterIndex =
+        new ClusterIndex(
+            /* segmentContentPosition= */ 50,
+            /* segmentContentSize= */ 950,
+            /* durationUs= */ 3_000_000,
+            new long[] {0, 1_000_000, 2_000_000},
+            new long[] {100, 400, 700});
+
+    ChunkIndex chunkIndex = (ChunkIndex) clusterIndex.toSeekMap(/* inputLength= */ 1200);
+
+    assertArrayEquals(new long[] {100, 400, 700}, chunkIndex.offsets);
+    assertArrayEquals(new int[] {300, 300, 300}, chunkIndex.sizes);
+    assertArrayEquals(new long[] {1_000_000, 1_000_000, 1_000_000}, chunkIndex.durationsUs);
+  }
+
+  @Test
+  public void toSeekMap_lastClusterLongerThan2Gb_clampsSize() {
+    long threeGb = 3L * 1024 * 1024 * 1024;
+    ClusterIndex clusterIndex =
+        new ClusterIndex(
+            /* segmentContentPosition= */ 50,
+            /* segmentContentSize= */ 2 * threeGb,
+            /* durationUs= */ 3_000_000,
+            new long[] {0, 1_000_000},
+            new long[] {100, threeGb});
+
+    ChunkIndex chunkIndex = (ChunkIndex) clusterIndex.toSeekMap(C.LENGTH_UNSET);
+
+    assertArrayEquals(new int[] {Integer.MAX_VALUE, Integer.MAX_VALUE}, chunkIndex.sizes);
+    assertEquals(threeGb, chunkIndex.getSeekPoints(/* timeUs= */ 2_000_000).first.position);
+  }
+
+  @Test
+  public void toSeekMap_segmentSizeUnknown_lastClusterExtendsToInputEnd() {
+    ClusterIndex clusterIndex =
+        new ClusterIndex(
+            /* segmentContentPosition= */ 50,
+            /* segmentContentSize= */ C.LENGTH_UNSET,
+            /* durationUs= */ 3_000_000,
+            new long[] {0, 1_000_000, 2_000_000},
+            new long[] {100, 400, 700});
+
+    ChunkIndex chunkIndex = (ChunkIndex) clusterIndex.toSeekMap(/* inputLength= */ 1200);
+
+    assertArrayEquals(new int[] {300, 300, 500}, chunkIndex.sizes);
+  }
+
+  @Test
+  public void toSeekMap_segmentSizeAndInputLengthUnknown_lastClusterEndsPreviousCluster() {
+    ClusterIndex clusterIndex =
+        new ClusterIndex(
+            /* segmentContentPosition= */ 50,
+            /* segmentContentSize= */ C.LENGTH_UNSET,
+            /* durationUs= */ 3_000_000,
+            new long[] {0, 1_000_000, 2_000_000},
+            new long[] {100, 400, 700});
+
+    ChunkIndex chunkIndex = (ChunkIndex) clusterIndex.toSeekMap(C.LENGTH_UNSET);
+
+    assertArrayEquals(new long[] {100, 400}, chunkIndex.offsets);
+    assertArrayEquals(new int[] {300, 300}, chunkIndex.sizes);
+    assertArrayEquals(new long[] {1_000_000, 2_000_000}, chunkIndex.durationsUs);
+    assertEquals(400, chunkIndex.getSeekPoints(/* timeUs= */ 2_500_000).first.position);
+  }
+
+  @Test
+  public void toSeekMap_singleClusterWithUnknownEnd_returnsUnseekableSeekMap() {
+    ClusterIndex clusterIndex =
+        new ClusterIndex(
+            /* segmentContentPosition= */ 50,
+            /* segmentContentSize= */ C.LENGTH_UNSET,
+            /* durationUs= */ 3_000_000,
+            new long[] {0},
+            new long[] {100});
+
+    assertFalse(clusterIndex.toSeekMap(C.LENGTH_UNSET).isSeekable());
+  }
+
+  @Test
+  public void byteArray_roundTrip_preservesIndex() {
+    ClusterIndex clusterIndex =
+        new ClusterIndex(
+            /* segmentContentPosition= */ 50,
+            /* segmentContentSize= */ 950,
+            /* durationUs= */ 3_000_000,
+            new long[] {0, 1_000_000},
+            new long[] {100, 400});
+
+    ClusterIndex restored = ClusterIndex.fromByteArray(clusterIndex.toByteArray());
+
+    assertNotNull(restored);
+    assertTrue(restored.matches(50, 950, 3_000_000));
+    assertEquals(2, restored.getClusterCount());
+    assertEquals(1_000_000, restored.getTimeUs(1));
+    assertEquals(400, restored.getPosition(1));
+  }
+
+  @Test
+  public void indexCuelessFile_knownSegmentSize_seeksToClusters() throws IOException {
+    byte[] file = createCuelessFile(/* unknownSegmentSize= */ false);
+
+    ChunkIndex chunkIndex = (ChunkIndex) indexCuelessFile(file).toSeekMap(file.length);
+
+    List<Long> clusterPositions = findClusterPositions(file);
+    assertEquals(CLUSTER_COUNT, chunkIndex.length);
+    for (int i = 0; i < CLUSTER_COUNT; i++) {
+      long clusterTimeUs = i * CLUSTER_DURATION_MS * 1000;
+      SeekMap.SeekPoints seekPoints = chunkIndex.getSeekPoints(clusterTimeUs + 500_000);
+      assertEquals(clusterTimeUs, seekPoints.first.timeUs);
+      assertEquals((long) clusterPositions.get(i), seekPoints.first.position);
+    }
+    assertEquals(
+        file.length - clusterPositions.get(CLUSTER_COUNT - 1),
+        chunkIndex.sizes[CLUSTER_COUNT - 1]);
+  }
+
+  @Test
+  public void indexCuelessFile_unknownSegmentSize_lastClusterExtendsToInputEnd()
+      throws IOException {
+    byte[] file = createCuelessFile(/* unknownSegmentSize= */ true);
+
+    ChunkIndex chunkIndex = (ChunkIndex) indexCuelessFile(file).toSeekMap(file.length);
+
+    List<Long> clusterPositions = findClusterPositions(file);
+    assertEquals(CLUSTER_COUNT, chunkIndex.length);
+    assertEquals(
+        file.length - clusterPositions.get(CLUSTER_COUNT - 1),
+        chunkIndex.sizes[CLUSTER_COUNT - 1]);
+  }
+
+  @Test
+  public void indexCuelessFile_unknownSegmentSizeAndInputLength_clampsLastClusterSize()
+      throws IOException {
+    byte[] file = createCuelessFile(/* unknownSegmentSize= */ true);
+
+    ChunkIndex chunkIndex = (ChunkIndex) indexCuelessFile(file).toSeekMap(C.LENGTH_UNSET);
+
+    List<Long> clusterPositions = findClusterPositions(file);
+    assertEquals(CLUSTER_COUNT, chunkIndex.length);
+    assertEquals(Integer.MAX_VALUE, chunkIndex.sizes[CLUSTER_COUNT - 1]);
+    assertEquals(
+        (long) clusterPositions.get(CLUSTER_COUNT - 1),
+        chunkIndex.getSeekPoints(/* timeUs= */ Long.MAX_VALUE / 2).first.position);
+  }
+
+  // Indexing.
+
+  /**
+   * Reads a file with {@link DefaultEbmlReader}, indexing its clusters the way {@link
+   * MatroskaExtractor} does for files without Cues, and returns the index as restored from the
+   * serialized form in which it's stored.
+   */
+  private static ClusterIndex indexCuelessFile(byte[] file) throws IOException {
+    ByteArrayDataSource dataSource = new ByteArrayDataSource(file);
+    dataSource.open(new DataSpec(URI));
+    ExtractorInput input =
+        new DefaultExtractorInput(dataSource, /* position= */ 0, /* length= */ file.length);
+    ClusterIndexingProcessor processor = new ClusterIndexingProcessor();
+    DefaultEbmlReader reader = new DefaultEbmlReader();
+    reader.init(processor);
+    while (reader.read(input)) {
+      processor.elementBoundaryPosition = input.getPosition();
+    }
+    dataSource.close();
+    ClusterIndex clusterIndex =
+        new ClusterIndex(
+            processor.segmentContentPosition,
+            processor.segmentContentSize,
+            processor.durationUs,
+            toArray(processor.timesUs),
+            toArray(processor.positions));
+    return assertNotNullAndReturn(ClusterIndex.fromByteArray(clusterIndex.toByteArray()));
+  }
+
+  private static ClusterIndex assertNotNullAndReturn(@Nullable ClusterIndex clusterIndex) {
+    assertNotNull(clusterIndex);
+    return clusterIndex;
+  }
+
+  private static long[] toArray(List<Long> values) {
+    long[] array = new long[values.size()];
+    for (int i = 0; i < array.length; i++) {
+      array[i] = values.get(i);
+    }
+    return array;
+  }
+
+  // Synthetic files.
+
+  /**
+   * Creates a WebM file with a single VP9 track and {@link #CLUSTER_COUNT} clusters, each holding
+   * one key frame, and no Cues element.
+   *
+   * @param unknownSegmentSize Whether the size of the Segment element is written as the reserved
+   *     unknown size.
+   */
+  private static byte[] createCuelessFile(boolean unknownSegmentSize) {
+    ByteArrayOutputStream segmentContent = new ByteArrayOutputStream();
+    write(
+        segmentContent,
+        element(
+            ID_SEGMENT_INFO,
+            uintElement(ID_TIMECODE_SCALE, 1_000_000),
+            floatElement(ID_DURATION, CLUSTER_COUNT * CLUSTER_DURATION_MS)));
+    write(
+        segmentContent,
+        element(
+            ID_TRACKS,
+            element(
+                ID_TRACK_ENTRY,
+                uintElement(ID_TRACK_NUMBER, 1),
+                uintElement(ID_TRACK_TYPE, 1),
+                stringElement(ID_CODEC_ID, "V_VP9"),
+                element(
+                    ID_VIDEO,
+                    uintElement(ID_PIXEL_WIDTH, 320),
+                    uintElement(ID_PIXEL_HEIGHT, 240)))));
+    for (int i = 0; i < CLUSTER_COUNT; i++) {
+      byte[] block = new byte[4 + SAMPLE_SIZE];
+      block[0] = (byte) 0x81; // Track number 1.
+      block[3] = (byte) 0x80; // Key frame.
+      write(
+          segmentContent,
+          element(
+              ID_CLUSTER,
+              uintElement(ID_TIME_CODE, i * CLUSTER_DURATION_MS),
+              rawElement(ID_SIMPLE_BLOCK, block)));
+    }
+    byte[] segmentContentBytes = segmentContent.toByteArray();
+    ByteArrayOutputStream file = new ByteArrayOutputStream();
+    write(file, element(ID_EBML, stringElement(ID_DOC_TYPE, "webm")));
+    write(file, id(ID_SEGMENT));
+    write(file, size(unknownSegmentSize ? UNKNOWN_SIZE : segmentContentBytes.length));
+    write(file, segmentContentBytes);
+    return file.toByteArray();
+  }
+
+  /** Returns the positions of the Cluster elements of a file created by {@link #createCuelessFile}.
+   */
+  private static List<Long> findClusterPositions(byte[] file) {
+    byte[] clusterId = id(ID_CLUSTER);
+    List<Long> positions = new ArrayList<>();
+    for (int i = 0; i + clusterId.length <= file.length; i++) {
+      boolean matches = true;
+      for (int j = 0; j < clusterId.length && matches; j++) {
+        matches = file[i + j] == clusterId[j];
+      }
+      if (matches) {
+        positions.add((long) i);
+      }
+    }
+    return positions;
+  }
+
+  private static byte[] element(int id, byte[]... children) {
+    ByteArrayOutputStream content = new ByteArrayOutputStream();
+    for (byte[] child : children) {
+      write(content, child);
+    }
+    return rawElement(id, content.toByteArray());
+  }
+
+  private static byte[] uintElement(int id, long value) {
+    byte[] content = new byte[8];
+    for (int i = 0; i < 8; i++) {
+      content[i] = (byte) (value >> (8 * (7 - i)));
+    }
+    return rawElement(id, content);
+  }
+
+  private static byte[] floatElement(int id, double value) {
+    return uintElement(id, Double.doubleToLongBits(value));
+  }
+
+  private static byte[] stringElement(int id, String value) {
+    return rawElement(id, Util.getUtf8Bytes(value));
+  }
+
+  private static byte[] rawElement(int id, byte[] content) {
+    ByteArrayOutputStream element = new ByteArrayOutputStream();
+    write(element, id(id));
+    write(element, size(content.length));
+    write(element, content);
+    return element.toByteArray();
+  }
+
+  private static byte[] id(int id) {
+    int length = id > 0xFFFFFF ? 4 : id > 0xFFFF ? 3 : id > 0xFF ? 2 : 1;
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      bytes[i] = (byte) (id >> (8 * (length - 1 - i)));
+    }
+    return bytes;
+  }
+
+  /** Returns an 8 byte element size, or the reserved unknown size for {@link #UNKNOWN_SIZE}. */
+  private static byte[] size(long size) {
+    byte[] bytes = new byte[8];
+    bytes[0] = 0x01;
+    for (int i = 1; i < 8; i++) {
+      bytes[i] = size == UNKNOWN_SIZE ? (byte) 0xFF : (byte) (size >> (8 * (7 - i)));
+    }
+    return bytes;
+  }
+
+  private static void write(ByteArrayOutputStream output, byte[] bytes) {
+    output.write(bytes, /* off= */ 0, bytes.length);
+  }
+
+  /** Indexes clusters that start at least a second apart, like {@link MatroskaExtractor}. */
+  private static final class ClusterIndexingProcessor implements EbmlProcessor {
+
+    public final List<Long> timesUs;
+    public final List<Long> positions;
+    public long segmentContentPosition;
+    public long segmentContentSize;
+    public long durationUs;
+    public long elementBoundaryPosition;
+
+    private long clusterPosition;
+
+    public ClusterIndexingProcessor() {
+      timesUs = new ArrayList<>();
+      positions = new ArrayList<>();
+    }
+
+    @Override
+    @ElementType
+    public int getElementType(int id) {
+      switch (id) {
+        case ID_EBML:
+        case ID_SEGMENT:
+        case ID_SEGMENT_INFO:
+        case ID_TRACKS:
+        case ID_TRACK_ENTRY:
+        case ID_VIDEO:
+        case ID_CLUSTER:
+          return ELEMENT_TYPE_MASTER;
+        case ID_TIMECODE_SCALE:
+        case ID_TRACK_NUMBER:
+        case ID_TRACK_TYPE:
+        case ID_PIXEL_WIDTH:
+        case ID_PIXEL_HEIGHT:
+        case ID_TIME_CODE:
+          return ELEMENT_TYPE_UNSIGNED_INT;
+        case ID_DOC_TYPE:
+        case ID_CODEC_ID:
+          return ELEMENT_TYPE_STRING;
+        case ID_SIMPLE_BLOCK:
+          return ELEMENT_TYPE_BINARY;
+        case ID_DURATION:
+          return ELEMENT_TYPE_FLOAT;
+        default:
+          return ELEMENT_TYPE_UNKNOWN;
+      }
+    }
+
+    @Override
+    public boolean isLevel1Element(int id) {
+      return id == ID_SEGMENT_INFO || id == ID_CLUSTER || id == ID_TRACKS;
+    }
+
+    @Override
+    public void startMasterElement(int id, long contentPosition, long contentSize) {
+      if (id == ID_SEGMENT) {
+        segmentContentPosition = contentPosition;
+        segmentContentSize = contentSize;
+      } else if (id == ID_CLUSTER) {
+        clusterPosition = elementBoundaryPosition;
+      }
+    }
+
+    @Override
+    public void endMasterElement(int id) {
+      // Do nothing.
+    }
+
+    @Override
+    public void integerElement(int id, long value) {
+      if (id == ID_TIME_CODE) {
+        long timeUs = value * 1000;
+        int lastIndex = timesUs.size() - 1;
+        if (lastIndex < 0 || timeUs >= timesUs.get(lastIndex) + 1_000_000) {
+          timesUs.add(timeUs);
+          positions.add(clusterPosition);
+        }
+      }
+    }
+
+    @Override
+    public void floatElement(int id, double value) {
+      if (id == ID_DURATION) {
+        durationUs = (long) (value * 1000);
+      }
+    }
+
+    @Override
+    public void stringElement(int id, String value) {
+      // Do nothing.
+    }
+
+    @Override
+    public void binaryElement(int id, int contentsSize, ExtractorInput input) throws IOException {
+      input.skipFully(contentsSize);
+    }
+  }
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.migu.player.extractor.mp3;
+
+import android.net.Uri;
+import android.support.annotation.Nullable;
+
+import com.migu.player.C;
+import com.migu.player.audio.MpegAudioUtil;
+import com.migu.player.extractor.DefaultExtractorInput;
+import com.migu.player.extractor.DummyTrackOutput;
+import com.migu.player.extractor.ExtractorInput;
+import com.migu.player.extractor.ExtractorOutput;
+import com.migu.player.extractor.PositionHolder;
+import com.migu.player.extractor.SeekMap;
+import com.migu.player.extractor.SeekPoint;
+import com.migu.player.extractor.TrackOutput;
+import com.migu.player.upstream.ByteArrayDataSource;
+import com.migu.player.upstream.DataSpec;
+import com.migu.player.util.Util;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link FrameIndexer} and for seeking with the {@link FrameIndex} that it stores,
+ * including a benchmark of scan throughput and of seek accuracy against constant bitrate seeking.
+ */
+public final class FrameIndexerTest {
+
+  private static final Uri URI = Uri.parse("https://example.com/podcast.mp3");
+  private static final int SAMPLE_RATE = 44_100;
+  private static final int SAMPLES_PER_FRAME = 1152;
+  /** MPEG-1 Layer III bitrate indices from 96 to 256 kbit/s. */
+  private static final int[] BITRATE_INDICES = new int[] {7, 8, 9, 10, 11, 12, 13};
+
+  @Test
+  public void index_vbrFile_storesExactIndexOfFramesASecondApart() throws IOException {
+    VbrFile file = new VbrFile(/* frameCount= */ 2_000, /* seed= */ 0);
+    MapFrameIndexStore store = new MapFrameIndexStore();
+
+    assertTrue(new FrameIndexer(new ByteArrayDataSource(file.data), URI, store).index());
+
+    FrameIndex frameIndex = assertNotNullAndGet(store.get(URI));
+    assertEquals(0, frameIndex.dataStartPosition);
+    assertEquals(file.data.length, frameIndex.dataEndPosition);
+    assertEquals(file.getFrameTimeUs(file.frameCount), frameIndex.durationUs);
+    long previousTimeUs = 0;
+    for (int i = 0; i < frameIndex.getFrameCount(); i++) {
+      int frame = Arrays.binarySearch(file.framePositions, frameIndex.getPosition(i));
+      assertTrue(frame > 0);
+      assertEquals(file.getFrameTimeUs(frame), frameIndex.getTimeUs(i));
+      long intervalUs = frameIndex.getTimeUs(i) - previousTimeUs;
+      assertTrue(intervalUs >= C.MICROS_PER_SECOND);
+      assertTrue(intervalUs < C.MICROS_PER_SECOND + file.getFrameTimeUs(1));
+      previousTimeUs = frameIndex.getTimeUs(i);
+    }
+    long remainingDurationUs = frameIndex.durationUs - previousTimeUs;
+    assertTrue(remainingDurationUs < C.MICROS_PER_SECOND + file.getFrameTimeUs(1));
+  }
+
+  @Test
+  public void index_alreadyIndexedFile_readsOnlyStartOfFile() throws IOException {
+    VbrFile file = new VbrFile(/* frameCount= */ 500, /* seed= */ 1);
+    MapFrameIndexStore store = new MapFrameIndexStore();
+    new FrameIndexer(new ByteArrayDataSource(file.data), URI, store).index();
+
+    assertFalse(new FrameIndexer(new ByteArrayDataSource(file.data), URI, store).index());
+    assertEquals(1, store.putCount);
+  }
+
+  @Test
+  public void seek_withStoredIndex_seeksToExactFramePositions() throws IOException {
+    VbrFile file = new VbrFile(/* frameCount= */ 2_000, /* seed= */ 2);
+    MapFrameIndexStore store = new MapFrameIndexStore();
+    new FrameIndexer(new ByteArrayDataSource(file.data), URI, store).index();
+
+    SeekMap seekMap = readSeekMap(file.data, new Mp3Extractor(/* flags= */ 0, store, URI));
+
+    assertTrue(seekMap.isSeekable());
+    assertEquals(file.getFrameTimeUs(file.frameCount), seekMap.getDurationUs());
+    Random random = new Random(/* seed= */ 0);
+    for (int i = 0; i < 500; i++) {
+      long timeUs = (long) (random.nextDouble() * seekMap.getDurationUs());
+      SeekPoint seekPoint = seekMap.getSeekPoints(timeUs).first;
+      assertEquals(0, file.getSeekTimeErrorUs(seekPoint));
+      assertTrue(seekPoint.timeUs <= timeUs);
+      assertTrue(timeUs - seekPoint.timeUs < C.MICROS_PER_SECOND + file.getFrameTimeUs(1));
+    }
+  }
+
+  @Test
+  public void serializedIndex_roundTrips() throws IOException {
+    VbrFile file = new VbrFile(/* frameCount= */ 2_000, /* seed= */ 3);
+    MapFrameIndexStore store = new MapFrameIndexStore();
+    new FrameIndexer(new ByteArrayDataSource(file.data), URI, store).index();
+    FrameIndex frameIndex = assertNotNullAndGet(store.get(URI));
+
+    byte[] serializedIndex = frameIndex.toByteArray();
+    FrameIndex restoredIndex = assertNotNullAndGet(FrameIndex.fromByteArray(serializedIndex));
+
+    assertEquals(frameIndex.durationUs, restoredIndex.durationUs);
+    assertTrue(restoredIndex.matches(frameIndex.dataStartPosition, frameIndex.dataEndPosition));
+    assertEquals(frameIndex.getFrameCount(), restoredIndex.getFrameCount());
+    for (int i = 0; i < frameIndex.getFrameCount(); i++) {
+      assertEquals(frameIndex.getTimeUs(i), restoredIndex.getTimeUs(i));
+      assertEquals(frameIndex.getPosition(i), restoredIndex.getPosition(i));
+    }
+    assertArrayEquals(serializedIndex, restoredIndex.toByteArray());
+    byte[] truncatedIndex = Arrays.copyOf(serializedIndex, serializedIndex.length - 1);
+    assertNull(FrameIndex.fromByteArray(truncatedIndex));
+  }
+
+  /**
+   * Measures the throughput of {@link FrameIndexer} on a 30 minute VBR podcast held in memory, so
+   * that only parsing is measured, and the error of seeks to random times with the stored index and
+   * with the constant bitrate seeking that such files otherwise fall back to. The error of a seek
+   * is the difference between the time of the seek point and the time of the audio at its
+   * position.
+   */
+  @Test
+  public void index_thirtyMinutePodcast_measureScanThroughputAndSeekAccuracy()
+      throws IOException {
+    int frameCount = (int) (30 * 60 * (long) SAMPLE_RATE / SAMPLES_PER_FRAME);
+    VbrFile file = new VbrFile(frameCount, /* seed= */ 4);
+    long indexNs = Long.MAX_VALUE;
+    MapFrameIndexStore store = null;
+    for (int run = 0; run < 5; run++) {
+      store = new MapFrameIndexStore();
+      long startTimeNs = System.nanoTime();
+      assertTrue(new FrameIndexer(new ByteArrayDataSource(file.data), URI, store).index());
+      indexNs = Math.min(indexNs, System.nanoTime() - startTimeNs);
+    }
+    FrameIndex frameIndex = assertNotNullAndGet(store.get(URI));
+
+    SeekMap indexSeekMap = readSeekMap(file.data, new Mp3Extractor(/* flags= */ 0, store, URI));
+    SeekMap constantBitrateSeekMap =
+        readSeekMap(
+            file.data, new Mp3Extractor(Mp3Extractor.FLAG_ENABLE_CONSTANT_BITRATE_SEEKING));
+    int seekCount = 2_000;
+    long[] indexErrorsUs = new long[seekCount];
+    long[] constantBitrateErrorsUs = new long[seekCount];
+    Random random = new Random(/* seed= */ 0);
+    for (int i = 0; i < seekCount; i++) {
+      long timeUs = (long) (random.nextDouble() * file.getFrameTimeUs(frameCount));
+      indexErrorsUs[i] = file.getSeekTimeErrorUs(indexSeekMap.getSeekPoints(timeUs).first);
+      constantBitrateErrorsUs[i] =
+          file.getSeekTimeErrorUs(constantBitrateSeekMap.getSeekPoints(timeUs).first);
+    }
+    for (long errorUs : indexErrorsUs) {
+      assertEquals(0, errorUs);
+    }
+
+    System.out.println(
+        "FrameIndexer, "
+            + file.data.length / (1024 * 1024)
+            + " MiB VBR file: indexed in "
+            + indexNs / 1_000_000
+            + " ms ("
+            + file.data.length * 1000L / indexNs
+            + " MB/s), index of "
+            + frameIndex.getFrameCount()
+            + " frames serialized to "
+            + frameIndex.toByteArray().length
+            + " bytes; seek error with index mean "
+            + mean(indexErrorsUs) / 1000
+            + " ms, max "
+            + max(indexErrorsUs) / 1000
+            + " ms; with constant bitrate seeking mean "
+            + mean(constantBitrateErrorsUs) / 1000
+            + " ms, max "
+            + max(constantBitrateErrorsUs) / 1000
+            + " ms");
+  }
+
+  private static SeekMap readSeekMap(byte[] data, Mp3Extractor extractor) throws IOException {
+    ByteArrayDataSource dataSource = new ByteArrayDataSource(data);
+    long length = dataSource.open(new DataSpec(URI));
+    ExtractorInput input = new DefaultExtractorInput(dataSource, /* position= */ 0, length);
+    SeekMapExtractorOutput output = new SeekMapExtractorOutput();
+    extractor.init(output);
+    PositionHolder positionHolder = new PositionHolder();
+    while (output.seekMap == null) {
+      extractor.read(input, positionHolder);
+    }
+    extractor.release();
+    Util.closeQuietly(dataSource);
+    return output.seekMap;
+  }
+
+  private static <T> T assertNotNullAndGet(@Nullable T value) {
+    assertNotNull(value);
+    return value;
+  }
+
+  private static long mean(long[] values) {
+    long sum = 0;
+    for (long value : values) {
+      sum += value;
+    }
+    return sum / values.length;
+  }
+
+  private static long max(long[] values) {
+    long max = 0;
+    for (long value : values) {
+      max = Math.max(max, value);
+    }
+    return max;
+  }
+
+  /**
+   * An MPEG-1 Layer III file without seeking metadata, whose bitrate changes every few seconds, as
+   * in a VBR encoded podcast alternating between speech and music.
+   */
+  private static final class VbrFile {
+
+    public final int frameCount;
+    public final byte[] data;
+    /** The positions of the frames, followed by the length of the file. */
+    public final long[] framePositions;
+
+    public VbrFile(int frameCount, long seed) {
+      this.frameCount = frameCount;
+      Random random = new Random(seed);
+      int[] headers = new int[frameCount];
+      framePositions = new long[frameCount + 1];
+      int header = 0;
+      for (int i = 0; i < frameCount; i++) {
+        if (i % 100 == 0) {
+          // Sync word, MPEG-1 Layer III without CRC, 44.1 kHz without padding, and mono.
+          int bitrateIndex = BITRATE_INDICES[random.nextInt(BITRATE_INDICES.length)];
+          header = 0xFFFB00C4 | (bitrateIndex << 12);
+        }
+        headers[i] = header;
+        framePositions[i + 1] = framePositions[i] + MpegAudioUtil.getFrameSize(header);
+      }
+      data = new byte[(int) framePositions[frameCount]];
+      for (int i = 0; i < frameCount; i++) {
+        int position = (int) framePositions[i];
+        data[position] = (byte) (headers[i] >> 24);
+        data[position + 1] = (byte) (headers[i] >> 16);
+        data[position + 2] = (byte) (headers[i] >> 8);
+        data[position + 3] = (byte) headers[i];
+      }
+    }
+
+    /** Returns the time of the start of {@code frame}, as counted by the extractor. */
+    public long getFrameTimeUs(int frame) {
+      return (long) frame * SAMPLES_PER_FRAME * C.MICROS_PER_SECOND / SAMPLE_RATE;
+    }
+
+    /**
+     * Returns the absolute difference between the time of {@code seekPoint} and the time of the
+     * first frame at or after its position, from which the extractor resumes reading.
+     */
+    public long getSeekTimeErrorUs(SeekPoint seekPoint) {
+      int frame = Arrays.binarySearch(framePositions, seekPoint.position);
+      if (frame < 0) {
+        frame = -frame - 1;
+      }
+      return Math.abs(getFrameTimeUs(frame) - seekPoint.timeUs);
+    }
+  }
+
+  /** A {@link FrameIndexStore} that keeps indexes in memory. */
+  private static final class MapFrameIndexStore implements FrameIndexStore {
+
+    private final HashMap<Uri, FrameIndex> frameIndexes = new HashMap<>();
+
+    public int putCount;
+
+    @Override
+    @Nullable
+    public FrameIndex get(Uri uri) {
+      return frameIndexes.get(uri);
+    }
+
+    @Override
+    public void put(Uri uri, FrameIndex frameIndex) {
+      frameIndexes.put(uri, frameIndex);
+      putCount++;
+    }
+  }
+
+  /** An {@link ExtractorOutput} that records the {@link SeekMap} and discards samples. */
+  private static final class SeekMapExtractorOutput implements ExtractorOutput {
+
+    @Nullable public SeekMap seekMap;
+
+    @Override
+    public TrackOutput track(int id, int type) {
+      return new DummyTrackOutput();
+    }
+
+    @Override
+    public void endTracks() {
+      // Do nothing.
+    }
+
+    @Override
+    public void seekMap(SeekMap seekMap) {
+      this.seekMap = seekMap;
+    }
+  }
+}
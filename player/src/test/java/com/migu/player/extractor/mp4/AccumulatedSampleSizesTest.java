@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.migu.player.extractor.mp4;
+
+import com.migu.player.C;
+import com.migu.player.Format;
+import com.migu.player.util.MimeTypes;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for {@link AccumulatedSampleSizes}, comparing it with the per-sample accumulated sizes
+ * of a full merge of the tracks.
+ */
+public final class AccumulatedSampleSizesTest {
+
+  private static final int VIDEO_SAMPLE_COUNT = 5 * AccumulatedSampleSizes.CHECKPOINT_INTERVAL + 7;
+  private static final int AUDIO_SAMPLE_COUNT = 9 * AccumulatedSampleSizes.CHECKPOINT_INTERVAL + 3;
+
+  @Test
+  public void get_sequentialReads_matchesFullMerge() {
+    TrackSampleTable[] sampleTables = createSampleTables(new Random(/* seed= */ 0));
+    long[][] expected = calculateAccumulatedSampleSizes(sampleTables);
+    AccumulatedSampleSizes accumulatedSampleSizes = new AccumulatedSampleSizes(sampleTables);
+
+    // Read the tracks interleaved, with audio running ahead of video like in a badly muxed file.
+    int videoSampleIndex = 0;
+    int audioSampleIndex = 0;
+    while (videoSampleIndex < VIDEO_SAMPLE_COUNT || audioSampleIndex < AUDIO_SAMPLE_COUNT) {
+      if (audioSampleIndex < AUDIO_SAMPLE_COUNT) {
+        assertEquals(
+            expected[1][audioSampleIndex],
+            accumulatedSampleSizes.get(/* trackIndex= */ 1, audioSampleIndex));
+        audioSampleIndex++;
+      }
+      if (videoSampleIndex < VIDEO_SAMPLE_COUNT && audioSampleIndex % 3 != 0) {
+        assertEquals(
+            expected[0][videoSampleIndex],
+            accumulatedSampleSizes.get(/* trackIndex= */ 0, videoSampleIndex));
+        videoSampleIndex++;
+      }
+    }
+  }
+
+  @Test
+  public void get_seeks_matchesFullMerge() {
+    Random random = new Random(/* seed= */ 1);
+    TrackSampleTable[] sampleTables = createSampleTables(random);
+    long[][] expected = calculateAccumulatedSampleSizes(sampleTables);
+    AccumulatedSampleSizes accumulatedSampleSizes = new AccumulatedSampleSizes(sampleTables);
+
+    for (int i = 0; i < 2000; i++) {
+      int trackIndex = random.nextInt(sampleTables.length);
+      int sampleIndex = random.nextInt(sampleTables[trackIndex].sampleCount);
+      assertEquals(expected[trackIndex][sampleIndex],
+          accumulatedSampleSizes.get(trackIndex, sampleIndex));
+    }
+  }
+
+  @Test
+  public void get_singleTrackWithCheckpointAlignedSampleCount_matchesFullMerge() {
+    int sampleCount = 2 * AccumulatedSampleSizes.CHECKPOINT_INTERVAL;
+    TrackSampleTable[] sampleTables =
+        new TrackSampleTable[] {
+          createSampleTable(
+              C.TRACK_TYPE_AUDIO,
+              sampleCount,
+              /* sampleDurationUs= */ 21_333,
+              /* reorderFrames= */ false,
+              new Random(/* seed= */ 2))
+        };
+    long[][] expected = calculateAccumulatedSampleSizes(sampleTables);
+    AccumulatedSampleSizes accumulatedSampleSizes = new AccumulatedSampleSizes(sampleTables);
+
+    for (int sampleIndex = sampleCount - 1; sampleIndex >= 0; sampleIndex--) {
+      assertEquals(expected[0][sampleIndex],
+          accumulatedSampleSizes.get(/* trackIndex= */ 0, sampleIndex));
+    }
+  }
+
+  private static TrackSampleTable[] createSampleTables(Random random) {
+    return new TrackSampleTable[] {
+      createSampleTable(
+          C.TRACK_TYPE_VIDEO,
+          VIDEO_SAMPLE_COUNT,
+          /* sampleDurationUs= */ 33_333,
+          /* reorderFrames= */ true,
+          random),
+      createSampleTable(
+          C.TRACK_TYPE_AUDIO,
+          AUDIO_SAMPLE_COUNT,
+          /* sampleDurationUs= */ 21_333,
+          /* reorderFrames= */ false,
+          random)
+    };
+  }
+
+  private static TrackSampleTable createSampleTable(
+      int trackType, int sampleCount, long sampleDurationUs, boolean reorderFrames, Random random) {
+    long[] offsets = new long[sampleCount];
+    int[] sizes = new int[sampleCount];
+    long[] timestampsUs = new long[sampleCount];
+    int[] flags = new int[sampleCount];
+    int maximumSize = 0;
+    long offset = 0;
+    for (int i = 0; i < sampleCount; i++) {
+      sizes[i] = 100 + random.nextInt(20_000);
+      maximumSize = Math.max(maximumSize, sizes[i]);
+      offsets[i] = offset;
+      offset += sizes[i];
+      // Swap the presentation order of pairs of frames, as B-frames do.
+      int presentationIndex = reorderFrames && i % 3 != 0 ? (i % 3 == 1 ? i + 1 : i - 1) : i;
+      timestampsUs[i] = presentationIndex * sampleDurationUs;
+      flags[i] = i % 30 == 0 ? C.BUFFER_FLAG_KEY_FRAME : 0;
+    }
+    Track track =
+        new Track(
+            /* id= */ trackType,
+            trackType,
+            /* timescale= */ 1_000_000,
+            /* movieTimescale= */ 1_000_000,
+            /* durationUs= */ C.TIME_UNSET,
+            new Format.Builder()
+                .setSampleMimeType(
+                    trackType == C.TRACK_TYPE_VIDEO ? MimeTypes.VIDEO_H264 : MimeTypes.AUDIO_AAC)
+                .build(),
+            Track.TRANSFORMATION_NONE,
+            /* sampleDescriptionEncryptionBoxes= */ null,
+            /* nalUnitLengthFieldLength= */ 4,
+            /* editListDurations= */ null,
+            /* editListMediaTimes= */ null);
+    return new TrackSampleTable(
+        track,
+        offsets,
+        sizes,
+        maximumSize,
+        timestampsUs,
+        flags,
+        /* durationUs= */ sampleCount * sampleDurationUs);
+  }
+
+  /** Merges the tracks by timestamp, recording the accumulated size before every sample. */
+  private static long[][] calculateAccumulatedSampleSizes(TrackSampleTable[] sampleTables) {
+    long[][] accumulatedSampleSizes = new long[sampleTables.length][];
+    int[] nextSampleIndex = new int[sampleTables.length];
+    for (int i = 0; i < sampleTables.length; i++) {
+      accumulatedSampleSizes[i] = new long[sampleTables[i].sampleCount];
+    }
+    long accumulatedSampleSize = 0;
+    while (true) {
+      long minTimeUs = Long.MAX_VALUE;
+      int minTimeTrackIndex = -1;
+      for (int i = 0; i < sampleTables.length; i++) {
+        if (nextSampleIndex[i] < sampleTables[i].sampleCount
+            && sampleTables[i].getTimestampUs(nextSampleIndex[i]) <= minTimeUs) {
+          minTimeTrackIndex = i;
+          minTimeUs = sampleTables[i].getTimestampUs(nextSampleIndex[i]);
+        }
+      }
+      if (minTimeTrackIndex == -1) {
+        return accumulatedSampleSizes;
+      }
+      int sampleIndex = nextSampleIndex[minTimeTrackIndex]++;
+      accumulatedSampleSizes[minTimeTrackIndex][sampleIndex] = accumulatedSampleSize;
+      accumulatedSampleSize += sampleTables[minTimeTrackIndex].getSize(sampleIndex);
+    }
+  }
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.migu.player.extractor.mp4;
+
+import android.support.annotation.Nullable;
+
+import com.migu.player.C;
+import com.migu.player.Format;
+import com.migu.player.extractor.DefaultExtractorInput;
+import com.migu.player.extractor.Extractor;
+import com.migu.player.extractor.ExtractorOutput;
+import com.migu.player.extractor.PositionHolder;
+import com.migu.player.extractor.SeekMap;
+import com.migu.player.extractor.TrackOutput;
+import com.migu.player.upstream.DataReader;
+import com.migu.player.util.MimeTypes;
+import com.migu.player.util.ParsableByteArray;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for {@link FragmentedMp4Extractor} reading streams with many small fragments, as
+ * low-latency CMAF streams have, including a benchmark of the time and allocation per fragment.
+ */
+public final class FragmentedMp4ExtractorTest {
+
+  // Not parsed by the extractor, so not defined by Atom.
+  private static final int TYPE_mfhd = 0x6d666864;
+  private static final long TIMESCALE = 90_000;
+  private static final int SAMPLE_DURATION = 3000;
+  private static final int SYNC_SAMPLE_FLAGS = 0x02000000;
+  private static final int NON_SYNC_SAMPLE_FLAGS = 0x01010000;
+  private static final int FRAMES_PER_SYNC_FRAME = 60;
+
+  @Test
+  public void read_fragmentsOfVaryingSize_outputsEverySample() throws IOException {
+    // Fragments of 1 to 7 samples, so that the trun atoms of consecutive fragments differ in size.
+    int fragmentCount = 200;
+    int[] fragmentSampleCounts = new int[fragmentCount];
+    int sampleCount = 0;
+    for (int i = 0; i < fragmentCount; i++) {
+      fragmentSampleCounts[i] = 1 + (i * 5) % 7;
+      sampleCount += fragmentSampleCounts[i];
+    }
+    byte[] stream = createStream(fragmentSampleCounts);
+    RecordingTrackOutput trackOutput = new RecordingTrackOutput(sampleCount);
+
+    readStream(createExtractor(), trackOutput, stream);
+
+    assertEquals(sampleCount, trackOutput.sampleCount);
+    for (int i = 0; i < sampleCount; i++) {
+      assertEquals("time " + i, getTimeUs(i), trackOutput.timesUs[i]);
+      assertEquals("size " + i, getSampleSize(i), trackOutput.sizes[i]);
+      assertEquals(
+          "flags " + i,
+          i % FRAMES_PER_SYNC_FRAME == 0 ? C.BUFFER_FLAG_KEY_FRAME : 0,
+          trackOutput.flags[i]);
+    }
+    assertEquals(getTotalSampleSize(sampleCount), trackOutput.sampleDataBytes);
+  }
+
+  /**
+   * Measures the time from the last sample of each fragment being output until the last sample of
+   * the next fragment has been output, and the bytes allocated per fragment, for streams with one
+   * and with eight frames of 30 fps video per fragment.
+   */
+  @Test
+  public void read_lowLatencyStream_measureTimeAndAllocationPerFragment() throws IOException {
+    com.sun.management.ThreadMXBean threadMxBean =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+    int sampleCount = 9_000;
+    int[] samplesPerFragmentValues = new int[] {1, 8};
+    StringBuilder results = new StringBuilder();
+    for (int samplesPerFragment : samplesPerFragmentValues) {
+      int fragmentCount = sampleCount / samplesPerFragment;
+      int[] fragmentSampleCounts = new int[fragmentCount];
+      Arrays.fill(fragmentSampleCounts, samplesPerFragment);
+      byte[] stream = createStream(fragmentSampleCounts);
+      // The time of the first fragment includes initializing the extractor, so isn't measured.
+      long[] fragmentTimesNs = new long[fragmentCount - 1];
+      long allocatedBytes = 0;
+      for (int run = 0; run < 5; run++) {
+        RecordingTrackOutput trackOutput = new RecordingTrackOutput(sampleCount);
+        Extractor extractor = createExtractor();
+        long startAllocatedBytes = threadMxBean.getThreadAllocatedBytes(threadId);
+        readStream(extractor, trackOutput, stream);
+        allocatedBytes = threadMxBean.getThreadAllocatedBytes(threadId) - startAllocatedBytes;
+        assertEquals(fragmentCount * samplesPerFragment, trackOutput.sampleCount);
+        for (int i = 1; i < fragmentCount; i++) {
+          long[] outputTimesNs = trackOutput.outputTimesNs;
+          fragmentTimesNs[i - 1] =
+              outputTimesNs[(i + 1) * samplesPerFragment - 1]
+                  - outputTimesNs[i * samplesPerFragment - 1];
+        }
+      }
+      Arrays.sort(fragmentTimesNs);
+      long totalTimeNs = 0;
+      for (long fragmentTimeNs : fragmentTimesNs) {
+        totalTimeNs += fragmentTimeNs;
+      }
+      results
+          .append(results.length() == 0 ? "" : "; ")
+          .append(samplesPerFragment)
+          .append(" samples per fragment: mean ")
+          .append(totalTimeNs / fragmentTimesNs.length / 100 / 10.0)
+          .append(" us, median ")
+          .append(fragmentTimesNs[fragmentTimesNs.length / 2] / 100 / 10.0)
+          .append(" us, p99 ")
+          .append(fragmentTimesNs[fragmentTimesNs.length * 99 / 100] / 100 / 10.0)
+          .append(" us, ")
+          .append(allocatedBytes / fragmentCount)
+          .append(" bytes allocated");
+    }
+    System.out.println("FragmentedMp4Extractor, per fragment: " + results);
+  }
+
+  private static FragmentedMp4Extractor createExtractor() {
+    Track track =
+        new Track(
+            /* id= */ 1,
+            C.TRACK_TYPE_VIDEO,
+            TIMESCALE,
+            /* movieTimescale= */ 1000,
+            /* durationUs= */ C.TIME_UNSET,
+            new Format.Builder().setSampleMimeType(MimeTypes.VIDEO_H264).build(),
+            Track.TRANSFORMATION_NONE,
+            /* sampleDescriptionEncryptionBoxes= */ null,
+            /* nalUnitLengthFieldLength= */ 4,
+            /* editListDurations= */ null,
+            /* editListMediaTimes= */ null);
+    return new FragmentedMp4Extractor(/* flags= */ 0, /* timestampAdjuster= */ null, track);
+  }
+
+  private static void readStream(Extractor extractor, TrackOutput trackOutput, byte[] stream)
+      throws IOException {
+    extractor.init(new SingleTrackExtractorOutput(trackOutput));
+    DefaultExtractorInput input =
+        new DefaultExtractorInput(
+            new ByteArrayDataReader(stream), /* position= */ 0, stream.length);
+    PositionHolder positionHolder = new PositionHolder();
+    int result = Extractor.RESULT_CONTINUE;
+    while (result == Extractor.RESULT_CONTINUE) {
+      result = extractor.read(input, positionHolder);
+    }
+    assertEquals(Extractor.RESULT_END_OF_INPUT, result);
+  }
+
+  private static long getTimeUs(int sampleIndex) {
+    return (long) sampleIndex * SAMPLE_DURATION * C.MICROS_PER_SECOND / TIMESCALE;
+  }
+
+  private static int getSampleSize(int sampleIndex) {
+    return sampleIndex % FRAMES_PER_SYNC_FRAME == 0 ? 20_000 : 2000 + (sampleIndex % 13) * 100;
+  }
+
+  private static long getTotalSampleSize(int sampleCount) {
+    long totalSize = 0;
+    for (int i = 0; i < sampleCount; i++) {
+      totalSize += getSampleSize(i);
+    }
+    return totalSize;
+  }
+
+  /**
+   * Returns a stream of moof and mdat atoms for a sideloaded H.264 track, in which fragment {@code
+   * i} holds {@code fragmentSampleCounts[i]} samples that each consist of a single NAL unit.
+   */
+  private static byte[] createStream(int[] fragmentSampleCounts) {
+    int sampleCount = 0;
+    for (int fragmentSampleCount : fragmentSampleCounts) {
+      sampleCount += fragmentSampleCount;
+    }
+    ByteBuffer stream =
+        ByteBuffer.allocate(
+            (int) getTotalSampleSize(sampleCount)
+                + fragmentSampleCounts.length * 100
+                + sampleCount * 12);
+    int sampleIndex = 0;
+    for (int i = 0; i < fragmentSampleCounts.length; i++) {
+      int fragmentSampleCount = fragmentSampleCounts[i];
+      int trunSize = Atom.FULL_HEADER_SIZE + 8 + 12 * fragmentSampleCount;
+      int trafSize = Atom.HEADER_SIZE + 16 + 20 + trunSize;
+      int moofSize = Atom.HEADER_SIZE + 16 + trafSize;
+      stream.putInt(moofSize).putInt(Atom.TYPE_moof);
+      stream.putInt(16).putInt(TYPE_mfhd).putInt(0).putInt(i + 1);
+      stream.putInt(trafSize).putInt(Atom.TYPE_traf);
+      // default-base-is-moof.
+      stream.putInt(16).putInt(Atom.TYPE_tfhd).putInt(0x020000).putInt(1);
+      stream.putInt(20).putInt(Atom.TYPE_tfdt).putInt(0x01000000);
+      stream.putLong((long) sampleIndex * SAMPLE_DURATION);
+      // data-offset, sample-duration, sample-size and sample-flags present.
+      stream.putInt(trunSize).putInt(Atom.TYPE_trun).putInt(0x000701);
+      stream.putInt(fragmentSampleCount).putInt(moofSize + Atom.HEADER_SIZE);
+      int mdatSize = Atom.HEADER_SIZE;
+      for (int j = 0; j < fragmentSampleCount; j++) {
+        int sampleSize = getSampleSize(sampleIndex + j);
+        stream.putInt(SAMPLE_DURATION).putInt(sampleSize);
+        stream.putInt(
+            (sampleIndex + j) % FRAMES_PER_SYNC_FRAME == 0
+                ? SYNC_SAMPLE_FLAGS
+                : NON_SYNC_SAMPLE_FLAGS);
+        mdatSize += sampleSize;
+      }
+      stream.putInt(mdatSize).putInt(Atom.TYPE_mdat);
+      for (int j = 0; j < fragmentSampleCount; j++) {
+        int sampleSize = getSampleSize(sampleIndex + j);
+        // A NAL unit length, followed by a non-IDR slice NAL unit header and its payload.
+        stream.putInt(sampleSize - 4).put((byte) 0x41);
+        stream.position(stream.position() + sampleSize - 5);
+      }
+      sampleIndex += fragmentSampleCount;
+    }
+    return Arrays.copyOf(stream.array(), stream.position());
+  }
+
+  /** A {@link DataReader} that reads from a byte array. */
+  private static final class ByteArrayDataReader implements DataReader {
+
+    private final byte[] data;
+
+    private int position;
+
+    public ByteArrayDataReader(byte[] data) {
+      this.data = data;
+    }
+
+    @Override
+    public int read(byte[] target, int offset, int length) {
+      if (position == data.length) {
+        return C.RESULT_END_OF_INPUT;
+      }
+      int bytesRead = Math.min(length, data.length - position);
+      System.arraycopy(data, position, target, offset, bytesRead);
+      position += bytesRead;
+      return bytesRead;
+    }
+  }
+
+  /** An {@link ExtractorOutput} for a single track. */
+  private static final class SingleTrackExtractorOutput implements ExtractorOutput {
+
+    private final TrackOutput trackOutput;
+
+    public SingleTrackExtractorOutput(TrackOutput trackOutput) {
+      this.trackOutput = trackOutput;
+    }
+
+    @Override
+    public TrackOutput track(int id, int type) {
+      return trackOutput;
+    }
+
+    @Override
+    public void endTracks() {
+      // Do nothing.
+    }
+
+    @Override
+    public void seekMap(SeekMap seekMap) {
+      // Do nothing.
+    }
+  }
+
+  /**
+   * A {@link TrackOutput} that discards sample data, and records the metadata of each sample and
+   * when it was output without allocating.
+   */
+  private static final class RecordingTrackOutput implements TrackOutput {
+
+    public final long[] timesUs;
+    public final int[] sizes;
+    public final int[] flags;
+    public final long[] outputTimesNs;
+
+    public int sampleCount;
+    public long sampleDataBytes;
+
+    private final byte[] scratch;
+
+    public RecordingTrackOutput(int maxSampleCount) {
+      timesUs = new long[maxSampleCount];
+      sizes = new int[maxSampleCount];
+      flags = new int[maxSampleCount];
+      outputTimesNs = new long[maxSampleCount];
+      scratch = new byte[64 * 1024];
+    }
+
+    @Override
+    public void format(Format format) {
+      // Do nothing.
+    }
+
+    @Override
+    public int sampleData(
+        DataReader input, int length, boolean allowEndOfInput, @SampleDataPart int sampleDataPart)
+        throws IOException {
+      int bytesRead = input.read(scratch, 0, Math.min(length, scratch.length));
+      if (bytesRead != C.RESULT_END_OF_INPUT) {
+        sampleDataBytes += bytesRead;
+      }
+      return bytesRead;
+    }
+
+    @Override
+    public void sampleData(
+        ParsableByteArray data, int length, @SampleDataPart int sampleDataPart) {
+      data.skipBytes(length);
+      sampleDataBytes += length;
+    }
+
+    @Override
+    public void sampleMetadata(
+        long timeUs,
+        @C.BufferFlags int flags,
+        int size,
+        int offset,
+        @Nullable CryptoData encryptionData) {
+      timesUs[sampleCount] = timeUs;
+      sizes[sampleCount] = size;
+      this.flags[sampleCount] = flags;
+      outputTimesNs[sampleCount] = System.nanoTime();
+      sampleCount++;
+    }
+  }
+}
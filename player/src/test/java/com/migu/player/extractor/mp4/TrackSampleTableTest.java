@@ -0,0 +1,603 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.migu.player.extractor.mp4;
+
+import android.support.annotation.Nullable;
+
+import com.migu.player.C;
+import com.migu.player.Format;
+import com.migu.player.ParserException;
+import com.migu.player.extractor.GaplessInfoHolder;
+import com.migu.player.util.MimeTypes;
+import com.migu.player.util.ParsableByteArray;
+import com.migu.player.util.Util;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for {@link TrackSampleTable}, comparing the tables parsed by {@link AtomParsers} with
+ * the per-sample arrays that describe the same samples, including a benchmark of their memory use.
+ */
+public final class TrackSampleTableTest {
+
+  private static final long TIMESCALE = 1000;
+  private static final long MOVIE_TIMESCALE = 600;
+
+  @Test
+  public void parseStbl_rechunkedFixedSizeSamples_matchesSampleArrays() throws ParserException {
+    long[] chunkOffsets = new long[] {100, 20_000, 40_000};
+    int[] chunkSampleCounts = new int[] {3000, 3000, 10};
+    SampleTableBoxes boxes =
+        new SampleTableBoxes(chunkOffsets, chunkSampleCounts)
+            .setFixedSampleSize(4)
+            .setTimestampDeltas(/* sampleCount= */ 6010, /* delta= */ 1);
+    Track track =
+        createTrack(
+            C.TRACK_TYPE_AUDIO,
+            MimeTypes.AUDIO_RAW,
+            /* editListDurations= */ null,
+            /* editListMediaTimes= */ null);
+
+    TrackSampleTable sampleTable =
+        AtomParsers.parseStbl(track, boxes.createStblAtom(), new GaplessInfoHolder());
+
+    FixedSampleSizeRechunker.Results rechunkedResults =
+        FixedSampleSizeRechunker.rechunk(
+            /* fixedSampleSize= */ 4,
+            chunkOffsets,
+            chunkSampleCounts,
+            /* timestampDeltaInTimeUnits= */ 1);
+    assertMatchesSampleArrays(
+        sampleTable,
+        rechunkedResults.offsets,
+        rechunkedResults.sizes,
+        scaleToUs(rechunkedResults.timestamps),
+        rechunkedResults.flags,
+        scaleToUs(rechunkedResults.duration));
+  }
+
+  @Test
+  public void parseStbl_fixedSizeSamplesWithGapsBetweenChunks_matchesSampleArrays()
+      throws ParserException {
+    SampleTableBoxes boxes =
+        new SampleTableBoxes(
+                /* chunkOffsets= */ new long[] {0, 300, 1000, 5000},
+                /* chunkSampleCounts= */ new int[] {3, 2, 4, 1})
+            .setFixedSampleSize(100)
+            .setTimestampDeltas(/* sampleCount= */ 10, /* delta= */ 100)
+            .setSyncSamples(1, 4, 8);
+
+    assertMatchesSampleArrays(boxes, parseVideoStbl(boxes));
+  }
+
+  @Test
+  public void parseStbl_variableSizeSamplesWithGapsBetweenChunks_matchesSampleArrays()
+      throws ParserException {
+    SampleTableBoxes boxes =
+        new SampleTableBoxes(
+                /* chunkOffsets= */ new long[] {0, 300, 1000, 5000},
+                /* chunkSampleCounts= */ new int[] {3, 2, 4, 1})
+            .setSampleSizes(50, 80, 170, 10, 20, 300, 1, 2, 3, 400)
+            .setTimestampDeltas(/* sampleCount= */ 10, /* delta= */ 100)
+            .setSyncSamples(1, 4, 8);
+
+    assertMatchesSampleArrays(boxes, parseVideoStbl(boxes));
+  }
+
+  @Test
+  public void parseStbl_denseCtts_matchesSampleArrays() throws ParserException {
+    SampleTableBoxes boxes =
+        new SampleTableBoxes(
+                /* chunkOffsets= */ new long[] {0}, /* chunkSampleCounts= */ new int[] {12})
+            .setFixedSampleSize(100)
+            .setTimestampDeltas(/* sampleCount= */ 12, /* delta= */ 100)
+            .setTimestampOffsets(
+                1, 100, 1, 400, 1, 0, 1, 100, 1, 400, 1, 0, 1, 100, 1, 400, 1, 0, 1, 100, 1, 400,
+                1, 0)
+            .setSyncSamples(1, 7);
+
+    assertMatchesSampleArrays(boxes, parseVideoStbl(boxes));
+  }
+
+  @Test
+  public void parseStbl_unsortedTimestamps_matchesSampleArrays() throws ParserException {
+    SampleTableBoxes boxes =
+        new SampleTableBoxes(
+                /* chunkOffsets= */ new long[] {0, 10_000},
+                /* chunkSampleCounts= */ new int[] {8, 8})
+            .setFixedSampleSize(100)
+            .setTimestampDeltas(/* sampleCount= */ 5, /* delta= */ 100, 11, 50)
+            .setTimestampOffsets(4, 0, 1, 1000, 11, 0)
+            .setSyncSamples(1, 5, 9, 13);
+
+    assertMatchesSampleArrays(boxes, parseVideoStbl(boxes));
+  }
+
+  @Test
+  public void parseStbl_singleEditAfterEmptyEdit_matchesEditedSampleArrays()
+      throws ParserException {
+    SampleTableBoxes boxes =
+        new SampleTableBoxes(
+                /* chunkOffsets= */ new long[] {0, 5000}, /* chunkSampleCounts= */ new int[] {5, 5})
+            .setFixedSampleSize(100)
+            .setTimestampDeltas(/* sampleCount= */ 10, /* delta= */ 100)
+            .setSyncSamples(1, 6);
+    long[] editListDurations = new long[] {300, 600};
+    long[] editListMediaTimes = new long[] {-1, 50};
+    Track track =
+        createTrack(
+            C.TRACK_TYPE_VIDEO, MimeTypes.VIDEO_H264, editListDurations, editListMediaTimes);
+
+    TrackSampleTable sampleTable =
+        AtomParsers.parseStbl(track, boxes.createStblAtom(), new GaplessInfoHolder());
+
+    // The samples from the media time onwards are presented after the empty edit, and earlier
+    // samples at its end.
+    long[] timestamps = boxes.getTimestamps();
+    long emptyEditDurationUs =
+        Util.scaleLargeTimestamp(300, C.MICROS_PER_SECOND, MOVIE_TIMESCALE);
+    long[] timestampsUs = new long[timestamps.length];
+    for (int i = 0; i < timestamps.length; i++) {
+      timestampsUs[i] = emptyEditDurationUs + scaleToUs(Math.max(0, timestamps[i] - 50));
+    }
+    assertMatchesSampleArrays(
+        sampleTable,
+        boxes.getOffsets(),
+        boxes.getSizes(),
+        timestampsUs,
+        boxes.getFlags(),
+        /* durationUs= */ Util.scaleLargeTimestamp(900, C.MICROS_PER_SECOND, MOVIE_TIMESCALE));
+  }
+
+  /**
+   * Measures the heap retained by the sample tables of a two hour recording, against the per-sample
+   * offset, size, timestamp and flag arrays that held the same samples, and the time from parsing
+   * the stbl atom to reading the first sample and seeking to the middle of the track.
+   */
+  @Test
+  public void parseStbl_twoHourRecording_measureMemoryAndTimeToFirstSample()
+      throws ParserException {
+    int durationS = 2 * 60 * 60;
+    Random random = new Random(/* seed= */ 0);
+    // 44.1 kHz AAC, every sample a sync sample.
+    int audioSampleCount = durationS * 44_100 / 1024;
+    SampleTableBoxes audioBoxes =
+        createRecordingBoxes(random, audioSampleCount, /* samplesPerChunk= */ 43, 200, 500)
+            .setTimestampDeltas(audioSampleCount, /* delta= */ 23);
+    // 30 fps H.264 with a sync sample every 2 seconds, without and with B-frames.
+    int videoSampleCount = durationS * 30;
+    int[] syncSamples = new int[videoSampleCount / 60];
+    for (int i = 0; i < syncSamples.length; i++) {
+      syncSamples[i] = 1 + i * 60;
+    }
+    SampleTableBoxes videoBoxes =
+        createRecordingBoxes(random, videoSampleCount, /* samplesPerChunk= */ 30, 1000, 9000)
+            .setTimestampDeltas(videoSampleCount, /* delta= */ 33)
+            .setSyncSamples(syncSamples);
+    int[] timestampOffsets = new int[2 * videoSampleCount];
+    for (int i = 0; i < videoSampleCount; i++) {
+      timestampOffsets[2 * i] = 1;
+      timestampOffsets[2 * i + 1] = i % 2 == 0 ? 66 : 0;
+    }
+    SampleTableBoxes bFrameVideoBoxes =
+        createRecordingBoxes(random, videoSampleCount, /* samplesPerChunk= */ 30, 1000, 9000)
+            .setTimestampDeltas(videoSampleCount, /* delta= */ 33)
+            .setTimestampOffsets(timestampOffsets)
+            .setSyncSamples(syncSamples);
+
+    String[] names = new String[] {"AAC", "H.264", "H.264 with B-frames"};
+    Track[] tracks =
+        new Track[] {
+          createTrack(C.TRACK_TYPE_AUDIO, MimeTypes.AUDIO_AAC, null, null),
+          createTrack(C.TRACK_TYPE_VIDEO, MimeTypes.VIDEO_H264, null, null),
+          createTrack(C.TRACK_TYPE_VIDEO, MimeTypes.VIDEO_H264, null, null)
+        };
+    Atom.ContainerAtom[] stblAtoms =
+        new Atom.ContainerAtom[] {
+          audioBoxes.createStblAtom(),
+          videoBoxes.createStblAtom(),
+          bFrameVideoBoxes.createStblAtom()
+        };
+    StringBuilder results = new StringBuilder();
+    for (int i = 0; i < tracks.length; i++) {
+      long parseNs = 0;
+      long firstSampleNs = 0;
+      for (int run = 0; run < 5; run++) {
+        long startTimeNs = System.nanoTime();
+        TrackSampleTable sampleTable =
+            AtomParsers.parseStbl(tracks[i], stblAtoms[i], new GaplessInfoHolder());
+        parseNs = System.nanoTime() - startTimeNs;
+        sampleTable.getOffset(0);
+        sampleTable.getSize(0);
+        sampleTable.getTimestampUs(0);
+        sampleTable.getIndexOfEarlierOrEqualSynchronizationSample(sampleTable.durationUs / 2);
+        firstSampleNs = System.nanoTime() - startTimeNs;
+      }
+
+      long usedBytes = getUsedMemoryBytes();
+      TrackSampleTable sampleTable =
+          AtomParsers.parseStbl(tracks[i], stblAtoms[i], new GaplessInfoHolder());
+      long sampleTableBytes = getUsedMemoryBytes() - usedBytes;
+      int sampleCount = sampleTable.sampleCount;
+      usedBytes = getUsedMemoryBytes();
+      long[] offsets = new long[sampleCount];
+      int[] sizes = new int[sampleCount];
+      long[] timestampsUs = new long[sampleCount];
+      int[] flags = new int[sampleCount];
+      for (int j = 0; j < sampleCount; j++) {
+        offsets[j] = sampleTable.getOffset(j);
+        sizes[j] = sampleTable.getSize(j);
+        timestampsUs[j] = sampleTable.getTimestampUs(j);
+        flags[j] = sampleTable.getFlags(j);
+      }
+      long sampleArraysBytes = getUsedMemoryBytes() - usedBytes;
+      // Keep the table and the arrays reachable until both have been measured.
+      assertEquals(sampleTable.getOffset(sampleCount - 1), offsets[sampleCount - 1]);
+      assertEquals(C.BUFFER_FLAG_LAST_SAMPLE, flags[sampleCount - 1] & C.BUFFER_FLAG_LAST_SAMPLE);
+      assertEquals(sizes.length, timestampsUs.length);
+
+      results
+          .append(results.length() == 0 ? "" : "; ")
+          .append(names[i])
+          .append(" (")
+          .append(sampleCount)
+          .append(" samples): table ")
+          .append(sampleTableBytes / 1024)
+          .append(" KiB, per-sample arrays ")
+          .append(sampleArraysBytes / 1024)
+          .append(" KiB, parsed in ")
+          .append(parseNs / 1000)
+          .append(" us, first sample and seek after ")
+          .append(firstSampleNs / 1000)
+          .append(" us");
+    }
+    System.out.println("TrackSampleTable, two hour recording: " + results);
+  }
+
+  private static TrackSampleTable parseVideoStbl(SampleTableBoxes boxes) throws ParserException {
+    Track track =
+        createTrack(
+            C.TRACK_TYPE_VIDEO,
+            MimeTypes.VIDEO_H264,
+            /* editListDurations= */ null,
+            /* editListMediaTimes= */ null);
+    return AtomParsers.parseStbl(track, boxes.createStblAtom(), new GaplessInfoHolder());
+  }
+
+  private static Track createTrack(
+      int type,
+      String sampleMimeType,
+      @Nullable long[] editListDurations,
+      @Nullable long[] editListMediaTimes) {
+    return new Track(
+        /* id= */ 1,
+        type,
+        TIMESCALE,
+        MOVIE_TIMESCALE,
+        /* durationUs= */ C.TIME_UNSET,
+        new Format.Builder().setSampleMimeType(sampleMimeType).build(),
+        Track.TRANSFORMATION_NONE,
+        /* sampleDescriptionEncryptionBoxes= */ null,
+        /* nalUnitLengthFieldLength= */ 4,
+        editListDurations,
+        editListMediaTimes);
+  }
+
+  /**
+   * Returns boxes for {@code sampleCount} samples of random sizes in [{@code minSize}, {@code
+   * maxSize}), stored contiguously in chunks of {@code samplesPerChunk} samples.
+   */
+  private static SampleTableBoxes createRecordingBoxes(
+      Random random, int sampleCount, int samplesPerChunk, int minSize, int maxSize) {
+    int chunkCount = (sampleCount + samplesPerChunk - 1) / samplesPerChunk;
+    long[] chunkOffsets = new long[chunkCount];
+    int[] chunkSampleCounts = new int[chunkCount];
+    int[] sizes = new int[sampleCount];
+    long offset = 0;
+    for (int i = 0; i < sampleCount; i++) {
+      if (i % samplesPerChunk == 0) {
+        chunkOffsets[i / samplesPerChunk] = offset;
+      }
+      chunkSampleCounts[i / samplesPerChunk]++;
+      sizes[i] = minSize + random.nextInt(maxSize - minSize);
+      offset += sizes[i];
+    }
+    return new SampleTableBoxes(chunkOffsets, chunkSampleCounts).setSampleSizes(sizes);
+  }
+
+  private static long getUsedMemoryBytes() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  private static void assertMatchesSampleArrays(
+      SampleTableBoxes boxes, TrackSampleTable sampleTable) {
+    assertMatchesSampleArrays(
+        sampleTable,
+        boxes.getOffsets(),
+        boxes.getSizes(),
+        scaleToUs(boxes.getTimestamps()),
+        boxes.getFlags(),
+        scaleToUs(boxes.getDuration()));
+  }
+
+  /**
+   * Asserts that a table holds the given samples, and that its synchronization sample searches
+   * return the indices that searches of the arrays return.
+   */
+  private static void assertMatchesSampleArrays(
+      TrackSampleTable sampleTable,
+      long[] offsets,
+      int[] sizes,
+      long[] timestampsUs,
+      int[] flags,
+      long durationUs) {
+    int sampleCount = offsets.length;
+    assertEquals(sampleCount, sampleTable.sampleCount);
+    assertEquals(durationUs, sampleTable.durationUs);
+    int maximumSize = 0;
+    long minTimestampUs = Long.MAX_VALUE;
+    long maxTimestampUs = Long.MIN_VALUE;
+    for (int i = 0; i < sampleCount; i++) {
+      assertEquals("offset " + i, offsets[i], sampleTable.getOffset(i));
+      assertEquals("size " + i, sizes[i], sampleTable.getSize(i));
+      assertEquals("timestamp " + i, timestampsUs[i], sampleTable.getTimestampUs(i));
+      int expectedFlags =
+          (flags[i] & C.BUFFER_FLAG_KEY_FRAME)
+              | (i == sampleCount - 1 ? C.BUFFER_FLAG_LAST_SAMPLE : 0);
+      assertEquals("flags " + i, expectedFlags, sampleTable.getFlags(i));
+      maximumSize = Math.max(maximumSize, sizes[i]);
+      minTimestampUs = Math.min(minTimestampUs, timestampsUs[i]);
+      maxTimestampUs = Math.max(maxTimestampUs, timestampsUs[i]);
+    }
+    assertEquals(maximumSize, sampleTable.maximumSize);
+
+    long stepUs = Math.max(1, (maxTimestampUs - minTimestampUs) / 1000);
+    for (long timeUs = minTimestampUs - 1000; timeUs <= maxTimestampUs + 1000; timeUs += stepUs) {
+      assertEquals(
+          "earlier sync sample at " + timeUs,
+          getIndexOfEarlierOrEqualSynchronizationSample(timestampsUs, flags, timeUs),
+          sampleTable.getIndexOfEarlierOrEqualSynchronizationSample(timeUs));
+      assertEquals(
+          "later sync sample at " + timeUs,
+          getIndexOfLaterOrEqualSynchronizationSample(timestampsUs, flags, timeUs),
+          sampleTable.getIndexOfLaterOrEqualSynchronizationSample(timeUs));
+    }
+  }
+
+  private static int getIndexOfEarlierOrEqualSynchronizationSample(
+      long[] timestampsUs, int[] flags, long timeUs) {
+    int startIndex =
+        Util.binarySearchFloor(
+            timestampsUs, timeUs, /* inclusive= */ true, /* stayInBounds= */ false);
+    for (int i = startIndex; i >= 0; i--) {
+      if ((flags[i] & C.BUFFER_FLAG_KEY_FRAME) != 0) {
+        return i;
+      }
+    }
+    return C.INDEX_UNSET;
+  }
+
+  private static int getIndexOfLaterOrEqualSynchronizationSample(
+      long[] timestampsUs, int[] flags, long timeUs) {
+    int startIndex =
+        Util.binarySearchCeil(
+            timestampsUs, timeUs, /* inclusive= */ true, /* stayInBounds= */ false);
+    for (int i = startIndex; i < timestampsUs.length; i++) {
+      if ((flags[i] & C.BUFFER_FLAG_KEY_FRAME) != 0) {
+        return i;
+      }
+    }
+    return C.INDEX_UNSET;
+  }
+
+  private static long scaleToUs(long timestamp) {
+    return Util.scaleLargeTimestamp(timestamp, C.MICROS_PER_SECOND, TIMESCALE);
+  }
+
+  private static long[] scaleToUs(long[] timestamps) {
+    long[] timestampsUs = new long[timestamps.length];
+    for (int i = 0; i < timestamps.length; i++) {
+      timestampsUs[i] = scaleToUs(timestamps[i]);
+    }
+    return timestampsUs;
+  }
+
+  /** The boxes of an stbl atom, and the per-sample arrays they describe. */
+  private static final class SampleTableBoxes {
+
+    private final long[] chunkOffsets;
+    private final int[] chunkSampleCounts;
+    private final int sampleCount;
+
+    private int fixedSampleSize;
+    @Nullable private int[] sampleSizes;
+    private int[] timestampDeltas;
+    @Nullable private int[] timestampOffsets;
+    @Nullable private int[] syncSamples;
+
+    public SampleTableBoxes(long[] chunkOffsets, int[] chunkSampleCounts) {
+      this.chunkOffsets = chunkOffsets;
+      this.chunkSampleCounts = chunkSampleCounts;
+      int sampleCount = 0;
+      for (int chunkSampleCount : chunkSampleCounts) {
+        sampleCount += chunkSampleCount;
+      }
+      this.sampleCount = sampleCount;
+      timestampDeltas = new int[] {sampleCount, 1};
+    }
+
+    public SampleTableBoxes setFixedSampleSize(int fixedSampleSize) {
+      this.fixedSampleSize = fixedSampleSize;
+      return this;
+    }
+
+    public SampleTableBoxes setSampleSizes(int... sampleSizes) {
+      this.sampleSizes = sampleSizes;
+      return this;
+    }
+
+    /** Sets the stts entries, as pairs of sample count and delta. */
+    public SampleTableBoxes setTimestampDeltas(int... timestampDeltas) {
+      this.timestampDeltas = timestampDeltas;
+      return this;
+    }
+
+    /** Sets the ctts entries, as pairs of sample count and offset. */
+    public SampleTableBoxes setTimestampOffsets(int... timestampOffsets) {
+      this.timestampOffsets = timestampOffsets;
+      return this;
+    }
+
+    /** Sets the stss entries, as one-based sample numbers. */
+    public SampleTableBoxes setSyncSamples(int... syncSamples) {
+      this.syncSamples = syncSamples;
+      return this;
+    }
+
+    public Atom.ContainerAtom createStblAtom() {
+      Atom.ContainerAtom stblAtom = new Atom.ContainerAtom(Atom.TYPE_stbl, /* endPosition= */ 0);
+      int[] stsz;
+      if (sampleSizes != null) {
+        stsz = new int[2 + sampleCount];
+        stsz[1] = sampleCount;
+        System.arraycopy(sampleSizes, 0, stsz, 2, sampleCount);
+      } else {
+        stsz = new int[] {fixedSampleSize, sampleCount};
+      }
+      stblAtom.add(createFullAtom(Atom.TYPE_stsz, stsz));
+      int[] stco = new int[1 + chunkOffsets.length];
+      int[] stsc = new int[1 + 3 * chunkOffsets.length];
+      stco[0] = chunkOffsets.length;
+      stsc[0] = chunkOffsets.length;
+      for (int i = 0; i < chunkOffsets.length; i++) {
+        stco[1 + i] = (int) chunkOffsets[i];
+        stsc[1 + 3 * i] = i + 1;
+        stsc[2 + 3 * i] = chunkSampleCounts[i];
+        stsc[3 + 3 * i] = 1;
+      }
+      stblAtom.add(createFullAtom(Atom.TYPE_stco, stco));
+      stblAtom.add(createFullAtom(Atom.TYPE_stsc, stsc));
+      stblAtom.add(createFullAtom(Atom.TYPE_stts, withEntryCount(timestampDeltas, 2)));
+      if (timestampOffsets != null) {
+        stblAtom.add(createFullAtom(Atom.TYPE_ctts, withEntryCount(timestampOffsets, 2)));
+      }
+      if (syncSamples != null) {
+        stblAtom.add(createFullAtom(Atom.TYPE_stss, withEntryCount(syncSamples, 1)));
+      }
+      return stblAtom;
+    }
+
+    public long[] getOffsets() {
+      long[] offsets = new long[sampleCount];
+      int sampleIndex = 0;
+      for (int i = 0; i < chunkOffsets.length; i++) {
+        long offset = chunkOffsets[i];
+        for (int j = 0; j < chunkSampleCounts[i]; j++) {
+          offsets[sampleIndex] = offset;
+          offset += getSizes()[sampleIndex];
+          sampleIndex++;
+        }
+      }
+      return offsets;
+    }
+
+    public int[] getSizes() {
+      if (sampleSizes != null) {
+        return sampleSizes;
+      }
+      int[] sizes = new int[sampleCount];
+      Arrays.fill(sizes, fixedSampleSize);
+      return sizes;
+    }
+
+    /** Returns the presentation timestamps in the track timescale. */
+    public long[] getTimestamps() {
+      long[] timestamps = getDecodingTimestamps();
+      if (timestampOffsets != null) {
+        int sampleIndex = 0;
+        for (int i = 0; i < timestampOffsets.length; i += 2) {
+          for (int j = 0; j < timestampOffsets[i]; j++) {
+            timestamps[sampleIndex++] += timestampOffsets[i + 1];
+          }
+        }
+      }
+      return timestamps;
+    }
+
+    /** Returns the duration in the track timescale. */
+    public long getDuration() {
+      long[] decodingTimestamps = getDecodingTimestamps();
+      long lastDelta = timestampDeltas[timestampDeltas.length - 1];
+      long lastOffset =
+          timestampOffsets != null ? timestampOffsets[timestampOffsets.length - 1] : 0;
+      return decodingTimestamps[sampleCount - 1] + lastDelta + lastOffset;
+    }
+
+    public int[] getFlags() {
+      int[] flags = new int[sampleCount];
+      for (int i = 0; i < sampleCount; i++) {
+        flags[i] = syncSamples == null ? C.BUFFER_FLAG_KEY_FRAME : 0;
+      }
+      if (syncSamples != null) {
+        for (int syncSample : syncSamples) {
+          flags[syncSample - 1] = C.BUFFER_FLAG_KEY_FRAME;
+        }
+      }
+      return flags;
+    }
+
+    private long[] getDecodingTimestamps() {
+      long[] timestamps = new long[sampleCount];
+      long timestamp = 0;
+      int sampleIndex = 0;
+      for (int i = 0; i < timestampDeltas.length; i += 2) {
+        for (int j = 0; j < timestampDeltas[i]; j++) {
+          timestamps[sampleIndex++] = timestamp;
+          timestamp += timestampDeltas[i + 1];
+        }
+      }
+      return timestamps;
+    }
+
+    private static int[] withEntryCount(int[] entries, int valuesPerEntry) {
+      int[] values = new int[1 + entries.length];
+      values[0] = entries.length / valuesPerEntry;
+      System.arraycopy(entries, 0, values, 1, entries.length);
+      return values;
+    }
+
+    private static Atom.LeafAtom createFullAtom(int type, int[] values) {
+      ByteBuffer buffer = ByteBuffer.allocate(Atom.FULL_HEADER_SIZE + 4 * values.length);
+      buffer.putInt(buffer.capacity());
+      buffer.putInt(type);
+      buffer.putInt(0);
+      for (int value : values) {
+        buffer.putInt(value);
+      }
+      return new Atom.LeafAtom(type, new ParsableByteArray(buffer.array()));
+    }
+  }
+}
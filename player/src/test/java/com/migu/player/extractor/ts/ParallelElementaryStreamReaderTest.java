@@ -0,0 +1,374 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.migu.player.extractor.ts;
+
+import android.support.annotation.Nullable;
+
+import com.migu.player.C;
+import com.migu.player.Format;
+import com.migu.player.ParserException;
+import com.migu.player.extractor.ExtractorOutput;
+import com.migu.player.extractor.SeekMap;
+import com.migu.player.extractor.TrackOutput;
+import com.migu.player.upstream.DataReader;
+import com.migu.player.util.ParsableByteArray;
+import com.migu.player.util.TimestampAdjuster;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link ParallelElementaryStreamReader}, which feed a synthetic 4K HEVC elementary
+ * stream to a {@link PesReader} as TS packet payloads, with and without parallel parsing.
+ */
+public final class ParallelElementaryStreamReaderTest {
+
+  private static final int TS_PAYLOAD_SIZE = 184;
+  private static final int FRAME_COUNT = 240;
+  private static final int FRAMES_PER_KEY_FRAME = 60;
+  // About 40 Mbit/s at 60 fps.
+  private static final int FRAME_SIZE = 80_000;
+  private static final long FRAME_DURATION_US = 16_667;
+
+  @Test
+  public void consume_parallel_outputsSameSamplesAsSerial() throws IOException {
+    List<byte[]> payloads = createTsPayloads(createHevcStream(new Random(/* seed= */ 0)));
+
+    RecordingExtractorOutput serialOutput = new RecordingExtractorOutput();
+    demux(payloads, /* parallel= */ false, serialOutput);
+    RecordingExtractorOutput parallelOutput = new RecordingExtractorOutput();
+    demux(payloads, /* parallel= */ true, parallelOutput);
+
+    RecordingTrackOutput serialTrack = serialOutput.getTrackOutput();
+    RecordingTrackOutput parallelTrack = parallelOutput.getTrackOutput();
+    assertNotNull(serialTrack.format);
+    assertEquals(3840, serialTrack.format.width);
+    assertEquals(2160, serialTrack.format.height);
+    assertEquals(serialTrack.format, parallelTrack.format);
+    // The first frame is read before the format is output, and the last frame is only output once
+    // the next frame starts.
+    assertEquals(FRAME_COUNT - 2, serialTrack.sampleTimesUs.size());
+    assertEquals(serialTrack.sampleTimesUs, parallelTrack.sampleTimesUs);
+    assertEquals(serialTrack.sampleFlags, parallelTrack.sampleFlags);
+    assertEquals(serialTrack.sampleSizes, parallelTrack.sampleSizes);
+    assertEquals(serialTrack.bytesWritten, parallelTrack.bytesWritten);
+  }
+
+  @Test
+  public void consume_4kHevcStream_measureThroughput() throws IOException {
+    List<byte[]> payloads = createTsPayloads(createHevcStream(new Random(/* seed= */ 0)));
+    long streamBytes = (long) payloads.size() * TS_PAYLOAD_SIZE;
+
+    // Warm up, then keep the best of several runs of each mode.
+    long serialNs = Long.MAX_VALUE;
+    long parallelNs = Long.MAX_VALUE;
+    for (int i = 0; i < 5; i++) {
+      serialNs = Math.min(serialNs, demux(payloads, false, new RecordingExtractorOutput()));
+      parallelNs = Math.min(parallelNs, demux(payloads, true, new RecordingExtractorOutput()));
+    }
+
+    double serialMbPerS = streamBytes / (serialNs / 1e9) / (1024 * 1024);
+    double parallelMbPerS = streamBytes / (parallelNs / 1e9) / (1024 * 1024);
+    System.out.println(
+        "4K HEVC PES demux: serial "
+            + Math.round(serialMbPerS)
+            + " MB/s, parallel "
+            + Math.round(parallelMbPerS)
+            + " MB/s ("
+            + Runtime.getRuntime().availableProcessors()
+            + " processors)");
+    assertTrue(serialMbPerS > 0 && parallelMbPerS > 0);
+  }
+
+  /**
+   * Feeds the payloads to a {@link PesReader} wrapping an {@link H265Reader}, and returns the time
+   * taken until all the samples have been output, in nanoseconds.
+   */
+  private static long demux(
+      List<byte[]> payloads, boolean parallel, RecordingExtractorOutput output)
+      throws IOException {
+    ElementaryStreamReader h265Reader =
+        new H265Reader(new SeiReader(Collections.<Format>emptyList()));
+    PesReader pesReader =
+        new PesReader(
+            parallel
+                ? new ParallelElementaryStreamReader(h265Reader, "Test:ElementaryStreamReader")
+                : h265Reader);
+    pesReader.init(
+        new TimestampAdjuster(/* firstSampleTimestampUs= */ 0),
+        output,
+        new TsPayloadReader.TrackIdGenerator(/* firstTrackId= */ 0x100, /* trackIdIncrement= */ 1));
+    ParsableByteArray data = new ParsableByteArray();
+    long startTimeNs = System.nanoTime();
+    for (int i = 0; i < payloads.size(); i++) {
+      byte[] payload = payloads.get(i);
+      data.reset(payload, payload.length);
+      boolean packetStart = payload[0] == 0 && payload[1] == 0 && payload[2] == 1;
+      pesReader.consume(
+          data, packetStart ? TsPayloadReader.FLAG_PAYLOAD_UNIT_START_INDICATOR : 0);
+    }
+    pesReader.flush();
+    long elapsedNs = System.nanoTime() - startTimeNs;
+    pesReader.release();
+    return elapsedNs;
+  }
+
+  // Synthetic streams.
+
+  /** Splits the frames into PES packets of unbounded length, and the packets into TS payloads. */
+  private static List<byte[]> createTsPayloads(List<byte[]> frames) {
+    List<byte[]> payloads = new ArrayList<>();
+    for (int i = 0; i < frames.size(); i++) {
+      ByteArrayOutputStream packet = new ByteArrayOutputStream();
+      long pts = i * FRAME_DURATION_US * 90 / 1000;
+      write(
+          packet,
+          new byte[] {
+            0, 0, 1, (byte) 0xE0, 0, 0, (byte) 0x80, (byte) 0x80, 5,
+            (byte) (0x21 | ((pts >> 29) & 0x0E)),
+            (byte) (pts >> 22),
+            (byte) (0x01 | ((pts >> 14) & 0xFE)),
+            (byte) (pts >> 7),
+            (byte) (0x01 | ((pts << 1) & 0xFE))
+          });
+      write(packet, frames.get(i));
+      byte[] packetBytes = packet.toByteArray();
+      // Real streams pad the last TS packet of a PES packet with adaptation field stuffing, which
+      // isn't part of the payload, so the last payload may be shorter.
+      for (int offset = 0; offset < packetBytes.length; offset += TS_PAYLOAD_SIZE) {
+        int length = Math.min(TS_PAYLOAD_SIZE, packetBytes.length - offset);
+        byte[] payload = new byte[length];
+        System.arraycopy(packetBytes, offset, payload, 0, length);
+        payloads.add(payload);
+      }
+    }
+    return payloads;
+  }
+
+  /**
+   * Returns the access units of a 3840x2160 HEVC stream in Annex B format. Key frames are preceded
+   * by parameter sets, and each access unit holds one slice of random data.
+   */
+  private static List<byte[]> createHevcStream(Random random) {
+    byte[] parameterSets = createParameterSets();
+    List<byte[]> frames = new ArrayList<>();
+    for (int i = 0; i < FRAME_COUNT; i++) {
+      ByteArrayOutputStream frame = new ByteArrayOutputStream();
+      boolean keyFrame = i % FRAMES_PER_KEY_FRAME == 0;
+      if (keyFrame) {
+        write(frame, parameterSets);
+      }
+      // IDR_W_RADL or TRAIL_R slice, with first_slice_segment_in_pic_flag set.
+      int nalUnitType = keyFrame ? 19 : 1;
+      write(frame, new byte[] {0, 0, 0, 1, (byte) (nalUnitType << 1), 1, (byte) 0x80});
+      byte[] sliceData = new byte[FRAME_SIZE];
+      for (int j = 0; j < sliceData.length; j++) {
+        // Avoid zero bytes, so that the slice data contains no start codes.
+        sliceData[j] = (byte) (1 + random.nextInt(255));
+      }
+      write(frame, sliceData);
+      frames.add(frame.toByteArray());
+    }
+    return frames;
+  }
+
+  /** Returns a VPS, an SPS for a 3840x2160 Main profile stream and a PPS, in Annex B format. */
+  private static byte[] createParameterSets() {
+    ByteArrayOutputStream parameterSets = new ByteArrayOutputStream();
+    // The VPS and PPS aren't parsed.
+    write(parameterSets, new byte[] {0, 0, 0, 1, 32 << 1, 1, 0x0C, 0x01, (byte) 0xFF});
+    BitWriter sps = new BitWriter();
+    sps.writeBits(33 << 1, 8).writeBits(1, 8); // NAL unit header.
+    sps.writeBits(0, 4); // sps_video_parameter_set_id
+    sps.writeBits(0, 3); // sps_max_sub_layers_minus1
+    sps.writeBits(1, 1); // sps_temporal_id_nesting_flag
+    sps.writeBits(0x01, 8); // general_profile_space, general_tier_flag, general_profile_idc
+    sps.writeBits(0x60000000L, 32); // general_profile_compatibility_flags
+    sps.writeBits(0x9, 4); // progressive, interlaced, non-packed and frame-only constraint flags
+    sps.writeBits(0, 44); // Reserved bits.
+    sps.writeBits(153, 8); // general_level_idc
+    sps.writeUnsignedExpGolomb(0); // sps_seq_parameter_set_id
+    sps.writeUnsignedExpGolomb(1); // chroma_format_idc
+    sps.writeUnsignedExpGolomb(3840); // pic_width_in_luma_samples
+    sps.writeUnsignedExpGolomb(2160); // pic_height_in_luma_samples
+    sps.writeBits(0, 1); // conformance_window_flag
+    sps.writeUnsignedExpGolomb(0); // bit_depth_luma_minus8
+    sps.writeUnsignedExpGolomb(0); // bit_depth_chroma_minus8
+    sps.writeUnsignedExpGolomb(4); // log2_max_pic_order_cnt_lsb_minus4
+    sps.writeBits(1, 1); // sps_sub_layer_ordering_info_present_flag
+    sps.writeUnsignedExpGolomb(4); // sps_max_dec_pic_buffering_minus1
+    sps.writeUnsignedExpGolomb(2); // sps_max_num_reorder_pics
+    sps.writeUnsignedExpGolomb(0); // sps_max_latency_increase_plus1
+    sps.writeUnsignedExpGolomb(0); // log2_min_luma_coding_block_size_minus3
+    sps.writeUnsignedExpGolomb(3); // log2_diff_max_min_luma_coding_block_size
+    sps.writeUnsignedExpGolomb(0); // log2_min_luma_transform_block_size_minus2
+    sps.writeUnsignedExpGolomb(3); // log2_diff_max_min_luma_transform_block_size
+    sps.writeUnsignedExpGolomb(1); // max_transform_hierarchy_depth_inter
+    sps.writeUnsignedExpGolomb(1); // max_transform_hierarchy_depth_intra
+    sps.writeBits(0, 1); // scaling_list_enabled_flag
+    sps.writeBits(3, 2); // amp_enabled_flag, sample_adaptive_offset_enabled_flag
+    sps.writeBits(0, 1); // pcm_enabled_flag
+    sps.writeUnsignedExpGolomb(0); // num_short_term_ref_pic_sets
+    sps.writeBits(0, 1); // long_term_ref_pics_present_flag
+    sps.writeBits(3, 2); // sps_temporal_mvp_enabled_flag, strong_intra_smoothing_enabled_flag
+    sps.writeBits(0, 1); // vui_parameters_present_flag
+    sps.writeBits(0, 1); // sps_extension_present_flag
+    write(parameterSets, new byte[] {0, 0, 0, 1});
+    write(parameterSets, sps.toEscapedByteArray());
+    write(parameterSets, new byte[] {0, 0, 0, 1, 34 << 1, 1, (byte) 0xC1, 0x72, (byte) 0xB4});
+    return parameterSets.toByteArray();
+  }
+
+  private static void write(ByteArrayOutputStream output, byte[] bytes) {
+    output.write(bytes, /* off= */ 0, bytes.length);
+  }
+
+  /** Writes the bits of an RBSP, which it converts to a NAL unit payload. */
+  private static final class BitWriter {
+
+    private final ByteArrayOutputStream bytes;
+    private int currentByte;
+    private int bitCount;
+
+    public BitWriter() {
+      bytes = new ByteArrayOutputStream();
+    }
+
+    public BitWriter writeBits(long value, int length) {
+      for (int i = length - 1; i >= 0; i--) {
+        currentByte = (currentByte << 1) | (int) ((value >> i) & 1);
+        bitCount++;
+        if (bitCount == 8) {
+          bytes.write(currentByte);
+          currentByte = 0;
+          bitCount = 0;
+        }
+      }
+      return this;
+    }
+
+    public BitWriter writeUnsignedExpGolomb(int value) {
+      int codeNum = value + 1;
+      int length = 32 - Integer.numberOfLeadingZeros(codeNum);
+      writeBits(0, length - 1);
+      return writeBits(codeNum, length);
+    }
+
+    /** Adds the RBSP trailing bits, and returns the bytes with emulation prevention bytes. */
+    public byte[] toEscapedByteArray() {
+      writeBits(1, 1);
+      while (bitCount != 0) {
+        writeBits(0, 1);
+      }
+      byte[] rbsp = bytes.toByteArray();
+      ByteArrayOutputStream escaped = new ByteArrayOutputStream();
+      int zeroCount = 0;
+      for (byte value : rbsp) {
+        if (zeroCount == 2 && (value & 0xFF) <= 3) {
+          escaped.write(3);
+          zeroCount = 0;
+        }
+        escaped.write(value);
+        zeroCount = value == 0 ? zeroCount + 1 : 0;
+      }
+      return escaped.toByteArray();
+    }
+  }
+
+  // Fakes.
+
+  private static final class RecordingExtractorOutput implements ExtractorOutput {
+
+    private final List<RecordingTrackOutput> trackOutputs;
+
+    public RecordingExtractorOutput() {
+      trackOutputs = new ArrayList<>();
+    }
+
+    public RecordingTrackOutput getTrackOutput() {
+      assertEquals(1, trackOutputs.size());
+      return trackOutputs.get(0);
+    }
+
+    @Override
+    public TrackOutput track(int id, int type) {
+      RecordingTrackOutput trackOutput = new RecordingTrackOutput();
+      trackOutputs.add(trackOutput);
+      return trackOutput;
+    }
+
+    @Override
+    public void endTracks() {
+      // Do nothing.
+    }
+
+    @Override
+    public void seekMap(SeekMap seekMap) {
+      // Do nothing.
+    }
+  }
+
+  private static final class RecordingTrackOutput implements TrackOutput {
+
+    public final List<Long> sampleTimesUs;
+    public final List<Integer> sampleFlags;
+    public final List<Integer> sampleSizes;
+    @Nullable public Format format;
+    public long bytesWritten;
+
+    public RecordingTrackOutput() {
+      sampleTimesUs = new ArrayList<>();
+      sampleFlags = new ArrayList<>();
+      sampleSizes = new ArrayList<>();
+    }
+
+    @Override
+    public void format(Format format) {
+      this.format = format;
+    }
+
+    @Override
+    public int sampleData(
+        DataReader input, int length, boolean allowEndOfInput, @SampleDataPart int sampleDataPart) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void sampleData(
+        ParsableByteArray data, int length, @SampleDataPart int sampleDataPart) {
+      data.skipBytes(length);
+      bytesWritten += length;
+    }
+
+    @Override
+    public void sampleMetadata(
+        long timeUs, int flags, int size, int offset, @Nullable CryptoData cryptoData) {
+      sampleTimesUs.add(timeUs);
+      sampleFlags.add(flags);
+      sampleSizes.add(size);
+    }
+  }
+}
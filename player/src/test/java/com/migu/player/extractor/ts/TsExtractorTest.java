@@ -0,0 +1,656 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.migu.player.extractor.ts;
+
+import android.net.Uri;
+import android.support.annotation.Nullable;
+
+import com.migu.player.C;
+import com.migu.player.Format;
+import com.migu.player.extractor.DefaultExtractorInput;
+import com.migu.player.extractor.Extractor;
+import com.migu.player.extractor.ExtractorInput;
+import com.migu.player.extractor.ExtractorOutput;
+import com.migu.player.extractor.PositionHolder;
+import com.migu.player.extractor.SeekMap;
+import com.migu.player.extractor.TrackOutput;
+import com.migu.player.upstream.DataReader;
+import com.migu.player.util.ParsableByteArray;
+import com.migu.player.util.Util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link TsExtractor} reading synthetic multi-program captures, including
+ * benchmarks of its throughput and of its prepare latency with and without the duration probe.
+ */
+public final class TsExtractorTest {
+
+  private static final int PMT_PID_BASE = 0x100;
+  private static final int AUDIO_PID_BASE = 0x200;
+  /** The header of a 128 kbit/s, 44.1 kHz, mono MPEG-1 Layer III frame without padding. */
+  private static final int MP3_FRAME_HEADER = 0xFFFB90C4;
+  private static final int MP3_FRAME_SIZE = 417;
+  private static final int MP3_SAMPLES_PER_FRAME = 1152;
+  private static final int MP3_SAMPLE_RATE = 44_100;
+  private static final long FIRST_PTS = 90_000;
+  private static final long ROUND_TRIP_TIME_MS = 100;
+  private static final long BANDWIDTH_BYTES_PER_SECOND = 1_000_000;
+  private static final Uri URI = Uri.parse("https://example.com/capture.ts");
+
+  @Test
+  public void read_multiProgramCapture_outputsEveryFrameOfEveryProgram() throws IOException {
+    int programCount = 4;
+    int frameCount = 500;
+    byte[] capture = createCapture(programCount, frameCount);
+
+    RecordingExtractorOutput output = extract(capture, /* maxReadLength= */ Integer.MAX_VALUE);
+
+    assertEquals(programCount, output.trackOutputs.size());
+    for (RecordingTrackOutput trackOutput : output.trackOutputs.values()) {
+      assertNotNull(trackOutput.format);
+      assertEquals(frameCount, trackOutput.sampleTimesUs.size());
+      for (int i = 0; i < frameCount; i++) {
+        assertEquals(getFrameTimeUs(i), (long) trackOutput.sampleTimesUs.get(i));
+        assertEquals(MP3_FRAME_SIZE, (int) trackOutput.sampleSizes.get(i));
+      }
+      assertEquals((long) frameCount * MP3_FRAME_SIZE, trackOutput.bytesWritten);
+    }
+    SeekMap seekMap = output.seekMap;
+    assertNotNull(seekMap);
+    assertTrue(seekMap.isSeekable());
+    long expectedDurationUs = getFrameTimeUs(frameCount - 1);
+    assertTrue(Math.abs(seekMap.getDurationUs() - expectedDurationUs) <= 1);
+  }
+
+  @Test
+  public void read_shortUnalignedReads_outputsSameSamplesAsWholeBufferReads() throws IOException {
+    byte[] capture = createCapture(/* programCount= */ 3, /* frameCount= */ 200);
+    RecordingExtractorOutput expectedOutput = extract(capture, Integer.MAX_VALUE);
+
+    for (int maxReadLength : new int[] {1, 100, 187, 189, 1000, 9_399}) {
+      RecordingExtractorOutput output = extract(capture, maxReadLength);
+      assertEquals(expectedOutput.trackOutputs.keySet(), output.trackOutputs.keySet());
+      for (int id : expectedOutput.trackOutputs.keySet()) {
+        RecordingTrackOutput expectedTrackOutput = expectedOutput.trackOutputs.get(id);
+        RecordingTrackOutput trackOutput = output.trackOutputs.get(id);
+        assertEquals(expectedTrackOutput.sampleTimesUs, trackOutput.sampleTimesUs);
+        assertEquals(expectedTrackOutput.sampleSizes, trackOutput.sampleSizes);
+        assertEquals(expectedTrackOutput.bytesWritten, trackOutput.bytesWritten);
+      }
+      assertEquals(expectedOutput.seekMap.getDurationUs(), output.seekMap.getDurationUs());
+    }
+  }
+
+  /**
+   * Measures the throughput of {@link TsExtractor} and the number of calls to {@link
+   * TsExtractor#read} per MB, when reading a two minute capture of eight audio programs that is
+   * held in memory, so that only demuxing and parsing are measured.
+   */
+  @Test
+  public void read_eightProgramCapture_measureThroughput() throws IOException {
+    int frameCount = 2 * 60 * MP3_SAMPLE_RATE / MP3_SAMPLES_PER_FRAME;
+    byte[] capture = createCapture(/* programCount= */ 8, frameCount);
+    long extractNs = Long.MAX_VALUE;
+    RecordingExtractorOutput output = null;
+    for (int run = 0; run < 10; run++) {
+      long startTimeNs = System.nanoTime();
+      output = extract(capture, Integer.MAX_VALUE);
+      extractNs = Math.min(extractNs, System.nanoTime() - startTimeNs);
+    }
+    assertEquals(8, output.trackOutputs.size());
+    assertEquals(frameCount, output.trackOutputs.lastEntry().getValue().sampleTimesUs.size());
+
+    System.out.println(
+        "TsExtractor, "
+            + capture.length / (1024 * 1024)
+            + " MiB capture of 8 programs: read in "
+            + extractNs / 1_000_000
+            + " ms ("
+            + capture.length * 1000L / extractNs
+            + " MB/s), "
+            + output.readCount * 1_000_000L / capture.length
+            + " read calls per MB");
+  }
+
+  @Test
+  public void prepare_withTimestampRangeStore_restoresDurationWithoutProbing() throws IOException {
+    byte[] capture = createCapture(/* programCount= */ 2, /* frameCount= */ 2_000);
+    long probePosition = capture.length - TsExtractor.DEFAULT_TIMESTAMP_SEARCH_BYTES;
+    MapTimestampRangeStore store = new MapTimestampRangeStore();
+
+    TsExtractor extractor = createExtractor(store);
+    assertEquals(probePosition, extractor.getDurationProbePosition(capture.length));
+    List<ByteArrayDataReader> requests = new ArrayList<>();
+    SeekMap probedSeekMap = prepare(extractor, capture, requests);
+    // The start of the stream, the probe of its end, and the start again for the first PCR.
+    assertEquals(3, requests.size());
+    assertEquals(probePosition, requests.get(1).startPosition);
+    TimestampRange timestampRange = store.get(URI);
+    assertNotNull(timestampRange);
+    assertEquals(capture.length, timestampRange.inputLength);
+    assertEquals(FIRST_PTS, timestampRange.firstTimestamp);
+    assertEquals(getFramePts(1_999), timestampRange.lastTimestamp);
+
+    extractor = createExtractor(store);
+    assertEquals(C.POSITION_UNSET, extractor.getDurationProbePosition(capture.length));
+    requests.clear();
+    SeekMap restoredSeekMap = prepare(extractor, capture, requests);
+    assertEquals(1, requests.size());
+    assertTrue(restoredSeekMap.isSeekable());
+    assertEquals(probedSeekMap.getDurationUs(), restoredSeekMap.getDurationUs());
+    assertEquals(1, store.putCount);
+  }
+
+  @Test
+  public void prepare_storedRangeOfDifferentLength_probesAgain() throws IOException {
+    byte[] capture = createCapture(/* programCount= */ 2, /* frameCount= */ 2_000);
+    MapTimestampRangeStore store = new MapTimestampRangeStore();
+    store.put(URI, new TimestampRange(capture.length + 188, FIRST_PTS, 2 * FIRST_PTS));
+
+    TsExtractor extractor = createExtractor(store);
+    assertEquals(
+        capture.length - TsExtractor.DEFAULT_TIMESTAMP_SEARCH_BYTES,
+        extractor.getDurationProbePosition(capture.length));
+    List<ByteArrayDataReader> requests = new ArrayList<>();
+    prepare(extractor, capture, requests);
+
+    assertEquals(3, requests.size());
+    assertEquals(capture.length, store.get(URI).inputLength);
+    assertNull(store.get(Uri.parse("https://example.com/other.ts")));
+  }
+
+  /**
+   * Measures the prepare latency of a two minute capture of eight audio programs, until the
+   * extractor outputs its seek map: with the duration probe made after the start of the stream has
+   * been read, with the probe made concurrently with the first request, as {@code
+   * ProgressiveMediaPeriod} does from {@link TsExtractor#getDurationProbePosition}, and with the
+   * timestamp range restored from a store, without a probe.
+   *
+   * <p>The capture is held in memory, so the parsing time is measured, and the latency of the
+   * requests on a network is modeled from the requests made and the bytes read from each of them,
+   * with a round trip time of {@link #ROUND_TRIP_TIME_MS} and a bandwidth of {@link
+   * #BANDWIDTH_BYTES_PER_SECOND}. The concurrent probe saves the round trip and transfer time of
+   * the probe request, which overlap the first request.
+   */
+  @Test
+  public void prepare_measureLatencyWithAndWithoutProbe() throws IOException {
+    int frameCount = 2 * 60 * MP3_SAMPLE_RATE / MP3_SAMPLES_PER_FRAME;
+    byte[] capture = createCapture(/* programCount= */ 8, frameCount);
+    MapTimestampRangeStore store = new MapTimestampRangeStore();
+    long probeNs = Long.MAX_VALUE;
+    long storedNs = Long.MAX_VALUE;
+    List<ByteArrayDataReader> probeRequests = new ArrayList<>();
+    List<ByteArrayDataReader> storedRequests = new ArrayList<>();
+    for (int run = 0; run < 10; run++) {
+      store.timestampRanges.clear();
+      probeRequests.clear();
+      long startTimeNs = System.nanoTime();
+      prepare(createExtractor(store), capture, probeRequests);
+      probeNs = Math.min(probeNs, System.nanoTime() - startTimeNs);
+      storedRequests.clear();
+      startTimeNs = System.nanoTime();
+      prepare(createExtractor(store), capture, storedRequests);
+      storedNs = Math.min(storedNs, System.nanoTime() - startTimeNs);
+    }
+    assertEquals(3, probeRequests.size());
+    assertEquals(1, storedRequests.size());
+
+    long probeLatencyMs = getModeledLatencyMs(probeRequests);
+    ByteArrayDataReader probeRequest = probeRequests.get(1);
+    long concurrentProbeLatencyMs = probeLatencyMs - getModeledLatencyMs(probeRequest);
+    System.out.println(
+        "TsExtractor, prepare of a "
+            + capture.length / (1024 * 1024)
+            + " MiB capture: sequential probe "
+            + probeRequests.size()
+            + " requests, "
+            + getBytesRead(probeRequests) / 1024
+            + " KiB, parsed in "
+            + probeNs / 1000
+            + " us, modeled latency "
+            + probeLatencyMs
+            + " ms; concurrent probe modeled latency "
+            + concurrentProbeLatencyMs
+            + " ms; stored range "
+            + storedRequests.size()
+            + " request, "
+            + getBytesRead(storedRequests) / 1024
+            + " KiB, parsed in "
+            + storedNs / 1000
+            + " us, modeled latency "
+            + getModeledLatencyMs(storedRequests)
+            + " ms");
+  }
+
+  private static long getFrameTimeUs(int frame) {
+    return ptsToUs(getFramePts(frame)) - ptsToUs(FIRST_PTS);
+  }
+
+  private static long getFramePts(int frame) {
+    return FIRST_PTS + (long) frame * MP3_SAMPLES_PER_FRAME * 90_000 / MP3_SAMPLE_RATE;
+  }
+
+  private static long ptsToUs(long pts) {
+    return pts * C.MICROS_PER_SECOND / 90_000;
+  }
+
+  /**
+   * Reads {@code capture} to its end with a {@link TsExtractor} in {@link
+   * TsExtractor#MODE_MULTI_PMT}, following the seeks it makes to read the duration.
+   *
+   * @param capture The capture.
+   * @param maxReadLength The maximum number of bytes returned by each read from the input.
+   */
+  private static RecordingExtractorOutput extract(byte[] capture, int maxReadLength)
+      throws IOException {
+    TsExtractor extractor =
+        new TsExtractor(
+            TsExtractor.MODE_MULTI_PMT,
+            /* defaultTsPayloadReaderFlags= */ 0,
+            TsExtractor.DEFAULT_TIMESTAMP_SEARCH_BYTES);
+    RecordingExtractorOutput output = new RecordingExtractorOutput();
+    extractor.init(output);
+    PositionHolder positionHolder = new PositionHolder();
+    ExtractorInput input = createInput(capture, /* position= */ 0, maxReadLength);
+    int result = Extractor.RESULT_CONTINUE;
+    while (result != Extractor.RESULT_END_OF_INPUT) {
+      result = extractor.read(input, positionHolder);
+      output.readCount++;
+      if (result == Extractor.RESULT_SEEK) {
+        input = createInput(capture, positionHolder.position, maxReadLength);
+      }
+    }
+    extractor.release();
+    return output;
+  }
+
+  private static ExtractorInput createInput(byte[] capture, long position, int maxReadLength) {
+    return createInput(capture, new ByteArrayDataReader(capture, (int) position, maxReadLength));
+  }
+
+  private static ExtractorInput createInput(byte[] capture, ByteArrayDataReader dataReader) {
+    return new DefaultExtractorInput(dataReader, dataReader.startPosition, capture.length);
+  }
+
+  private static TsExtractor createExtractor(TimestampRangeStore timestampRangeStore) {
+    return new TsExtractor(
+        TsExtractor.MODE_MULTI_PMT,
+        /* defaultTsPayloadReaderFlags= */ 0,
+        TsExtractor.DEFAULT_TIMESTAMP_SEARCH_BYTES,
+        timestampRangeStore,
+        URI);
+  }
+
+  /**
+   * Reads {@code capture} with {@code extractor} until it outputs its seek map.
+   *
+   * @param extractor The extractor.
+   * @param capture The capture.
+   * @param requests A list to which a {@link ByteArrayDataReader} is added for each request from
+   *     which the extractor reads.
+   * @return The seek map.
+   */
+  private static SeekMap prepare(
+      TsExtractor extractor, byte[] capture, List<ByteArrayDataReader> requests)
+      throws IOException {
+    RecordingExtractorOutput output = new RecordingExtractorOutput();
+    extractor.init(output);
+    PositionHolder positionHolder = new PositionHolder();
+    ByteArrayDataReader request =
+        new ByteArrayDataReader(capture, /* position= */ 0, Integer.MAX_VALUE);
+    requests.add(request);
+    ExtractorInput input = createInput(capture, request);
+    while (true) {
+      int result = extractor.read(input, positionHolder);
+      if (output.seekMap != null) {
+        // The extractor may also have asked to seek back to the start, to read the samples.
+        break;
+      }
+      if (result == Extractor.RESULT_SEEK) {
+        int position = (int) positionHolder.position;
+        request = new ByteArrayDataReader(capture, position, Integer.MAX_VALUE);
+        requests.add(request);
+        input = createInput(capture, request);
+      }
+    }
+    extractor.release();
+    return output.seekMap;
+  }
+
+  private static long getModeledLatencyMs(List<ByteArrayDataReader> requests) {
+    long latencyMs = 0;
+    for (int i = 0; i < requests.size(); i++) {
+      latencyMs += getModeledLatencyMs(requests.get(i));
+    }
+    return latencyMs;
+  }
+
+  private static long getModeledLatencyMs(ByteArrayDataReader request) {
+    return ROUND_TRIP_TIME_MS + request.getBytesRead() * 1000 / BANDWIDTH_BYTES_PER_SECOND;
+  }
+
+  private static long getBytesRead(List<ByteArrayDataReader> requests) {
+    long bytesRead = 0;
+    for (int i = 0; i < requests.size(); i++) {
+      bytesRead += requests.get(i).getBytesRead();
+    }
+    return bytesRead;
+  }
+
+  /**
+   * Returns a capture with a PAT and a PMT for each of {@code programCount} programs, followed by
+   * {@code frameCount} MP3 frames of each program. Each frame is in its own PES packet, and the
+   * first TS packet of each PES packet carries a PCR.
+   */
+  private static byte[] createCapture(int programCount, int frameCount) {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    int[] continuityCounters = new int[0x2000];
+    writeSection(output, /* pid= */ 0, createPat(programCount), continuityCounters);
+    for (int i = 0; i < programCount; i++) {
+      writeSection(output, PMT_PID_BASE + i, createPmt(i), continuityCounters);
+    }
+    byte[] pesPacket = new byte[14 + MP3_FRAME_SIZE];
+    pesPacket[2] = 1;
+    pesPacket[3] = (byte) 0xC0;
+    pesPacket[4] = (byte) ((pesPacket.length - 6) >> 8);
+    pesPacket[5] = (byte) (pesPacket.length - 6);
+    pesPacket[6] = (byte) 0x80;
+    // PTS only.
+    pesPacket[7] = (byte) 0x80;
+    pesPacket[8] = 5;
+    writeInt(pesPacket, /* offset= */ 14, MP3_FRAME_HEADER);
+    for (int frame = 0; frame < frameCount; frame++) {
+      long pts = getFramePts(frame);
+      pesPacket[9] = (byte) (0x21 | ((pts >> 29) & 0x0E));
+      pesPacket[10] = (byte) (pts >> 22);
+      pesPacket[11] = (byte) ((pts >> 14) | 0x01);
+      pesPacket[12] = (byte) (pts >> 7);
+      pesPacket[13] = (byte) ((pts << 1) | 0x01);
+      for (int i = 0; i < programCount; i++) {
+        writePesPacket(output, AUDIO_PID_BASE + i, pts, pesPacket, continuityCounters);
+      }
+    }
+    return output.toByteArray();
+  }
+
+  private static byte[] createPat(int programCount) {
+    byte[] section = new byte[12 + 4 * programCount];
+    section[0] = 0x00;
+    section[5] = (byte) 0xC1;
+    for (int i = 0; i < programCount; i++) {
+      int offset = 8 + 4 * i;
+      section[offset + 1] = (byte) (i + 1);
+      section[offset + 2] = (byte) (0xE0 | ((PMT_PID_BASE + i) >> 8));
+      section[offset + 3] = (byte) (PMT_PID_BASE + i);
+    }
+    return finishSection(section);
+  }
+
+  private static byte[] createPmt(int program) {
+    int pid = AUDIO_PID_BASE + program;
+    byte[] section = new byte[12 + 5 + 4];
+    section[0] = 0x02;
+    section[4] = (byte) (program + 1);
+    section[5] = (byte) 0xC1;
+    // The PCR is carried by the audio stream.
+    section[8] = (byte) (0xE0 | (pid >> 8));
+    section[9] = (byte) pid;
+    section[10] = (byte) 0xF0;
+    section[12] = (byte) TsExtractor.TS_STREAM_TYPE_MPA;
+    section[13] = (byte) (0xE0 | (pid >> 8));
+    section[14] = (byte) pid;
+    section[15] = (byte) 0xF0;
+    return finishSection(section);
+  }
+
+  /** Sets the section syntax indicator, the section length and the CRC of {@code section}. */
+  private static byte[] finishSection(byte[] section) {
+    int sectionLength = section.length - 3;
+    section[1] = (byte) (0xB0 | (sectionLength >> 8));
+    section[2] = (byte) sectionLength;
+    int crc = Util.crc32(section, 0, section.length - 4, 0xFFFFFFFF);
+    writeInt(section, section.length - 4, crc);
+    return section;
+  }
+
+  private static void writeSection(
+      ByteArrayOutputStream output, int pid, byte[] section, int[] continuityCounters) {
+    byte[] payload = new byte[184];
+    // The pointer field is followed by the section, and then by stuffing bytes.
+    System.arraycopy(section, 0, payload, 1, section.length);
+    for (int i = 1 + section.length; i < payload.length; i++) {
+      payload[i] = (byte) 0xFF;
+    }
+    writeTsPacket(output, pid, C.TIME_UNSET, payload, 0, payload.length, continuityCounters);
+  }
+
+  private static void writePesPacket(
+      ByteArrayOutputStream output,
+      int pid,
+      long pcr,
+      byte[] pesPacket,
+      int[] continuityCounters) {
+    int offset = 0;
+    while (offset < pesPacket.length) {
+      boolean isFirstPacket = offset == 0;
+      int length = Math.min(pesPacket.length - offset, isFirstPacket ? 176 : 184);
+      writeTsPacket(
+          output,
+          pid,
+          isFirstPacket ? pcr : C.TIME_UNSET,
+          pesPacket,
+          offset,
+          length,
+          continuityCounters);
+      offset += length;
+    }
+  }
+
+  /**
+   * Writes a TS packet with a payload of {@code length} bytes, and with an adaptation field that
+   * carries {@code pcr}, unless it's {@link C#TIME_UNSET}, and stuffing for shorter payloads. The
+   * payload unit start indicator is set if {@code offset} is zero.
+   */
+  private static void writeTsPacket(
+      ByteArrayOutputStream output,
+      int pid,
+      long pcr,
+      byte[] payload,
+      int offset,
+      int length,
+      int[] continuityCounters) {
+    byte[] packet = new byte[TsExtractor.TS_PACKET_SIZE];
+    packet[0] = TsExtractor.TS_SYNC_BYTE;
+    packet[1] = (byte) ((offset == 0 ? 0x40 : 0) | (pid >> 8));
+    packet[2] = (byte) pid;
+    int continuityCounter = continuityCounters[pid];
+    continuityCounters[pid] = (continuityCounter + 1) & 0xF;
+    int headerLength = packet.length - length;
+    if (headerLength == 4) {
+      packet[3] = (byte) (0x10 | continuityCounter);
+    } else {
+      packet[3] = (byte) (0x30 | continuityCounter);
+      int adaptationFieldLength = headerLength - 5;
+      packet[4] = (byte) adaptationFieldLength;
+      int stuffingOffset = 5;
+      if (adaptationFieldLength > 0) {
+        stuffingOffset = 6;
+        if (pcr != C.TIME_UNSET) {
+          packet[5] = 0x10;
+          packet[6] = (byte) (pcr >> 25);
+          packet[7] = (byte) (pcr >> 17);
+          packet[8] = (byte) (pcr >> 9);
+          packet[9] = (byte) (pcr >> 1);
+          packet[10] = (byte) (((pcr & 1) << 7) | 0x7E);
+          stuffingOffset = 12;
+        }
+      }
+      for (int i = stuffingOffset; i < headerLength; i++) {
+        packet[i] = (byte) 0xFF;
+      }
+    }
+    System.arraycopy(payload, offset, packet, headerLength, length);
+    output.write(packet, 0, packet.length);
+  }
+
+  private static void writeInt(byte[] data, int offset, int value) {
+    data[offset] = (byte) (value >> 24);
+    data[offset + 1] = (byte) (value >> 16);
+    data[offset + 2] = (byte) (value >> 8);
+    data[offset + 3] = (byte) value;
+  }
+
+  /** A {@link DataReader} that reads a byte array from a position, in reads of limited length. */
+  private static final class ByteArrayDataReader implements DataReader {
+
+    public final int startPosition;
+
+    private final byte[] data;
+    private final int maxReadLength;
+
+    private int position;
+
+    public ByteArrayDataReader(byte[] data, int position, int maxReadLength) {
+      this.data = data;
+      this.position = position;
+      this.maxReadLength = maxReadLength;
+      startPosition = position;
+    }
+
+    public long getBytesRead() {
+      return position - startPosition;
+    }
+
+    @Override
+    public int read(byte[] target, int offset, int length) {
+      if (position == data.length) {
+        return C.RESULT_END_OF_INPUT;
+      }
+      int bytesRead = Math.min(Math.min(length, maxReadLength), data.length - position);
+      System.arraycopy(data, position, target, offset, bytesRead);
+      position += bytesRead;
+      return bytesRead;
+    }
+  }
+
+  /** A {@link TimestampRangeStore} that keeps ranges in memory. */
+  private static final class MapTimestampRangeStore implements TimestampRangeStore {
+
+    public final HashMap<Uri, TimestampRange> timestampRanges = new HashMap<>();
+
+    public int putCount;
+
+    @Override
+    @Nullable
+    public TimestampRange get(Uri uri) {
+      return timestampRanges.get(uri);
+    }
+
+    @Override
+    public void put(Uri uri, TimestampRange timestampRange) {
+      timestampRanges.put(uri, timestampRange);
+      putCount++;
+    }
+  }
+
+  /** An {@link ExtractorOutput} that records the tracks and the {@link SeekMap}. */
+  private static final class RecordingExtractorOutput implements ExtractorOutput {
+
+    public final TreeMap<Integer, RecordingTrackOutput> trackOutputs = new TreeMap<>();
+
+    @Nullable public SeekMap seekMap;
+    public int readCount;
+
+    @Override
+    public TrackOutput track(int id, int type) {
+      RecordingTrackOutput trackOutput = trackOutputs.get(id);
+      if (trackOutput == null) {
+        trackOutput = new RecordingTrackOutput();
+        trackOutputs.put(id, trackOutput);
+      }
+      return trackOutput;
+    }
+
+    @Override
+    public void endTracks() {
+      // Do nothing.
+    }
+
+    @Override
+    public void seekMap(SeekMap seekMap) {
+      this.seekMap = seekMap;
+    }
+  }
+
+  /** A {@link TrackOutput} that discards sample data, and records the metadata of each sample. */
+  private static final class RecordingTrackOutput implements TrackOutput {
+
+    public final List<Long> sampleTimesUs = new ArrayList<>();
+    public final List<Integer> sampleSizes = new ArrayList<>();
+
+    @Nullable public Format format;
+    public long bytesWritten;
+
+    private final byte[] scratch = new byte[4096];
+
+    @Override
+    public void format(Format format) {
+      this.format = format;
+    }
+
+    @Override
+    public int sampleData(
+        DataReader input, int length, boolean allowEndOfInput, @SampleDataPart int sampleDataPart)
+        throws IOException {
+      int bytesRead = input.read(scratch, 0, Math.min(length, scratch.length));
+      if (bytesRead != C.RESULT_END_OF_INPUT) {
+        bytesWritten += bytesRead;
+      }
+      return bytesRead;
+    }
+
+    @Override
+    public void sampleData(
+        ParsableByteArray data, int length, @SampleDataPart int sampleDataPart) {
+      data.skipBytes(length);
+      bytesWritten += length;
+    }
+
+    @Override
+    public void sampleMetadata(
+        long timeUs,
+        @C.BufferFlags int flags,
+        int size,
+        int offset,
+        @Nullable CryptoData encryptionData) {
+      sampleTimesUs.add(timeUs);
+      sampleSizes.add(size);
+    }
+  }
+}
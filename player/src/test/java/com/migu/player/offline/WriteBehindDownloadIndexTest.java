@@ -0,0 +1,402 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.migu.player.offline;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.Nullable;
+
+import com.migu.player.C;
+import com.migu.player.util.Clock;
+import com.migu.player.util.HandlerWrapper;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for {@link WriteBehindDownloadIndex}, including a simulation of the progress updates
+ * written by {@link DownloadManager} that reports the number of transactions and the time spent on
+ * the calling thread with and without write-behind.
+ */
+public final class WriteBehindDownloadIndexTest {
+
+  private static final long MAX_FLUSH_INTERVAL_MS = 30_000;
+
+  @Test
+  public void putDownload_downloadingWithinInterval_coalescesUpdates() throws IOException {
+    FakeDownloadIndex fakeIndex = new FakeDownloadIndex(/* transactionCostNs= */ 0);
+    FakeClock clock = new FakeClock();
+    WriteBehindDownloadIndex index =
+        new WriteBehindDownloadIndex(fakeIndex, MAX_FLUSH_INTERVAL_MS, clock);
+
+    for (int i = 1; i <= 10; i++) {
+      clock.timeMs += 1000;
+      index.putDownload(createDownload("a", Download.STATE_DOWNLOADING, i * 100));
+    }
+
+    assertEquals(0, fakeIndex.transactionCount);
+    assertNull(fakeIndex.getDownload("a"));
+    assertEquals(1, index.getPendingDownloadCount());
+    assertEquals(9, index.getCoalescedUpdateCount());
+    assertEquals(1000, index.getDownload("a").getBytesDownloaded());
+  }
+
+  @Test
+  public void putDownload_afterMaxFlushInterval_writesPendingUpdatesInOneTransaction()
+      throws IOException {
+    FakeDownloadIndex fakeIndex = new FakeDownloadIndex(/* transactionCostNs= */ 0);
+    FakeClock clock = new FakeClock();
+    WriteBehindDownloadIndex index =
+        new WriteBehindDownloadIndex(fakeIndex, MAX_FLUSH_INTERVAL_MS, clock);
+
+    index.putDownload(createDownload("a", Download.STATE_DOWNLOADING, 100));
+    index.putDownload(createDownload("b", Download.STATE_DOWNLOADING, 100));
+    clock.timeMs += MAX_FLUSH_INTERVAL_MS;
+    index.putDownload(createDownload("a", Download.STATE_DOWNLOADING, 200));
+
+    assertEquals(1, fakeIndex.transactionCount);
+    assertEquals(200, fakeIndex.getDownload("a").getBytesDownloaded());
+    assertEquals(100, fakeIndex.getDownload("b").getBytesDownloaded());
+    assertEquals(0, index.getPendingDownloadCount());
+    assertEquals(1, index.getFlushCount());
+    assertEquals(2, index.getWrittenDownloadCount());
+  }
+
+  @Test
+  public void putDownload_terminalState_writesThroughWithPendingUpdates() throws IOException {
+    FakeDownloadIndex fakeIndex = new FakeDownloadIndex(/* transactionCostNs= */ 0);
+    FakeClock clock = new FakeClock();
+    WriteBehindDownloadIndex index =
+        new WriteBehindDownloadIndex(fakeIndex, MAX_FLUSH_INTERVAL_MS, clock);
+
+    index.putDownload(createDownload("a", Download.STATE_DOWNLOADING, 100));
+    index.putDownload(createDownload("b", Download.STATE_DOWNLOADING, 100));
+    index.putDownload(createDownload("a", Download.STATE_COMPLETED, 300));
+
+    assertEquals(1, fakeIndex.transactionCount);
+    assertEquals(Download.STATE_COMPLETED, fakeIndex.getDownload("a").state);
+    assertEquals(Download.STATE_DOWNLOADING, fakeIndex.getDownload("b").state);
+    assertEquals(0, index.getPendingDownloadCount());
+  }
+
+  @Test
+  public void removeDownload_dropsPendingUpdate() throws IOException {
+    FakeDownloadIndex fakeIndex = new FakeDownloadIndex(/* transactionCostNs= */ 0);
+    FakeClock clock = new FakeClock();
+    WriteBehindDownloadIndex index =
+        new WriteBehindDownloadIndex(fakeIndex, MAX_FLUSH_INTERVAL_MS, clock);
+
+    index.putDownload(createDownload("a", Download.STATE_DOWNLOADING, 100));
+    index.removeDownload("a");
+
+    assertNull(index.getDownload("a"));
+    assertNull(fakeIndex.getDownload("a"));
+    assertEquals(0, index.getPendingDownloadCount());
+    // Only the removal was written.
+    assertEquals(0, fakeIndex.rowCount);
+  }
+
+  @Test
+  public void flush_afterWriteError_keepsUpdatesPending() throws IOException {
+    FakeDownloadIndex fakeIndex = new FakeDownloadIndex(/* transactionCostNs= */ 0);
+    FakeClock clock = new FakeClock();
+    WriteBehindDownloadIndex index =
+        new WriteBehindDownloadIndex(fakeIndex, MAX_FLUSH_INTERVAL_MS, clock);
+    index.putDownload(createDownload("a", Download.STATE_DOWNLOADING, 100));
+
+    fakeIndex.failNextTransaction = true;
+    try {
+      index.flush();
+      fail();
+    } catch (IOException e) {
+      // Expected.
+    }
+    assertEquals(1, index.getPendingDownloadCount());
+
+    index.flush();
+    assertEquals(0, index.getPendingDownloadCount());
+    assertEquals(100, fakeIndex.getDownload("a").getBytesDownloaded());
+  }
+
+  /**
+   * Replays the progress updates {@link DownloadManager} writes for concurrent downloads, against
+   * an index whose transactions cost a fixed amount of time, and compares writing every update
+   * through with holding them back.
+   */
+  @Test
+  public void putDownload_simulatedDownloadManagerProgress_measureTransactionsAndLatency()
+      throws IOException {
+    // A rough cost of a small committed SQLite transaction on flash storage.
+    long transactionCostNs = 500_000;
+    int downloadCount = 20;
+    long simulatedDurationMs = 10 * 60 * 1000;
+    // DownloadManager updates the progress of all downloading downloads every 5 seconds. The
+    // second interval simulates an application that updates progress more often.
+    long[] updateIntervalsMs = {5000, 1000};
+    for (long updateIntervalMs : updateIntervalsMs) {
+      Result writeThrough =
+          simulateProgressUpdates(
+              /* maxFlushIntervalMs= */ 0,
+              transactionCostNs,
+              downloadCount,
+              updateIntervalMs,
+              simulatedDurationMs);
+      Result writeBehind =
+          simulateProgressUpdates(
+              MAX_FLUSH_INTERVAL_MS,
+              transactionCostNs,
+              downloadCount,
+              updateIntervalMs,
+              simulatedDurationMs);
+      System.out.println(
+          "DownloadIndex, "
+              + downloadCount
+              + " downloads updated every "
+              + updateIntervalMs
+              + " ms for "
+              + simulatedDurationMs / 60_000
+              + " minutes, write-through: "
+              + writeThrough
+              + ", write-behind: "
+              + writeBehind);
+      assertTrue(writeBehind.transactionCount * 10 < writeThrough.transactionCount);
+      assertEquals(writeThrough.updateCount, writeBehind.updateCount);
+    }
+  }
+
+  private static Result simulateProgressUpdates(
+      long maxFlushIntervalMs,
+      long transactionCostNs,
+      int downloadCount,
+      long updateIntervalMs,
+      long simulatedDurationMs)
+      throws IOException {
+    FakeDownloadIndex fakeIndex = new FakeDownloadIndex(transactionCostNs);
+    FakeClock clock = new FakeClock();
+    WriteBehindDownloadIndex index =
+        new WriteBehindDownloadIndex(fakeIndex, maxFlushIntervalMs, clock);
+    int updateCount = (int) (simulatedDurationMs / updateIntervalMs) * downloadCount;
+    long[] putTimesNs = new long[updateCount];
+    int updateIndex = 0;
+    while (updateIndex < updateCount) {
+      clock.timeMs += updateIntervalMs;
+      for (int i = 0; i < downloadCount; i++) {
+        Download download = createDownload("id" + i, Download.STATE_DOWNLOADING, clock.timeMs);
+        long startTimeNs = System.nanoTime();
+        index.putDownload(download);
+        putTimesNs[updateIndex++] = System.nanoTime() - startTimeNs;
+      }
+    }
+    // Downloads complete, which writes them through.
+    for (int i = 0; i < downloadCount; i++) {
+      index.putDownload(createDownload("id" + i, Download.STATE_COMPLETED, clock.timeMs));
+    }
+    for (int i = 0; i < downloadCount; i++) {
+      assertEquals(Download.STATE_COMPLETED, fakeIndex.getDownload("id" + i).state);
+    }
+    return new Result(
+        updateCount,
+        fakeIndex.transactionCount,
+        fakeIndex.rowCount,
+        simulatedDurationMs,
+        putTimesNs);
+  }
+
+  private static Download createDownload(String id, @Download.State int state, long bytes) {
+    DownloadRequest request = new DownloadRequest.Builder(id, Uri.EMPTY).build();
+    DownloadProgress progress = new DownloadProgress();
+    progress.bytesDownloaded = bytes;
+    return new Download(
+        request,
+        state,
+        /* startTimeMs= */ 0,
+        /* updateTimeMs= */ 0,
+        /* contentLength= */ C.LENGTH_UNSET,
+        /* stopReason= */ 0,
+        Download.FAILURE_REASON_NONE,
+        progress);
+  }
+
+  private static final class Result {
+
+    private final int updateCount;
+    private final int transactionCount;
+    private final int rowCount;
+    private final long simulatedDurationMs;
+    private final long[] putTimesNs;
+
+    public Result(
+        int updateCount,
+        int transactionCount,
+        int rowCount,
+        long simulatedDurationMs,
+        long[] putTimesNs) {
+      this.updateCount = updateCount;
+      this.transactionCount = transactionCount;
+      this.rowCount = rowCount;
+      this.simulatedDurationMs = simulatedDurationMs;
+      this.putTimesNs = putTimesNs;
+    }
+
+    @Override
+    public String toString() {
+      long[] sortedTimesNs = putTimesNs.clone();
+      Arrays.sort(sortedTimesNs);
+      long totalNs = 0;
+      for (long timeNs : putTimesNs) {
+        totalNs += timeNs;
+      }
+      return transactionCount
+          + " transactions ("
+          + String.format("%.2f", transactionCount * 1000.0 / simulatedDurationMs)
+          + "/s) writing "
+          + rowCount
+          + " rows, internal thread "
+          + totalNs / 1_000_000
+          + " ms in total, put mean "
+          + totalNs / putTimesNs.length
+          + " ns, p99 "
+          + sortedTimesNs[(int) (sortedTimesNs.length * 0.99)]
+          + " ns, max "
+          + sortedTimesNs[sortedTimesNs.length - 1]
+          + " ns";
+    }
+  }
+
+  /** A {@link Clock} whose time is set by the test. Handlers aren't needed without a looper. */
+  private static final class FakeClock implements Clock {
+
+    public long timeMs;
+
+    @Override
+    public long currentTimeMillis() {
+      return timeMs;
+    }
+
+    @Override
+    public long elapsedRealtime() {
+      return timeMs;
+    }
+
+    @Override
+    public long uptimeMillis() {
+      return timeMs;
+    }
+
+    @Override
+    public void sleep(long sleepTimeMs) {
+      timeMs += sleepTimeMs;
+    }
+
+    @Override
+    public HandlerWrapper createHandler(Looper looper, @Nullable Handler.Callback callback) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /**
+   * An in-memory {@link WritableDownloadIndex} whose writes take a fixed time per transaction, to
+   * stand in for a {@link DefaultDownloadIndex}, which needs SQLite.
+   */
+  private static final class FakeDownloadIndex implements WritableDownloadIndex {
+
+    private final long transactionCostNs;
+    private final HashMap<String, Download> downloads;
+
+    public int transactionCount;
+    public int rowCount;
+    public boolean failNextTransaction;
+
+    public FakeDownloadIndex(long transactionCostNs) {
+      this.transactionCostNs = transactionCostNs;
+      downloads = new HashMap<>();
+    }
+
+    @Override
+    @Nullable
+    public Download getDownload(String id) {
+      return downloads.get(id);
+    }
+
+    @Override
+    public DownloadCursor getDownloads(@Download.State int... states) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void putDownload(Download download) throws IOException {
+      putDownloads(Arrays.asList(download));
+    }
+
+    @Override
+    public void putDownloads(List<Download> downloads) throws IOException {
+      runTransaction();
+      for (int i = 0; i < downloads.size(); i++) {
+        Download download = downloads.get(i);
+        this.downloads.put(download.request.id, download);
+      }
+      rowCount += downloads.size();
+    }
+
+    @Override
+    public void removeDownload(String id) throws IOException {
+      runTransaction();
+      downloads.remove(id);
+    }
+
+    @Override
+    public void setDownloadingStatesToQueued() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setStatesToRemoving() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setStopReason(int stopReason) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setStopReason(String id, int stopReason) {
+      throw new UnsupportedOperationException();
+    }
+
+    private void runTransaction() throws IOException {
+      if (failNextTransaction) {
+        failNextTransaction = false;
+        throw new IOException();
+      }
+      long endTimeNs = System.nanoTime() + transactionCostNs;
+      while (System.nanoTime() < endTimeNs) {
+        // Busy wait, so that the cost is spent on the calling thread as a database write would be.
+      }
+      transactionCount++;
+    }
+  }
+}
@@ -0,0 +1,464 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.migu.player.source;
+
+import com.migu.player.C;
+import com.migu.player.Format;
+import com.migu.player.FormatHolder;
+import com.migu.player.decoder.DecoderInputBuffer;
+import com.migu.player.drm.DrmSessionEventListener;
+import com.migu.player.drm.DrmSessionManager;
+import com.migu.player.upstream.DefaultAllocator;
+import com.migu.player.util.MimeTypes;
+import com.migu.player.util.ParsableByteArray;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link SampleQueue}, covering the chunked sample metadata and the handoff of
+ * samples from a loading thread to a concurrently reading playback thread, including benchmarks of
+ * the handoff latency and of scrubbing over a buffered track.
+ */
+public final class SampleQueueTest {
+
+  private static final Format FORMAT =
+      new Format.Builder().setSampleMimeType(MimeTypes.VIDEO_H264).build();
+  private static final Format AUDIO_FORMAT =
+      new Format.Builder().setSampleMimeType(MimeTypes.AUDIO_AAC).build();
+  private static final int SAMPLE_SIZE = 8;
+  private static final long FRAME_DURATION_US = 16_667;
+  private static final int FRAMES_PER_KEYFRAME = 60;
+
+  @Test
+  public void readAcrossChunks_returnsSamplesInOrder() {
+    SampleQueue sampleQueue = createSampleQueue();
+    int sampleCount = 3 * SampleQueue.METADATA_CHUNK_SIZE + 10;
+    sampleQueue.format(FORMAT);
+    for (int i = 0; i < sampleCount; i++) {
+      writeSample(sampleQueue, i);
+    }
+
+    FormatHolder formatHolder = new FormatHolder();
+    DecoderInputBuffer buffer = createBuffer();
+    assertEquals(C.RESULT_FORMAT_READ, read(sampleQueue, formatHolder, buffer));
+    for (int i = 0; i < sampleCount; i++) {
+      assertEquals(C.RESULT_BUFFER_READ, read(sampleQueue, formatHolder, buffer));
+      assertSample(buffer, i);
+      if (i % 100 == 0) {
+        sampleQueue.discardToRead();
+      }
+    }
+    assertEquals(C.RESULT_NOTHING_READ, read(sampleQueue, formatHolder, buffer));
+    assertEquals(sampleCount, sampleQueue.getReadIndex());
+    assertEquals(getTimeUs(sampleCount - 1), sampleQueue.getLargestReadTimestampUs());
+  }
+
+  @Test
+  public void seekToTime_acrossChunks_seeksToPrecedingKeyframe() {
+    SampleQueue sampleQueue = createSampleQueue();
+    int sampleCount = 5 * SampleQueue.METADATA_CHUNK_SIZE;
+    sampleQueue.format(FORMAT);
+    for (int i = 0; i < sampleCount; i++) {
+      writeSample(sampleQueue, i);
+    }
+
+    for (int i = 0; i < sampleCount; i += 97) {
+      assertTrue(sampleQueue.seekTo(getTimeUs(i), /* allowTimeBeyondBuffer= */ false));
+      assertEquals(i - i % FRAMES_PER_KEYFRAME, sampleQueue.getReadIndex());
+      assertEquals(getTimeUs(i - i % FRAMES_PER_KEYFRAME - 1), maxTimeUs(sampleQueue));
+    }
+    assertFalse(
+        sampleQueue.seekTo(getTimeUs(sampleCount), /* allowTimeBeyondBuffer= */ false));
+    assertTrue(sampleQueue.seekTo(getTimeUs(sampleCount), /* allowTimeBeyondBuffer= */ true));
+  }
+
+  @Test
+  public void discardAndWriteMoreSamples_reusesChunks() {
+    SampleQueue sampleQueue = createSampleQueue();
+    FormatHolder formatHolder = new FormatHolder();
+    DecoderInputBuffer buffer = createBuffer();
+    sampleQueue.format(FORMAT);
+    int sampleIndex = 0;
+    for (int round = 0; round < 10; round++) {
+      for (int i = 0; i < 2 * SampleQueue.METADATA_CHUNK_SIZE; i++) {
+        writeSample(sampleQueue, sampleIndex + i);
+      }
+      for (int i = 0; i < 2 * SampleQueue.METADATA_CHUNK_SIZE; i++) {
+        int result = read(sampleQueue, formatHolder, buffer);
+        if (result == C.RESULT_FORMAT_READ) {
+          result = read(sampleQueue, formatHolder, buffer);
+        }
+        assertEquals(C.RESULT_BUFFER_READ, result);
+        assertSample(buffer, sampleIndex + i);
+      }
+      sampleQueue.discardToRead();
+      sampleIndex += 2 * SampleQueue.METADATA_CHUNK_SIZE;
+      assertEquals(sampleIndex, sampleQueue.getFirstIndex());
+      assertEquals(Long.MIN_VALUE, sampleQueue.getFirstTimestampUs());
+    }
+  }
+
+  @Test
+  public void discardUpstreamSamples_truncatesQueue() {
+    SampleQueue sampleQueue = createSampleQueue();
+    sampleQueue.format(FORMAT);
+    for (int i = 0; i < 2 * SampleQueue.METADATA_CHUNK_SIZE; i++) {
+      writeSample(sampleQueue, i);
+    }
+
+    sampleQueue.discardUpstreamSamples(1500);
+    assertEquals(1500, sampleQueue.getWriteIndex());
+    assertEquals(getTimeUs(1499), sampleQueue.getLargestQueuedTimestampUs());
+    assertTrue(sampleQueue.seekTo(getTimeUs(1600), /* allowTimeBeyondBuffer= */ true));
+    assertEquals(1440, sampleQueue.getReadIndex());
+    // Samples written after the discard replace the discarded ones.
+    writeSample(sampleQueue, 1500);
+    assertEquals(1501, sampleQueue.getWriteIndex());
+    assertEquals(1500 - 1440 + 1, sampleQueue.getSkipCount(Long.MAX_VALUE, true));
+  }
+
+  @Test
+  public void getLargestReadTimestampUs_withReorderedSamples_tracksReadPosition() {
+    SampleQueue sampleQueue = createSampleQueue();
+    sampleQueue.format(FORMAT);
+    long[] timesUs = {1000, 3000, 2000, 4000, 6000, 5000};
+    for (int i = 0; i < timesUs.length; i++) {
+      sampleQueue.sampleData(new ParsableByteArray(1), /* length= */ 1);
+      int flags = i % 3 == 0 ? C.BUFFER_FLAG_KEY_FRAME : 0;
+      sampleQueue.sampleMetadata(timesUs[i], flags, /* size= */ 1, /* offset= */ 0, null);
+    }
+
+    FormatHolder formatHolder = new FormatHolder();
+    DecoderInputBuffer buffer = createBuffer();
+    assertEquals(C.RESULT_FORMAT_READ, read(sampleQueue, formatHolder, buffer));
+    long[] expectedLargestReadTimesUs = {1000, 3000, 3000, 4000, 6000, 6000};
+    for (long expectedLargestReadTimeUs : expectedLargestReadTimesUs) {
+      assertEquals(C.RESULT_BUFFER_READ, read(sampleQueue, formatHolder, buffer));
+      assertEquals(expectedLargestReadTimeUs, sampleQueue.getLargestReadTimestampUs());
+    }
+    assertTrue(sampleQueue.seekTo(/* sampleIndex= */ 2));
+    assertEquals(3000, sampleQueue.getLargestReadTimestampUs());
+    // A failed seek rewinds to the start of the queue.
+    assertFalse(sampleQueue.seekTo(/* timeUs= */ 0, /* allowTimeBeyondBuffer= */ false));
+    assertEquals(Long.MIN_VALUE, sampleQueue.getLargestReadTimestampUs());
+    sampleQueue.skip(3);
+    assertEquals(3000, sampleQueue.getLargestReadTimestampUs());
+    sampleQueue.discardToRead();
+    assertFalse(sampleQueue.seekTo(/* timeUs= */ 0, /* allowTimeBeyondBuffer= */ false));
+    assertEquals(3000, sampleQueue.getLargestReadTimestampUs());
+    assertEquals(C.RESULT_BUFFER_READ, read(sampleQueue, formatHolder, buffer));
+    assertEquals(4000, sampleQueue.getLargestReadTimestampUs());
+  }
+
+  @Test
+  public void concurrentWriteAndRead_readsAllSamples() throws Exception {
+    final SampleQueue sampleQueue = createSampleQueue();
+    final int sampleCount = 100_000;
+    final AtomicReference<Throwable> writerError = new AtomicReference<>();
+    Thread writer =
+        new Thread() {
+          @Override
+          public void run() {
+            try {
+              sampleQueue.format(FORMAT);
+              for (int i = 0; i < sampleCount; i++) {
+                writeSample(sampleQueue, i);
+              }
+            } catch (Throwable e) {
+              writerError.set(e);
+            }
+          }
+        };
+    writer.start();
+
+    FormatHolder formatHolder = new FormatHolder();
+    DecoderInputBuffer buffer = createBuffer();
+    int sampleIndex = 0;
+    while (sampleIndex < sampleCount) {
+      int result = read(sampleQueue, formatHolder, buffer);
+      if (result == C.RESULT_BUFFER_READ) {
+        assertSample(buffer, sampleIndex);
+        sampleIndex++;
+        sampleQueue.discardToRead();
+      } else if (result == C.RESULT_NOTHING_READ) {
+        assertNull(writerError.get());
+        // Exercise the other read side methods while the writer is running.
+        sampleQueue.isReady(/* loadingFinished= */ false);
+        sampleQueue.getSkipCount(getTimeUs(sampleIndex), /* allowEndOfQueue= */ false);
+        Thread.yield();
+      }
+    }
+    writer.join();
+    assertNull(writerError.get());
+  }
+
+  @Test
+  public void concurrentSpliceAndRead_readsConsistentSamples() throws Exception {
+    final SampleQueue sampleQueue = createSampleQueue();
+    final int sampleCount = 100_000;
+    final AtomicReference<Throwable> writerError = new AtomicReference<>();
+    final ParsableByteArray data = new ParsableByteArray(SAMPLE_SIZE);
+    Thread writer =
+        new Thread() {
+          @Override
+          public void run() {
+            try {
+              sampleQueue.format(FORMAT);
+              int sampleIndex = 0;
+              int writtenSampleCount = 0;
+              while (sampleIndex < sampleCount) {
+                if (++writtenSampleCount % 200 == 0) {
+                  // Replace the last samples with a new rendition of them, as when switching
+                  // variants, unless the reader has already read them.
+                  sampleQueue.splice();
+                  sampleIndex -= 20;
+                }
+                writeSample(sampleQueue, data, sampleIndex, C.BUFFER_FLAG_KEY_FRAME);
+                sampleIndex++;
+              }
+            } catch (Throwable e) {
+              writerError.set(e);
+            }
+          }
+        };
+    writer.start();
+
+    FormatHolder formatHolder = new FormatHolder();
+    DecoderInputBuffer buffer = createBuffer();
+    long lastTimeUs = Long.MIN_VALUE;
+    while (lastTimeUs < getTimeUs(sampleCount - 1)) {
+      int result = read(sampleQueue, formatHolder, buffer);
+      if (result == C.RESULT_BUFFER_READ) {
+        // The sample data must belong to the sample metadata, and spliced samples must not be
+        // read twice.
+        assertEquals(buffer.timeUs, buffer.data.getLong(0));
+        assertTrue(buffer.timeUs > lastTimeUs);
+        lastTimeUs = buffer.timeUs;
+        sampleQueue.discardToRead();
+      } else if (result == C.RESULT_NOTHING_READ) {
+        assertNull(writerError.get());
+        sampleQueue.isReady(/* loadingFinished= */ false);
+        Thread.yield();
+      }
+    }
+    writer.join();
+    assertNull(writerError.get());
+  }
+
+  @Test
+  public void concurrentWriteAndRead_measureCommitAndReadLatency() throws Exception {
+    // An 83 minute 60 fps track, buffered in full before it's read.
+    final int sampleCount = 300_000;
+    for (int run = 0; run < 3; run++) {
+      final SampleQueue sampleQueue = createSampleQueue();
+      final long[] commitTimesNs = new long[sampleCount];
+      final ParsableByteArray data = new ParsableByteArray(SAMPLE_SIZE);
+      Thread writer =
+          new Thread() {
+            @Override
+            public void run() {
+              sampleQueue.format(FORMAT);
+              for (int i = 0; i < sampleCount; i++) {
+                data.setPosition(0);
+                data.getData()[0] = (byte) i;
+                sampleQueue.sampleData(data, SAMPLE_SIZE);
+                int flags = i % FRAMES_PER_KEYFRAME == 0 ? C.BUFFER_FLAG_KEY_FRAME : 0;
+                long startTimeNs = System.nanoTime();
+                sampleQueue.sampleMetadata(
+                    getTimeUs(i), flags, SAMPLE_SIZE, /* offset= */ 0, /* cryptoData= */ null);
+                commitTimesNs[i] = System.nanoTime() - startTimeNs;
+              }
+            }
+          };
+      long[] readTimesNs = new long[sampleCount];
+      FormatHolder formatHolder = new FormatHolder();
+      DecoderInputBuffer buffer = createBuffer();
+      writer.start();
+      int sampleIndex = 0;
+      while (sampleIndex < sampleCount) {
+        long startTimeNs = System.nanoTime();
+        int result = read(sampleQueue, formatHolder, buffer);
+        if (result == C.RESULT_BUFFER_READ) {
+          readTimesNs[sampleIndex++] = System.nanoTime() - startTimeNs;
+          // Poll the buffered position as the player does.
+          sampleQueue.getLargestQueuedTimestampUs();
+          sampleQueue.isReady(/* loadingFinished= */ false);
+        }
+      }
+      writer.join();
+      assertEquals(sampleCount, sampleQueue.getReadIndex());
+
+      System.out.println(
+          "SampleQueue, "
+              + sampleCount
+              + " samples written and read concurrently: commit "
+              + formatLatency(commitTimesNs)
+              + ", read "
+              + formatLatency(readTimesNs));
+    }
+  }
+
+  /**
+   * Measures the cost of scrubbing over a fully buffered 10 minute AAC track, in which every sample
+   * is a keyframe, using the keyframe index and using the linear scan that searches fall back to
+   * once a keyframe is queued out of order.
+   */
+  @Test
+  public void seekToTime_tenMinuteAudioBuffer_measureScrubbingCost() {
+    // 1024 samples per AAC frame at 44.1 kHz.
+    long frameDurationUs = 23_220;
+    int[] durationsMinutes = new int[] {1, 10};
+    int seekCount = 2_000;
+    StringBuilder results = new StringBuilder();
+    for (int durationMinutes : durationsMinutes) {
+      int sampleCount = (int) (durationMinutes * 60 * C.MICROS_PER_SECOND / frameDurationUs);
+      SampleQueue indexedQueue = createAudioSampleQueue(sampleCount, frameDurationUs);
+      SampleQueue linearQueue = createAudioSampleQueue(sampleCount, frameDurationUs);
+      // A last keyframe with the timestamp of the sample before it disables the keyframe index.
+      long lastTimeUs = (sampleCount - 1) * frameDurationUs;
+      ParsableByteArray data = new ParsableByteArray(SAMPLE_SIZE);
+      linearQueue.sampleData(data, SAMPLE_SIZE);
+      linearQueue.sampleMetadata(
+          lastTimeUs, C.BUFFER_FLAG_KEY_FRAME, SAMPLE_SIZE, /* offset= */ 0, null);
+
+      Random random = new Random(/* seed= */ 0);
+      long[] targetTimesUs = new long[seekCount];
+      for (int i = 0; i < seekCount; i++) {
+        targetTimesUs[i] = (long) (random.nextDouble() * lastTimeUs);
+      }
+      long[] indexedTimesNs = new long[seekCount];
+      long[] linearTimesNs = new long[seekCount];
+      for (int run = 0; run < 3; run++) {
+        for (int i = 0; i < seekCount; i++) {
+          long targetTimeUs = targetTimesUs[i];
+          int expectedReadIndex = (int) (targetTimeUs / frameDurationUs);
+          long startTimeNs = System.nanoTime();
+          assertTrue(indexedQueue.seekTo(targetTimeUs, /* allowTimeBeyondBuffer= */ false));
+          indexedTimesNs[i] = System.nanoTime() - startTimeNs;
+          assertEquals(expectedReadIndex, indexedQueue.getReadIndex());
+          startTimeNs = System.nanoTime();
+          assertTrue(linearQueue.seekTo(targetTimeUs, /* allowTimeBeyondBuffer= */ false));
+          linearTimesNs[i] = System.nanoTime() - startTimeNs;
+          assertEquals(expectedReadIndex, linearQueue.getReadIndex());
+        }
+      }
+      results
+          .append(results.length() == 0 ? "" : "; ")
+          .append(durationMinutes)
+          .append(" min (")
+          .append(sampleCount)
+          .append(" samples): keyframe index ")
+          .append(formatLatency(indexedTimesNs))
+          .append(", linear scan ")
+          .append(formatLatency(linearTimesNs));
+    }
+    System.out.println(
+        "SampleQueue, " + seekCount + " seeks over a buffered AAC track: " + results);
+  }
+
+  private static SampleQueue createSampleQueue() {
+    return new SampleQueue(
+        new DefaultAllocator(/* trimOnReset= */ true, /* individualAllocationSize= */ 64 * 1024),
+        /* playbackLooper= */ null,
+        DrmSessionManager.DUMMY,
+        new DrmSessionEventListener.EventDispatcher());
+  }
+
+  /** Returns a queue holding a track of {@code sampleCount} audio samples, all keyframes. */
+  private static SampleQueue createAudioSampleQueue(int sampleCount, long frameDurationUs) {
+    SampleQueue sampleQueue = createSampleQueue();
+    sampleQueue.format(AUDIO_FORMAT);
+    ParsableByteArray data = new ParsableByteArray(SAMPLE_SIZE);
+    for (int i = 0; i < sampleCount; i++) {
+      data.setPosition(0);
+      sampleQueue.sampleData(data, SAMPLE_SIZE);
+      sampleQueue.sampleMetadata(
+          i * frameDurationUs, C.BUFFER_FLAG_KEY_FRAME, SAMPLE_SIZE, /* offset= */ 0, null);
+    }
+    return sampleQueue;
+  }
+
+  private static DecoderInputBuffer createBuffer() {
+    return new DecoderInputBuffer(DecoderInputBuffer.BUFFER_REPLACEMENT_MODE_NORMAL);
+  }
+
+  private static int read(
+      SampleQueue sampleQueue, FormatHolder formatHolder, DecoderInputBuffer buffer) {
+    buffer.clear();
+    return sampleQueue.read(
+        formatHolder, buffer, /* formatRequired= */ false, /* loadingFinished= */ false);
+  }
+
+  private static long getTimeUs(int sampleIndex) {
+    return sampleIndex * FRAME_DURATION_US;
+  }
+
+  private static long maxTimeUs(SampleQueue sampleQueue) {
+    long largestReadTimestampUs = sampleQueue.getLargestReadTimestampUs();
+    return largestReadTimestampUs == Long.MIN_VALUE ? getTimeUs(-1) : largestReadTimestampUs;
+  }
+
+  private static void writeSample(SampleQueue sampleQueue, int sampleIndex) {
+    int flags = sampleIndex % FRAMES_PER_KEYFRAME == 0 ? C.BUFFER_FLAG_KEY_FRAME : 0;
+    writeSample(sampleQueue, new ParsableByteArray(SAMPLE_SIZE), sampleIndex, flags);
+  }
+
+  /** Writes a sample whose data is its timestamp. */
+  private static void writeSample(
+      SampleQueue sampleQueue, ParsableByteArray data, int sampleIndex, int flags) {
+    long timeUs = getTimeUs(sampleIndex);
+    byte[] bytes = data.getData();
+    for (int i = 0; i < SAMPLE_SIZE; i++) {
+      bytes[i] = (byte) (timeUs >> ((SAMPLE_SIZE - 1 - i) * 8));
+    }
+    data.setPosition(0);
+    sampleQueue.sampleData(data, SAMPLE_SIZE);
+    sampleQueue.sampleMetadata(timeUs, flags, SAMPLE_SIZE, /* offset= */ 0, null);
+  }
+
+  private static void assertSample(DecoderInputBuffer buffer, int sampleIndex) {
+    assertEquals(getTimeUs(sampleIndex), buffer.timeUs);
+    assertEquals(sampleIndex % FRAMES_PER_KEYFRAME == 0, buffer.isKeyFrame());
+    assertEquals(getTimeUs(sampleIndex), buffer.data.getLong(0));
+  }
+
+  private static String formatLatency(long[] timesNs) {
+    long[] sortedTimesNs = timesNs.clone();
+    Arrays.sort(sortedTimesNs);
+    long totalNs = 0;
+    for (long timeNs : timesNs) {
+      totalNs += timeNs;
+    }
+    return "mean "
+        + (totalNs / timesNs.length)
+        + " ns, p99 "
+        + sortedTimesNs[timesNs.length * 99 / 100]
+        + " ns, p99.99 "
+        + sortedTimesNs[(int) (timesNs.length * 9999L / 10000)]
+        + " ns, max "
+        + (sortedTimesNs[timesNs.length - 1] / 1000)
+        + " us";
+  }
+}
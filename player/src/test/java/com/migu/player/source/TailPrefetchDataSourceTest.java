@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.migu.player.source;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.Nullable;
+
+import com.migu.player.C;
+import com.migu.player.upstream.ByteArrayDataSource;
+import com.migu.player.upstream.DataSource;
+import com.migu.player.upstream.DataSpec;
+import com.migu.player.upstream.TransferListener;
+import com.migu.player.util.Clock;
+import com.migu.player.util.HandlerWrapper;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/** Unit tests for {@link TailPrefetchDataSource}. */
+public final class TailPrefetchDataSourceTest {
+
+  private static final Uri URI = Uri.parse("https://example.test/media.mp4");
+  private static final int STREAM_LENGTH = 1024 * 1024;
+  private static final int TAIL_POSITION = STREAM_LENGTH - 100 * 1024;
+  private static final long MAX_TAIL_LENGTH = 8 * 1024 * 1024;
+
+  private byte[] data;
+  private FakeClock clock;
+  private RecordingDataSource upstream;
+  private RecordingDataSource tailUpstream;
+  private TailPrefetchDataSource tailPrefetchDataSource;
+
+  @Before
+  public void setUp() {
+    data = new byte[STREAM_LENGTH];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (i * 31 + (i >> 8));
+    }
+    clock = new FakeClock();
+    upstream = new RecordingDataSource(data, clock);
+    tailUpstream = new RecordingDataSource(data, clock);
+    tailPrefetchDataSource = new TailPrefetchDataSource(upstream, tailUpstream, clock);
+  }
+
+  @Test
+  public void getTailDataSpec_knownLength_returnsRangeFromTailToEnd() {
+    DataSpec tailDataSpec =
+        TailPrefetchDataSource.getTailDataSpec(
+            new DataSpec(URI), STREAM_LENGTH, TAIL_POSITION, MAX_TAIL_LENGTH);
+
+    assertNotNull(tailDataSpec);
+    assertEquals(URI, tailDataSpec.uri);
+    assertEquals(TAIL_POSITION, tailDataSpec.position);
+    assertEquals(STREAM_LENGTH - TAIL_POSITION, tailDataSpec.length);
+  }
+
+  @Test
+  public void getTailDataSpec_unknownLength_returnsNull() {
+    assertNull(
+        TailPrefetchDataSource.getTailDataSpec(
+            new DataSpec(URI), C.LENGTH_UNSET, TAIL_POSITION, MAX_TAIL_LENGTH));
+  }
+
+  @Test
+  public void getTailDataSpec_noTrailingData_returnsNull() {
+    assertNull(
+        TailPrefetchDataSource.getTailDataSpec(
+            new DataSpec(URI), STREAM_LENGTH, C.POSITION_UNSET, MAX_TAIL_LENGTH));
+    assertNull(
+        TailPrefetchDataSource.getTailDataSpec(
+            new DataSpec(URI), STREAM_LENGTH, STREAM_LENGTH, MAX_TAIL_LENGTH));
+  }
+
+  @Test
+  public void getTailDataSpec_tailTooLong_returnsNull() {
+    assertNull(
+        TailPrefetchDataSource.getTailDataSpec(
+            new DataSpec(URI),
+            STREAM_LENGTH,
+            TAIL_POSITION,
+            /* maxTailLength= */ STREAM_LENGTH - TAIL_POSITION - 1));
+  }
+
+  @Test
+  public void read_withPrefetchedTail_splitsStreamBetweenUpstreamAndTail() throws IOException {
+    TailPrefetchDataSource.TailLoadable tailLoadable = prefetchTail();
+    tailLoadable.load();
+
+    // Read the head, jump to the tail and seek back, like an extractor reading a trailing moov.
+    assertArrayEquals(Arrays.copyOfRange(data, 0, 4096), readRange(0, 4096));
+    assertArrayEquals(
+        Arrays.copyOfRange(data, TAIL_POSITION, STREAM_LENGTH),
+        readRange(TAIL_POSITION, STREAM_LENGTH - TAIL_POSITION));
+    assertArrayEquals(Arrays.copyOfRange(data, 4096, 8192), readRange(4096, 4096));
+
+    // The tail is requested as a bounded range, and the head connection is reused after it.
+    assertEquals(1, tailUpstream.openedDataSpecs.size());
+    assertEquals(TAIL_POSITION, tailUpstream.openedDataSpecs.get(0).position);
+    assertEquals(STREAM_LENGTH - TAIL_POSITION, tailUpstream.openedDataSpecs.get(0).length);
+    assertEquals(1, upstream.openedDataSpecs.size());
+    assertEquals(0, upstream.openedDataSpecs.get(0).position);
+    assertEquals(C.LENGTH_UNSET, upstream.openedDataSpecs.get(0).length);
+
+    tailPrefetchDataSource.release();
+    assertEquals(1, upstream.closeCount);
+  }
+
+  @Test
+  public void read_withPrefetchedTail_opensUpstreamForPositionsBeforeTail() throws IOException {
+    prefetchTail().load();
+
+    int position = TAIL_POSITION - 1024;
+    assertArrayEquals(
+        Arrays.copyOfRange(data, position, STREAM_LENGTH),
+        readRange(position, STREAM_LENGTH - position));
+
+    assertEquals(1, upstream.openedDataSpecs.size());
+    assertEquals(position, upstream.openedDataSpecs.get(0).position);
+  }
+
+  @Test
+  public void read_tailLoadFailed_fallsBackToUpstream() throws IOException {
+    TailPrefetchDataSource.TailLoadable tailLoadable = prefetchTail();
+    tailUpstream.openException = new IOException();
+    try {
+      tailLoadable.load();
+      fail();
+    } catch (IOException e) {
+      // Expected.
+    }
+
+    assertArrayEquals(
+        Arrays.copyOfRange(data, TAIL_POSITION, STREAM_LENGTH),
+        readRange(TAIL_POSITION, STREAM_LENGTH - TAIL_POSITION));
+    assertEquals(1, upstream.openedDataSpecs.size());
+    assertEquals(TAIL_POSITION, upstream.openedDataSpecs.get(0).position);
+    assertEquals(0, tailPrefetchDataSource.getTimeSavedMs());
+  }
+
+  @Test
+  public void read_tailCanceled_fallsBackToUpstreamWithoutBlocking() throws IOException {
+    prefetchTail();
+    tailPrefetchDataSource.cancelTail();
+
+    assertArrayEquals(
+        Arrays.copyOfRange(data, TAIL_POSITION, STREAM_LENGTH),
+        readRange(TAIL_POSITION, STREAM_LENGTH - TAIL_POSITION));
+    assertEquals(0, tailUpstream.openedDataSpecs.size());
+    assertEquals(TAIL_POSITION, upstream.openedDataSpecs.get(0).position);
+  }
+
+  @Test
+  public void prefetchTail_calledTwice_returnsNull() {
+    assertNotNull(prefetchTail());
+    assertNull(prefetchTail());
+  }
+
+  @Test
+  public void getTimeSavedMs_tailLoadedBeforeOpen_returnsLoadDuration() throws IOException {
+    clock.timeMs = 1000;
+    tailUpstream.openDurationMs = 300;
+    prefetchTail().load();
+    clock.timeMs = 5000;
+
+    readRange(TAIL_POSITION, STREAM_LENGTH - TAIL_POSITION);
+    // Reading the tail again doesn't count the saved time twice.
+    readRange(TAIL_POSITION, STREAM_LENGTH - TAIL_POSITION);
+
+    assertEquals(300, tailPrefetchDataSource.getTimeSavedMs());
+  }
+
+  @Test
+  public void getTimeSavedMs_tailLoadedAfterOpen_returnsTimeUntilOpen() throws IOException {
+    clock.timeMs = 1000;
+    tailUpstream.openDurationMs = 300;
+    prefetchTail().load();
+    // The tail was requested 200ms into its load, and had to wait for the remaining 100ms.
+    clock.timeMs = 1200;
+
+    readRange(TAIL_POSITION, STREAM_LENGTH - TAIL_POSITION);
+
+    assertEquals(200, tailPrefetchDataSource.getTimeSavedMs());
+  }
+
+  private TailPrefetchDataSource.TailLoadable prefetchTail() {
+    return tailPrefetchDataSource.prefetchTail(
+        TailPrefetchDataSource.getTailDataSpec(
+            new DataSpec(URI), STREAM_LENGTH, TAIL_POSITION, MAX_TAIL_LENGTH));
+  }
+
+  private byte[] readRange(int position, int length) throws IOException {
+    byte[] buffer = new byte[length];
+    tailPrefetchDataSource.open(new DataSpec(URI, position, C.LENGTH_UNSET));
+    int bytesRead = 0;
+    while (bytesRead < length) {
+      int result = tailPrefetchDataSource.read(buffer, bytesRead, length - bytesRead);
+      if (result == C.RESULT_END_OF_INPUT) {
+        break;
+      }
+      bytesRead += result;
+    }
+    tailPrefetchDataSource.close();
+    return Arrays.copyOf(buffer, bytesRead);
+  }
+
+  /** Reads from a byte array, recording the requested ranges. */
+  private static final class RecordingDataSource implements DataSource {
+
+    public final List<DataSpec> openedDataSpecs;
+    @Nullable public IOException openException;
+    public long openDurationMs;
+    public int closeCount;
+
+    private final ByteArrayDataSource dataSource;
+    private final FakeClock clock;
+
+    public RecordingDataSource(byte[] data, FakeClock clock) {
+      this.clock = clock;
+      dataSource = new ByteArrayDataSource(data);
+      openedDataSpecs = new ArrayList<>();
+    }
+
+    @Override
+    public void addTransferListener(TransferListener transferListener) {
+      dataSource.addTransferListener(transferListener);
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+      if (openException != null) {
+        throw openException;
+      }
+      clock.timeMs += openDurationMs;
+      openedDataSpecs.add(dataSpec);
+      return dataSource.open(dataSpec);
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) {
+      return dataSource.read(buffer, offset, readLength);
+    }
+
+    @Nullable
+    @Override
+    public Uri getUri() {
+      return dataSource.getUri();
+    }
+
+    @Override
+    public void close() {
+      closeCount++;
+      dataSource.close();
+    }
+  }
+
+  private static final class FakeClock implements Clock {
+
+    public long timeMs;
+
+    @Override
+    public long currentTimeMillis() {
+      return timeMs;
+    }
+
+    @Override
+    public long elapsedRealtime() {
+      return timeMs;
+    }
+
+    @Override
+    public long uptimeMillis() {
+      return timeMs;
+    }
+
+    @Override
+    public void sleep(long sleepTimeMs) {
+      timeMs += sleepTimeMs;
+    }
+
+    @Override
+    public HandlerWrapper createHandler(Looper looper, @Nullable Handler.Callback callback) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
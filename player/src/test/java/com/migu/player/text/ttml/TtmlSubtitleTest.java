@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.migu.player.text.ttml;
+
+import android.graphics.Typeface;
+import android.text.Spanned;
+import android.text.style.ForegroundColorSpan;
+import android.text.style.StyleSpan;
+
+import com.migu.player.C;
+import com.migu.player.text.Cue;
+import com.migu.player.text.Subtitle;
+import com.migu.player.util.Util;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the cues of a {@link TtmlSubtitle}, including a benchmark of decoding and cue
+ * lookups on synthetic documents.
+ */
+public final class TtmlSubtitleTest {
+
+  private static final Pattern PARAGRAPH_PATTERN = Pattern.compile("Paragraph (\\d+)");
+  private static final int STYLE_COUNT = 4;
+
+  private final TtmlDecoder decoder = new TtmlDecoder();
+
+  @After
+  public void tearDown() {
+    decoder.release();
+  }
+
+  @Test
+  public void getCues_overlappingParagraphs_returnsActiveParagraphsWithResolvedStyles()
+      throws Exception {
+    int paragraphCount = 40;
+    Subtitle subtitle = decode(paragraphCount);
+
+    for (int i = 0; i < subtitle.getEventTimeCount(); i++) {
+      long eventTimeUs = subtitle.getEventTime(i);
+      for (long timeUs = eventTimeUs - 1; timeUs <= eventTimeUs; timeUs++) {
+        List<Integer> expectedParagraphs = new ArrayList<>();
+        for (int paragraph = 0; paragraph < paragraphCount; paragraph++) {
+          if (getStartTimeUs(paragraph) <= timeUs && timeUs < getEndTimeUs(paragraph)) {
+            expectedParagraphs.add(paragraph);
+          }
+        }
+        assertParagraphs(expectedParagraphs, subtitle.getCues(timeUs));
+      }
+    }
+  }
+
+  @Test
+  public void getCues_withinEventTimeInterval_returnsCachedList() throws Exception {
+    Subtitle subtitle = decode(/* paragraphCount= */ 40);
+
+    List<Cue> cues = subtitle.getCues(/* timeUs= */ 2_200_000);
+    assertSame(cues, subtitle.getCues(/* timeUs= */ 4_200_000));
+    assertParagraphs(listOf(1), cues);
+    assertParagraphs(listOf(2, 3), subtitle.getCues(/* timeUs= */ 6_500_000));
+  }
+
+  /**
+   * Measures the time to decode synthetic documents of increasing length, and the mean cost of the
+   * first and of repeated cue lookups at event times spread over each document, as {@code
+   * TextRenderer} makes at each event time during playback.
+   */
+  @Test
+  public void decodeAndGetCues_measureCostAgainstParagraphCount() throws Exception {
+    int[] paragraphCounts = new int[] {100, 1_000, 5_000};
+    int lookupCount = 500;
+    StringBuilder results = new StringBuilder();
+    for (int paragraphCount : paragraphCounts) {
+      byte[] document = createDocument(paragraphCount);
+      long decodeNs = 0;
+      long firstLookupNs = 0;
+      long repeatedLookupNs = 0;
+      for (int run = 0; run < 3; run++) {
+        long startTimeNs = System.nanoTime();
+        Subtitle subtitle = decoder.decode(document, document.length, /* reset= */ false);
+        decodeNs = System.nanoTime() - startTimeNs;
+        int eventTimeCount = subtitle.getEventTimeCount();
+        long[] lookupTimesUs = new long[Math.min(lookupCount, eventTimeCount)];
+        for (int i = 0; i < lookupTimesUs.length; i++) {
+          int eventTimeIndex = (int) ((long) i * eventTimeCount / lookupTimesUs.length);
+          lookupTimesUs[i] = subtitle.getEventTime(eventTimeIndex);
+        }
+        startTimeNs = System.nanoTime();
+        for (long timeUs : lookupTimesUs) {
+          subtitle.getCues(timeUs);
+        }
+        firstLookupNs = (System.nanoTime() - startTimeNs) / lookupTimesUs.length;
+        startTimeNs = System.nanoTime();
+        for (long timeUs : lookupTimesUs) {
+          subtitle.getCues(timeUs);
+        }
+        repeatedLookupNs = (System.nanoTime() - startTimeNs) / lookupTimesUs.length;
+      }
+      results
+          .append(results.length() == 0 ? "" : "; ")
+          .append(paragraphCount)
+          .append(" paragraphs (")
+          .append(document.length / 1024)
+          .append(" KiB): decode ")
+          .append(decodeNs / 1_000_000)
+          .append(" ms, first lookup ")
+          .append(firstLookupNs / 1000)
+          .append(" us, repeated lookup ")
+          .append(repeatedLookupNs)
+          .append(" ns");
+    }
+    System.out.println("TtmlSubtitle, " + results);
+  }
+
+  private Subtitle decode(int paragraphCount) throws Exception {
+    byte[] document = createDocument(paragraphCount);
+    return decoder.decode(document, document.length, /* reset= */ false);
+  }
+
+  /**
+   * Returns a document with a single div of paragraphs that overlap some of the next, and that each
+   * reference one of {@link #STYLE_COUNT} colored styles, which in turn reference a bold style.
+   */
+  private static byte[] createDocument(int paragraphCount) {
+    StringBuilder document = new StringBuilder();
+    document
+        .append("<tt xmlns=\"http://www.w3.org/ns/ttml\"")
+        .append(" xmlns:tts=\"http://www.w3.org/ns/ttml#styling\">")
+        .append("<head><styling><style xml:id=\"base\" tts:fontWeight=\"bold\"/>");
+    for (int i = 0; i < STYLE_COUNT; i++) {
+      document
+          .append("<style xml:id=\"s")
+          .append(i)
+          .append("\" style=\"base\" tts:color=\"#")
+          .append(String.format("%06x", getColor(i) & 0xFFFFFF))
+          .append("\"/>");
+    }
+    document.append("</styling></head><body><div>");
+    for (int i = 0; i < paragraphCount; i++) {
+      document
+          .append("<p begin=\"")
+          .append(getStartTimeUs(i) / 1000)
+          .append("ms\" end=\"")
+          .append(getEndTimeUs(i) / 1000)
+          .append("ms\" style=\"s")
+          .append(i % STYLE_COUNT)
+          .append("\">Paragraph ")
+          .append(i)
+          .append("<br/><span tts:fontStyle=\"italic\">continued</span></p>");
+    }
+    document.append("</div></body></tt>");
+    return Util.getUtf8Bytes(document.toString());
+  }
+
+  private static long getStartTimeUs(int paragraph) {
+    // Multiples of 125 ms, which the decoder parses to exact microseconds.
+    return paragraph * 2 * C.MICROS_PER_SECOND + (paragraph % 7) * 125_000;
+  }
+
+  private static long getEndTimeUs(int paragraph) {
+    return getStartTimeUs(paragraph) + 1_500_000 + (paragraph % 5) * 625_000;
+  }
+
+  private static int getColor(int styleIndex) {
+    return 0xFF000000 | ((styleIndex + 1) * 0x102030);
+  }
+
+  private static List<Integer> listOf(int... values) {
+    List<Integer> list = new ArrayList<>();
+    for (int value : values) {
+      list.add(value);
+    }
+    return list;
+  }
+
+  private static void assertParagraphs(List<Integer> expectedParagraphs, List<Cue> cues) {
+    if (expectedParagraphs.isEmpty()) {
+      assertTrue(cues.isEmpty());
+      return;
+    }
+    assertEquals(1, cues.size());
+    Spanned text = (Spanned) cues.get(0).text;
+    List<Integer> paragraphs = new ArrayList<>();
+    Matcher matcher = PARAGRAPH_PATTERN.matcher(text);
+    while (matcher.find()) {
+      int paragraph = Integer.parseInt(matcher.group(1));
+      paragraphs.add(paragraph);
+      ForegroundColorSpan[] colorSpans =
+          text.getSpans(matcher.start(), matcher.end(), ForegroundColorSpan.class);
+      assertEquals(1, colorSpans.length);
+      assertEquals(getColor(paragraph % STYLE_COUNT), colorSpans[0].getForegroundColor());
+      StyleSpan[] styleSpans = text.getSpans(matcher.start(), matcher.end(), StyleSpan.class);
+      assertEquals(1, styleSpans.length);
+      assertEquals(Typeface.BOLD, styleSpans[0].getStyle());
+    }
+    assertEquals(expectedParagraphs, paragraphs);
+  }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.migu.player.text.webvtt;
+
+import com.migu.player.C;
+import com.migu.player.text.Cue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Unit tests for {@link WebvttSubtitle}, including a benchmark of the cost of a cue lookup against
+ * the number of cues.
+ */
+public final class WebvttSubtitleTest {
+
+  @Test
+  public void getCues_overlappingCues_matchesLinearScan() {
+    Random random = new Random(/* seed= */ 0);
+    for (int iteration = 0; iteration < 20; iteration++) {
+      List<WebvttCueInfo> cueInfos = new ArrayList<>();
+      int cueCount = 1 + random.nextInt(200);
+      for (int i = 0; i < cueCount; i++) {
+        // Some cues share start or end times.
+        long startTimeUs = random.nextInt(400) * C.MICROS_PER_SECOND / 4 + random.nextInt(2);
+        long endTimeUs = startTimeUs + 1 + random.nextInt(10 * (int) C.MICROS_PER_SECOND);
+        boolean setLine = random.nextBoolean();
+        cueInfos.add(createCueInfo(i, startTimeUs, endTimeUs, setLine));
+      }
+      WebvttSubtitle subtitle = new WebvttSubtitle(cueInfos);
+
+      for (int i = 0; i < subtitle.getEventTimeCount(); i++) {
+        long eventTimeUs = subtitle.getEventTime(i);
+        for (long timeUs = eventTimeUs - 1; timeUs <= eventTimeUs + 1; timeUs++) {
+          assertCuesEqual(getCuesByLinearScan(cueInfos, timeUs), subtitle.getCues(timeUs));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void getCues_withinEventTimeInterval_returnsCachedList() {
+    List<WebvttCueInfo> cueInfos = new ArrayList<>();
+    cueInfos.add(createCueInfo(/* index= */ 0, /* startTimeUs= */ 0, /* endTimeUs= */ 3_000_000));
+    cueInfos.add(createCueInfo(/* index= */ 1, 1_000_000, 2_000_000));
+    WebvttSubtitle subtitle = new WebvttSubtitle(cueInfos);
+
+    List<Cue> cues = subtitle.getCues(/* timeUs= */ 1_000_000);
+    assertEquals(2, cues.size());
+    assertSame(cues, subtitle.getCues(/* timeUs= */ 1_999_999));
+    assertEquals(1, subtitle.getCues(/* timeUs= */ 2_000_000).size());
+  }
+
+  /**
+   * Measures the cost of the first and of repeated cue lookups by {@link WebvttSubtitle} and by
+   * the linear scan that it replaced, for subtitles of increasing length in which each cue
+   * overlaps the next, as in a long lecture. The first lookups are at event times spread over the
+   * subtitle, as {@code TextRenderer} makes at each event time during playback.
+   */
+  @Test
+  public void getCues_measureLookupCostAgainstCueCount() {
+    int[] cueCounts = new int[] {100, 1_000, 10_000, 50_000};
+    int lookupCount = 1_000;
+    StringBuilder results = new StringBuilder();
+    for (int cueCount : cueCounts) {
+      List<WebvttCueInfo> cueInfos = new ArrayList<>();
+      for (int i = 0; i < cueCount; i++) {
+        long startTimeUs = i * 2_500_000L;
+        cueInfos.add(
+            createCueInfo(i, startTimeUs, startTimeUs + 3_000_000, /* setLine= */ i % 4 == 0));
+      }
+      long firstLookupNs = 0;
+      long repeatedLookupNs = 0;
+      long linearScanNs = 0;
+      long constructionNs = 0;
+      for (int run = 0; run < 3; run++) {
+        long startTimeNs = System.nanoTime();
+        WebvttSubtitle subtitle = new WebvttSubtitle(cueInfos);
+        constructionNs = System.nanoTime() - startTimeNs;
+        int eventTimeCount = subtitle.getEventTimeCount();
+        long[] lookupTimesUs = new long[Math.min(lookupCount, eventTimeCount)];
+        for (int i = 0; i < lookupTimesUs.length; i++) {
+          int eventTimeIndex = (int) ((long) i * eventTimeCount / lookupTimesUs.length);
+          lookupTimesUs[i] = subtitle.getEventTime(eventTimeIndex);
+        }
+        List<List<Cue>> lookedUpCues = new ArrayList<>();
+        startTimeNs = System.nanoTime();
+        for (long timeUs : lookupTimesUs) {
+          lookedUpCues.add(subtitle.getCues(timeUs));
+        }
+        firstLookupNs = (System.nanoTime() - startTimeNs) / lookupTimesUs.length;
+        startTimeNs = System.nanoTime();
+        for (long timeUs : lookupTimesUs) {
+          subtitle.getCues(timeUs);
+        }
+        repeatedLookupNs = (System.nanoTime() - startTimeNs) / lookupTimesUs.length;
+        List<List<Cue>> scannedCues = new ArrayList<>();
+        startTimeNs = System.nanoTime();
+        for (long timeUs : lookupTimesUs) {
+          scannedCues.add(getCuesByLinearScan(cueInfos, timeUs));
+        }
+        linearScanNs = (System.nanoTime() - startTimeNs) / lookupTimesUs.length;
+        for (int i = 0; i < lookupTimesUs.length; i++) {
+          assertCuesEqual(scannedCues.get(i), lookedUpCues.get(i));
+        }
+      }
+      results
+          .append(results.length() == 0 ? "" : "; ")
+          .append(cueCount)
+          .append(" cues: index built in ")
+          .append(constructionNs / 1000)
+          .append(" us, first lookup ")
+          .append(firstLookupNs)
+          .append(" ns, repeated lookup ")
+          .append(repeatedLookupNs)
+          .append(" ns, linear scan ")
+          .append(linearScanNs)
+          .append(" ns");
+    }
+    System.out.println("WebvttSubtitle, mean cost per lookup: " + results);
+  }
+
+  private static WebvttCueInfo createCueInfo(int index, long startTimeUs, long endTimeUs) {
+    return createCueInfo(index, startTimeUs, endTimeUs, /* setLine= */ false);
+  }
+
+  private static WebvttCueInfo createCueInfo(
+      int index, long startTimeUs, long endTimeUs, boolean setLine) {
+    Cue.Builder cueBuilder = new Cue.Builder().setText("cue " + index);
+    if (setLine) {
+      cueBuilder.setLine(/* line= */ index % 10, Cue.LINE_TYPE_NUMBER);
+    }
+    return new WebvttCueInfo(cueBuilder.build(), startTimeUs, endTimeUs);
+  }
+
+  /** Returns the cues active at {@code timeUs} as {@link WebvttSubtitle} used to find them. */
+  private static List<Cue> getCuesByLinearScan(List<WebvttCueInfo> cueInfos, long timeUs) {
+    List<Cue> currentCues = new ArrayList<>();
+    List<WebvttCueInfo> cuesWithUnsetLine = new ArrayList<>();
+    for (int i = 0; i < cueInfos.size(); i++) {
+      WebvttCueInfo cueInfo = cueInfos.get(i);
+      if (cueInfo.startTimeUs <= timeUs && timeUs < cueInfo.endTimeUs) {
+        if (cueInfo.cue.line == Cue.DIMEN_UNSET) {
+          cuesWithUnsetLine.add(cueInfo);
+        } else {
+          currentCues.add(cueInfo.cue);
+        }
+      }
+    }
+    Collections.sort(
+        cuesWithUnsetLine,
+        new Comparator<WebvttCueInfo>() {
+          @Override
+          public int compare(WebvttCueInfo c1, WebvttCueInfo c2) {
+            return Long.compare(c1.startTimeUs, c2.startTimeUs);
+          }
+        });
+    for (int i = 0; i < cuesWithUnsetLine.size(); i++) {
+      Cue cue = cuesWithUnsetLine.get(i).cue;
+      currentCues.add(cue.buildUpon().setLine((float) (-1 - i), Cue.LINE_TYPE_NUMBER).build());
+    }
+    return currentCues;
+  }
+
+  private static void assertCuesEqual(List<Cue> expected, List<Cue> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(expected.get(i).text, actual.get(i).text);
+      assertEquals(expected.get(i).line, actual.get(i).line, /* delta= */ 0);
+      assertEquals(expected.get(i).lineType, actual.get(i).lineType);
+    }
+  }
+}
@@ -0,0 +1,378 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.migu.player.trackselection;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.Nullable;
+
+import com.migu.player.C;
+import com.migu.player.Format;
+import com.migu.player.source.TrackGroup;
+import com.migu.player.source.chunk.MediaChunk;
+import com.migu.player.source.chunk.MediaChunkIterator;
+import com.migu.player.upstream.BandwidthEstimator;
+import com.migu.player.upstream.BandwidthMeter;
+import com.migu.player.upstream.SlidingPercentileBandwidthEstimator;
+import com.migu.player.upstream.TransferListener;
+import com.migu.player.util.Clock;
+import com.migu.player.util.HandlerWrapper;
+import com.migu.player.util.MimeTypes;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link BufferBasedTrackSelection}, including a simulation of playback over a
+ * congested network that compares it with {@link AdaptiveTrackSelection}.
+ */
+public final class BufferBasedTrackSelectionTest {
+
+  private static final int[] BITRATES =
+      new int[] {300_000, 750_000, 1_500_000, 3_000_000, 6_000_000};
+  private static final long CHUNK_DURATION_MS = 4000;
+  private static final long MAX_BUFFER_MS = 50_000;
+  private static final int CHUNK_COUNT = 150;
+
+  private static final List<MediaChunk> EMPTY_QUEUE = Collections.emptyList();
+
+  @Test
+  public void updateSelectedTrack_belowMinBuffer_selectsFromBandwidth() {
+    FakeBandwidthMeter bandwidthMeter = new FakeBandwidthMeter(/* bitrateEstimate= */ 2_500_000);
+    BufferBasedTrackSelection selection = createBufferBasedTrackSelection(bandwidthMeter);
+    updateSelectedTrack(selection, /* bufferedDurationMs= */ 0);
+
+    updateSelectedTrack(selection, /* bufferedDurationMs= */ 5000);
+
+    // 70% of 2.5 Mbps sustains 1.5 Mbps.
+    assertEquals(1_500_000, selection.getSelectedFormat().bitrate);
+  }
+
+  @Test
+  public void updateSelectedTrack_justAboveMinBuffer_selectsLowestBitrate() {
+    FakeBandwidthMeter bandwidthMeter = new FakeBandwidthMeter(/* bitrateEstimate= */ 100_000_000);
+    BufferBasedTrackSelection selection = createBufferBasedTrackSelection(bandwidthMeter);
+    updateSelectedTrack(selection, /* bufferedDurationMs= */ 0);
+
+    updateSelectedTrack(selection, /* bufferedDurationMs= */ 10_001);
+
+    assertEquals(300_000, selection.getSelectedFormat().bitrate);
+    assertEquals(C.SELECTION_REASON_ADAPTIVE, selection.getSelectionReason());
+  }
+
+  @Test
+  public void updateSelectedTrack_atBufferTarget_selectsHighestBitrate() {
+    FakeBandwidthMeter bandwidthMeter = new FakeBandwidthMeter(/* bitrateEstimate= */ 100_000_000);
+    BufferBasedTrackSelection selection = createBufferBasedTrackSelection(bandwidthMeter);
+    updateSelectedTrack(selection, /* bufferedDurationMs= */ 0);
+
+    updateSelectedTrack(selection, /* bufferedDurationMs= */ 40_000);
+
+    assertEquals(6_000_000, selection.getSelectedFormat().bitrate);
+  }
+
+  @Test
+  public void updateSelectedTrack_atBufferTarget_doesNotSwitchUpBeyondBandwidth() {
+    FakeBandwidthMeter bandwidthMeter = new FakeBandwidthMeter(/* bitrateEstimate= */ 1_200_000);
+    BufferBasedTrackSelection selection = createBufferBasedTrackSelection(bandwidthMeter);
+    updateSelectedTrack(selection, /* bufferedDurationMs= */ 0);
+
+    updateSelectedTrack(selection, /* bufferedDurationMs= */ 40_000);
+
+    // 70% of 1.2 Mbps sustains 750 kbps, which was also the initial selection.
+    assertEquals(750_000, selection.getSelectedFormat().bitrate);
+  }
+
+  @Test
+  public void simulateCongestedNetwork_performsLikeAdaptiveTrackSelection() {
+    long[] bandwidthTrace = createCongestedBandwidthTrace(/* seed= */ 0, /* durationS= */ 1200);
+    FakeClock adaptiveClock = new FakeClock();
+    SimulatedBandwidthMeter adaptiveBandwidthMeter = new SimulatedBandwidthMeter();
+    SimulationResult adaptiveResult =
+        simulate(
+            new AdaptiveTrackSelection(
+                createTrackGroup(),
+                createTracks(),
+                adaptiveBandwidthMeter,
+                /* reservedBandwidth= */ 0,
+                AdaptiveTrackSelection.DEFAULT_MIN_DURATION_FOR_QUALITY_INCREASE_MS,
+                AdaptiveTrackSelection.DEFAULT_MAX_DURATION_FOR_QUALITY_DECREASE_MS,
+                AdaptiveTrackSelection.DEFAULT_MIN_DURATION_TO_RETAIN_AFTER_DISCARD_MS,
+                AdaptiveTrackSelection.DEFAULT_BANDWIDTH_FRACTION,
+                AdaptiveTrackSelection.DEFAULT_BUFFERED_FRACTION_TO_LIVE_EDGE_FOR_QUALITY_INCREASE,
+                adaptiveClock),
+            bandwidthTrace,
+            adaptiveBandwidthMeter,
+            adaptiveClock);
+    FakeClock bufferBasedClock = new FakeClock();
+    SimulatedBandwidthMeter bufferBasedBandwidthMeter = new SimulatedBandwidthMeter();
+    SimulationResult bufferBasedResult =
+        simulate(
+            new BufferBasedTrackSelection(
+                createTrackGroup(),
+                createTracks(),
+                bufferBasedBandwidthMeter,
+                BufferBasedTrackSelection.DEFAULT_MIN_BUFFER_MS,
+                BufferBasedTrackSelection.DEFAULT_BUFFER_TARGET_MS,
+                BufferBasedTrackSelection.DEFAULT_BANDWIDTH_FRACTION,
+                bufferBasedClock),
+            bandwidthTrace,
+            bufferBasedBandwidthMeter,
+            bufferBasedClock);
+
+    System.out.println("AdaptiveTrackSelection: " + adaptiveResult);
+    System.out.println("BufferBasedTrackSelection: " + bufferBasedResult);
+    assertTrue(bufferBasedResult.rebufferRatio <= adaptiveResult.rebufferRatio + 0.01);
+    assertTrue(bufferBasedResult.averageBitrate >= adaptiveResult.averageBitrate * 0.9);
+  }
+
+  private static BufferBasedTrackSelection createBufferBasedTrackSelection(
+      BandwidthMeter bandwidthMeter) {
+    return new BufferBasedTrackSelection(
+        createTrackGroup(),
+        createTracks(),
+        bandwidthMeter,
+        BufferBasedTrackSelection.DEFAULT_MIN_BUFFER_MS,
+        BufferBasedTrackSelection.DEFAULT_BUFFER_TARGET_MS,
+        BufferBasedTrackSelection.DEFAULT_BANDWIDTH_FRACTION,
+        new FakeClock());
+  }
+
+  private static void updateSelectedTrack(TrackSelection selection, long bufferedDurationMs) {
+    selection.updateSelectedTrack(
+        /* playbackPositionUs= */ 0,
+        C.msToUs(bufferedDurationMs),
+        /* availableDurationUs= */ C.TIME_UNSET,
+        EMPTY_QUEUE,
+        createMediaChunkIterators());
+  }
+
+  private static TrackGroup createTrackGroup() {
+    Format[] formats = new Format[BITRATES.length];
+    for (int i = 0; i < BITRATES.length; i++) {
+      formats[i] =
+          new Format.Builder()
+              .setSampleMimeType(MimeTypes.VIDEO_H264)
+              .setAverageBitrate(BITRATES[i])
+              .build();
+    }
+    return new TrackGroup(formats);
+  }
+
+  private static int[] createTracks() {
+    int[] tracks = new int[BITRATES.length];
+    for (int i = 0; i < tracks.length; i++) {
+      tracks[i] = i;
+    }
+    return tracks;
+  }
+
+  private static MediaChunkIterator[] createMediaChunkIterators() {
+    MediaChunkIterator[] iterators = new MediaChunkIterator[BITRATES.length];
+    for (int i = 0; i < iterators.length; i++) {
+      iterators[i] = MediaChunkIterator.EMPTY;
+    }
+    return iterators;
+  }
+
+  /**
+   * Creates a trace of the bandwidth in each second, which alternates between congested and
+   * uncongested periods of 5 to 30 seconds and varies by up to 40% from second to second.
+   */
+  private static long[] createCongestedBandwidthTrace(long seed, int durationS) {
+    Random random = new Random(seed);
+    long[] bandwidths = new long[durationS];
+    boolean congested = false;
+    int periodEndS = 0;
+    for (int i = 0; i < durationS; i++) {
+      if (i == periodEndS) {
+        congested = !congested;
+        periodEndS = i + 5 + random.nextInt(26);
+      }
+      long meanBandwidth = congested ? 1_200_000 : 5_000_000;
+      bandwidths[i] = (long) (meanBandwidth * (0.6 + 0.8 * random.nextDouble()));
+    }
+    return bandwidths;
+  }
+
+  /**
+   * Simulates the playback of {@link #CHUNK_COUNT} chunks, downloaded one after the other while
+   * less than {@link #MAX_BUFFER_MS} is buffered.
+   */
+  private static SimulationResult simulate(
+      TrackSelection selection,
+      long[] bandwidthTrace,
+      SimulatedBandwidthMeter bandwidthMeter,
+      FakeClock clock) {
+    double timeMs = 0;
+    double bufferedDurationMs = 0;
+    double rebufferingMs = 0;
+    long totalBitrate = 0;
+    int switchCount = 0;
+    int previousBitrate = C.LENGTH_UNSET;
+    for (int chunk = 0; chunk < CHUNK_COUNT; chunk++) {
+      if (bufferedDurationMs > MAX_BUFFER_MS - CHUNK_DURATION_MS) {
+        double idleMs = bufferedDurationMs - (MAX_BUFFER_MS - CHUNK_DURATION_MS);
+        timeMs += idleMs;
+        bufferedDurationMs -= idleMs;
+      }
+      clock.timeMs = (long) timeMs;
+      selection.updateSelectedTrack(
+          /* playbackPositionUs= */ 0,
+          C.msToUs((long) bufferedDurationMs),
+          /* availableDurationUs= */ C.TIME_UNSET,
+          EMPTY_QUEUE,
+          createMediaChunkIterators());
+      int bitrate = selection.getSelectedFormat().bitrate;
+      long chunkBytes = bitrate * CHUNK_DURATION_MS / 8000;
+
+      // Download the chunk at the bandwidth of each second of the trace.
+      double downloadMs = 0;
+      double remainingBits = chunkBytes * 8d;
+      while (remainingBits > 0) {
+        double now = timeMs + downloadMs;
+        long bandwidth = bandwidthTrace[(int) (now / 1000) % bandwidthTrace.length];
+        double msToSecondEnd = 1000 - now % 1000;
+        double bitsToSecondEnd = bandwidth * msToSecondEnd / 1000;
+        if (bitsToSecondEnd >= remainingBits) {
+          downloadMs += remainingBits * 1000 / bandwidth;
+          remainingBits = 0;
+        } else {
+          downloadMs += msToSecondEnd;
+          remainingBits -= bitsToSecondEnd;
+        }
+      }
+      timeMs += downloadMs;
+      bandwidthMeter.estimator.addSample(chunkBytes, Math.max(1, (long) downloadMs));
+
+      if (chunk > 0) {
+        rebufferingMs += Math.max(0, downloadMs - bufferedDurationMs);
+        bufferedDurationMs = Math.max(0, bufferedDurationMs - downloadMs);
+        if (bitrate != previousBitrate) {
+          switchCount++;
+        }
+      }
+      bufferedDurationMs += CHUNK_DURATION_MS;
+      totalBitrate += bitrate;
+      previousBitrate = bitrate;
+    }
+    return new SimulationResult(
+        rebufferingMs / (CHUNK_COUNT * CHUNK_DURATION_MS),
+        totalBitrate / CHUNK_COUNT,
+        switchCount);
+  }
+
+  private static final class SimulationResult {
+
+    public final double rebufferRatio;
+    public final long averageBitrate;
+    public final int switchCount;
+
+    public SimulationResult(double rebufferRatio, long averageBitrate, int switchCount) {
+      this.rebufferRatio = rebufferRatio;
+      this.averageBitrate = averageBitrate;
+      this.switchCount = switchCount;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "rebuffer ratio %.2f%%, average bitrate %d, %d switches",
+          rebufferRatio * 100, averageBitrate, switchCount);
+    }
+  }
+
+  private static final class FakeClock implements Clock {
+
+    public long timeMs;
+
+    @Override
+    public long currentTimeMillis() {
+      return timeMs;
+    }
+
+    @Override
+    public long elapsedRealtime() {
+      return timeMs;
+    }
+
+    @Override
+    public long uptimeMillis() {
+      return timeMs;
+    }
+
+    @Override
+    public void sleep(long sleepTimeMs) {
+      timeMs += sleepTimeMs;
+    }
+
+    @Override
+    public HandlerWrapper createHandler(Looper looper, @Nullable Handler.Callback callback) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  private static class FakeBandwidthMeter implements BandwidthMeter {
+
+    private final long bitrateEstimate;
+
+    public FakeBandwidthMeter(long bitrateEstimate) {
+      this.bitrateEstimate = bitrateEstimate;
+    }
+
+    @Override
+    public long getBitrateEstimate() {
+      return bitrateEstimate;
+    }
+
+    @Override
+    @Nullable
+    public TransferListener getTransferListener() {
+      return null;
+    }
+
+    @Override
+    public void addEventListener(Handler eventHandler, EventListener eventListener) {}
+
+    @Override
+    public void removeEventListener(EventListener eventListener) {}
+  }
+
+  /** A bandwidth meter whose estimate is computed from the simulated chunk downloads. */
+  private static final class SimulatedBandwidthMeter extends FakeBandwidthMeter {
+
+    public final BandwidthEstimator estimator;
+
+    public SimulatedBandwidthMeter() {
+      super(/* bitrateEstimate= */ 1_000_000);
+      estimator = new SlidingPercentileBandwidthEstimator();
+    }
+
+    @Override
+    public long getBitrateEstimate() {
+      long estimate = estimator.getBandwidthEstimate();
+      return estimate != BandwidthEstimator.ESTIMATE_NOT_AVAILABLE
+          ? estimate
+          : super.getBitrateEstimate();
+    }
+  }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.migu.player.upstream;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the {@link BandwidthEstimator} implementations, including a replay of a transfer
+ * trace that reports the estimate error and compute cost per sample of each estimator.
+ */
+public final class BandwidthEstimatorTest {
+
+  /** The number of samples after a bandwidth change that aren't counted towards the error. */
+  private static final int SAMPLES_TO_CONVERGE = 40;
+
+  @Test
+  public void getBandwidthEstimate_withoutSamples_returnsEstimateNotAvailable() {
+    for (BandwidthEstimator estimator : createEstimators()) {
+      assertEquals(BandwidthEstimator.ESTIMATE_NOT_AVAILABLE, estimator.getBandwidthEstimate());
+    }
+  }
+
+  @Test
+  public void getBandwidthEstimate_afterReset_returnsEstimateNotAvailable() {
+    for (BandwidthEstimator estimator : createEstimators()) {
+      estimator.addSample(/* bytesTransferred= */ 1000, /* elapsedMs= */ 10);
+
+      estimator.reset();
+
+      assertEquals(BandwidthEstimator.ESTIMATE_NOT_AVAILABLE, estimator.getBandwidthEstimate());
+    }
+  }
+
+  @Test
+  public void getBandwidthEstimate_withConstantBitrate_returnsBitrate() {
+    for (BandwidthEstimator estimator : createEstimators()) {
+      for (int i = 0; i < 20; i++) {
+        // 125_000 bytes per second is 1_000_000 bits per second.
+        estimator.addSample(
+            /* bytesTransferred= */ 12_500 * (i + 1), /* elapsedMs= */ 100 * (i + 1));
+      }
+
+      assertEquals(1_000_000, estimator.getBandwidthEstimate(), /* delta= */ 1);
+    }
+  }
+
+  @Test
+  public void ewmaEstimate_decaysByHalfPerHalfLife() {
+    EwmaBandwidthEstimator estimator = new EwmaBandwidthEstimator(/* halfLifeMs= */ 1000);
+    estimator.addSample(/* bytesTransferred= */ 100_000, /* elapsedMs= */ 100_000);
+
+    // A sample of one half life at 9000 bps moves the estimate half way from 8000 to 9000 bps.
+    estimator.addSample(/* bytesTransferred= */ 1125, /* elapsedMs= */ 1000);
+
+    assertEquals(8500, estimator.getBandwidthEstimate(), /* delta= */ 1);
+  }
+
+  @Test
+  public void slidingWindowEstimate_discardsSamplesOutsideWindow() {
+    SlidingWindowBandwidthEstimator estimator =
+        new SlidingWindowBandwidthEstimator(/* windowMs= */ 1000);
+    estimator.addSample(/* bytesTransferred= */ 1000, /* elapsedMs= */ 1000);
+    estimator.addSample(/* bytesTransferred= */ 2000, /* elapsedMs= */ 500);
+    // The window without the first sample still covers 1000 ms, so the first sample is discarded.
+    estimator.addSample(/* bytesTransferred= */ 4000, /* elapsedMs= */ 500);
+
+    assertEquals((6000 * 8000) / 1000, estimator.getBandwidthEstimate());
+  }
+
+  @Test
+  public void slidingPercentileEstimate_returnsWeightedMedian() {
+    SlidingPercentileBandwidthEstimator estimator = new SlidingPercentileBandwidthEstimator();
+    estimator.addSample(/* bytesTransferred= */ 100, /* elapsedMs= */ 1);
+    estimator.addSample(/* bytesTransferred= */ 10_000, /* elapsedMs= */ 1000);
+    estimator.addSample(/* bytesTransferred= */ 400, /* elapsedMs= */ 1);
+
+    // The samples are weighted 10, 100 and 20, so the median is the bitrate of the second one.
+    assertEquals(80_000, estimator.getBandwidthEstimate());
+  }
+
+  @Test
+  public void replayTrace_estimatesFollowBandwidth() {
+    Trace trace = createTrace(/* seed= */ 0);
+    for (BandwidthEstimator estimator : createEstimators()) {
+      TraceResult result = replay(trace, estimator);
+      System.out.printf(
+          "%s: mean error %.1f%%, %.0f ns per sample%n",
+          estimator.getClass().getSimpleName(),
+          result.meanRelativeError * 100,
+          result.nanosPerSample);
+      assertTrue(
+          estimator.getClass().getSimpleName() + " error " + result.meanRelativeError,
+          result.meanRelativeError < 0.15);
+    }
+  }
+
+  private static BandwidthEstimator[] createEstimators() {
+    return new BandwidthEstimator[] {
+      new EwmaBandwidthEstimator(),
+      new SlidingWindowBandwidthEstimator(),
+      new SlidingPercentileBandwidthEstimator()
+    };
+  }
+
+  /**
+   * Creates a trace of transfers over a link whose bandwidth steps between 4, 1 and 8 Mbps. The
+   * throughput of each transfer varies by up to 30% around the bandwidth.
+   */
+  private static Trace createTrace(long seed) {
+    Random random = new Random(seed);
+    long[] bandwidths = new long[] {4_000_000, 1_000_000, 8_000_000};
+    int samplesPerStep = 200;
+    Trace trace = new Trace(bandwidths.length * samplesPerStep);
+    for (int i = 0; i < trace.bytesTransferred.length; i++) {
+      long bandwidth = bandwidths[i / samplesPerStep];
+      long bytesTransferred = 50_000 + random.nextInt(250_000);
+      double throughput = bandwidth * (0.7 + 0.6 * random.nextDouble());
+      trace.bandwidths[i] = bandwidth;
+      trace.bytesTransferred[i] = bytesTransferred;
+      trace.elapsedMs[i] = Math.max(1, (long) (bytesTransferred * 8000 / throughput));
+      trace.converged[i] = i % samplesPerStep >= SAMPLES_TO_CONVERGE;
+    }
+    return trace;
+  }
+
+  private static TraceResult replay(Trace trace, BandwidthEstimator estimator) {
+    double totalRelativeError = 0;
+    int errorCount = 0;
+    long totalNanos = 0;
+    for (int i = 0; i < trace.bytesTransferred.length; i++) {
+      long startNanos = System.nanoTime();
+      estimator.addSample(trace.bytesTransferred[i], trace.elapsedMs[i]);
+      long estimate = estimator.getBandwidthEstimate();
+      totalNanos += System.nanoTime() - startNanos;
+      if (trace.converged[i]) {
+        totalRelativeError +=
+            Math.abs(estimate - trace.bandwidths[i]) / (double) trace.bandwidths[i];
+        errorCount++;
+      }
+    }
+    return new TraceResult(
+        totalRelativeError / errorCount, totalNanos / (double) trace.bytesTransferred.length);
+  }
+
+  /** A trace of transfers and the bandwidth of the link during each of them. */
+  private static final class Trace {
+
+    public final long[] bandwidths;
+    public final long[] bytesTransferred;
+    public final long[] elapsedMs;
+    public final boolean[] converged;
+
+    public Trace(int sampleCount) {
+      bandwidths = new long[sampleCount];
+      bytesTransferred = new long[sampleCount];
+      elapsedMs = new long[sampleCount];
+      converged = new boolean[sampleCount];
+    }
+  }
+
+  private static final class TraceResult {
+
+    public final double meanRelativeError;
+    public final double nanosPerSample;
+
+    public TraceResult(double meanRelativeError, double nanosPerSample) {
+      this.meanRelativeError = meanRelativeError;
+      this.nanosPerSample = nanosPerSample;
+    }
+  }
+}
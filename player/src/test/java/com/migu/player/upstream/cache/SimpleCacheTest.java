@@ -0,0 +1,318 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.migu.player.upstream.cache;
+
+import android.support.annotation.Nullable;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the deferred verification of cache files by {@link SimpleCache}, including a
+ * benchmark of the time until the first cached span of a reopened cache can be read.
+ */
+public final class SimpleCacheTest {
+
+  private static final int SPAN_LENGTH = 4096;
+  private static final String KEY = "key";
+
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void deferredVerification_indexedSpansAreReadableBeforeVerification() throws Exception {
+    File cacheDir = temporaryFolder.newFolder();
+    HashMap<String, CacheFileMetadata> database = new HashMap<>();
+    SimpleCache cache = createCache(cacheDir, database, /* verificationExecutor= */ null);
+    writeSpans(cache, KEY, /* spanCount= */ 3);
+    cache.release();
+
+    ManualExecutor executor = new ManualExecutor();
+    cache = createCache(cacheDir, database, executor);
+
+    assertTrue(cache.isVerificationPending());
+    CacheSpan span = cache.startReadWrite(KEY, /* position= */ 0, SPAN_LENGTH);
+    assertTrue(span.isCached);
+    assertEquals(0, readFirstByte(span));
+    executor.runAll();
+    assertFalse(cache.isVerificationPending());
+    assertEquals(3 * SPAN_LENGTH, cache.getCachedBytes(KEY, /* position= */ 0, Long.MAX_VALUE));
+    cache.release();
+  }
+
+  @Test
+  public void deferredVerification_removesTruncatedFilesAndAddsUnindexedFiles() throws Exception {
+    File cacheDir = temporaryFolder.newFolder();
+    HashMap<String, CacheFileMetadata> database = new HashMap<>();
+    SimpleCache cache = createCache(cacheDir, database, /* verificationExecutor= */ null);
+    writeSpans(cache, KEY, /* spanCount= */ 3);
+    File[] spanFiles = getSpanFiles(cache, KEY);
+    cache.release();
+    // Span 1 is truncated after it was indexed, and span 2 was never indexed.
+    try (RandomAccessFile file = new RandomAccessFile(spanFiles[1], "rw")) {
+      file.setLength(SPAN_LENGTH / 2);
+    }
+    database.remove(spanFiles[2].getName());
+
+    ManualExecutor executor = new ManualExecutor();
+    cache = createCache(cacheDir, database, executor);
+    assertTrue(cache.isCached(KEY, SPAN_LENGTH, SPAN_LENGTH));
+    assertFalse(cache.isCached(KEY, 2 * SPAN_LENGTH, SPAN_LENGTH));
+    executor.runAll();
+
+    assertTrue(cache.isCached(KEY, /* position= */ 0, SPAN_LENGTH));
+    assertFalse(cache.isCached(KEY, SPAN_LENGTH, SPAN_LENGTH));
+    assertTrue(cache.isCached(KEY, 2 * SPAN_LENGTH, SPAN_LENGTH));
+    assertTrue(database.containsKey(spanFiles[2].getName()));
+    cache.release();
+  }
+
+  @Test
+  public void deferredVerification_rangeWrittenBeforeVerification_deletesUnindexedFile()
+      throws Exception {
+    File cacheDir = temporaryFolder.newFolder();
+    HashMap<String, CacheFileMetadata> database = new HashMap<>();
+    SimpleCache cache = createCache(cacheDir, database, /* verificationExecutor= */ null);
+    writeSpans(cache, KEY, /* spanCount= */ 1);
+    File spanFile = getSpanFiles(cache, KEY)[0];
+    cache.release();
+    database.clear();
+
+    ManualExecutor executor = new ManualExecutor();
+    cache = createCache(cacheDir, database, executor);
+    // The range is written again before the unindexed file is verified.
+    CacheSpan holeSpan = cache.startReadWrite(KEY, /* position= */ 0, SPAN_LENGTH);
+    assertFalse(holeSpan.isCached);
+    executor.runAll();
+    cache.releaseHoleSpan(holeSpan);
+
+    assertFalse(spanFile.exists());
+    assertFalse(cache.isCached(KEY, /* position= */ 0, SPAN_LENGTH));
+    cache.release();
+  }
+
+  /**
+   * Measures the time from constructing a cache until the first byte of a cached span has been
+   * read, as a player starting playback from the cache would, with verification of the cache
+   * files on the initialization thread and deferred to a background thread.
+   */
+  @Test
+  public void reopenCache_measureTimeToFirstRead() throws Exception {
+    File cacheDir = temporaryFolder.newFolder();
+    HashMap<String, CacheFileMetadata> database = new HashMap<>();
+    int keyCount = 100;
+    int spansPerKey = 20;
+    SimpleCache cache = createCache(cacheDir, database, /* verificationExecutor= */ null);
+    for (int i = 0; i < keyCount; i++) {
+      writeSpans(cache, KEY + i, spansPerKey);
+    }
+    cache.release();
+    HashMap<String, CacheFileMetadata> indexedDatabase = new HashMap<>(database);
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      int rounds = 5;
+      // Scenarios: {file index complete, file index lost} x {verify on init, deferred}.
+      long[][] timesToFirstReadNs = new long[4][rounds];
+      long[] verificationTimesNs = new long[rounds * 2];
+      int missedFirstLookupCount = 0;
+      for (int round = 0; round < rounds; round++) {
+        for (int scenario = 0; scenario < 4; scenario++) {
+          boolean indexed = scenario < 2;
+          boolean deferred = scenario % 2 == 1;
+          database.clear();
+          if (indexed) {
+            database.putAll(indexedDatabase);
+          }
+          long startTimeNs = System.nanoTime();
+          cache = createCache(cacheDir, database, deferred ? executor : null);
+          String key = KEY + (keyCount / 2);
+          // Files missing from the file index can't be read until they have been verified. A
+          // player would load such a range from upstream, which this doesn't measure.
+          if (!cache.isCached(key, /* position= */ 0, /* length= */ 1)) {
+            missedFirstLookupCount++;
+            while (!cache.isCached(key, /* position= */ 0, /* length= */ 1)) {
+              Thread.yield();
+            }
+          }
+          CacheSpan span = cache.startReadWrite(key, /* position= */ 0, /* length= */ 1);
+          assertTrue(span.isCached);
+          readFirstByte(span);
+          timesToFirstReadNs[scenario][round] = System.nanoTime() - startTimeNs;
+          while (cache.isVerificationPending()) {
+            Thread.sleep(1);
+          }
+          if (deferred) {
+            verificationTimesNs[(indexed ? 0 : rounds) + round] = System.nanoTime() - startTimeNs;
+          }
+          assertEquals(keyCount, cache.getKeys().size());
+          cache.release();
+        }
+      }
+      System.out.println(
+          "SimpleCache, "
+              + keyCount * spansPerKey
+              + " files, median time to first read: indexed "
+              + median(timesToFirstReadNs[0]) / 1000
+              + " us verifying on init, "
+              + median(timesToFirstReadNs[1]) / 1000
+              + " us deferred ("
+              + median(Arrays.copyOfRange(verificationTimesNs, 0, rounds)) / 1000
+              + " us until verified); unindexed "
+              + median(timesToFirstReadNs[2]) / 1000
+              + " us verifying on init, "
+              + median(timesToFirstReadNs[3]) / 1000
+              + " us deferred ("
+              + median(Arrays.copyOfRange(verificationTimesNs, rounds, 2 * rounds)) / 1000
+              + " us until verified), "
+              + missedFirstLookupCount
+              + " of "
+              + 4 * rounds
+              + " first lookups missed");
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private static SimpleCache createCache(
+      File cacheDir,
+      HashMap<String, CacheFileMetadata> database,
+      @Nullable Executor verificationExecutor) {
+    return new SimpleCache(
+        cacheDir,
+        new NoOpCacheEvictor(),
+        new CachedContentIndex(
+            /* databaseProvider= */ null,
+            cacheDir,
+            /* legacyStorageSecretKey= */ null,
+            /* legacyStorageEncrypt= */ false,
+            /* preferLegacyStorage= */ false),
+        new FakeCacheFileMetadataIndex(database),
+        verificationExecutor);
+  }
+
+  private static void writeSpans(SimpleCache cache, String key, int spanCount) throws Exception {
+    byte[] data = new byte[SPAN_LENGTH];
+    for (int i = 0; i < spanCount; i++) {
+      long position = (long) i * SPAN_LENGTH;
+      CacheSpan holeSpan = cache.startReadWrite(key, position, SPAN_LENGTH);
+      File file = cache.startFile(key, position, SPAN_LENGTH);
+      Arrays.fill(data, (byte) i);
+      try (FileOutputStream outputStream = new FileOutputStream(file)) {
+        outputStream.write(data);
+      }
+      cache.commitFile(file, SPAN_LENGTH);
+      cache.releaseHoleSpan(holeSpan);
+    }
+  }
+
+  private static File[] getSpanFiles(SimpleCache cache, String key) {
+    NavigableSet<CacheSpan> spans = cache.getCachedSpans(key);
+    File[] files = new File[spans.size()];
+    int i = 0;
+    for (CacheSpan span : spans) {
+      files[i++] = span.file;
+    }
+    return files;
+  }
+
+  private static int readFirstByte(CacheSpan span) throws IOException {
+    try (FileInputStream inputStream = new FileInputStream(span.file)) {
+      return inputStream.read();
+    }
+  }
+
+  private static long median(long[] values) {
+    long[] sortedValues = values.clone();
+    Arrays.sort(sortedValues);
+    return sortedValues[sortedValues.length / 2];
+  }
+
+  /** An {@link Executor} that runs tasks when the test asks it to. */
+  private static final class ManualExecutor implements Executor {
+
+    private final ArrayList<Runnable> tasks = new ArrayList<>();
+
+    @Override
+    public void execute(Runnable task) {
+      tasks.add(task);
+    }
+
+    public void runAll() {
+      while (!tasks.isEmpty()) {
+        tasks.remove(0).run();
+      }
+    }
+  }
+
+  /**
+   * A {@link CacheFileMetadataIndex} kept in a map that outlives the cache, in place of the
+   * database, which needs SQLite.
+   */
+  private static final class FakeCacheFileMetadataIndex extends CacheFileMetadataIndex {
+
+    private final HashMap<String, CacheFileMetadata> database;
+
+    public FakeCacheFileMetadataIndex(HashMap<String, CacheFileMetadata> database) {
+      super(/* databaseProvider= */ null);
+      this.database = database;
+    }
+
+    @Override
+    public void initialize(long uid) {
+      // Do nothing.
+    }
+
+    @Override
+    public Map<String, CacheFileMetadata> getAll() {
+      return new HashMap<>(database);
+    }
+
+    @Override
+    public void set(String name, long length, long lastTouchTimestamp) {
+      database.put(name, new CacheFileMetadata(length, lastTouchTimestamp));
+    }
+
+    @Override
+    public void remove(String name) {
+      database.remove(name);
+    }
+
+    @Override
+    public void removeAll(Set<String> names) {
+      database.keySet().removeAll(names);
+    }
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.migu.player.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Unit tests for {@link SlidingPercentile}. */
+public final class SlidingPercentileTest {
+
+  private static final float[] PERCENTILES = new float[] {0.01f, 0.1f, 0.25f, 0.5f, 0.75f, 1f};
+
+  @Test
+  public void getPercentile_withoutSamples_returnsNaN() {
+    SlidingPercentile slidingPercentile = new SlidingPercentile(/* maxWeight= */ 10);
+
+    assertTrue(Float.isNaN(slidingPercentile.getPercentile(0.5f)));
+  }
+
+  @Test
+  public void getPercentile_afterReset_returnsNaN() {
+    SlidingPercentile slidingPercentile = new SlidingPercentile(/* maxWeight= */ 10);
+    slidingPercentile.addSample(/* weight= */ 1, /* value= */ 5f);
+
+    slidingPercentile.reset();
+
+    assertTrue(Float.isNaN(slidingPercentile.getPercentile(0.5f)));
+  }
+
+  @Test
+  public void getPercentile_reducesWeightOfOldestSample() {
+    SlidingPercentile slidingPercentile = new SlidingPercentile(/* maxWeight= */ 10);
+    slidingPercentile.addSample(/* weight= */ 6, /* value= */ 1f);
+    slidingPercentile.addSample(/* weight= */ 6, /* value= */ 2f);
+
+    // The oldest sample is reduced to a weight of 4, below half of the total weight.
+    assertEquals(2f, slidingPercentile.getPercentile(0.5f), 0f);
+    assertEquals(1f, slidingPercentile.getPercentile(0.4f), 0f);
+  }
+
+  @Test
+  public void getPercentile_withRandomSamples_matchesBruteForce() {
+    Random random = new Random(/* seed= */ 0);
+    for (int iteration = 0; iteration < 20; iteration++) {
+      int maxWeight = 1 + random.nextInt(5000);
+      SlidingPercentile slidingPercentile = new SlidingPercentile(maxWeight);
+      BruteForceSlidingPercentile bruteForce = new BruteForceSlidingPercentile(maxWeight);
+      for (int i = 0; i < 2000; i++) {
+        if (random.nextInt(500) == 0) {
+          slidingPercentile.reset();
+          bruteForce.reset();
+        }
+        int weight = 1 + random.nextInt(random.nextBoolean() ? 10 : 1000);
+        // Draw from a small range of values half of the time, to exercise equal values.
+        float value = random.nextBoolean() ? random.nextInt(8) : random.nextFloat() * 1000;
+        slidingPercentile.addSample(weight, value);
+        bruteForce.addSample(weight, value);
+        for (float percentile : PERCENTILES) {
+          assertEquals(
+              "percentile " + percentile + " after sample " + i,
+              bruteForce.getPercentile(percentile),
+              slidingPercentile.getPercentile(percentile),
+              /* delta= */ 0f);
+        }
+      }
+    }
+  }
+
+  /** The straightforward implementation that sorts all samples for every query. */
+  private static final class BruteForceSlidingPercentile {
+
+    private final int maxWeight;
+    private final List<float[]> samples;
+    private int totalWeight;
+
+    public BruteForceSlidingPercentile(int maxWeight) {
+      this.maxWeight = maxWeight;
+      samples = new ArrayList<>();
+    }
+
+    public void reset() {
+      samples.clear();
+      totalWeight = 0;
+    }
+
+    public void addSample(int weight, float value) {
+      samples.add(new float[] {weight, value});
+      totalWeight += weight;
+      while (totalWeight > maxWeight) {
+        int excessWeight = totalWeight - maxWeight;
+        float[] oldestSample = samples.get(0);
+        if (oldestSample[0] <= excessWeight) {
+          samples.remove(0);
+          totalWeight -= (int) oldestSample[0];
+        } else {
+          oldestSample[0] -= excessWeight;
+          totalWeight -= excessWeight;
+        }
+      }
+    }
+
+    public float getPercentile(float percentile) {
+      List<float[]> sortedSamples = new ArrayList<>(samples);
+      Collections.sort(
+          sortedSamples,
+          new Comparator<float[]>() {
+            @Override
+            public int compare(float[] first, float[] second) {
+              return Float.compare(first[1], second[1]);
+            }
+          });
+      float desiredWeight = percentile * totalWeight;
+      int accumulatedWeight = 0;
+      for (float[] sample : sortedSamples) {
+        accumulatedWeight += (int) sample[0];
+        if (accumulatedWeight >= desiredWeight) {
+          return sample[1];
+        }
+      }
+      return sortedSamples.get(sortedSamples.size() - 1)[1];
+    }
+  }
+}